@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Holds the TurnServerCache of the app, persisted in SharedPreferences.
+ */
+public class AndroidTurnServerCache {
+  private static final String PREFERENCES_NAME = "turn_server_cache";
+  private static TurnServerCache instance;
+
+  private AndroidTurnServerCache() {
+  }
+
+  /** Returns the cache persisted in the preferences of |context|. */
+  public static synchronized TurnServerCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new TurnServerCache(new PreferencesStorage(
+          context.getApplicationContext().getSharedPreferences(
+              PREFERENCES_NAME, Context.MODE_PRIVATE)));
+    }
+    return instance;
+  }
+
+  private static class PreferencesStorage implements TurnServerCache.Storage {
+    private final SharedPreferences preferences;
+
+    PreferencesStorage(SharedPreferences preferences) {
+      this.preferences = preferences;
+    }
+
+    @Override
+    public String get(String key) {
+      return preferences.getString(key, null);
+    }
+
+    @Override
+    public void put(String key, String value) {
+      preferences.edit().putString(key, value).apply();
+    }
+
+    @Override
+    public void remove(String key) {
+      preferences.edit().remove(key).apply();
+    }
+  }
+}
@@ -13,6 +13,8 @@ package org.appspot.apprtc;
 import org.appspot.apprtc.AppRTCClient.RoomConnectionParameters;
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
 import org.appspot.apprtc.PeerConnectionClient.PeerConnectionParameters;
+import org.appspot.apprtc.util.AndroidLogSink;
+import org.appspot.apprtc.util.ExecutorStats;
 import org.appspot.apprtc.util.LooperExecutor;
 
 import android.app.Activity;
@@ -32,6 +34,7 @@ import android.widget.Toast;
 
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
 import org.webrtc.SessionDescription;
 import org.webrtc.StatsReport;
@@ -63,16 +66,28 @@ public class CallActivity extends Activity
       "org.appsopt.apprtc.VIDEO_CAPTUREQUALITYSLIDER";
   public static final String EXTRA_VIDEO_BITRATE =
       "org.appspot.apprtc.VIDEO_BITRATE";
+  public static final String EXTRA_VIDEO_MIN_BITRATE =
+      "org.appspot.apprtc.VIDEO_MIN_BITRATE";
+  public static final String EXTRA_VIDEO_MAX_BITRATE =
+      "org.appspot.apprtc.VIDEO_MAX_BITRATE";
   public static final String EXTRA_VIDEOCODEC =
       "org.appspot.apprtc.VIDEOCODEC";
+  public static final String EXTRA_VIDEOCODEC_FALLBACKS =
+      "org.appspot.apprtc.VIDEOCODEC_FALLBACKS";
   public static final String EXTRA_HWCODEC_ENABLED =
       "org.appspot.apprtc.HWCODEC";
   public static final String EXTRA_CAPTURETOTEXTURE_ENABLED =
       "org.appspot.apprtc.CAPTURETOTEXTURE";
   public static final String EXTRA_AUDIO_BITRATE =
       "org.appspot.apprtc.AUDIO_BITRATE";
+  public static final String EXTRA_AUDIO_MAX_BITRATE =
+      "org.appspot.apprtc.AUDIO_MAX_BITRATE";
   public static final String EXTRA_AUDIOCODEC =
       "org.appspot.apprtc.AUDIOCODEC";
+  public static final String EXTRA_AUDIOCODEC_FALLBACKS =
+      "org.appspot.apprtc.AUDIOCODEC_FALLBACKS";
+  public static final String EXTRA_CODEC_PRUNING_ENABLED =
+      "org.appspot.apprtc.CODEC_PRUNING";
   public static final String EXTRA_NOAUDIOPROCESSING_ENABLED =
       "org.appspot.apprtc.NOAUDIOPROCESSING";
   public static final String EXTRA_AECDUMP_ENABLED =
@@ -82,6 +97,18 @@ public class CallActivity extends Activity
   public static final String EXTRA_DISPLAY_HUD =
       "org.appspot.apprtc.DISPLAY_HUD";
   public static final String EXTRA_TRACING = "org.appspot.apprtc.TRACING";
+  public static final String EXTRA_SDP_COMPRESSION_ENABLED =
+      "org.appspot.apprtc.SDP_COMPRESSION";
+  public static final String EXTRA_DIRECT_HUB_ENABLED =
+      "org.appspot.apprtc.DIRECT_HUB";
+  public static final String EXTRA_ICE_BATCH_WINDOW =
+      "org.appspot.apprtc.ICE_BATCH_WINDOW";
+  public static final String EXTRA_ICE_BATCH_BEFORE_ANSWER =
+      "org.appspot.apprtc.ICE_BATCH_BEFORE_ANSWER";
+  public static final String EXTRA_MAX_MESSAGES_IN_FLIGHT =
+      "org.appspot.apprtc.MAX_MESSAGES_IN_FLIGHT";
+  public static final String EXTRA_SLOW_TASK_THRESHOLD =
+      "org.appspot.apprtc.SLOW_TASK_THRESHOLD";
   public static final String EXTRA_CMDLINE =
       "org.appspot.apprtc.CMDLINE";
   public static final String EXTRA_RUNTIME =
@@ -113,6 +140,8 @@ public class CallActivity extends Activity
   private static final int REMOTE_WIDTH = 100;
   private static final int REMOTE_HEIGHT = 100;
   private PeerConnectionClient peerConnectionClient = null;
+  // Null unless executor stats are enabled.
+  private ExecutorStats signalingExecutorStats;
   private AppRTCClient appRtcClient;
   private SignalingParameters signalingParameters;
   private AppRTCAudioManager audioManager = null;
@@ -142,6 +171,7 @@ public class CallActivity extends Activity
   @Override
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    AndroidLogSink.install();
     Thread.setDefaultUncaughtExceptionHandler(
         new UnhandledExceptionHandler(this));
 
@@ -228,28 +258,49 @@ public class CallActivity extends Activity
         intent.getIntExtra(EXTRA_VIDEO_HEIGHT, 0),
         intent.getIntExtra(EXTRA_VIDEO_FPS, 0),
         intent.getIntExtra(EXTRA_VIDEO_BITRATE, 0),
+        intent.getIntExtra(EXTRA_VIDEO_MIN_BITRATE, 0),
+        intent.getIntExtra(EXTRA_VIDEO_MAX_BITRATE, 0),
         intent.getStringExtra(EXTRA_VIDEOCODEC),
+        intent.getStringExtra(EXTRA_VIDEOCODEC_FALLBACKS),
         intent.getBooleanExtra(EXTRA_HWCODEC_ENABLED, true),
         intent.getBooleanExtra(EXTRA_CAPTURETOTEXTURE_ENABLED, false),
         intent.getIntExtra(EXTRA_AUDIO_BITRATE, 0),
+        intent.getIntExtra(EXTRA_AUDIO_MAX_BITRATE, 0),
         intent.getStringExtra(EXTRA_AUDIOCODEC),
+        intent.getStringExtra(EXTRA_AUDIOCODEC_FALLBACKS),
+        intent.getBooleanExtra(EXTRA_CODEC_PRUNING_ENABLED, false),
         intent.getBooleanExtra(EXTRA_NOAUDIOPROCESSING_ENABLED, false),
         intent.getBooleanExtra(EXTRA_AECDUMP_ENABLED, false),
         intent.getBooleanExtra(EXTRA_OPENSLES_ENABLED, false));
     commandLineRun = intent.getBooleanExtra(EXTRA_CMDLINE, false);
     runTimeMs = intent.getIntExtra(EXTRA_RUNTIME, 0);
 
+    // Executor stats are recorded if a slow task threshold is set.
+    int slowTaskThresholdMs = intent.getIntExtra(EXTRA_SLOW_TASK_THRESHOLD, 0);
+    LooperExecutor signalingExecutor = new LooperExecutor();
+    if (slowTaskThresholdMs > 0) {
+      signalingExecutorStats = new ExecutorStats("Signaling", slowTaskThresholdMs);
+      signalingExecutor.setStats(signalingExecutorStats);
+    }
+
     // Create connection client. Use DirectRTCClient if room name is an IP otherwise use the
     // standard WebSocketRTCClient.
     if (loopback || !DirectRTCClient.IP_PATTERN.matcher(roomId).matches()) {
-      appRtcClient = new WebSocketRTCClient(this, new LooperExecutor());
+      appRtcClient = new WebSocketRTCClient(this, signalingExecutor,
+          AndroidTurnServerCache.getInstance(getApplicationContext()));
     } else {
       Log.i(TAG, "Using DirectRTCClient because room name looks like an IP.");
-      appRtcClient = new DirectRTCClient(this);
+      appRtcClient = new DirectRTCClient(this, signalingExecutor);
     }
     // Create connection parameters.
     roomConnectionParameters = new RoomConnectionParameters(
-        roomUri.toString(), roomId, loopback);
+        roomUri.toString(), roomId, loopback,
+        intent.getBooleanExtra(EXTRA_SDP_COMPRESSION_ENABLED, true),
+        intent.getBooleanExtra(EXTRA_DIRECT_HUB_ENABLED, false),
+        intent.getIntExtra(EXTRA_ICE_BATCH_WINDOW, 0),
+        intent.getBooleanExtra(EXTRA_ICE_BATCH_BEFORE_ANSWER, false),
+        intent.getIntExtra(EXTRA_MAX_MESSAGES_IN_FLIGHT,
+            RoomConnectionParameters.DEFAULT_MAX_MESSAGES_IN_FLIGHT));
 
     // Create CPU monitor
     cpuMonitor = new CpuMonitor(this);
@@ -276,6 +327,7 @@ public class CallActivity extends Activity
     }
 
     peerConnectionClient = PeerConnectionClient.getInstance();
+    peerConnectionClient.enableExecutorStats(slowTaskThresholdMs > 0, slowTaskThresholdMs);
     if (loopback) {
       PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
       options.networkIgnoreMask = 0;
@@ -449,6 +501,10 @@ public class CallActivity extends Activity
       appRtcClient.disconnectFromRoom();
       appRtcClient = null;
     }
+    if (signalingExecutorStats != null) {
+      Log.d(TAG, "Signaling executor stats:\n" + signalingExecutorStats);
+      signalingExecutorStats = null;
+    }
     if (peerConnectionClient != null) {
       peerConnectionClient.close();
       peerConnectionClient = null;
@@ -669,6 +725,19 @@ public class CallActivity extends Activity
     });
   }
 
+  @Override
+  public void onIceGatheringChange(final PeerConnection.IceGatheringState newState) {
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        // Candidates gathered so far are complete enough to be sent together.
+        if (appRtcClient != null) {
+          appRtcClient.flushLocalIceCandidates();
+        }
+      }
+    });
+  }
+
   @Override
   public void onIceConnected() {
     final long delta = System.currentTimeMillis() - callStartedTimeMs;
@@ -63,9 +63,16 @@ public class ConnectActivity extends AppCompatActivity {
   private String keyprefVideoBitrateType;
   private String keyprefVideoBitrateValue;
   private String keyprefVideoCodec;
+  private String keyprefVideoCodecFallbacks;
   private String keyprefAudioBitrateType;
   private String keyprefAudioBitrateValue;
   private String keyprefAudioCodec;
+  private String keyprefAudioCodecFallbacks;
+  private String keyprefCodecPruning;
+  private String keyprefDirectHub;
+  private String keyprefIceBatchWindow;
+  private String keyprefIceBatchBeforeAnswer;
+  private String keyprefMaxMessagesInFlight;
   private String keyprefHwCodecAcceleration;
   private String keyprefCaptureToTexture;
   private String keyprefNoAudioProcessingPipeline;
@@ -73,6 +80,7 @@ public class ConnectActivity extends AppCompatActivity {
   private String keyprefOpenSLES;
   private String keyprefDisplayHud;
   private String keyprefTracing;
+  private String keyprefSlowTaskThreshold;
   private String keyprefRoomServerUrl;
   private String keyprefRoom;
   private String keyprefRoomList;
@@ -93,16 +101,24 @@ public class ConnectActivity extends AppCompatActivity {
     keyprefVideoBitrateType = getString(R.string.pref_startvideobitrate_key);
     keyprefVideoBitrateValue = getString(R.string.pref_startvideobitratevalue_key);
     keyprefVideoCodec = getString(R.string.pref_videocodec_key);
+    keyprefVideoCodecFallbacks = getString(R.string.pref_videocodecfallbacks_key);
     keyprefHwCodecAcceleration = getString(R.string.pref_hwcodec_key);
     keyprefCaptureToTexture = getString(R.string.pref_capturetotexture_key);
     keyprefAudioBitrateType = getString(R.string.pref_startaudiobitrate_key);
     keyprefAudioBitrateValue = getString(R.string.pref_startaudiobitratevalue_key);
     keyprefAudioCodec = getString(R.string.pref_audiocodec_key);
+    keyprefAudioCodecFallbacks = getString(R.string.pref_audiocodecfallbacks_key);
+    keyprefCodecPruning = getString(R.string.pref_codecpruning_key);
+    keyprefDirectHub = getString(R.string.pref_directhub_key);
+    keyprefIceBatchWindow = getString(R.string.pref_icebatchwindow_key);
+    keyprefIceBatchBeforeAnswer = getString(R.string.pref_icebatchbeforeanswer_key);
+    keyprefMaxMessagesInFlight = getString(R.string.pref_maxmessagesinflight_key);
     keyprefNoAudioProcessingPipeline = getString(R.string.pref_noaudioprocessing_key);
     keyprefAecDump = getString(R.string.pref_aecdump_key);
     keyprefOpenSLES = getString(R.string.pref_opensles_key);
     keyprefDisplayHud = getString(R.string.pref_displayhud_key);
     keyprefTracing = getString(R.string.pref_tracing_key);
+    keyprefSlowTaskThreshold = getString(R.string.pref_slowtaskthreshold_key);
     keyprefRoomServerUrl = getString(R.string.pref_room_server_url_key);
     keyprefRoom = getString(R.string.pref_room_key);
     keyprefRoomList = getString(R.string.pref_room_list_key);
@@ -267,6 +283,28 @@ public class ConnectActivity extends AppCompatActivity {
     String audioCodec = sharedPref.getString(keyprefAudioCodec,
         getString(R.string.pref_audiocodec_default));
 
+    // Check codec pruning flag and codecs kept next to the default ones.
+    boolean codecPruning = sharedPref.getBoolean(keyprefCodecPruning,
+        Boolean.valueOf(getString(R.string.pref_codecpruning_default)));
+    String videoCodecFallbacks = sharedPref.getString(keyprefVideoCodecFallbacks,
+        getString(R.string.pref_videocodecfallbacks_default));
+    String audioCodecFallbacks = sharedPref.getString(keyprefAudioCodecFallbacks,
+        getString(R.string.pref_audiocodecfallbacks_default));
+
+    // Check if direct calls keep the listening socket open.
+    boolean directHub = sharedPref.getBoolean(keyprefDirectHub,
+        Boolean.valueOf(getString(R.string.pref_directhub_default)));
+
+    // Get ICE candidate batching window and check if batches are sent to unknown peers.
+    int iceBatchWindow = Integer.parseInt(sharedPref.getString(keyprefIceBatchWindow,
+        getString(R.string.pref_icebatchwindow_default)));
+    boolean iceBatchBeforeAnswer = sharedPref.getBoolean(keyprefIceBatchBeforeAnswer,
+        Boolean.valueOf(getString(R.string.pref_icebatchbeforeanswer_default)));
+
+    // Get the number of room messages posted at the same time, at least one.
+    int maxMessagesInFlight = Math.max(1, Integer.parseInt(sharedPref.getString(
+        keyprefMaxMessagesInFlight, getString(R.string.pref_maxmessagesinflight_default))));
+
     // Check HW codec flag.
     boolean hwCodec = sharedPref.getBoolean(keyprefHwCodecAcceleration,
         Boolean.valueOf(getString(R.string.pref_hwcodec_default)));
@@ -352,6 +390,10 @@ public class ConnectActivity extends AppCompatActivity {
     boolean tracing = sharedPref.getBoolean(
             keyprefTracing, Boolean.valueOf(getString(R.string.pref_tracing_default)));
 
+    // Get slow executor task threshold, 0 disables executor stats.
+    int slowTaskThreshold = Integer.parseInt(sharedPref.getString(keyprefSlowTaskThreshold,
+        getString(R.string.pref_slowtaskthreshold_default)));
+
     // Start AppRTCDemo activity.
     Log.d(TAG, "Connecting to room " + roomId + " at URL " + roomUrl);
     if (validateUrl(roomUrl)) {
@@ -368,6 +410,7 @@ public class ConnectActivity extends AppCompatActivity {
           captureQualitySlider);
       intent.putExtra(CallActivity.EXTRA_VIDEO_BITRATE, videoStartBitrate);
       intent.putExtra(CallActivity.EXTRA_VIDEOCODEC, videoCodec);
+      intent.putExtra(CallActivity.EXTRA_VIDEOCODEC_FALLBACKS, videoCodecFallbacks);
       intent.putExtra(CallActivity.EXTRA_HWCODEC_ENABLED, hwCodec);
       intent.putExtra(CallActivity.EXTRA_CAPTURETOTEXTURE_ENABLED, captureToTexture);
       intent.putExtra(CallActivity.EXTRA_NOAUDIOPROCESSING_ENABLED,
@@ -376,8 +419,15 @@ public class ConnectActivity extends AppCompatActivity {
       intent.putExtra(CallActivity.EXTRA_OPENSLES_ENABLED, useOpenSLES);
       intent.putExtra(CallActivity.EXTRA_AUDIO_BITRATE, audioStartBitrate);
       intent.putExtra(CallActivity.EXTRA_AUDIOCODEC, audioCodec);
+      intent.putExtra(CallActivity.EXTRA_AUDIOCODEC_FALLBACKS, audioCodecFallbacks);
+      intent.putExtra(CallActivity.EXTRA_CODEC_PRUNING_ENABLED, codecPruning);
+      intent.putExtra(CallActivity.EXTRA_DIRECT_HUB_ENABLED, directHub);
+      intent.putExtra(CallActivity.EXTRA_ICE_BATCH_WINDOW, iceBatchWindow);
+      intent.putExtra(CallActivity.EXTRA_ICE_BATCH_BEFORE_ANSWER, iceBatchBeforeAnswer);
+      intent.putExtra(CallActivity.EXTRA_MAX_MESSAGES_IN_FLIGHT, maxMessagesInFlight);
       intent.putExtra(CallActivity.EXTRA_DISPLAY_HUD, displayHud);
       intent.putExtra(CallActivity.EXTRA_TRACING, tracing);
+      intent.putExtra(CallActivity.EXTRA_SLOW_TASK_THRESHOLD, slowTaskThreshold);
       intent.putExtra(CallActivity.EXTRA_CMDLINE, commandLineRun);
       intent.putExtra(CallActivity.EXTRA_RUNTIME, runTimeMs);
 
@@ -16,6 +16,7 @@ import android.os.Environment;
 import android.util.Log;
 
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.util.ExecutorStats;
 import org.appspot.apprtc.util.LooperExecutor;
 import org.webrtc.AudioTrack;
 import org.webrtc.CameraEnumerationAndroid;
@@ -42,12 +43,12 @@ import org.webrtc.voiceengine.WebRtcAudioManager;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Peer connection client implementation.
@@ -60,14 +61,11 @@ public class PeerConnectionClient {
   public static final String VIDEO_TRACK_ID = "ARDAMSv0";
   public static final String AUDIO_TRACK_ID = "ARDAMSa0";
   private static final String TAG = "PCRTCClient";
-  private static final String VIDEO_CODEC_VP8 = "VP8";
-  private static final String VIDEO_CODEC_VP9 = "VP9";
-  private static final String VIDEO_CODEC_H264 = "H264";
-  private static final String AUDIO_CODEC_OPUS = "opus";
-  private static final String AUDIO_CODEC_ISAC = "ISAC";
-  private static final String VIDEO_CODEC_PARAM_START_BITRATE =
-      "x-google-start-bitrate";
-  private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+  private static final String VIDEO_CODEC_VP8 = SdpMunger.VIDEO_CODEC_VP8;
+  private static final String VIDEO_CODEC_VP9 = SdpMunger.VIDEO_CODEC_VP9;
+  private static final String VIDEO_CODEC_H264 = SdpMunger.VIDEO_CODEC_H264;
+  private static final String AUDIO_CODEC_OPUS = SdpMunger.AUDIO_CODEC_OPUS;
+  private static final String AUDIO_CODEC_ISAC = SdpMunger.AUDIO_CODEC_ISAC;
   private static final String AUDIO_ECHO_CANCELLATION_CONSTRAINT = "googEchoCancellation";
   private static final String AUDIO_AUTO_GAIN_CONTROL_CONSTRAINT= "googAutoGainControl";
   private static final String AUDIO_HIGH_PASS_FILTER_CONSTRAINT  = "googHighpassFilter";
@@ -89,6 +87,8 @@ public class PeerConnectionClient {
   private final PCObserver pcObserver = new PCObserver();
   private final SDPObserver sdpObserver = new SDPObserver();
   private final LooperExecutor executor;
+  // Null unless executor stats are enabled.
+  private volatile ExecutorStats executorStats;
 
   private PeerConnectionFactory factory;
   private PeerConnection peerConnection;
@@ -97,6 +97,8 @@ public class PeerConnectionClient {
   private boolean videoCallEnabled;
   private boolean preferIsac;
   private String preferredVideoCodec;
+  // Codec preference and bitrate transforms for local and remote SDP.
+  private SdpMunger sdpMunger;
   private boolean videoSourceStopped;
   private boolean isError;
   private Timer statsTimer;
@@ -138,11 +140,21 @@ public class PeerConnectionClient {
     public final int videoHeight;
     public final int videoFps;
     public final int videoStartBitrate;
+    // Video encoder min and max bitrates in kbps, 0 for defaults.
+    public final int videoMinBitrate;
+    public final int videoMaxBitrate;
     public final String videoCodec;
+    // Comma separated video codecs preferred after |videoCodec|, in order.
+    public final String videoCodecFallbacks;
     public final boolean videoCodecHwAcceleration;
     public final boolean captureToTexture;
     public final int audioStartBitrate;
+    // Audio bandwidth cap in kbps, 0 for no cap.
+    public final int audioMaxBitrate;
     public final String audioCodec;
+    // Comma separated audio codecs preferred after |audioCodec|, in order.
+    public final String audioCodecFallbacks;
+    public final boolean codecPruning;
     public final boolean noAudioProcessing;
     public final boolean aecDump;
     public final boolean useOpenSLES;
@@ -150,9 +162,12 @@ public class PeerConnectionClient {
     public PeerConnectionParameters(
         boolean videoCallEnabled, boolean loopback, boolean tracing,
         int videoWidth, int videoHeight, int videoFps, int videoStartBitrate,
-        String videoCodec, boolean videoCodecHwAcceleration, boolean captureToTexture,
-        int audioStartBitrate, String audioCodec,
-        boolean noAudioProcessing, boolean aecDump, boolean useOpenSLES) {
+        int videoMinBitrate, int videoMaxBitrate,
+        String videoCodec, String videoCodecFallbacks,
+        boolean videoCodecHwAcceleration, boolean captureToTexture,
+        int audioStartBitrate, int audioMaxBitrate,
+        String audioCodec, String audioCodecFallbacks,
+        boolean codecPruning, boolean noAudioProcessing, boolean aecDump, boolean useOpenSLES) {
       this.videoCallEnabled = videoCallEnabled;
       this.loopback = loopback;
       this.tracing = tracing;
@@ -160,11 +175,17 @@ public class PeerConnectionClient {
       this.videoHeight = videoHeight;
       this.videoFps = videoFps;
       this.videoStartBitrate = videoStartBitrate;
+      this.videoMinBitrate = videoMinBitrate;
+      this.videoMaxBitrate = videoMaxBitrate;
       this.videoCodec = videoCodec;
+      this.videoCodecFallbacks = videoCodecFallbacks;
       this.videoCodecHwAcceleration = videoCodecHwAcceleration;
       this.captureToTexture = captureToTexture;
       this.audioStartBitrate = audioStartBitrate;
+      this.audioMaxBitrate = audioMaxBitrate;
       this.audioCodec = audioCodec;
+      this.audioCodecFallbacks = audioCodecFallbacks;
+      this.codecPruning = codecPruning;
       this.noAudioProcessing = noAudioProcessing;
       this.aecDump = aecDump;
       this.useOpenSLES = useOpenSLES;
@@ -190,6 +211,11 @@ public class PeerConnectionClient {
      */
     public void onIceCandidatesRemoved(final IceCandidate[] candidates);
 
+    /**
+     * Callback fired once local ICE candidate gathering state changes.
+     */
+    public void onIceGatheringChange(final PeerConnection.IceGatheringState newState);
+
     /**
      * Callback fired once connection is established (IceConnectionState is
      * CONNECTED).
@@ -245,6 +271,7 @@ public class PeerConnectionClient {
     factory = null;
     peerConnection = null;
     preferIsac = false;
+    sdpMunger = null;
     videoSourceStopped = false;
     isError = false;
     queuedRemoteCandidates = null;
@@ -258,7 +285,7 @@ public class PeerConnectionClient {
     localAudioTrack = null;
     statsTimer = new Timer();
 
-    executor.execute(new Runnable() {
+    executor.execute("createPeerConnectionFactory", new Runnable() {
       @Override
       public void run() {
         createPeerConnectionFactoryInternal(context);
@@ -278,7 +305,7 @@ public class PeerConnectionClient {
     this.localRender = localRender;
     this.remoteRender = remoteRender;
     this.signalingParameters = signalingParameters;
-    executor.execute(new Runnable() {
+    executor.execute("createPeerConnection", new Runnable() {
       @Override
       public void run() {
         createMediaConstraintsInternal();
@@ -288,7 +315,7 @@ public class PeerConnectionClient {
   }
 
   public void close() {
-    executor.execute(new Runnable() {
+    executor.execute("close", new Runnable() {
       @Override
       public void run() {
         closeInternal();
@@ -436,6 +463,39 @@ public class PeerConnectionClient {
       sdpMediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
           "OfferToReceiveVideo", "false"));
     }
+
+    // Create SDP transforms once video call state is final. Default codecs
+    // come first in the preference lists, followed by the fallback codecs.
+    List<String> audioCodecs = new ArrayList<String>();
+    audioCodecs.add(preferIsac ? AUDIO_CODEC_ISAC : AUDIO_CODEC_OPUS);
+    addCodecNames(audioCodecs, peerConnectionParameters.audioCodecFallbacks);
+    List<String> videoCodecs = new ArrayList<String>();
+    if (videoCallEnabled) {
+      videoCodecs.add(preferredVideoCodec);
+      addCodecNames(videoCodecs, peerConnectionParameters.videoCodecFallbacks);
+    }
+    Log.d(TAG, "Audio codec preference: " + audioCodecs
+        + ". Video codec preference: " + videoCodecs
+        + ". Codec pruning: " + peerConnectionParameters.codecPruning);
+    sdpMunger = new SdpMunger(audioCodecs, videoCodecs, peerConnectionParameters.codecPruning,
+        videoCallEnabled ? peerConnectionParameters.videoStartBitrate : 0,
+        videoCallEnabled ? peerConnectionParameters.videoMinBitrate : 0,
+        videoCallEnabled ? peerConnectionParameters.videoMaxBitrate : 0,
+        peerConnectionParameters.audioStartBitrate,
+        peerConnectionParameters.audioMaxBitrate);
+  }
+
+  // Appends comma separated codec names from |codecList| to |codecs|.
+  private static void addCodecNames(List<String> codecs, String codecList) {
+    if (codecList == null) {
+      return;
+    }
+    for (String codec : codecList.split(",")) {
+      codec = codec.trim();
+      if (!codec.isEmpty() && !codecs.contains(codec)) {
+        codecs.add(codec);
+      }
+    }
   }
 
   private void createPeerConnectionInternal(EglBase.Context renderEGLContext) {
@@ -521,6 +581,9 @@ public class PeerConnectionClient {
     }
     Log.d(TAG, "Closing peer connection.");
     statsTimer.cancel();
+    if (executorStats != null) {
+      Log.d(TAG, "Peer connection executor stats:\n" + executorStats);
+    }
     if (peerConnection != null) {
       peerConnection.dispose();
       peerConnection = null;
@@ -591,7 +654,7 @@ public class PeerConnectionClient {
         statsTimer.schedule(new TimerTask() {
           @Override
           public void run() {
-            executor.execute(new Runnable() {
+            executor.execute("getStats", new Runnable() {
               @Override
               public void run() {
                 getStats();
@@ -607,8 +670,24 @@ public class PeerConnectionClient {
     }
   }
 
+  /**
+   * Records wait and run times of the tasks of the peer connection thread
+   * until the next call, and logs tasks waiting or running for at least
+   * |slowTaskThresholdMs|. The stats are logged when the call is closed.
+   */
+  public void enableExecutorStats(boolean enable, long slowTaskThresholdMs) {
+    executorStats = enable
+        ? new ExecutorStats("PeerConnectionClient", slowTaskThresholdMs) : null;
+    executor.setStats(executorStats);
+  }
+
+  /** Returns the executor stats of the current call, or null if disabled. */
+  public ExecutorStats getExecutorStats() {
+    return executorStats;
+  }
+
   public void setAudioEnabled(final boolean enable) {
-    executor.execute(new Runnable() {
+    executor.execute("setAudioEnabled", new Runnable() {
       @Override
       public void run() {
         enableAudio = enable;
@@ -620,7 +699,7 @@ public class PeerConnectionClient {
   }
 
   public void setVideoEnabled(final boolean enable) {
-    executor.execute(new Runnable() {
+    executor.execute("setVideoEnabled", new Runnable() {
       @Override
       public void run() {
         renderVideo = enable;
@@ -635,7 +714,7 @@ public class PeerConnectionClient {
   }
 
   public void createOffer() {
-    executor.execute(new Runnable() {
+    executor.execute("createOffer", new Runnable() {
       @Override
       public void run() {
         if (peerConnection != null && !isError) {
@@ -648,7 +727,7 @@ public class PeerConnectionClient {
   }
 
   public void createAnswer() {
-    executor.execute(new Runnable() {
+    executor.execute("createAnswer", new Runnable() {
       @Override
       public void run() {
         if (peerConnection != null && !isError) {
@@ -661,7 +740,7 @@ public class PeerConnectionClient {
   }
 
   public void addRemoteIceCandidate(final IceCandidate candidate) {
-    executor.execute(new Runnable() {
+    executor.execute("addRemoteIceCandidate", new Runnable() {
       @Override
       public void run() {
         if (peerConnection != null && !isError) {
@@ -676,7 +755,7 @@ public class PeerConnectionClient {
   }
 
   public void removeRemoteIceCandidates(final IceCandidate[] candidates) {
-    executor.execute(new Runnable() {
+    executor.execute("removeRemoteIceCandidates", new Runnable() {
       @Override
       public void run() {
         if (peerConnection == null || isError) {
@@ -691,31 +770,13 @@ public class PeerConnectionClient {
   }
 
   public void setRemoteDescription(final SessionDescription sdp) {
-    executor.execute(new Runnable() {
+    executor.execute("setRemoteDescription", new Runnable() {
       @Override
       public void run() {
         if (peerConnection == null || isError) {
           return;
         }
-        String sdpDescription = sdp.description;
-        if (preferIsac) {
-          sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
-        }
-        if (videoCallEnabled) {
-          sdpDescription = preferCodec(sdpDescription, preferredVideoCodec, false);
-        }
-        if (videoCallEnabled && peerConnectionParameters.videoStartBitrate > 0) {
-          sdpDescription = setStartBitrate(VIDEO_CODEC_VP8, true,
-              sdpDescription, peerConnectionParameters.videoStartBitrate);
-          sdpDescription = setStartBitrate(VIDEO_CODEC_VP9, true,
-              sdpDescription, peerConnectionParameters.videoStartBitrate);
-          sdpDescription = setStartBitrate(VIDEO_CODEC_H264, true,
-              sdpDescription, peerConnectionParameters.videoStartBitrate);
-        }
-        if (peerConnectionParameters.audioStartBitrate > 0) {
-          sdpDescription = setStartBitrate(AUDIO_CODEC_OPUS, false,
-              sdpDescription, peerConnectionParameters.audioStartBitrate);
-        }
+        String sdpDescription = sdpMunger.mungeRemoteDescription(sdp.description);
         Log.d(TAG, "Set remote SDP.");
         SessionDescription sdpRemote = new SessionDescription(
             sdp.type, sdpDescription);
@@ -725,7 +786,7 @@ public class PeerConnectionClient {
   }
 
   public void stopVideoSource() {
-    executor.execute(new Runnable() {
+    executor.execute("stopVideoSource", new Runnable() {
       @Override
       public void run() {
         if (videoSource != null && !videoSourceStopped) {
@@ -738,7 +799,7 @@ public class PeerConnectionClient {
   }
 
   public void startVideoSource() {
-    executor.execute(new Runnable() {
+    executor.execute("startVideoSource", new Runnable() {
       @Override
       public void run() {
         if (videoSource != null && videoSourceStopped) {
@@ -752,7 +813,7 @@ public class PeerConnectionClient {
 
   private void reportError(final String errorMessage) {
     Log.e(TAG, "Peerconnection error: " + errorMessage);
-    executor.execute(new Runnable() {
+    executor.execute("reportError", new Runnable() {
       @Override
       public void run() {
         if (!isError) {
@@ -780,133 +841,6 @@ public class PeerConnectionClient {
     return localVideoTrack;
   }
 
-  private static String setStartBitrate(String codec, boolean isVideoCodec,
-      String sdpDescription, int bitrateKbps) {
-    String[] lines = sdpDescription.split("\r\n");
-    int rtpmapLineIndex = -1;
-    boolean sdpFormatUpdated = false;
-    String codecRtpMap = null;
-    // Search for codec rtpmap in format
-    // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-    String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-    Pattern codecPattern = Pattern.compile(regex);
-    for (int i = 0; i < lines.length; i++) {
-      Matcher codecMatcher = codecPattern.matcher(lines[i]);
-      if (codecMatcher.matches()) {
-        codecRtpMap = codecMatcher.group(1);
-        rtpmapLineIndex = i;
-        break;
-      }
-    }
-    if (codecRtpMap == null) {
-      Log.w(TAG, "No rtpmap for " + codec + " codec");
-      return sdpDescription;
-    }
-    Log.d(TAG, "Found " +  codec + " rtpmap " + codecRtpMap
-        + " at " + lines[rtpmapLineIndex]);
-
-    // Check if a=fmtp string already exist in remote SDP for this codec and
-    // update it with new bitrate parameter.
-    regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-    codecPattern = Pattern.compile(regex);
-    for (int i = 0; i < lines.length; i++) {
-      Matcher codecMatcher = codecPattern.matcher(lines[i]);
-      if (codecMatcher.matches()) {
-        Log.d(TAG, "Found " +  codec + " " + lines[i]);
-        if (isVideoCodec) {
-          lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE
-              + "=" + bitrateKbps;
-        } else {
-          lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE
-              + "=" + (bitrateKbps * 1000);
-        }
-        Log.d(TAG, "Update remote SDP line: " + lines[i]);
-        sdpFormatUpdated = true;
-        break;
-      }
-    }
-
-    StringBuilder newSdpDescription = new StringBuilder();
-    for (int i = 0; i < lines.length; i++) {
-      newSdpDescription.append(lines[i]).append("\r\n");
-      // Append new a=fmtp line if no such line exist for a codec.
-      if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-        String bitrateSet;
-        if (isVideoCodec) {
-          bitrateSet = "a=fmtp:" + codecRtpMap + " "
-              + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-        } else {
-          bitrateSet = "a=fmtp:" + codecRtpMap + " "
-              + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-        }
-        Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-        newSdpDescription.append(bitrateSet).append("\r\n");
-      }
-
-    }
-    return newSdpDescription.toString();
-  }
-
-  private static String preferCodec(
-      String sdpDescription, String codec, boolean isAudio) {
-    String[] lines = sdpDescription.split("\r\n");
-    int mLineIndex = -1;
-    String codecRtpMap = null;
-    // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-    String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-    Pattern codecPattern = Pattern.compile(regex);
-    String mediaDescription = "m=video ";
-    if (isAudio) {
-      mediaDescription = "m=audio ";
-    }
-    for (int i = 0; (i < lines.length)
-        && (mLineIndex == -1 || codecRtpMap == null); i++) {
-      if (lines[i].startsWith(mediaDescription)) {
-        mLineIndex = i;
-        continue;
-      }
-      Matcher codecMatcher = codecPattern.matcher(lines[i]);
-      if (codecMatcher.matches()) {
-        codecRtpMap = codecMatcher.group(1);
-        continue;
-      }
-    }
-    if (mLineIndex == -1) {
-      Log.w(TAG, "No " + mediaDescription + " line, so can't prefer " + codec);
-      return sdpDescription;
-    }
-    if (codecRtpMap == null) {
-      Log.w(TAG, "No rtpmap for " + codec);
-      return sdpDescription;
-    }
-    Log.d(TAG, "Found " +  codec + " rtpmap " + codecRtpMap + ", prefer at "
-        + lines[mLineIndex]);
-    String[] origMLineParts = lines[mLineIndex].split(" ");
-    if (origMLineParts.length > 3) {
-      StringBuilder newMLine = new StringBuilder();
-      int origPartIndex = 0;
-      // Format is: m=<media> <port> <proto> <fmt> ...
-      newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-      newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-      newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-      newMLine.append(codecRtpMap);
-      for (; origPartIndex < origMLineParts.length; origPartIndex++) {
-        if (!origMLineParts[origPartIndex].equals(codecRtpMap)) {
-          newMLine.append(" ").append(origMLineParts[origPartIndex]);
-        }
-      }
-      lines[mLineIndex] = newMLine.toString();
-      Log.d(TAG, "Change media description: " + lines[mLineIndex]);
-    } else {
-      Log.e(TAG, "Wrong SDP media description format: " + lines[mLineIndex]);
-    }
-    StringBuilder newSdpDescription = new StringBuilder();
-    for (String line : lines) {
-      newSdpDescription.append(line).append("\r\n");
-    }
-    return newSdpDescription.toString();
-  }
-
   private void drainCandidates() {
     if (queuedRemoteCandidates != null) {
       Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
@@ -928,7 +862,7 @@ public class PeerConnectionClient {
   }
 
   public void switchCamera() {
-    executor.execute(new Runnable() {
+    executor.execute("switchCamera", new Runnable() {
       @Override
       public void run() {
         switchCameraInternal();
@@ -937,7 +871,7 @@ public class PeerConnectionClient {
   }
 
   public void changeCaptureFormat(final int width, final int height, final int framerate) {
-    executor.execute(new Runnable() {
+    executor.execute("changeCaptureFormat", new Runnable() {
       @Override
       public void run() {
         changeCaptureFormatInternal(width, height, framerate);
@@ -959,7 +893,7 @@ public class PeerConnectionClient {
   private class PCObserver implements PeerConnection.Observer {
     @Override
     public void onIceCandidate(final IceCandidate candidate){
-      executor.execute(new Runnable() {
+      executor.execute("onIceCandidate", new Runnable() {
         @Override
         public void run() {
           events.onIceCandidate(candidate);
@@ -969,7 +903,7 @@ public class PeerConnectionClient {
 
     @Override
     public void onIceCandidatesRemoved(final IceCandidate[] candidates) {
-      executor.execute(new Runnable() {
+      executor.execute("onIceCandidatesRemoved", new Runnable() {
         @Override
         public void run() {
           events.onIceCandidatesRemoved(candidates);
@@ -986,7 +920,7 @@ public class PeerConnectionClient {
     @Override
     public void onIceConnectionChange(
         final PeerConnection.IceConnectionState newState) {
-      executor.execute(new Runnable() {
+      executor.execute("onIceConnectionChange", new Runnable() {
         @Override
         public void run() {
           Log.d(TAG, "IceConnectionState: " + newState);
@@ -1003,8 +937,14 @@ public class PeerConnectionClient {
 
     @Override
     public void onIceGatheringChange(
-      PeerConnection.IceGatheringState newState) {
+      final PeerConnection.IceGatheringState newState) {
       Log.d(TAG, "IceGatheringState: " + newState);
+      executor.execute("onIceGatheringChange", new Runnable() {
+        @Override
+        public void run() {
+          events.onIceGatheringChange(newState);
+        }
+      });
     }
 
     @Override
@@ -1014,7 +954,7 @@ public class PeerConnectionClient {
 
     @Override
     public void onAddStream(final MediaStream stream){
-      executor.execute(new Runnable() {
+      executor.execute("onAddStream", new Runnable() {
         @Override
         public void run() {
           if (peerConnection == null || isError) {
@@ -1035,7 +975,7 @@ public class PeerConnectionClient {
 
     @Override
     public void onRemoveStream(final MediaStream stream){
-      executor.execute(new Runnable() {
+      executor.execute("onRemoveStream", new Runnable() {
         @Override
         public void run() {
           remoteVideoTrack = null;
@@ -1065,17 +1005,11 @@ public class PeerConnectionClient {
         reportError("Multiple SDP create.");
         return;
       }
-      String sdpDescription = origSdp.description;
-      if (preferIsac) {
-        sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
-      }
-      if (videoCallEnabled) {
-        sdpDescription = preferCodec(sdpDescription, preferredVideoCodec, false);
-      }
+      String sdpDescription = sdpMunger.mungeLocalDescription(origSdp.description);
       final SessionDescription sdp = new SessionDescription(
           origSdp.type, sdpDescription);
       localSdp = sdp;
-      executor.execute(new Runnable() {
+      executor.execute("onCreateSuccess", new Runnable() {
         @Override
         public void run() {
           if (peerConnection != null && !isError) {
@@ -1088,7 +1022,7 @@ public class PeerConnectionClient {
 
     @Override
     public void onSetSuccess() {
-      executor.execute(new Runnable() {
+      executor.execute("onSetSuccess", new Runnable() {
         @Override
         public void run() {
           if (peerConnection == null || isError) {
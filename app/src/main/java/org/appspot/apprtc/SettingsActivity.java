@@ -29,19 +29,27 @@ public class SettingsActivity extends Activity
   private String keyprefStartVideoBitrateType;
   private String keyprefStartVideoBitrateValue;
   private String keyPrefVideoCodec;
+  private String keyPrefVideoCodecFallbacks;
   private String keyprefHwCodec;
   private String keyprefCaptureToTexture;
 
   private String keyprefStartAudioBitrateType;
   private String keyprefStartAudioBitrateValue;
   private String keyPrefAudioCodec;
+  private String keyPrefAudioCodecFallbacks;
   private String keyprefNoAudioProcessing;
   private String keyprefAecDump;
   private String keyprefOpenSLES;
 
   private String keyPrefRoomServerUrl;
+  private String keyPrefCodecPruning;
+  private String keyPrefDirectHub;
+  private String keyPrefIceBatchWindow;
+  private String keyPrefIceBatchBeforeAnswer;
+  private String keyPrefMaxMessagesInFlight;
   private String keyPrefDisplayHud;
   private String keyPrefTracing;
+  private String keyPrefSlowTaskThreshold;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -53,19 +61,27 @@ public class SettingsActivity extends Activity
     keyprefStartVideoBitrateType = getString(R.string.pref_startvideobitrate_key);
     keyprefStartVideoBitrateValue = getString(R.string.pref_startvideobitratevalue_key);
     keyPrefVideoCodec = getString(R.string.pref_videocodec_key);
+    keyPrefVideoCodecFallbacks = getString(R.string.pref_videocodecfallbacks_key);
     keyprefHwCodec = getString(R.string.pref_hwcodec_key);
     keyprefCaptureToTexture = getString(R.string.pref_capturetotexture_key);
 
     keyprefStartAudioBitrateType = getString(R.string.pref_startaudiobitrate_key);
     keyprefStartAudioBitrateValue = getString(R.string.pref_startaudiobitratevalue_key);
     keyPrefAudioCodec = getString(R.string.pref_audiocodec_key);
+    keyPrefAudioCodecFallbacks = getString(R.string.pref_audiocodecfallbacks_key);
     keyprefNoAudioProcessing = getString(R.string.pref_noaudioprocessing_key);
     keyprefAecDump = getString(R.string.pref_aecdump_key);
     keyprefOpenSLES = getString(R.string.pref_opensles_key);
 
     keyPrefRoomServerUrl = getString(R.string.pref_room_server_url_key);
+    keyPrefCodecPruning = getString(R.string.pref_codecpruning_key);
+    keyPrefDirectHub = getString(R.string.pref_directhub_key);
+    keyPrefIceBatchWindow = getString(R.string.pref_icebatchwindow_key);
+    keyPrefIceBatchBeforeAnswer = getString(R.string.pref_icebatchbeforeanswer_key);
+    keyPrefMaxMessagesInFlight = getString(R.string.pref_maxmessagesinflight_key);
     keyPrefDisplayHud = getString(R.string.pref_displayhud_key);
     keyPrefTracing = getString(R.string.pref_tracing_key);
+    keyPrefSlowTaskThreshold = getString(R.string.pref_slowtaskthreshold_key);
 
     // Display the fragment as the main content.
     settingsFragment = new SettingsFragment();
@@ -89,6 +105,7 @@ public class SettingsActivity extends Activity
     updateSummaryBitrate(sharedPreferences, keyprefStartVideoBitrateValue);
     setVideoBitrateEnable(sharedPreferences);
     updateSummary(sharedPreferences, keyPrefVideoCodec);
+    updateSummary(sharedPreferences, keyPrefVideoCodecFallbacks);
     updateSummaryB(sharedPreferences, keyprefHwCodec);
     updateSummaryB(sharedPreferences, keyprefCaptureToTexture);
 
@@ -96,13 +113,20 @@ public class SettingsActivity extends Activity
     updateSummaryBitrate(sharedPreferences, keyprefStartAudioBitrateValue);
     setAudioBitrateEnable(sharedPreferences);
     updateSummary(sharedPreferences, keyPrefAudioCodec);
+    updateSummary(sharedPreferences, keyPrefAudioCodecFallbacks);
     updateSummaryB(sharedPreferences, keyprefNoAudioProcessing);
     updateSummaryB(sharedPreferences, keyprefAecDump);
     updateSummaryB(sharedPreferences, keyprefOpenSLES);
 
     updateSummary(sharedPreferences, keyPrefRoomServerUrl);
+    updateSummaryB(sharedPreferences, keyPrefCodecPruning);
+    updateSummaryB(sharedPreferences, keyPrefDirectHub);
+    updateSummaryMs(sharedPreferences, keyPrefIceBatchWindow);
+    updateSummaryB(sharedPreferences, keyPrefIceBatchBeforeAnswer);
+    updateSummary(sharedPreferences, keyPrefMaxMessagesInFlight);
     updateSummaryB(sharedPreferences, keyPrefDisplayHud);
     updateSummaryB(sharedPreferences, keyPrefTracing);
+    updateSummaryMs(sharedPreferences, keyPrefSlowTaskThreshold);
   }
 
   @Override
@@ -120,13 +144,19 @@ public class SettingsActivity extends Activity
         || key.equals(keyprefFps)
         || key.equals(keyprefStartVideoBitrateType)
         || key.equals(keyPrefVideoCodec)
+        || key.equals(keyPrefVideoCodecFallbacks)
         || key.equals(keyprefStartAudioBitrateType)
         || key.equals(keyPrefAudioCodec)
-        || key.equals(keyPrefRoomServerUrl)) {
+        || key.equals(keyPrefAudioCodecFallbacks)
+        || key.equals(keyPrefRoomServerUrl)
+        || key.equals(keyPrefMaxMessagesInFlight)) {
       updateSummary(sharedPreferences, key);
     } else if (key.equals(keyprefStartVideoBitrateValue)
         || key.equals(keyprefStartAudioBitrateValue)) {
       updateSummaryBitrate(sharedPreferences, key);
+    } else if (key.equals(keyPrefIceBatchWindow)
+        || key.equals(keyPrefSlowTaskThreshold)) {
+      updateSummaryMs(sharedPreferences, key);
     } else if (key.equals(keyprefVideoCall)
         || key.equals(keyPrefTracing)
         || key.equals(keyprefCaptureQualitySlider)
@@ -135,6 +165,9 @@ public class SettingsActivity extends Activity
         || key.equals(keyprefNoAudioProcessing)
         || key.equals(keyprefAecDump)
         || key.equals(keyprefOpenSLES)
+        || key.equals(keyPrefCodecPruning)
+        || key.equals(keyPrefDirectHub)
+        || key.equals(keyPrefIceBatchBeforeAnswer)
         || key.equals(keyPrefDisplayHud)) {
       updateSummaryB(sharedPreferences, key);
     }
@@ -158,6 +191,11 @@ public class SettingsActivity extends Activity
     updatedPref.setSummary(sharedPreferences.getString(key, "") + " kbps");
   }
 
+  private void updateSummaryMs(SharedPreferences sharedPreferences, String key) {
+    Preference updatedPref = settingsFragment.findPreference(key);
+    updatedPref.setSummary(sharedPreferences.getString(key, "") + " ms");
+  }
+
   private void updateSummaryB(SharedPreferences sharedPreferences, String key) {
     Preference updatedPref = settingsFragment.findPreference(key);
     updatedPref.setSummary(sharedPreferences.getBoolean(key, true)
@@ -0,0 +1,31 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+/**
+ * Sends the log messages of the signaling code to the Android log.
+ */
+public class AndroidLogSink implements Log.Sink {
+  private static boolean installed;
+
+  /** Installs the sink, once per process. */
+  public static synchronized void install() {
+    if (!installed) {
+      Log.setSink(new AndroidLogSink());
+      installed = true;
+    }
+  }
+
+  @Override
+  public void println(int priority, String tag, String msg) {
+    android.util.Log.println(priority, tag, msg);
+  }
+}
@@ -16,12 +16,14 @@ import android.util.Log;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Executor;
 
 /**
- * Looper based executor class.
+ * Looper based executor class, the SerialExecutor of the app.
+ *
+ * <p>Wait and run times of tasks per call site are recorded once setStats()
+ * was called, otherwise executing a task costs one more volatile read.
  */
-public class LooperExecutor extends Thread implements Executor {
+public class LooperExecutor extends Thread implements SerialExecutor {
   private static final String TAG = "LooperExecutor";
   // Object used to signal that looper thread has started and Handler instance
   // associated with looper thread has been allocated.
@@ -30,6 +32,8 @@ public class LooperExecutor extends Thread implements Executor {
   private Handler handler = null;
   private boolean running = false;
   private long threadId;
+  // Null unless task stats are recorded.
+  private volatile ExecutorStats stats;
 
   @Override
   public void run() {
@@ -43,6 +47,7 @@ public class LooperExecutor extends Thread implements Executor {
     Looper.loop();
   }
 
+  @Override
   public synchronized void requestStart() {
     if (running) {
       return;
@@ -63,6 +68,7 @@ public class LooperExecutor extends Thread implements Executor {
     }
   }
 
+  @Override
   public synchronized void requestStop() {
     if (!running) {
       return;
@@ -77,7 +83,16 @@ public class LooperExecutor extends Thread implements Executor {
     });
   }
 
+  /**
+   * Records the wait and run times of executed tasks in |stats|, or stops
+   * recording if it is null.
+   */
+  public void setStats(ExecutorStats stats) {
+    this.stats = stats;
+  }
+
   // Checks if current thread is a looper thread.
+  @Override
   public boolean checkOnLooperThread() {
     return (Thread.currentThread().getId() == threadId);
   }
@@ -118,15 +133,36 @@ public class LooperExecutor extends Thread implements Executor {
   }
 
   @Override
-  public synchronized void execute(final Runnable runnable) {
+  public synchronized void executeDelayed(final Runnable runnable, final long delayMillis) {
+    if (!running) {
+      Log.w(TAG, "Trying to schedule task for non running executor");
+      return;
+    }
+    if (!handler.postDelayed(runnable, delayMillis)) {
+      Log.e(TAG, "Failed to post a delayed runnable.");
+    }
+  }
+
+  @Override
+  public void execute(final Runnable runnable) {
+    execute(ExecutorStats.UNTAGGED, runnable);
+  }
+
+  @Override
+  public synchronized void execute(String tag, final Runnable runnable) {
     if (!running) {
       Log.w(TAG, "Running looper executor without calling requestStart()");
       return;
     }
+    ExecutorStats currentStats = stats;
     if (Thread.currentThread().getId() == threadId) {
-      runnable.run();
+      if (currentStats == null) {
+        runnable.run();
+      } else {
+        currentStats.run(tag, runnable);
+      }
     } else {
-      handler.post(runnable);
+      handler.post(currentStats == null ? runnable : currentStats.track(tag, runnable));
     }
   }
 
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.appspot.apprtc.util.MpscExecutor;
+import org.appspot.apprtc.util.SerialExecutor;
+import org.appspot.apprtc.util.ThreadExecutor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost per task of handing tasks to a serial executor from one and from
+ * several producer threads, like native PeerConnection callbacks and UI
+ * calls do. Every producer submits a batch of tasks and waits until they
+ * ran, so the time includes waking up the executor thread.
+ *
+ * <p>LooperExecutor needs Android, ThreadExecutor stands in for it: it
+ * takes the same kind of lock in execute() and queues into a lock-guarded
+ * queue, like a Handler does. MpscExecutor is the lock-free alternative and
+ * a single thread ThreadPoolExecutor is the JDK baseline.
+ *
+ * <p>More producers can be run with -Pjmh.args="-t 8".
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ExecutorBenchmark {
+  private static final int BATCH_SIZE = 64;
+
+  @Param({"mpsc", "thread", "jdk"})
+  public String executorType;
+
+  private SerialExecutor serialExecutor;
+  private ExecutorService jdkExecutor;
+  private Executor executor;
+
+  /** Tasks of one producer thread. */
+  @State(Scope.Thread)
+  public static class Producer {
+    final AtomicInteger pending = new AtomicInteger();
+    final Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        pending.decrementAndGet();
+      }
+    };
+  }
+
+  @Setup
+  public void setUp() {
+    if (executorType.equals("mpsc")) {
+      serialExecutor = new MpscExecutor();
+    } else if (executorType.equals("thread")) {
+      serialExecutor = new ThreadExecutor();
+    } else if (executorType.equals("jdk")) {
+      jdkExecutor = Executors.newSingleThreadExecutor();
+      executor = jdkExecutor;
+      return;
+    } else {
+      throw new IllegalArgumentException("Unknown executor type: " + executorType);
+    }
+    serialExecutor.requestStart();
+    executor = serialExecutor;
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    if (serialExecutor != null) {
+      serialExecutor.requestStop();
+    } else {
+      jdkExecutor.shutdown();
+      jdkExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void uncontended(Producer producer) {
+    runBatch(producer);
+  }
+
+  @Benchmark
+  @Threads(4)
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void contended(Producer producer) {
+    runBatch(producer);
+  }
+
+  private void runBatch(Producer producer) {
+    producer.pending.addAndGet(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      executor.execute(producer.task);
+    }
+    while (producer.pending.get() != 0) {
+      Thread.yield();
+    }
+  }
+}
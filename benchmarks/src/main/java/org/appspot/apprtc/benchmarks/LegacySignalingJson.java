@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.List;
+
+/**
+ * org.json based message handling as it was implemented in WebSocketRTCClient
+ * and WebSocketChannelClient before SignalingCodec, minus logging and SDP
+ * compression. Kept as a baseline for SignalingCodecBenchmark.
+ */
+final class LegacySignalingJson {
+  private LegacySignalingJson() {
+  }
+
+  /**
+   * Parses a WebSocket envelope and the message in it, returns an
+   * IceCandidate or a SessionDescription.
+   */
+  static Object decodeWebSocket(String msg) throws JSONException {
+    JSONObject json = new JSONObject(msg);
+    String msgText = json.getString("msg");
+    json = new JSONObject(msgText);
+    String type = json.optString("type");
+    if (type.equals("candidate")) {
+      return new IceCandidate(json.getString("id"), json.getInt("label"),
+          json.getString("candidate"));
+    } else if (type.equals("offer") || type.equals("answer")) {
+      // Capabilities were looked up, like SignalingCapabilities.has() did.
+      JSONArray capabilities = json.optJSONArray("caps");
+      if (capabilities != null) {
+        for (int i = 0; i < capabilities.length(); i++) {
+          capabilities.optString(i);
+        }
+      }
+      return new SessionDescription(SessionDescription.Type.fromCanonicalForm(type),
+          json.getString("sdp"));
+    }
+    throw new JSONException("Unexpected message: " + msg);
+  }
+
+  /** Returns the candidate message wrapped in a WebSocket "send" command. */
+  static String encodeSendCandidate(IceCandidate candidate) throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("type", "candidate");
+    json.put("label", candidate.sdpMLineIndex);
+    json.put("id", candidate.sdpMid);
+    json.put("candidate", candidate.sdp);
+    return encodeSend(json.toString());
+  }
+
+  /** Returns the answer wrapped in a WebSocket "send" command. */
+  static String encodeSendAnswer(SessionDescription sdp, List<String> capabilities)
+      throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("sdp", sdp.description);
+    json.put("type", "answer");
+    JSONArray jsonCapabilities = new JSONArray();
+    for (String capability : capabilities) {
+      jsonCapabilities.put(capability);
+    }
+    json.put("caps", jsonCapabilities);
+    return encodeSend(json.toString());
+  }
+
+  private static String encodeSend(String message) throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("cmd", "send");
+    json.put("msg", message);
+    return json.toString();
+  }
+}
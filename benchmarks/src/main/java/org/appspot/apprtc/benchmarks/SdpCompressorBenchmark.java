@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.appspot.apprtc.SdpCompressor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of SDP compression for signaling, over the SDP corpus. The
+ * compressed sizes are reported by SdpCorpusStats.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SdpCompressorBenchmark {
+  @Param({
+    SdpCorpus.LIBJINGLE_OFFER,
+    SdpCorpus.LIBJINGLE_ANSWER,
+    SdpCorpus.CHROME_OFFER,
+    SdpCorpus.CHROME_SIMULCAST_OFFER,
+    SdpCorpus.FIREFOX_ANSWER
+  })
+  public String sdpFile;
+
+  private String sdp;
+  private String compressedSdp;
+
+  @Setup
+  public void setUp() {
+    sdp = SdpCorpus.load(sdpFile);
+    compressedSdp = SdpCompressor.compress(sdp);
+  }
+
+  @Benchmark
+  public String compress() {
+    return SdpCompressor.compress(sdp);
+  }
+
+  @Benchmark
+  public String decompress() {
+    return SdpCompressor.decompress(compressedSdp);
+  }
+}
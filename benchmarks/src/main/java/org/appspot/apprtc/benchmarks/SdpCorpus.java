@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Offers and answers captured from libjingle, Chrome and Firefox, stored as
+ * resources under sdp/.
+ */
+public final class SdpCorpus {
+  // Names used as JMH @Param values.
+  public static final String LIBJINGLE_OFFER = "libjingle-offer.sdp";
+  public static final String LIBJINGLE_ANSWER = "libjingle-answer.sdp";
+  public static final String CHROME_OFFER = "chrome-offer.sdp";
+  public static final String CHROME_ANSWER = "chrome-answer.sdp";
+  public static final String CHROME_SIMULCAST_OFFER = "chrome-simulcast-offer.sdp";
+  public static final String FIREFOX_OFFER = "firefox-offer.sdp";
+  public static final String FIREFOX_ANSWER = "firefox-answer.sdp";
+  // All of the above.
+  public static final String[] ALL = {
+    LIBJINGLE_OFFER, LIBJINGLE_ANSWER, CHROME_OFFER, CHROME_ANSWER, CHROME_SIMULCAST_OFFER,
+    FIREFOX_OFFER, FIREFOX_ANSWER
+  };
+
+  private SdpCorpus() {
+  }
+
+  /** Loads SDP resource |name| from the corpus. */
+  public static String load(String name) {
+    InputStream in = SdpCorpus.class.getResourceAsStream("/sdp/" + name);
+    if (in == null) {
+      throw new IllegalArgumentException("No SDP in corpus: " + name);
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      in.close();
+      return out.toString("UTF-8");
+    } catch (IOException e) {
+      throw new IllegalStateException("Can not read SDP " + name, e);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.appspot.apprtc.SdpCompressor;
+
+/**
+ * Prints the size of every SDP of the corpus before and after SdpCompressor,
+ * the sizes behind the timings of SdpCompressorBenchmark.
+ *
+ * <p>Run with:
+ *   ./gradlew :benchmarks:sdpCorpusStats
+ */
+public final class SdpCorpusStats {
+  private SdpCorpusStats() {
+  }
+
+  public static void main(String[] args) {
+    for (String name : SdpCorpus.ALL) {
+      String sdp = SdpCorpus.load(name);
+      String compressedSdp = SdpCompressor.compress(sdp);
+      System.out.println(String.format("%-28s %5d -> %5d characters (%.1f%%)", name,
+          sdp.length(), compressedSdp.length(), 100.0 * compressedSdp.length() / sdp.length()));
+    }
+  }
+}
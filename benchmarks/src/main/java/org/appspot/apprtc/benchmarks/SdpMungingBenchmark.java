@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.appspot.apprtc.SdpDescription;
+import org.appspot.apprtc.SdpMunger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SDP munging cost per transform and for the whole setRemoteDescription()
+ * chain, measured over the SDP corpus.
+ *
+ * <p>legacy* benchmarks run the regex implementation that SdpMunger replaced,
+ * with the same parameters, so both can be compared in one report.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SdpMungingBenchmark {
+  private static final int VIDEO_START_BITRATE_KBPS = 1000;
+  private static final int VIDEO_MIN_BITRATE_KBPS = 300;
+  private static final int VIDEO_MAX_BITRATE_KBPS = 1500;
+  private static final int AUDIO_START_BITRATE_KBPS = 32;
+  private static final int AUDIO_MAX_BITRATE_KBPS = 48;
+  private static final List<String> NO_CODECS = Collections.emptyList();
+  private static final List<String> AUDIO_CODECS =
+      Arrays.asList(SdpMunger.AUDIO_CODEC_ISAC, SdpMunger.AUDIO_CODEC_OPUS);
+  private static final List<String> VIDEO_CODECS =
+      Arrays.asList(SdpMunger.VIDEO_CODEC_H264, SdpMunger.VIDEO_CODEC_VP8);
+
+  @Param({
+    SdpCorpus.LIBJINGLE_OFFER,
+    SdpCorpus.LIBJINGLE_ANSWER,
+    SdpCorpus.CHROME_OFFER,
+    SdpCorpus.CHROME_ANSWER,
+    SdpCorpus.CHROME_SIMULCAST_OFFER,
+    SdpCorpus.FIREFOX_OFFER,
+    SdpCorpus.FIREFOX_ANSWER
+  })
+  public String sdpFile;
+
+  private String sdp;
+  private SdpMunger audioCodecMunger;
+  private SdpMunger videoCodecMunger;
+  private SdpMunger videoBitrateMunger;
+  private SdpMunger audioBitrateMunger;
+  private SdpMunger bandwidthCapMunger;
+  private SdpMunger remoteChainMunger;
+  private SdpMunger pruningMunger;
+  private SdpTransformCache cache;
+
+  @Setup
+  public void setUp() {
+    sdp = SdpCorpus.load(sdpFile);
+    audioCodecMunger = new SdpMunger(
+        Collections.singletonList(SdpMunger.AUDIO_CODEC_ISAC), NO_CODECS, false, 0, 0, 0, 0, 0);
+    videoCodecMunger = new SdpMunger(
+        NO_CODECS, Collections.singletonList(SdpMunger.VIDEO_CODEC_H264), false, 0, 0, 0, 0, 0);
+    videoBitrateMunger = new SdpMunger(
+        NO_CODECS, NO_CODECS, false, VIDEO_START_BITRATE_KBPS, 0, 0, 0, 0);
+    audioBitrateMunger = new SdpMunger(
+        NO_CODECS, NO_CODECS, false, 0, 0, 0, AUDIO_START_BITRATE_KBPS, 0);
+    bandwidthCapMunger = new SdpMunger(NO_CODECS, NO_CODECS, false,
+        VIDEO_START_BITRATE_KBPS, VIDEO_MIN_BITRATE_KBPS, VIDEO_MAX_BITRATE_KBPS,
+        AUDIO_START_BITRATE_KBPS, AUDIO_MAX_BITRATE_KBPS);
+    remoteChainMunger = new SdpMunger(AUDIO_CODECS, VIDEO_CODECS, false,
+        VIDEO_START_BITRATE_KBPS, 0, 0, AUDIO_START_BITRATE_KBPS, 0);
+    pruningMunger = new SdpMunger(AUDIO_CODECS, VIDEO_CODECS, true, 0, 0, 0, 0, 0);
+    cache = new SdpTransformCache(16);
+  }
+
+  @Benchmark
+  public SdpDescription parse() {
+    return SdpDescription.parse(sdp);
+  }
+
+  @Benchmark
+  public String parseAndSerialize() {
+    return SdpDescription.parse(sdp).toString();
+  }
+
+  @Benchmark
+  public String preferAudioCodec() {
+    return audioCodecMunger.mungeLocalDescription(sdp);
+  }
+
+  @Benchmark
+  public String preferVideoCodec() {
+    return videoCodecMunger.mungeLocalDescription(sdp);
+  }
+
+  @Benchmark
+  public String setVideoStartBitrate() {
+    return videoBitrateMunger.mungeRemoteDescription(sdp);
+  }
+
+  @Benchmark
+  public String setAudioStartBitrate() {
+    return audioBitrateMunger.mungeRemoteDescription(sdp);
+  }
+
+  @Benchmark
+  public String setBandwidthCaps() {
+    return bandwidthCapMunger.mungeRemoteDescription(sdp);
+  }
+
+  @Benchmark
+  public String setRemoteDescriptionChain() {
+    return remoteChainMunger.mungeRemoteDescription(sdp);
+  }
+
+  // Cache hit cost: digest of the input plus the LRU lookup.
+  @Benchmark
+  public String cachedRemoteDescriptionChain() {
+    return cache.mungeRemoteDescription(remoteChainMunger, sdp);
+  }
+
+  @Benchmark
+  public String pruneCodecs() {
+    return pruningMunger.mungeLocalDescription(sdp);
+  }
+
+  @Benchmark
+  public String legacyPreferAudioCodec() {
+    return LegacySdpMunging.preferCodec(sdp, SdpMunger.AUDIO_CODEC_ISAC, true);
+  }
+
+  @Benchmark
+  public String legacyPreferVideoCodec() {
+    return LegacySdpMunging.preferCodec(sdp, SdpMunger.VIDEO_CODEC_H264, false);
+  }
+
+  @Benchmark
+  public String legacySetVideoStartBitrate() {
+    String result = LegacySdpMunging.setStartBitrate(
+        SdpMunger.VIDEO_CODEC_VP8, true, sdp, VIDEO_START_BITRATE_KBPS);
+    result = LegacySdpMunging.setStartBitrate(
+        SdpMunger.VIDEO_CODEC_VP9, true, result, VIDEO_START_BITRATE_KBPS);
+    return LegacySdpMunging.setStartBitrate(
+        SdpMunger.VIDEO_CODEC_H264, true, result, VIDEO_START_BITRATE_KBPS);
+  }
+
+  @Benchmark
+  public String legacySetAudioStartBitrate() {
+    return LegacySdpMunging.setStartBitrate(
+        SdpMunger.AUDIO_CODEC_OPUS, false, sdp, AUDIO_START_BITRATE_KBPS);
+  }
+
+  @Benchmark
+  public String legacySetRemoteDescriptionChain() {
+    String result = LegacySdpMunging.preferCodec(sdp, SdpMunger.AUDIO_CODEC_ISAC, true);
+    result = LegacySdpMunging.preferCodec(result, SdpMunger.VIDEO_CODEC_H264, false);
+    result = LegacySdpMunging.setStartBitrate(
+        SdpMunger.VIDEO_CODEC_VP8, true, result, VIDEO_START_BITRATE_KBPS);
+    result = LegacySdpMunging.setStartBitrate(
+        SdpMunger.VIDEO_CODEC_VP9, true, result, VIDEO_START_BITRATE_KBPS);
+    result = LegacySdpMunging.setStartBitrate(
+        SdpMunger.VIDEO_CODEC_H264, true, result, VIDEO_START_BITRATE_KBPS);
+    return LegacySdpMunging.setStartBitrate(
+        SdpMunger.AUDIO_CODEC_OPUS, false, result, AUDIO_START_BITRATE_KBPS);
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.appspot.apprtc.SdpMunger;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of SdpMunger results.
+ *
+ * <p>Entries are keyed by a SHA-1 digest of the input SDP plus the munger
+ * configuration and the local/remote direction, so a description munged the
+ * same way twice is only munged once. Only digests are kept for inputs,
+ * munged strings are shared.
+ *
+ * <p>A lookup digests the whole input, so the cache only pays off for
+ * callers munging the same SDP repeatedly. That's why it lives here rather
+ * than in signaling-core: every call has new ICE credentials and
+ * fingerprints, and the remote description is never the input of a local
+ * munge. SdpMungingBenchmark measures the cost of a hit against munging.
+ *
+ * <p>All methods are thread safe.
+ */
+public class SdpTransformCache {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final int maxEntries;
+  private final Map<String, String> entries;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Cache statistics snapshot.
+   */
+  public static class Stats {
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final int size;
+    public final int maxSize;
+
+    Stats(long hits, long misses, long evictions, int size, int maxSize) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.size = size;
+      this.maxSize = maxSize;
+    }
+
+    /** Returns hits / lookups, 0 if there were no lookups. */
+    public double getHitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+          + ", size: " + size + "/" + maxSize;
+    }
+  }
+
+  public SdpTransformCache(int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    // Access ordered map, eldest entry is the least recently used one.
+    entries = new LinkedHashMap<String, String>(maxEntries + 1, 1.0f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        if (size() > SdpTransformCache.this.maxEntries) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /** Cached SdpMunger.mungeLocalDescription(). */
+  public String mungeLocalDescription(SdpMunger munger, String sdpDescription) {
+    String key = key('L', munger, sdpDescription);
+    String munged = get(key);
+    if (munged == null) {
+      munged = munger.mungeLocalDescription(sdpDescription);
+      put(key, munged);
+    }
+    return munged;
+  }
+
+  /** Cached SdpMunger.mungeRemoteDescription(). */
+  public String mungeRemoteDescription(SdpMunger munger, String sdpDescription) {
+    String key = key('R', munger, sdpDescription);
+    String munged = get(key);
+    if (munged == null) {
+      munged = munger.mungeRemoteDescription(sdpDescription);
+      put(key, munged);
+    }
+    return munged;
+  }
+
+  public synchronized Stats getStats() {
+    return new Stats(hits, misses, evictions, entries.size(), maxEntries);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private synchronized String get(String key) {
+    String munged = entries.get(key);
+    if (munged != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return munged;
+  }
+
+  private synchronized void put(String key, String munged) {
+    entries.put(key, munged);
+  }
+
+  // Digest is computed outside of the lock.
+  private static String key(char direction, SdpMunger munger, String sdpDescription) {
+    byte[] digest;
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      digest = sha1.digest(sdpDescription.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    String config = munger.getConfigKey();
+    StringBuilder key = new StringBuilder(config.length() + 2 + digest.length * 2);
+    key.append(direction).append(config).append('|');
+    for (byte b : digest) {
+      key.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+    }
+    return key.toString();
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import org.appspot.apprtc.BinarySignalingCodec;
+import org.appspot.apprtc.SignalingCodec;
+import org.appspot.apprtc.SignalingMessage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SignalingCodec against the org.json path it replaced, for WebSocket
+ * messages in both directions: a candidate, which is what most signaling
+ * messages are, and offers and answers over the SDP corpus. The binary
+ * encoding direct TCP peers use is measured on the same messages.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SignalingCodecBenchmark {
+  private static final List<String> CAPABILITIES =
+      Arrays.asList("sdp-deflate-v1", "ice-batch-v1");
+
+  @Param({
+    SdpCorpus.LIBJINGLE_OFFER,
+    SdpCorpus.CHROME_OFFER,
+    SdpCorpus.CHROME_SIMULCAST_OFFER,
+    SdpCorpus.FIREFOX_ANSWER
+  })
+  public String sdpFile;
+
+  private final SignalingCodec codec = new SignalingCodec();
+  private final BinarySignalingCodec binaryCodec = new BinarySignalingCodec();
+  private IceCandidate candidate;
+  private SessionDescription answer;
+  private String candidateEnvelope;
+  private String sdpEnvelope;
+  private byte[] binaryCandidate;
+  private byte[] binarySdp;
+
+  @Setup
+  public void setUp() throws JSONException {
+    candidate = new IceCandidate("audio", 0,
+        "candidate:3013953624 1 udp 2122262783 2001:db8::7a3c:1f3b 51520 typ host"
+        + " generation 0 ufrag 4ZcD network-id 2 network-cost 50");
+    String sdp = SdpCorpus.load(sdpFile);
+    answer = new SessionDescription(SessionDescription.Type.ANSWER, sdp);
+    candidateEnvelope = toEnvelope(LegacySignalingJson.encodeSendCandidate(candidate));
+    sdpEnvelope = toEnvelope(LegacySignalingJson.encodeSendAnswer(answer, CAPABILITIES));
+    binaryCandidate = binaryCodec.encode(SignalingMessage.candidate(candidate));
+    binarySdp = binaryCodec.encode(SignalingMessage.description(answer, false, CAPABILITIES));
+  }
+
+  // Turns a "send" command into the envelope the WebSocket server delivers.
+  private static String toEnvelope(String send) throws JSONException {
+    JSONObject envelope = new JSONObject();
+    envelope.put("msg", new JSONObject(send).getString("msg"));
+    envelope.put("error", "");
+    return envelope.toString();
+  }
+
+  @Benchmark
+  public Object decodeCandidateJson() throws JSONException {
+    return LegacySignalingJson.decodeWebSocket(candidateEnvelope);
+  }
+
+  @Benchmark
+  public SignalingMessage decodeCandidateCodec() throws JSONException {
+    return codec.decodeWebSocket(candidateEnvelope);
+  }
+
+  @Benchmark
+  public Object decodeSdpJson() throws JSONException {
+    return LegacySignalingJson.decodeWebSocket(sdpEnvelope);
+  }
+
+  @Benchmark
+  public SignalingMessage decodeSdpCodec() throws JSONException {
+    return codec.decodeWebSocket(sdpEnvelope);
+  }
+
+  @Benchmark
+  public String encodeCandidateJson() throws JSONException {
+    return LegacySignalingJson.encodeSendCandidate(candidate);
+  }
+
+  @Benchmark
+  public String encodeCandidateCodec() {
+    return codec.encodeSend(codec.encode(SignalingMessage.candidate(candidate)));
+  }
+
+  @Benchmark
+  public String encodeSdpJson() throws JSONException {
+    return LegacySignalingJson.encodeSendAnswer(answer, CAPABILITIES);
+  }
+
+  @Benchmark
+  public String encodeSdpCodec() {
+    return codec.encodeSend(codec.encode(
+        SignalingMessage.description(answer, false, CAPABILITIES)));
+  }
+
+  @Benchmark
+  public SignalingMessage decodeCandidateBinary() {
+    return binaryCodec.decode(binaryCandidate);
+  }
+
+  @Benchmark
+  public SignalingMessage decodeSdpBinary() {
+    return binaryCodec.decode(binarySdp);
+  }
+
+  @Benchmark
+  public byte[] encodeCandidateBinary() {
+    return binaryCodec.encode(SignalingMessage.candidate(candidate));
+  }
+
+  @Benchmark
+  public byte[] encodeSdpBinary() {
+    return binaryCodec.encode(SignalingMessage.description(answer, false, CAPABILITIES));
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.appspot.apprtc.SdpCompressor;
+import org.junit.Test;
+
+/** SdpCompressor over the benchmark corpus. */
+public class SdpCorpusCompressionTest {
+  @Test
+  public void roundTripsCorpus() {
+    for (String name : SdpCorpus.ALL) {
+      String sdp = SdpCorpus.load(name);
+      String compressed = SdpCompressor.compress(sdp);
+      assertEquals(name, sdp, SdpCompressor.decompress(compressed));
+      // Base64 included, the dictionary should at least halve every description.
+      assertTrue(name + ": " + compressed.length() + "/" + sdp.length(),
+          compressed.length() < sdp.length() / 2);
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import org.appspot.apprtc.SdpDescription;
+import org.appspot.apprtc.SdpDescription.Codec;
+import org.appspot.apprtc.SdpDescription.MediaSection;
+import org.appspot.apprtc.SdpMunger;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * SdpMunger against the regex munging it replaced, over the benchmark corpus.
+ *
+ * <p>The output is identical where the legacy code was correct. SdpMunger
+ * differs on purpose when a codec has several payload types or there are
+ * several sections of a kind, since the legacy code only handled the first
+ * one, and when an fmtp line starts with a hyphenated parameter, which the
+ * legacy code didn't recognize and duplicated.
+ */
+public class SdpMungerLegacyTest {
+  private static final String[] AUDIO_CODECS = {"opus", "ISAC"};
+  private static final String[] VIDEO_CODECS = {"VP8", "VP9", "H264"};
+  private static final int VIDEO_START_BITRATE_KBPS = 1000;
+  private static final int AUDIO_START_BITRATE_KBPS = 32;
+  private static final String VIDEO_START_BITRATE_PARAM = "x-google-start-bitrate";
+  private static final String AUDIO_BITRATE_PARAM = "maxaveragebitrate";
+  // Parameter lines the legacy code could extend, see setStartBitrate().
+  private static final Pattern LEGACY_FMTP = Pattern.compile("^a=fmtp:\\d+ \\w+=\\d+.*$");
+  private static final List<String> NONE = Collections.emptyList();
+
+  @Test
+  public void preferCodecMatchesLegacy() {
+    for (String name : SdpCorpus.ALL) {
+      String sdp = SdpCorpus.load(name);
+      for (String codec : AUDIO_CODECS) {
+        checkPreferCodec(name, sdp, codec, true);
+      }
+      for (String codec : VIDEO_CODECS) {
+        checkPreferCodec(name, sdp, codec, false);
+      }
+    }
+  }
+
+  @Test
+  public void videoStartBitrateMatchesLegacy() {
+    SdpMunger munger = new SdpMunger(NONE, NONE, false, VIDEO_START_BITRATE_KBPS, 0, 0, 0, 0);
+    for (String name : SdpCorpus.ALL) {
+      String sdp = SdpCorpus.load(name);
+      String legacy = sdp;
+      for (String codec : VIDEO_CODECS) {
+        legacy = LegacySdpMunging.setStartBitrate(codec, true, legacy, VIDEO_START_BITRATE_KBPS);
+      }
+      checkStartBitrate(name, sdp, legacy, munger.mungeRemoteDescription(sdp), "video",
+          VIDEO_CODECS, VIDEO_START_BITRATE_PARAM + "=" + VIDEO_START_BITRATE_KBPS);
+    }
+  }
+
+  @Test
+  public void audioStartBitrateMatchesLegacy() {
+    SdpMunger munger = new SdpMunger(NONE, NONE, false, 0, 0, 0, AUDIO_START_BITRATE_KBPS, 0);
+    for (String name : SdpCorpus.ALL) {
+      String sdp = SdpCorpus.load(name);
+      String legacy =
+          LegacySdpMunging.setStartBitrate("opus", false, sdp, AUDIO_START_BITRATE_KBPS);
+      checkStartBitrate(name, sdp, legacy, munger.mungeRemoteDescription(sdp), "audio",
+          new String[] {"opus"}, AUDIO_BITRATE_PARAM + "=" + AUDIO_START_BITRATE_KBPS * 1000);
+    }
+  }
+
+  @Test
+  public void libjingleDescriptionsAreIdentical() {
+    String[] names = {SdpCorpus.LIBJINGLE_OFFER, SdpCorpus.LIBJINGLE_ANSWER};
+    for (String name : names) {
+      String sdp = SdpCorpus.load(name);
+      for (String codec : VIDEO_CODECS) {
+        SdpMunger munger =
+            new SdpMunger(NONE, Collections.singletonList(codec), false, 0, 0, 0, 0, 0);
+        assertEquals(name + " " + codec, LegacySdpMunging.preferCodec(sdp, codec, false),
+            munger.mungeLocalDescription(sdp));
+      }
+      SdpMunger munger = new SdpMunger(NONE, NONE, false, VIDEO_START_BITRATE_KBPS, 0, 0,
+          AUDIO_START_BITRATE_KBPS, 0);
+      String legacy = sdp;
+      for (String codec : VIDEO_CODECS) {
+        legacy = LegacySdpMunging.setStartBitrate(codec, true, legacy, VIDEO_START_BITRATE_KBPS);
+      }
+      legacy = LegacySdpMunging.setStartBitrate("opus", false, legacy, AUDIO_START_BITRATE_KBPS);
+      assertEquals(name, legacy, munger.mungeRemoteDescription(sdp));
+    }
+  }
+
+  private static void checkPreferCodec(String name, String sdp, String codec, boolean isAudio) {
+    String kind = isAudio ? "audio" : "video";
+    List<String> codecs = Collections.singletonList(codec);
+    SdpMunger munger = new SdpMunger(isAudio ? codecs : NONE, isAudio ? NONE : codecs, false,
+        0, 0, 0, 0, 0);
+    String munged = munger.mungeLocalDescription(sdp);
+    String legacy = LegacySdpMunging.preferCodec(sdp, codec, isAudio);
+    String message = name + " " + codec;
+
+    // Only media lines change.
+    assertEquals(message, withoutMediaLines(legacy), withoutMediaLines(munged));
+    List<MediaSection> original = SdpDescription.parse(sdp).getMediaSections(kind);
+    List<MediaSection> mungedSections = SdpDescription.parse(munged).getMediaSections(kind);
+    List<MediaSection> legacySections = SdpDescription.parse(legacy).getMediaSections(kind);
+    if (original.isEmpty() || original.get(0).findCodecs(codec).isEmpty()) {
+      assertEquals(message, legacy, munged);
+      return;
+    }
+    // The legacy code moved one payload type in the first section of the kind.
+    assertEquals(message, legacySections.get(0).getFormats().get(0),
+        mungedSections.get(0).getFormats().get(0));
+    // SdpMunger moves all of them, in all sections.
+    int payloadTypes = 0;
+    for (int i = 0; i < original.size(); i++) {
+      List<String> expected = new ArrayList<String>();
+      for (Codec found : original.get(i).findCodecs(codec)) {
+        expected.add(found.getPayloadType());
+      }
+      payloadTypes = Math.max(payloadTypes, expected.size());
+      for (String format : original.get(i).getFormats()) {
+        if (!expected.contains(format)) {
+          expected.add(format);
+        }
+      }
+      assertEquals(message, expected, mungedSections.get(i).getFormats());
+    }
+    if (payloadTypes == 1 && original.size() == 1) {
+      assertEquals(message, legacy, munged);
+    }
+  }
+
+  private static void checkStartBitrate(String name, String sdp, String legacy, String munged,
+      String kind, String[] codecs, String param) {
+    List<List<String>> originalSections = sections(sdp);
+    List<List<String>> legacySections = sections(legacy);
+    List<List<String>> mungedSections = sections(munged);
+    assertEquals(name, originalSections.size(), mungedSections.size());
+    for (int i = 0; i < originalSections.size(); i++) {
+      String message = name + " section " + i;
+      // Only fmtp lines change.
+      assertEquals(message, withoutFmtp(legacySections.get(i)),
+          withoutFmtp(mungedSections.get(i)));
+      if (i == 0) {
+        continue;
+      }
+      MediaSection section = SdpDescription.parse(sdp).getMediaSections().get(i - 1);
+      if (!section.getKind().equals(kind)) {
+        assertEquals(message, originalSections.get(i), mungedSections.get(i));
+        continue;
+      }
+      for (String codec : codecs) {
+        for (Codec found : section.findCodecs(codec)) {
+          String payloadType = found.getPayloadType();
+          List<String> original = fmtpLines(originalSections.get(i), payloadType);
+          List<String> legacyLines = fmtpLines(legacySections.get(i), payloadType);
+          List<String> mungedLines = fmtpLines(mungedSections.get(i), payloadType);
+          String expected = original.isEmpty()
+              ? "a=fmtp:" + payloadType + " " + param
+              : original.get(0) + "; " + param;
+          assertEquals(message + " " + payloadType,
+              Collections.singletonList(expected), mungedLines);
+          boolean legacyUpdated = !legacyLines.equals(original);
+          boolean legacyCorrect =
+              original.isEmpty() || LEGACY_FMTP.matcher(original.get(0)).matches();
+          if (legacyUpdated && legacyCorrect) {
+            assertEquals(message + " " + payloadType, legacyLines, mungedLines);
+          } else if (legacyUpdated) {
+            // The legacy code added a second fmtp line.
+            assertEquals(message + " " + payloadType, 2, legacyLines.size());
+          }
+        }
+      }
+    }
+  }
+
+  // Splits |sdp| into lines of the session part and each media section.
+  private static List<List<String>> sections(String sdp) {
+    List<List<String>> sections = new ArrayList<List<String>>();
+    List<String> section = new ArrayList<String>();
+    sections.add(section);
+    for (String line : sdp.split("\r\n")) {
+      if (line.startsWith("m=")) {
+        section = new ArrayList<String>();
+        sections.add(section);
+      }
+      section.add(line);
+    }
+    return sections;
+  }
+
+  private static List<String> fmtpLines(List<String> section, String payloadType) {
+    List<String> lines = new ArrayList<String>();
+    for (String line : section) {
+      if (line.startsWith("a=fmtp:" + payloadType + " ")) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static List<String> withoutFmtp(List<String> section) {
+    List<String> lines = new ArrayList<String>();
+    for (String line : section) {
+      if (!line.startsWith("a=fmtp:")) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static List<String> withoutMediaLines(String sdp) {
+    List<String> lines = new ArrayList<String>();
+    for (String line : sdp.split("\r\n")) {
+      if (!line.startsWith("m=")) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+}
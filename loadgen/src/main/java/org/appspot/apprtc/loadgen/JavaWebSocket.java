@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.loadgen;
+
+import de.tavendo.autobahn.WebSocket;
+import de.tavendo.autobahn.WebSocket.WebSocketConnectionObserver.WebSocketCloseNotification;
+import de.tavendo.autobahn.WebSocketException;
+import de.tavendo.autobahn.WebSocketOptions;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Random;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Blocking RFC 6455 WebSocket client for the JVM, standing in for the autobahn
+ * WebSocketConnection which needs the Android Handler.
+ *
+ * <p>Every connection has its own thread, which connects, reads messages and
+ * fires all observer events. Messages are written by the calling thread.
+ */
+class JavaWebSocket implements WebSocket {
+  private static final int CONNECT_TIMEOUT_MS = 10000;
+  private static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+  private static final int OPCODE_CONTINUATION = 0x0;
+  private static final int OPCODE_TEXT = 0x1;
+  private static final int OPCODE_BINARY = 0x2;
+  private static final int OPCODE_CLOSE = 0x8;
+  private static final int OPCODE_PING = 0x9;
+  private static final int OPCODE_PONG = 0xA;
+  private static final char[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private final Random random = new Random();
+  // Guarded by |this|.
+  private Socket socket;
+  private OutputStream output;
+  private boolean open;
+  private boolean disconnected;
+  private WebSocketConnectionObserver observer;
+
+  @Override
+  public void connect(URI uri, WebSocketConnectionObserver observer) throws WebSocketException {
+    connect(uri, observer, new WebSocketOptions());
+  }
+
+  /** Connects asynchronously, |options| are ignored. */
+  @Override
+  public synchronized void connect(final URI uri, WebSocketConnectionObserver observer,
+      WebSocketOptions options) throws WebSocketException {
+    if (this.observer != null) {
+      throw new WebSocketException("Already connected.");
+    }
+    if (!"ws".equals(uri.getScheme()) && !"wss".equals(uri.getScheme())) {
+      throw new WebSocketException("Unsupported scheme: " + uri.getScheme());
+    }
+    if (uri.getHost() == null) {
+      throw new WebSocketException("No host: " + uri);
+    }
+    this.observer = observer;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runConnection(uri);
+      }
+    }, "websocket-" + uri.getHost());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void disconnect() {
+    Socket closing;
+    synchronized (this) {
+      if (disconnected) {
+        return;
+      }
+      disconnected = true;
+      closing = socket;
+      if (open) {
+        try {
+          writeFrame(OPCODE_CLOSE, new byte[0]);
+        } catch (IOException e) {
+          // Closed anyway.
+        }
+      }
+    }
+    if (closing != null) {
+      closeQuietly(closing);
+    }
+  }
+
+  @Override
+  public synchronized boolean isConnected() {
+    return open && !disconnected;
+  }
+
+  @Override
+  public void sendTextMessage(String payload) {
+    sendRawTextMessage(toBytes(payload));
+  }
+
+  @Override
+  public void sendRawTextMessage(byte[] payload) {
+    send(OPCODE_TEXT, payload);
+  }
+
+  @Override
+  public void sendBinaryMessage(byte[] payload) {
+    send(OPCODE_BINARY, payload);
+  }
+
+  private synchronized void send(int opcode, byte[] payload) {
+    if (!isConnected()) {
+      return;
+    }
+    try {
+      writeFrame(opcode, payload);
+    } catch (IOException e) {
+      // The reader sees the broken connection and reports it.
+      closeQuietly(socket);
+    }
+  }
+
+  // Runs on the connection thread.
+  private void runConnection(URI uri) {
+    WebSocketCloseNotification code = WebSocketCloseNotification.CANNOT_CONNECT;
+    String reason = null;
+    try {
+      boolean secure = "wss".equals(uri.getScheme());
+      int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+      Socket newSocket = secure ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+      synchronized (this) {
+        if (disconnected) {
+          throw new IOException("Disconnected.");
+        }
+        socket = newSocket;
+      }
+      newSocket.setTcpNoDelay(true);
+      newSocket.connect(new InetSocketAddress(uri.getHost(), port), CONNECT_TIMEOUT_MS);
+      DataInputStream input =
+          new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+      synchronized (this) {
+        output = newSocket.getOutputStream();
+        output.write(toBytes(handshakeRequest(uri, port)));
+        output.flush();
+      }
+      readHandshakeResponse(input);
+      synchronized (this) {
+        open = true;
+      }
+      code = WebSocketCloseNotification.CONNECTION_LOST;
+      observer.onOpen();
+      readMessages(input);
+      code = WebSocketCloseNotification.NORMAL;
+    } catch (IOException e) {
+      reason = e.getMessage();
+    } finally {
+      Socket closing;
+      synchronized (this) {
+        open = false;
+        closing = socket;
+        if (disconnected) {
+          code = WebSocketCloseNotification.NORMAL;
+        }
+      }
+      if (closing != null) {
+        closeQuietly(closing);
+      }
+      observer.onClose(code, reason);
+    }
+  }
+
+  // Reads messages until the server closes the connection.
+  private void readMessages(DataInputStream input) throws IOException {
+    ByteArrayOutputStream message = new ByteArrayOutputStream();
+    int messageOpcode = -1;
+    while (true) {
+      int first = input.readUnsignedByte();
+      int second = input.readUnsignedByte();
+      boolean fin = (first & 0x80) != 0;
+      int opcode = first & 0x0f;
+      long length = second & 0x7f;
+      if (length == 126) {
+        length = input.readUnsignedShort();
+      } else if (length == 127) {
+        length = input.readLong();
+      }
+      if (length < 0 || message.size() + length > MAX_MESSAGE_LENGTH) {
+        throw new IOException("Message too long: " + length);
+      }
+      // Servers don't mask, but accept it anyway.
+      byte[] mask = new byte[4];
+      if ((second & 0x80) != 0) {
+        input.readFully(mask);
+      }
+      byte[] payload = new byte[(int) length];
+      input.readFully(payload);
+      for (int i = 0; i < payload.length; i++) {
+        payload[i] ^= mask[i % 4];
+      }
+      switch (opcode) {
+        case OPCODE_CLOSE:
+          disconnect();
+          return;
+        case OPCODE_PING:
+          send(OPCODE_PONG, payload);
+          continue;
+        case OPCODE_TEXT:
+        case OPCODE_BINARY:
+          messageOpcode = opcode;
+          message.reset();
+          break;
+        case OPCODE_CONTINUATION:
+          break;
+        default:
+          continue;
+      }
+      message.write(payload);
+      if (fin) {
+        byte[] data = message.toByteArray();
+        message.reset();
+        if (messageOpcode == OPCODE_TEXT) {
+          observer.onTextMessage(new String(data, "UTF-8"));
+          observer.onRawTextMessage(data);
+        } else {
+          observer.onBinaryMessage(data);
+        }
+      }
+    }
+  }
+
+  private String handshakeRequest(URI uri, int port) {
+    byte[] key = new byte[16];
+    random.nextBytes(key);
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+    if (uri.getRawQuery() != null) {
+      path += "?" + uri.getRawQuery();
+    }
+    String host = uri.getHost() + ":" + port;
+    return "GET " + path + " HTTP/1.1\r\n"
+        + "Host: " + host + "\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Origin: http://" + host + "\r\n"
+        + "Sec-WebSocket-Key: " + base64(key) + "\r\n"
+        + "Sec-WebSocket-Version: 13\r\n\r\n";
+  }
+
+  private static void readHandshakeResponse(DataInputStream input) throws IOException {
+    String status = readLine(input);
+    if (!status.startsWith("HTTP/1.1 101")) {
+      throw new IOException("WebSocket handshake failed: " + status);
+    }
+    while (readLine(input).length() > 0) {
+      // Headers are not checked.
+    }
+  }
+
+  // Called with |this| locked.
+  private void writeFrame(int opcode, byte[] payload) throws IOException {
+    ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+    frame.write(0x80 | opcode);
+    // Client frames are always masked.
+    if (payload.length < 126) {
+      frame.write(0x80 | payload.length);
+    } else if (payload.length <= 0xffff) {
+      frame.write(0x80 | 126);
+      frame.write(payload.length >> 8);
+      frame.write(payload.length);
+    } else {
+      frame.write(0x80 | 127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        frame.write((int) ((long) payload.length >> shift));
+      }
+    }
+    byte[] mask = new byte[4];
+    random.nextBytes(mask);
+    frame.write(mask, 0, mask.length);
+    for (int i = 0; i < payload.length; i++) {
+      frame.write(payload[i] ^ mask[i % 4]);
+    }
+    output.write(frame.toByteArray());
+    output.flush();
+  }
+
+  // Reads one ISO-8859-1 header line without the line terminator.
+  private static String readLine(DataInputStream input) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = input.read()) != '\n') {
+      if (c == -1) {
+        throw new IOException("Connection closed during handshake.");
+      }
+      if (c != '\r') {
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Already closed.
+    }
+  }
+
+  // java.util.Base64 needs Java 8.
+  private static String base64(byte[] data) {
+    StringBuilder encoded = new StringBuilder((data.length + 2) / 3 * 4);
+    for (int i = 0; i < data.length; i += 3) {
+      int remaining = Math.min(3, data.length - i);
+      int bits = (data[i] & 0xff) << 16;
+      if (remaining > 1) {
+        bits |= (data[i + 1] & 0xff) << 8;
+      }
+      if (remaining > 2) {
+        bits |= data[i + 2] & 0xff;
+      }
+      for (int j = 0; j < 4; j++) {
+        encoded.append(j <= remaining ? BASE64[(bits >> (18 - 6 * j)) & 0x3f] : '=');
+      }
+    }
+    return encoded.toString();
+  }
+
+  private static byte[] toBytes(String text) {
+    try {
+      return text.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
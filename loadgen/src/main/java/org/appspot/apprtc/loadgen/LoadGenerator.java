@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.loadgen;
+
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signaling load generator. Runs many simulated calls through the
+ * WebSocketRTCClient or DirectRTCClient of the app, each between two
+ * SimulatedPeers exchanging a libjingle offer and answer and host candidates.
+ *
+ * <p>Calls arrive in bursts: |burstSize| calls are started at once, every
+ * |burstIntervalMs|. Every peer has its own client with its looper thread,
+ * plus the threads of its WebSocket or TCP connection and HTTP requests, so
+ * a few thousand calls need a few thousand threads.
+ */
+public class LoadGenerator {
+  // Leave requests of the last calls are sent after they finished.
+  private static final long LEAVE_GRACE_MS = 1000;
+
+  /**
+   * Signaling client of the calls.
+   */
+  public enum Mode {
+    // WebSocketRTCClient against a room server.
+    WEBSOCKET,
+    // DirectRTCClient over loopback TCP.
+    DIRECT
+  }
+
+  /**
+   * Struct holding the parameters of a run.
+   */
+  public static class Parameters {
+    public final Mode mode;
+    // Room server URL of WebSocket calls.
+    public final String roomUrl;
+    // Direct call |i| listens on port |directBasePort| + |i|.
+    public final int directBasePort;
+    public final int calls;
+    public final int burstSize;
+    public final long burstIntervalMs;
+    // ICE candidates sent by each peer.
+    public final int candidates;
+    // Time a call is kept after it was set up.
+    public final long holdMs;
+    // Calls not set up within this time fail.
+    public final long timeoutMs;
+    public final boolean sdpCompression;
+    public final int iceBatchWindowMs;
+    // Room message POSTs of each call initiator outstanding at once.
+    public final int maxMessagesInFlight;
+    // Room server requests of all clients running at once. An app has a
+    // pool of 4, which would throttle thousands of clients in one process.
+    public final int maxHttpRequests;
+
+    public Parameters(Mode mode, String roomUrl, int directBasePort, int calls, int burstSize,
+        long burstIntervalMs, int candidates, long holdMs, long timeoutMs,
+        boolean sdpCompression, int iceBatchWindowMs, int maxMessagesInFlight,
+        int maxHttpRequests) {
+      this.mode = mode;
+      this.roomUrl = roomUrl;
+      this.directBasePort = directBasePort;
+      this.calls = calls;
+      this.burstSize = burstSize;
+      this.burstIntervalMs = burstIntervalMs;
+      this.candidates = candidates;
+      this.holdMs = holdMs;
+      this.timeoutMs = timeoutMs;
+      this.sdpCompression = sdpCompression;
+      this.iceBatchWindowMs = iceBatchWindowMs;
+      this.maxMessagesInFlight = maxMessagesInFlight;
+      this.maxHttpRequests = maxHttpRequests;
+    }
+  }
+
+  private final Parameters parameters;
+
+  public LoadGenerator(Parameters parameters) {
+    if (parameters.calls < 1 || parameters.burstSize < 1 || parameters.maxHttpRequests < 1
+        || parameters.maxMessagesInFlight < 1) {
+      throw new IllegalArgumentException("At least one call, one call per burst, one HTTP"
+          + " request and one room message in flight needed.");
+    }
+    this.parameters = parameters;
+  }
+
+  /** Runs all calls and returns once every call was set up and ended, or failed. */
+  public LoadReport run() throws InterruptedException {
+    String offerSdp = loadSdp("libjingle-offer.sdp");
+    String answerSdp = loadSdp("libjingle-answer.sdp");
+    AsyncHttpURLConnection.setMaxConcurrentRequests(parameters.maxHttpRequests);
+    LoadReport report = new LoadReport();
+    CountDownLatch finished = new CountDownLatch(parameters.calls);
+    ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "loadgen-scheduler");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    // Rooms of an earlier run may still exist on the server.
+    String runId = Integer.toHexString(new Random().nextInt());
+    long startNs = System.nanoTime();
+    for (int i = 0; i < parameters.calls; i++) {
+      final SimulatedCall call = new SimulatedCall(parameters, "loadgen-" + runId + "-" + i,
+          parameters.directBasePort + i, scheduler, report, finished, offerSdp, answerSdp);
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          call.start();
+        }
+      }, (i / parameters.burstSize) * parameters.burstIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    try {
+      finished.await();
+      report.setDurationMs((System.nanoTime() - startNs) / 1000000);
+      Thread.sleep(LEAVE_GRACE_MS);
+    } finally {
+      scheduler.shutdownNow();
+    }
+    return report;
+  }
+
+  // SDP of the corpus shared with the benchmarks.
+  private static String loadSdp(String name) {
+    InputStream in = LoadGenerator.class.getResourceAsStream("/sdp/" + name);
+    if (in == null) {
+      throw new IllegalStateException("No SDP resource: " + name);
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      in.close();
+      return out.toString("UTF-8");
+    } catch (IOException e) {
+      throw new IllegalStateException("Can not read SDP " + name, e);
+    }
+  }
+}
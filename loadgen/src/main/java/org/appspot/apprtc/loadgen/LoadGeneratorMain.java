@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.loadgen;
+
+import org.appspot.apprtc.AppRTCClient.RoomConnectionParameters;
+import org.appspot.apprtc.roomserver.FaultInjection;
+import org.appspot.apprtc.roomserver.RoomServer;
+import org.appspot.apprtc.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Locale;
+
+/**
+ * Runs a LoadGenerator and prints its report.
+ *
+ * <p>Options: --mode websocket|direct (default websocket), --calls N
+ * (default 100), --burst N calls started at once (default all),
+ * --burst-interval-ms MS (default 1000), --candidates N per peer (default
+ * 4), --hold-ms MS (default 1000), --timeout-ms MS (default 30000),
+ * --sdp-compression true|false, --ice-batch-window-ms MS,
+ * --max-messages-in-flight N room message POSTs per client (default 4),
+ * --max-http-requests N running at once (default 256) and
+ * --direct-base-port PORT (default 20000).
+ *
+ * <p>WebSocket calls go to --room-url URL, or to a RoomServer started in
+ * process with the injected faults --latency-ms MS, --jitter-ms MS,
+ * --http-error-rate RATE, --message-drop-rate RATE and --seed SEED.
+ *
+ * <p>Only warnings and errors of the signaling clients are logged.
+ */
+public class LoadGeneratorMain {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Log.setSink(new Log.StreamSink(System.err, Log.WARN));
+    LoadGenerator.Mode mode = LoadGenerator.Mode.WEBSOCKET;
+    String roomUrl = null;
+    int directBasePort = 20000;
+    int calls = 100;
+    int burstSize = 0;
+    long burstIntervalMs = 1000;
+    int candidates = 4;
+    long holdMs = 1000;
+    long timeoutMs = 30000;
+    boolean sdpCompression = false;
+    int iceBatchWindowMs = 0;
+    int maxMessagesInFlight = RoomConnectionParameters.DEFAULT_MAX_MESSAGES_IN_FLIGHT;
+    int maxHttpRequests = 256;
+    long latencyMs = 0;
+    long jitterMs = 0;
+    double httpErrorRate = 0;
+    double messageDropRate = 0;
+    long seed = System.nanoTime();
+    for (int i = 0; i < args.length; i++) {
+      String option = args[i];
+      if (i + 1 == args.length) {
+        usage("Missing value for " + option);
+      }
+      String value = args[++i];
+      try {
+        if (option.equals("--mode")) {
+          mode = LoadGenerator.Mode.valueOf(value.toUpperCase(Locale.US));
+        } else if (option.equals("--room-url")) {
+          roomUrl = value;
+        } else if (option.equals("--direct-base-port")) {
+          directBasePort = Integer.parseInt(value);
+        } else if (option.equals("--calls")) {
+          calls = Integer.parseInt(value);
+        } else if (option.equals("--burst")) {
+          burstSize = Integer.parseInt(value);
+        } else if (option.equals("--burst-interval-ms")) {
+          burstIntervalMs = Long.parseLong(value);
+        } else if (option.equals("--candidates")) {
+          candidates = Integer.parseInt(value);
+        } else if (option.equals("--hold-ms")) {
+          holdMs = Long.parseLong(value);
+        } else if (option.equals("--timeout-ms")) {
+          timeoutMs = Long.parseLong(value);
+        } else if (option.equals("--sdp-compression")) {
+          sdpCompression = Boolean.parseBoolean(value);
+        } else if (option.equals("--ice-batch-window-ms")) {
+          iceBatchWindowMs = Integer.parseInt(value);
+        } else if (option.equals("--max-messages-in-flight")) {
+          maxMessagesInFlight = Integer.parseInt(value);
+        } else if (option.equals("--max-http-requests")) {
+          maxHttpRequests = Integer.parseInt(value);
+        } else if (option.equals("--latency-ms")) {
+          latencyMs = Long.parseLong(value);
+        } else if (option.equals("--jitter-ms")) {
+          jitterMs = Long.parseLong(value);
+        } else if (option.equals("--http-error-rate")) {
+          httpErrorRate = Double.parseDouble(value);
+        } else if (option.equals("--message-drop-rate")) {
+          messageDropRate = Double.parseDouble(value);
+        } else if (option.equals("--seed")) {
+          seed = Long.parseLong(value);
+        } else {
+          usage("Unknown option " + option);
+        }
+      } catch (IllegalArgumentException e) {
+        // Also thrown by Mode.valueOf().
+        usage("Invalid value for " + option + ": " + value);
+      }
+    }
+
+    RoomServer server = null;
+    if (mode == LoadGenerator.Mode.WEBSOCKET && roomUrl == null) {
+      server = new RoomServer(InetAddress.getLoopbackAddress(), 0,
+          new FaultInjection(latencyMs, jitterMs, httpErrorRate, messageDropRate, seed));
+      server.start();
+      roomUrl = server.getRoomUrl();
+    }
+    LoadGenerator generator = new LoadGenerator(new LoadGenerator.Parameters(mode, roomUrl,
+        directBasePort, calls, burstSize > 0 ? burstSize : calls, burstIntervalMs, candidates,
+        holdMs, timeoutMs, sdpCompression, iceBatchWindowMs, maxMessagesInFlight,
+        maxHttpRequests));
+    System.out.println("Running " + calls + " " + mode + " calls"
+        + (roomUrl != null ? " against " + roomUrl : ""));
+    try {
+      System.out.println(generator.run());
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  private static void usage(String error) {
+    System.err.println(error);
+    System.err.println("Options: [--mode websocket|direct] [--room-url URL] [--calls N]"
+        + " [--burst N] [--burst-interval-ms MS] [--candidates N] [--hold-ms MS]"
+        + " [--timeout-ms MS] [--sdp-compression true|false] [--ice-batch-window-ms MS]"
+        + " [--max-messages-in-flight N] [--max-http-requests N] [--direct-base-port PORT]"
+        + " [--latency-ms MS] [--jitter-ms MS]"
+        + " [--http-error-rate RATE] [--message-drop-rate RATE] [--seed SEED]");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.loadgen;
+
+import org.appspot.apprtc.SignalingLatencyTracker;
+import org.appspot.apprtc.SignalingMessage;
+import org.appspot.apprtc.util.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Results of a LoadGenerator run: join and call setup latencies, end-to-end
+ * message latencies per message type, the per-stage latencies recorded by
+ * the clients, and the failed calls per error.
+ *
+ * <p>Message latencies are measured from the AppRTCClient send call of one
+ * peer to the SignalingEvents callback of the other, both peers run in the
+ * same process so no clock synchronization is needed.
+ *
+ * <p>All methods are thread safe.
+ */
+public class LoadReport {
+  private static final SignalingMessage.Type[] MESSAGE_TYPES = {
+      SignalingMessage.Type.OFFER, SignalingMessage.Type.ANSWER, SignalingMessage.Type.CANDIDATE};
+  // URLs in errors differ per room and client.
+  private static final Pattern URL_PATTERN = Pattern.compile("\\w+://\\S+");
+
+  private final LatencyHistogram joinLatency = new LatencyHistogram();
+  private final LatencyHistogram setupLatency = new LatencyHistogram();
+  private final Map<SignalingMessage.Type, LatencyHistogram> messageLatencies =
+      new EnumMap<SignalingMessage.Type, LatencyHistogram>(SignalingMessage.Type.class);
+  private final SignalingLatencyTracker signalingLatencies = new SignalingLatencyTracker();
+  // Guarded by |this|.
+  private int callsStarted;
+  private int callsSetUp;
+  private int callsFailed;
+  private final Map<String, Integer> errors = new TreeMap<String, Integer>();
+  private long durationMs;
+
+  LoadReport() {
+    for (SignalingMessage.Type type : MESSAGE_TYPES) {
+      messageLatencies.put(type, new LatencyHistogram());
+    }
+  }
+
+  /** Time from connectToRoom() until onConnectedToRoom(), per peer. */
+  public LatencyHistogram getJoinLatency() {
+    return joinLatency;
+  }
+
+  /** Time from the start of a call until both peers got all messages. */
+  public LatencyHistogram getSetupLatency() {
+    return setupLatency;
+  }
+
+  /**
+   * End-to-end latency of messages of |type|, OFFER, ANSWER or CANDIDATE, or
+   * null for other types.
+   */
+  public LatencyHistogram getMessageLatency(SignalingMessage.Type type) {
+    return messageLatencies.get(type);
+  }
+
+  /** Per-stage latencies recorded by the clients, summed up. */
+  public SignalingLatencyTracker getSignalingLatencies() {
+    return signalingLatencies;
+  }
+
+  public synchronized int getCallsStarted() {
+    return callsStarted;
+  }
+
+  public synchronized int getCallsSetUp() {
+    return callsSetUp;
+  }
+
+  public synchronized int getCallsFailed() {
+    return callsFailed;
+  }
+
+  /**
+   * Failed calls per error kind: the error text up to the first ": ", with
+   * URLs replaced by "URL".
+   */
+  public synchronized Map<String, Integer> getErrors() {
+    return new TreeMap<String, Integer>(errors);
+  }
+
+  /** Fraction of the started calls which failed. */
+  public synchronized double getErrorRate() {
+    return callsStarted == 0 ? 0 : (double) callsFailed / callsStarted;
+  }
+
+  void onCallStarted() {
+    synchronized (this) {
+      callsStarted++;
+    }
+  }
+
+  void onPeerJoined(long joinNs) {
+    joinLatency.record(joinNs / 1000000);
+  }
+
+  void onMessageDelivered(SignalingMessage.Type type, long latencyNs) {
+    messageLatencies.get(type).record(latencyNs / 1000000);
+  }
+
+  void onCallSetUp(long setupNs) {
+    setupLatency.record(setupNs / 1000000);
+    synchronized (this) {
+      callsSetUp++;
+    }
+  }
+
+  // |error| is null for calls which were set up and ended after the hold time.
+  synchronized void onCallFinished(String error) {
+    if (error == null) {
+      return;
+    }
+    callsFailed++;
+    String kind = URL_PATTERN.matcher(error).replaceAll("URL");
+    int colon = kind.indexOf(": ");
+    if (colon > 0) {
+      kind = kind.substring(0, colon);
+    }
+    Integer count = errors.get(kind);
+    errors.put(kind, count == null ? 1 : count + 1);
+  }
+
+  void addSignalingLatencies(SignalingLatencyTracker tracker) {
+    signalingLatencies.add(tracker);
+  }
+
+  synchronized void setDurationMs(long durationMs) {
+    this.durationMs = durationMs;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Calls: ").append(callsStarted).append(" started, ").append(callsSetUp)
+        .append(" set up, ").append(callsFailed).append(" failed (error rate ")
+        .append(String.format(Locale.US, "%.2f", getErrorRate() * 100)).append(" %) in ")
+        .append(durationMs).append(" ms\n");
+    for (Map.Entry<String, Integer> error : errors.entrySet()) {
+      builder.append("  ").append(error.getValue()).append(" x ").append(error.getKey())
+          .append('\n');
+    }
+    builder.append("Join: ").append(format(joinLatency)).append('\n');
+    builder.append("Call setup: ").append(format(setupLatency)).append('\n');
+    for (SignalingMessage.Type type : MESSAGE_TYPES) {
+      builder.append("Message ").append(type).append(": ")
+          .append(format(messageLatencies.get(type))).append('\n');
+    }
+    builder.append("Client stages:\n").append(signalingLatencies);
+    return builder.toString();
+  }
+
+  private static String format(LatencyHistogram histogram) {
+    return "count: " + histogram.getCount() + ", avg: " + histogram.getAverageMs()
+        + " ms, p50: " + histogram.getPercentileMs(50) + " ms, p95: "
+        + histogram.getPercentileMs(95) + " ms, p99: " + histogram.getPercentileMs(99)
+        + " ms, max: " + histogram.getMaxMs() + " ms";
+  }
+}
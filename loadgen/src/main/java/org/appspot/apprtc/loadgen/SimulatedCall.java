@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.loadgen;
+
+import org.appspot.apprtc.AppRTCClient;
+import org.appspot.apprtc.AppRTCClient.RoomConnectionParameters;
+import org.appspot.apprtc.DirectRTCClient;
+import org.appspot.apprtc.SignalingMessage;
+import org.appspot.apprtc.WebSocketChannelClient;
+import org.appspot.apprtc.WebSocketRTCClient;
+import org.appspot.apprtc.util.ThreadExecutor;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import de.tavendo.autobahn.WebSocket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A call between two SimulatedPeers in one room.
+ *
+ * <p>WebSocket calls join the room with both peers at once, the room server
+ * decides which one is the initiator. Direct calls start listening with the
+ * first peer, which is the initiator, and dial with the second one. Dialing
+ * is retried while the listening socket isn't open yet.
+ *
+ * <p>The call is set up once both peers got the remote description and all
+ * remote candidates. It is then kept for the hold time and both peers leave.
+ * The first error, an unexpected close or the timeout fails the call.
+ */
+class SimulatedCall {
+  private static final int MAX_DIAL_ATTEMPTS = 5;
+  private static final long DIAL_DELAY_MS = 100;
+  private static final WebSocketChannelClient.WebSocketFactory WEB_SOCKET_FACTORY =
+      new WebSocketChannelClient.WebSocketFactory() {
+        @Override
+        public WebSocket createWebSocket() {
+          return new JavaWebSocket();
+        }
+      };
+
+  private final LoadGenerator.Parameters parameters;
+  private final String roomId;
+  private final int directPort;
+  private final ScheduledExecutorService scheduler;
+  private final LoadReport report;
+  private final CountDownLatch finished;
+  private final SimulatedPeer first;
+  private final SimulatedPeer second;
+  // Send times of messages in flight, see messageKey().
+  private final ConcurrentHashMap<String, Long> sentNs = new ConcurrentHashMap<String, Long>();
+  // Guarded by |this|.
+  private long startNs;
+  private int peersSetUp;
+  private int dialAttempts;
+  private boolean done;
+  private ScheduledFuture<?> timeout;
+
+  SimulatedCall(LoadGenerator.Parameters parameters, String roomId, int directPort,
+      ScheduledExecutorService scheduler, LoadReport report, CountDownLatch finished,
+      String offerSdp, String answerSdp) {
+    this.parameters = parameters;
+    this.roomId = roomId;
+    this.directPort = directPort;
+    this.scheduler = scheduler;
+    this.report = report;
+    this.finished = finished;
+    first = new SimulatedPeer(this, 1, parameters.candidates, offerSdp, answerSdp);
+    second = new SimulatedPeer(this, 2, parameters.candidates, offerSdp, answerSdp);
+  }
+
+  /** Key of |sdp| among the messages of a call. */
+  static String messageKey(SessionDescription sdp) {
+    return sdp.type.canonicalForm();
+  }
+
+  /** Key of |candidate| among the messages of a call. */
+  static String messageKey(IceCandidate candidate) {
+    return candidate.sdp;
+  }
+
+  void start() {
+    synchronized (this) {
+      startNs = System.nanoTime();
+      timeout = scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          finish("Timeout");
+        }
+      }, parameters.timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    report.onCallStarted();
+    if (parameters.mode == LoadGenerator.Mode.WEBSOCKET) {
+      first.start(connectionParameters(roomId));
+      second.start(connectionParameters(roomId));
+    } else {
+      first.start(connectionParameters("0.0.0.0:" + directPort));
+      dial(DIAL_DELAY_MS);
+    }
+  }
+
+  void onPeerJoined(SimulatedPeer peer, long joinNs) {
+    report.onPeerJoined(joinNs);
+  }
+
+  void onMessageSent(String key) {
+    sentNs.put(key, System.nanoTime());
+  }
+
+  void onMessageReceived(String key) {
+    Long sent = sentNs.remove(key);
+    if (sent == null) {
+      // Replayed.
+      return;
+    }
+    SignalingMessage.Type type;
+    if (key.equals(SessionDescription.Type.OFFER.canonicalForm())) {
+      type = SignalingMessage.Type.OFFER;
+    } else if (key.equals(SessionDescription.Type.ANSWER.canonicalForm())) {
+      type = SignalingMessage.Type.ANSWER;
+    } else {
+      type = SignalingMessage.Type.CANDIDATE;
+    }
+    report.onMessageDelivered(type, System.nanoTime() - sent);
+  }
+
+  void onPeerSetUp(SimulatedPeer peer) {
+    long setupNs;
+    synchronized (this) {
+      if (done || ++peersSetUp < 2) {
+        return;
+      }
+      setupNs = System.nanoTime() - startNs;
+      timeout.cancel(false);
+    }
+    report.onCallSetUp(setupNs);
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        finish(null);
+      }
+    }, parameters.holdMs, TimeUnit.MILLISECONDS);
+  }
+
+  void onPeerClosed(SimulatedPeer peer) {
+    finish("Channel closed");
+  }
+
+  // Called on the looper thread of |peer|.
+  void onPeerError(SimulatedPeer peer, String description) {
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      if (parameters.mode == LoadGenerator.Mode.DIRECT && peer == second
+          && !peer.hasReceived() && dialAttempts < MAX_DIAL_ATTEMPTS) {
+        peer.disconnect();
+        dial(DIAL_DELAY_MS << dialAttempts);
+        return;
+      }
+    }
+    finish(description);
+  }
+
+  private synchronized void dial(long delayMs) {
+    dialAttempts++;
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (SimulatedCall.this) {
+          if (done) {
+            return;
+          }
+        }
+        second.start(connectionParameters("127.0.0.1:" + directPort));
+      }
+    }, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  // Fails the call with |error|, or completes it if null.
+  private void finish(String error) {
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      done = true;
+      timeout.cancel(false);
+    }
+    AppRTCClient firstClient = first.disconnect();
+    AppRTCClient secondClient = second.disconnect();
+    report.onCallFinished(error);
+    if (firstClient != null) {
+      report.addSignalingLatencies(firstClient.getSignalingLatencyTracker());
+    }
+    if (secondClient != null) {
+      report.addSignalingLatencies(secondClient.getSignalingLatencyTracker());
+    }
+    finished.countDown();
+  }
+
+  /** Creates a client of the call's kind, for SimulatedPeer.start(). */
+  AppRTCClient createClient(AppRTCClient.SignalingEvents events) {
+    if (parameters.mode == LoadGenerator.Mode.WEBSOCKET) {
+      return new WebSocketRTCClient(events, new ThreadExecutor(), null, WEB_SOCKET_FACTORY);
+    }
+    return new DirectRTCClient(events);
+  }
+
+  private RoomConnectionParameters connectionParameters(String room) {
+    return new RoomConnectionParameters(parameters.roomUrl, room, false,
+        parameters.sdpCompression, false, parameters.iceBatchWindowMs, false,
+        parameters.maxMessagesInFlight);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.loadgen;
+
+import org.appspot.apprtc.AppRTCClient;
+import org.appspot.apprtc.AppRTCClient.RoomConnectionParameters;
+import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+/**
+ * One side of a simulated call. Answers the AppRTCClient events like
+ * CallActivity and PeerConnectionClient do, without a peer connection: the
+ * initiator sends an offer, the other side answers, and both send their
+ * host candidates right after their description.
+ *
+ * <p>Events are dispatched on the looper thread of the client. start() and
+ * disconnect() are called by SimulatedCall from any thread.
+ */
+class SimulatedPeer {
+  private final SimulatedCall call;
+  // Makes the candidates of the two peers of a call differ.
+  private final int peerIndex;
+  private final int candidateCount;
+  private final String offerSdp;
+  private final String answerSdp;
+  private volatile AppRTCClient client;
+  // Events of clients replaced by start() or gone by disconnect() are dropped.
+  private volatile ClientEvents currentEvents;
+  private long connectStartNs;
+  // Used on the looper thread of the client only.
+  private boolean received;
+  private boolean remoteDescriptionSet;
+  private int remoteCandidates;
+  private boolean setUp;
+
+  SimulatedPeer(SimulatedCall call, int peerIndex, int candidateCount, String offerSdp,
+      String answerSdp) {
+    this.call = call;
+    this.peerIndex = peerIndex;
+    this.candidateCount = candidateCount;
+    this.offerSdp = offerSdp;
+    this.answerSdp = answerSdp;
+  }
+
+  /** Joins the room with a new client, a previous one must be disconnected. */
+  void start(RoomConnectionParameters parameters) {
+    received = false;
+    remoteDescriptionSet = false;
+    remoteCandidates = 0;
+    setUp = false;
+    connectStartNs = System.nanoTime();
+    currentEvents = new ClientEvents();
+    client = call.createClient(currentEvents);
+    client.connectToRoom(parameters);
+  }
+
+  /** Leaves the room. Returns the client, or null if it never started. */
+  AppRTCClient disconnect() {
+    AppRTCClient disconnecting = client;
+    client = null;
+    currentEvents = null;
+    if (disconnecting != null) {
+      disconnecting.disconnectFromRoom();
+    }
+    return disconnecting;
+  }
+
+  /** True once anything was received from the other side. Looper thread. */
+  boolean hasReceived() {
+    return received;
+  }
+
+  private void onConnectedToRoom(SignalingParameters params) {
+    call.onPeerJoined(this, System.nanoTime() - connectStartNs);
+    if (params.initiator) {
+      sendDescriptionAndCandidates(
+          new SessionDescription(SessionDescription.Type.OFFER, offerSdp));
+      return;
+    }
+    // Messages the initiator sent before this side joined.
+    if (params.offerSdp != null) {
+      onRemoteDescription(params.offerSdp);
+    }
+    if (params.iceCandidates != null) {
+      for (IceCandidate candidate : params.iceCandidates) {
+        onRemoteIceCandidate(candidate);
+      }
+    }
+  }
+
+  private void onRemoteDescription(SessionDescription sdp) {
+    received = true;
+    call.onMessageReceived(SimulatedCall.messageKey(sdp));
+    if (remoteDescriptionSet) {
+      return;
+    }
+    remoteDescriptionSet = true;
+    if (sdp.type == SessionDescription.Type.OFFER) {
+      sendDescriptionAndCandidates(
+          new SessionDescription(SessionDescription.Type.ANSWER, answerSdp));
+    }
+    checkSetUp();
+  }
+
+  private void onRemoteIceCandidate(IceCandidate candidate) {
+    received = true;
+    call.onMessageReceived(SimulatedCall.messageKey(candidate));
+    remoteCandidates++;
+    checkSetUp();
+  }
+
+  private void sendDescriptionAndCandidates(SessionDescription sdp) {
+    AppRTCClient sender = client;
+    if (sender == null) {
+      return;
+    }
+    call.onMessageSent(SimulatedCall.messageKey(sdp));
+    if (sdp.type == SessionDescription.Type.OFFER) {
+      sender.sendOfferSdp(sdp);
+    } else {
+      sender.sendAnswerSdp(sdp);
+    }
+    for (int i = 0; i < candidateCount; i++) {
+      IceCandidate candidate = new IceCandidate("audio", 0, "candidate:" + (i + 1)
+          + " 1 udp 2122260223 10.0." + peerIndex + "." + (i % 250 + 1) + " " + (50000 + i)
+          + " typ host generation 0");
+      call.onMessageSent(SimulatedCall.messageKey(candidate));
+      sender.sendLocalIceCandidate(candidate);
+    }
+    sender.flushLocalIceCandidates();
+  }
+
+  // Set up like an ICE connected peer connection: the remote description
+  // and all remote candidates arrived.
+  private void checkSetUp() {
+    if (!setUp && remoteDescriptionSet && remoteCandidates >= candidateCount) {
+      setUp = true;
+      call.onPeerSetUp(this);
+    }
+  }
+
+  // Events of one client.
+  private class ClientEvents implements AppRTCClient.SignalingEvents {
+    @Override
+    public void onConnectedToRoom(SignalingParameters params) {
+      if (isCurrent()) {
+        SimulatedPeer.this.onConnectedToRoom(params);
+      }
+    }
+
+    @Override
+    public void onRemoteDescription(SessionDescription sdp) {
+      if (isCurrent()) {
+        SimulatedPeer.this.onRemoteDescription(sdp);
+      }
+    }
+
+    @Override
+    public void onRemoteIceCandidate(IceCandidate candidate) {
+      if (isCurrent()) {
+        SimulatedPeer.this.onRemoteIceCandidate(candidate);
+      }
+    }
+
+    @Override
+    public void onRemoteIceCandidatesRemoved(IceCandidate[] candidates) {
+      if (isCurrent()) {
+        received = true;
+      }
+    }
+
+    @Override
+    public void onChannelClose() {
+      if (isCurrent()) {
+        call.onPeerClosed(SimulatedPeer.this);
+      }
+    }
+
+    @Override
+    public void onChannelError(String description) {
+      if (isCurrent()) {
+        call.onPeerError(SimulatedPeer.this, description);
+      }
+    }
+
+    private boolean isCurrent() {
+      return this == currentEvents;
+    }
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.roomserver;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * WebSocket server relaying messages between the two clients of a room, like
+ * the AppRTC Collider.
+ *
+ * <p>Clients send {"cmd": "register", "roomid": ..., "clientid": ...} and
+ * then {"cmd": "send", "msg": ...}, and receive {"msg": ..., "error": ...}.
+ * Messages sent while the other client is not registered are queued and
+ * delivered when it registers. A client whose WebSocket closes leaves the
+ * room, and may register again. Messages can also be sent and clients
+ * removed over HTTP, see RoomServer.
+ *
+ * <p>Every connection is served by its own thread, relayed messages are
+ * delivered by one delivery thread after the injected latency.
+ */
+class Collider {
+  private static final Logger logger = Logger.getLogger(Collider.class.getName());
+  private static final int MAX_ROOM_CLIENTS = 2;
+
+  private final FaultInjection faults;
+  private final ExecutorService connectionThreads = Executors.newCachedThreadPool(
+      daemonThreads("collider-connection"));
+  private final ScheduledExecutorService deliveryThread =
+      Executors.newSingleThreadScheduledExecutor(daemonThreads("collider-delivery"));
+  private ServerSocket serverSocket;
+  // Rooms and open sessions are guarded by |this|.
+  private final Map<String, Map<String, Client>> rooms =
+      new HashMap<String, Map<String, Client>>();
+  private final Set<WebSocketSession> sessions = new HashSet<WebSocketSession>();
+  private boolean stopped;
+
+  private static class Client {
+    final String id;
+    // Null while not registered.
+    WebSocketSession session;
+    // Sent by this client while the other one was not registered.
+    final List<String> queued = new ArrayList<String>();
+    // Delivery time of the last message to this client, keeps them in order.
+    long lastDeliveryMs;
+
+    Client(String id) {
+      this.id = id;
+    }
+  }
+
+  Collider(FaultInjection faults) {
+    this.faults = faults;
+  }
+
+  /** Starts listening on |address|:|port|, returns the bound port. */
+  int start(InetAddress address, int port) throws IOException {
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(address, port), 128);
+    Thread acceptThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    }, "collider-accept");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    return serverSocket.getLocalPort();
+  }
+
+  /** Closes the listening socket and all connections. */
+  void stop() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close server socket", e);
+    }
+    List<WebSocketSession> open;
+    synchronized (this) {
+      stopped = true;
+      open = new ArrayList<WebSocketSession>(sessions);
+      sessions.clear();
+      rooms.clear();
+    }
+    for (WebSocketSession session : open) {
+      session.close();
+    }
+    connectionThreads.shutdownNow();
+    deliveryThread.shutdownNow();
+  }
+
+  /**
+   * Sends |message| from |clientId| to the other client of |roomId|, or
+   * queues it until the other client registers.
+   */
+  synchronized void send(String roomId, String clientId, String message) {
+    Map<String, Client> room = getRoom(roomId);
+    Client sender = room.get(clientId);
+    if (sender == null) {
+      if (room.size() >= MAX_ROOM_CLIENTS) {
+        logger.warning("Dropping message from " + clientId + ", room " + roomId + " is full.");
+        return;
+      }
+      sender = new Client(clientId);
+      room.put(clientId, sender);
+    }
+    Client recipient = null;
+    for (Client client : room.values()) {
+      if (client != sender && client.session != null) {
+        recipient = client;
+      }
+    }
+    if (recipient == null) {
+      sender.queued.add(message);
+    } else {
+      deliver(recipient, message, "");
+    }
+  }
+
+  /** Removes |clientId| from |roomId| and closes its WebSocket. */
+  void remove(String roomId, String clientId) {
+    WebSocketSession session = null;
+    synchronized (this) {
+      Map<String, Client> room = rooms.get(roomId);
+      Client client = room != null ? room.remove(clientId) : null;
+      if (client != null) {
+        session = client.session;
+        if (room.isEmpty()) {
+          rooms.remove(roomId);
+        }
+      }
+    }
+    if (session != null) {
+      session.close();
+    }
+  }
+
+  private void acceptConnections() {
+    while (true) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          logger.log(Level.WARNING, "Failed to accept connection", e);
+        }
+        return;
+      }
+      connectionThreads.execute(new Runnable() {
+        @Override
+        public void run() {
+          serve(socket);
+        }
+      });
+    }
+  }
+
+  private void serve(Socket socket) {
+    WebSocketSession session = null;
+    String roomId = null;
+    String clientId = null;
+    try {
+      socket.setTcpNoDelay(true);
+      session = new WebSocketSession(socket);
+      session.accept();
+      synchronized (this) {
+        sessions.add(session);
+      }
+      String text;
+      while ((text = session.readMessage()) != null) {
+        JSONObject command;
+        try {
+          command = new JSONObject(text);
+        } catch (JSONException e) {
+          session.sendText(envelope("", "Invalid JSON"));
+          continue;
+        }
+        String cmd = command.optString("cmd");
+        if (cmd.equals("register")) {
+          if (clientId != null) {
+            session.sendText(envelope("", "Duplicated register request"));
+            continue;
+          }
+          String error = register(session, command.optString("roomid"),
+              command.optString("clientid"));
+          if (error != null) {
+            session.sendText(envelope("", error));
+          } else {
+            roomId = command.optString("roomid");
+            clientId = command.optString("clientid");
+          }
+        } else if (cmd.equals("send")) {
+          if (clientId == null) {
+            session.sendText(envelope("", "Client not registered"));
+          } else {
+            send(roomId, clientId, command.optString("msg"));
+          }
+        } else {
+          session.sendText(envelope("", "Invalid message: unexpected 'cmd'"));
+        }
+      }
+    } catch (IOException e) {
+      logger.fine("WebSocket closed: " + e.getMessage());
+    } finally {
+      if (session != null) {
+        session.close();
+        synchronized (this) {
+          sessions.remove(session);
+          if (clientId != null) {
+            Map<String, Client> room = rooms.get(roomId);
+            Client client = room != null ? room.get(clientId) : null;
+            if (client != null && client.session == session) {
+              // Leaves the room, like Collider does for closed WebSockets.
+              room.remove(clientId);
+              if (room.isEmpty()) {
+                rooms.remove(roomId);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // Returns an error message if |clientId| can't be registered.
+  private synchronized String register(
+      WebSocketSession session, String roomId, String clientId) {
+    if (roomId.isEmpty() || clientId.isEmpty()) {
+      return "Invalid register request: missing 'clientid' or 'roomid'";
+    }
+    Map<String, Client> room = getRoom(roomId);
+    Client client = room.get(clientId);
+    if (client == null) {
+      if (room.size() >= MAX_ROOM_CLIENTS) {
+        return "Max room capacity reached";
+      }
+      client = new Client(clientId);
+      room.put(clientId, client);
+    } else if (client.session != null) {
+      return "Duplicated register request";
+    }
+    client.session = session;
+    logger.fine("Registered " + clientId + " in room " + roomId);
+    for (Client other : room.values()) {
+      if (other != client) {
+        for (String message : other.queued) {
+          deliver(client, message, "");
+        }
+        other.queued.clear();
+      }
+    }
+    return null;
+  }
+
+  private Map<String, Client> getRoom(String roomId) {
+    Map<String, Client> room = rooms.get(roomId);
+    if (room == null) {
+      room = new LinkedHashMap<String, Client>();
+      rooms.put(roomId, room);
+    }
+    return room;
+  }
+
+  // Called with |this| locked.
+  private void deliver(Client recipient, final String message, final String error) {
+    if (stopped) {
+      return;
+    }
+    if (faults.nextMessageDrop()) {
+      logger.fine("Dropping message to " + recipient.id);
+      return;
+    }
+    long nowMs = System.currentTimeMillis();
+    long deliveryMs = Math.max(nowMs + faults.nextDelayMs(), recipient.lastDeliveryMs);
+    recipient.lastDeliveryMs = deliveryMs;
+    final WebSocketSession session = recipient.session;
+    deliveryThread.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          session.sendText(envelope(message, error));
+        } catch (IOException e) {
+          logger.fine("Failed to deliver message: " + e.getMessage());
+        }
+      }
+    }, deliveryMs - nowMs, TimeUnit.MILLISECONDS);
+  }
+
+  private static String envelope(String message, String error) {
+    return "{\"msg\":" + JSONObject.quote(message) + ",\"error\":" + JSONObject.quote(error) + "}";
+  }
+
+  static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+}
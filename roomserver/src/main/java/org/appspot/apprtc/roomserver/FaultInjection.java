@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.roomserver;
+
+import java.util.Random;
+
+/**
+ * Latency and errors injected by the RoomServer.
+ *
+ * <p>Every HTTP request and every relayed WebSocket message is delayed by
+ * |latencyMs| plus a uniformly distributed jitter of up to |jitterMs|. HTTP
+ * requests fail with status 500 at |httpErrorRate| and relayed WebSocket
+ * messages are dropped at |messageDropRate|. Messages to one client keep
+ * their order, like on a TCP connection.
+ *
+ * <p>Faults are drawn from a Random seeded with |seed|, so a single threaded
+ * run is reproducible. All methods are thread safe.
+ */
+public class FaultInjection {
+  /** Injects nothing. */
+  public static final FaultInjection NONE = new FaultInjection(0, 0, 0, 0, 0);
+
+  public final long latencyMs;
+  public final long jitterMs;
+  public final double httpErrorRate;
+  public final double messageDropRate;
+  private final Random random;
+
+  public FaultInjection(long latencyMs, long jitterMs) {
+    this(latencyMs, jitterMs, 0, 0, 0);
+  }
+
+  public FaultInjection(long latencyMs, long jitterMs, double httpErrorRate,
+      double messageDropRate, long seed) {
+    if (latencyMs < 0 || jitterMs < 0) {
+      throw new IllegalArgumentException("Negative latency: " + latencyMs + ", " + jitterMs);
+    }
+    if (httpErrorRate < 0 || httpErrorRate > 1 || messageDropRate < 0 || messageDropRate > 1) {
+      throw new IllegalArgumentException(
+          "Rates must be within [0, 1]: " + httpErrorRate + ", " + messageDropRate);
+    }
+    this.latencyMs = latencyMs;
+    this.jitterMs = jitterMs;
+    this.httpErrorRate = httpErrorRate;
+    this.messageDropRate = messageDropRate;
+    random = new Random(seed);
+  }
+
+  /** Returns the delay of the next request or message. */
+  synchronized long nextDelayMs() {
+    if (jitterMs == 0) {
+      return latencyMs;
+    }
+    return latencyMs + (long) (random.nextDouble() * (jitterMs + 1));
+  }
+
+  /** Returns true if the next HTTP request should fail. */
+  synchronized boolean nextHttpError() {
+    return httpErrorRate > 0 && random.nextDouble() < httpErrorRate;
+  }
+
+  /** Returns true if the next relayed message should be dropped. */
+  synchronized boolean nextMessageDrop() {
+    return messageDropRate > 0 && random.nextDouble() < messageDropRate;
+  }
+
+  @Override
+  public String toString() {
+    return "latency: " + latencyMs + " ms, jitter: " + jitterMs + " ms, HTTP errors: "
+        + httpErrorRate + ", message drops: " + messageDropRate;
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.roomserver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local stand-in for the AppRTC room server (https://appr.tc) and its
+ * Collider WebSocket server, for signaling tests and benchmarks without
+ * network access.
+ *
+ * <p>Serves on one HTTP port:
+ * <ul>
+ * <li>POST /join/|room|: joins the room. The first client is the initiator,
+ *     the second gets the messages the first one sent meanwhile. A third
+ *     client gets "FULL".
+ * <li>POST /message/|room|/|client|: stored for the other client until it
+ *     joins, then relayed through the WebSocket server.
+ * <li>POST /leave/|room|/|client|: leaves the room. The next client to join
+ *     is not the initiator if another client stayed.
+ * <li>POST /wss/|room|/|client| and DELETE /wss/|room|/|client|: the
+ *     WebSocket server's send and remove endpoints (wss_post_url).
+ * <li>POST /turn: fake TURN credentials (ice_server_url).
+ * </ul>
+ * The WebSocket server (wss_url) listens on a second port. URLs handed to
+ * clients use the host name the client connected to.
+ *
+ * <p>Latency and errors are injected as configured by FaultInjection.
+ */
+public class RoomServer {
+  private static final Logger logger = Logger.getLogger(RoomServer.class.getName());
+  private static final int MAX_ROOM_CLIENTS = 2;
+  private static final String PC_CONFIG =
+      "{\"rtcpMuxPolicy\":\"require\",\"bundlePolicy\":\"max-bundle\",\"iceServers\":[]}";
+  private static final long TURN_LIFETIME_SECONDS = 86400;
+
+  private final InetAddress address;
+  private final int port;
+  private final FaultInjection faults;
+  private final Collider collider;
+  private final Random random = new Random();
+  private HttpServer httpServer;
+  private ExecutorService httpThreads;
+  private int webSocketPort;
+  // Rooms are guarded by |this|.
+  private final Map<String, Room> rooms = new HashMap<String, Room>();
+
+  private static class Room {
+    // Clients in join order.
+    final Map<String, RoomClient> clients = new LinkedHashMap<String, RoomClient>();
+  }
+
+  private static class RoomClient {
+    // Sent before the other client joined.
+    final List<String> messages = new ArrayList<String>();
+  }
+
+  /** Creates a server on a free loopback port without injected faults. */
+  public RoomServer() {
+    this(InetAddress.getLoopbackAddress(), 0, FaultInjection.NONE);
+  }
+
+  /**
+   * Creates a server listening on |address|:|port|, any free port if |port|
+   * is 0.
+   */
+  public RoomServer(InetAddress address, int port, FaultInjection faults) {
+    this.address = address;
+    this.port = port;
+    this.faults = faults;
+    collider = new Collider(faults);
+  }
+
+  public void start() throws IOException {
+    webSocketPort = collider.start(address, 0);
+    httpServer = HttpServer.create(new InetSocketAddress(address, port), 128);
+    httpThreads = Executors.newCachedThreadPool(Collider.daemonThreads("room-server-http"));
+    httpServer.setExecutor(httpThreads);
+    httpServer.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          handleRequest(exchange);
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Request failed: " + exchange.getRequestURI(), e);
+          respond(exchange, 500, "Internal error");
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    httpServer.start();
+    logger.info("Room server at " + getRoomUrl() + ", " + faults);
+  }
+
+  public void stop() {
+    if (httpServer != null) {
+      httpServer.stop(0);
+      httpThreads.shutdownNow();
+    }
+    collider.stop();
+  }
+
+  /** Returns the room server URL, the room URL setting of AppRTCDemo. */
+  public String getRoomUrl() {
+    return "http://" + formatHost(address.getHostAddress()) + ":"
+        + httpServer.getAddress().getPort();
+  }
+
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+    String body = readBody(exchange.getRequestBody());
+    logger.fine(method + " " + exchange.getRequestURI() + " " + body);
+
+    long delayMs = faults.nextDelayMs();
+    if (delayMs > 0) {
+      try {
+        Thread.sleep(delayMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    if (faults.nextHttpError()) {
+      respond(exchange, 500, "Injected error");
+      return;
+    }
+
+    String host = getHost(exchange);
+    if (path.length == 2 && path[0].equals("join") && method.equals("POST")) {
+      respond(exchange, 200, join(path[1], host));
+    } else if (path.length == 3 && path[0].equals("message") && method.equals("POST")) {
+      respond(exchange, 200, message(path[1], path[2], body));
+    } else if (path.length == 3 && path[0].equals("leave") && method.equals("POST")) {
+      leave(path[1], path[2]);
+      respond(exchange, 200, "");
+    } else if (path.length == 3 && path[0].equals("wss") && method.equals("POST")) {
+      collider.send(path[1], path[2], body);
+      respond(exchange, 200, "OK");
+    } else if (path.length == 3 && path[0].equals("wss") && method.equals("DELETE")) {
+      collider.remove(path[1], path[2]);
+      respond(exchange, 200, "OK");
+    } else if (path.length == 1 && path[0].equals("turn") && method.equals("POST")) {
+      respond(exchange, 200, turnServers(host));
+    } else {
+      respond(exchange, 404, "Not found");
+    }
+  }
+
+  private String join(String roomId, String host) {
+    String clientId;
+    boolean initiator;
+    List<String> messages = new ArrayList<String>();
+    synchronized (this) {
+      Room room = rooms.get(roomId);
+      if (room == null) {
+        room = new Room();
+        rooms.put(roomId, room);
+      }
+      if (room.clients.size() >= MAX_ROOM_CLIENTS) {
+        return result("FULL");
+      }
+      do {
+        clientId = Integer.toString(10000000 + random.nextInt(90000000));
+      } while (room.clients.containsKey(clientId));
+      initiator = room.clients.isEmpty();
+      for (RoomClient other : room.clients.values()) {
+        messages.addAll(other.messages);
+        other.messages.clear();
+      }
+      room.clients.put(clientId, new RoomClient());
+    }
+    logger.fine("Client " + clientId + " joined room " + roomId + ", initiator: " + initiator);
+    String httpUrl = "http://" + host + ":" + httpServer.getAddress().getPort();
+    try {
+      JSONObject params = new JSONObject();
+      params.put("room_id", roomId);
+      params.put("client_id", clientId);
+      params.put("is_initiator", initiator);
+      params.put("is_loopback", false);
+      params.put("messages", new JSONArray(messages));
+      params.put("pc_config", PC_CONFIG);
+      params.put("wss_url", "ws://" + host + ":" + webSocketPort + "/ws");
+      params.put("wss_post_url", httpUrl + "/wss");
+      params.put("ice_server_url", httpUrl + "/turn");
+      return new JSONObject().put("result", "SUCCESS").put("params", params).toString();
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private String message(String roomId, String clientId, String message) {
+    synchronized (this) {
+      Room room = rooms.get(roomId);
+      if (room == null) {
+        return result("UNKNOWN_ROOM");
+      }
+      RoomClient client = room.clients.get(clientId);
+      if (client == null) {
+        return result("UNKNOWN_CLIENT");
+      }
+      if (room.clients.size() < MAX_ROOM_CLIENTS) {
+        client.messages.add(message);
+        return result("SUCCESS");
+      }
+    }
+    collider.send(roomId, clientId, message);
+    return result("SUCCESS");
+  }
+
+  private synchronized void leave(String roomId, String clientId) {
+    Room room = rooms.get(roomId);
+    if (room == null || room.clients.remove(clientId) == null) {
+      return;
+    }
+    logger.fine("Client " + clientId + " left room " + roomId);
+    if (room.clients.isEmpty()) {
+      rooms.remove(roomId);
+    }
+  }
+
+  private String turnServers(String host) {
+    long expiry = System.currentTimeMillis() / 1000 + TURN_LIFETIME_SECONDS;
+    try {
+      JSONObject server = new JSONObject();
+      server.put("urls", new JSONArray()
+          .put("turn:" + host + ":3478?transport=udp")
+          .put("turn:" + host + ":3478?transport=tcp"));
+      server.put("username", expiry + ":roomserver");
+      server.put("credential", "roomserver");
+      return new JSONObject()
+          .put("lifetimeDuration", TURN_LIFETIME_SECONDS + "s")
+          .put("iceServers", new JSONArray().put(server))
+          .toString();
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Host name the client used, so returned URLs work from other machines.
+  private String getHost(HttpExchange exchange) {
+    String host = exchange.getRequestHeaders().getFirst("Host");
+    if (host == null) {
+      return formatHost(exchange.getLocalAddress().getAddress().getHostAddress());
+    }
+    int portStart = host.lastIndexOf(':');
+    if (portStart > host.lastIndexOf(']')) {
+      host = host.substring(0, portStart);
+    }
+    return host;
+  }
+
+  private static String formatHost(String hostAddress) {
+    return hostAddress.indexOf(':') >= 0 ? "[" + hostAddress + "]" : hostAddress;
+  }
+
+  private static String result(String result) {
+    return "{\"result\":\"" + result + "\"}";
+  }
+
+  private static String readBody(InputStream input) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int length;
+    while ((length = input.read(buffer)) != -1) {
+      body.write(buffer, 0, length);
+    }
+    return body.toString("UTF-8");
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+    if (bytes.length > 0) {
+      OutputStream output = exchange.getResponseBody();
+      output.write(bytes);
+      output.close();
+    }
+  }
+}
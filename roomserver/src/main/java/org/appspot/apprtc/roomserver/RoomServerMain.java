@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.roomserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Runs a RoomServer until the process is killed.
+ *
+ * <p>Options: --address ADDRESS (default 127.0.0.1), --port PORT (default
+ * 8080), --latency-ms MS, --jitter-ms MS, --http-error-rate RATE,
+ * --message-drop-rate RATE and --seed SEED.
+ */
+public class RoomServerMain {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String address = "127.0.0.1";
+    int port = 8080;
+    long latencyMs = 0;
+    long jitterMs = 0;
+    double httpErrorRate = 0;
+    double messageDropRate = 0;
+    long seed = System.nanoTime();
+    for (int i = 0; i < args.length; i++) {
+      String option = args[i];
+      if (i + 1 == args.length) {
+        usage("Missing value for " + option);
+      }
+      String value = args[++i];
+      try {
+        if (option.equals("--address")) {
+          address = value;
+        } else if (option.equals("--port")) {
+          port = Integer.parseInt(value);
+        } else if (option.equals("--latency-ms")) {
+          latencyMs = Long.parseLong(value);
+        } else if (option.equals("--jitter-ms")) {
+          jitterMs = Long.parseLong(value);
+        } else if (option.equals("--http-error-rate")) {
+          httpErrorRate = Double.parseDouble(value);
+        } else if (option.equals("--message-drop-rate")) {
+          messageDropRate = Double.parseDouble(value);
+        } else if (option.equals("--seed")) {
+          seed = Long.parseLong(value);
+        } else {
+          usage("Unknown option " + option);
+        }
+      } catch (NumberFormatException e) {
+        usage("Invalid value for " + option + ": " + value);
+      }
+    }
+
+    RoomServer server = new RoomServer(InetAddress.getByName(address), port,
+        new FaultInjection(latencyMs, jitterMs, httpErrorRate, messageDropRate, seed));
+    server.start();
+    System.out.println("Room server URL: " + server.getRoomUrl());
+    Thread.sleep(Long.MAX_VALUE);
+  }
+
+  private static void usage(String error) {
+    System.err.println(error);
+    System.err.println("Options: [--address ADDRESS] [--port PORT] [--latency-ms MS]"
+        + " [--jitter-ms MS] [--http-error-rate RATE] [--message-drop-rate RATE] [--seed SEED]");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.roomserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Server side of one WebSocket connection, RFC 6455 text messages only.
+ *
+ * <p>readMessage() is called by the connection's own thread, sendText() and
+ * close() from any thread.
+ */
+class WebSocketSession {
+  private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+  private static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+  private static final int OPCODE_CONTINUATION = 0x0;
+  private static final int OPCODE_TEXT = 0x1;
+  private static final int OPCODE_BINARY = 0x2;
+  private static final int OPCODE_CLOSE = 0x8;
+  private static final int OPCODE_PING = 0x9;
+  private static final int OPCODE_PONG = 0xA;
+  private static final char[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private final Socket socket;
+  private final DataInputStream input;
+  private final OutputStream output;
+  private boolean closed;
+
+  WebSocketSession(Socket socket) throws IOException {
+    this.socket = socket;
+    input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    output = socket.getOutputStream();
+  }
+
+  /** Reads the opening handshake and accepts it. */
+  void accept() throws IOException {
+    String key = null;
+    String line;
+    while ((line = readLine()).length() > 0) {
+      int colon = line.indexOf(':');
+      if (colon > 0
+          && line.substring(0, colon).trim().toLowerCase(Locale.US).equals("sec-websocket-key")) {
+        key = line.substring(colon + 1).trim();
+      }
+    }
+    if (key == null) {
+      write(toBytes("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n"));
+      throw new IOException("Not a WebSocket handshake.");
+    }
+    write(toBytes("HTTP/1.1 101 Switching Protocols\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n"));
+  }
+
+  /**
+   * Returns the next text message, or null once the connection is closed.
+   * Pings are answered, binary messages are skipped.
+   */
+  String readMessage() throws IOException {
+    ByteArrayOutputStream message = new ByteArrayOutputStream();
+    int messageOpcode = -1;
+    while (true) {
+      int first = input.read();
+      if (first == -1) {
+        return null;
+      }
+      int second = input.readUnsignedByte();
+      boolean fin = (first & 0x80) != 0;
+      int opcode = first & 0x0f;
+      long length = second & 0x7f;
+      if (length == 126) {
+        length = input.readUnsignedShort();
+      } else if (length == 127) {
+        length = input.readLong();
+      }
+      if (length < 0 || message.size() + length > MAX_MESSAGE_LENGTH) {
+        throw new IOException("Message too long: " + length);
+      }
+      byte[] mask = new byte[4];
+      if ((second & 0x80) != 0) {
+        input.readFully(mask);
+      }
+      byte[] payload = new byte[(int) length];
+      input.readFully(payload);
+      for (int i = 0; i < payload.length; i++) {
+        payload[i] ^= mask[i % 4];
+      }
+      switch (opcode) {
+        case OPCODE_CLOSE:
+          sendFrame(OPCODE_CLOSE, new byte[0]);
+          return null;
+        case OPCODE_PING:
+          sendFrame(OPCODE_PONG, payload);
+          continue;
+        case OPCODE_TEXT:
+        case OPCODE_BINARY:
+          messageOpcode = opcode;
+          message.reset();
+          break;
+        case OPCODE_CONTINUATION:
+          break;
+        default:
+          // Pong or reserved.
+          continue;
+      }
+      message.write(payload);
+      if (fin) {
+        if (messageOpcode == OPCODE_TEXT) {
+          return message.toString("UTF-8");
+        }
+        message.reset();
+      }
+    }
+  }
+
+  void sendText(String message) throws IOException {
+    sendFrame(OPCODE_TEXT, toBytes(message));
+  }
+
+  /** Closes the connection, readMessage() returns null or fails. */
+  void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Already closed.
+    }
+  }
+
+  private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
+    if (closed) {
+      throw new IOException("WebSocket is closed.");
+    }
+    ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 10);
+    frame.write(0x80 | opcode);
+    if (payload.length < 126) {
+      frame.write(payload.length);
+    } else if (payload.length <= 0xffff) {
+      frame.write(126);
+      frame.write(payload.length >> 8);
+      frame.write(payload.length);
+    } else {
+      frame.write(127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        frame.write((int) ((long) payload.length >> shift));
+      }
+    }
+    frame.write(payload, 0, payload.length);
+    output.write(frame.toByteArray());
+    output.flush();
+  }
+
+  private synchronized void write(byte[] bytes) throws IOException {
+    output.write(bytes);
+    output.flush();
+  }
+
+  // Reads one ISO-8859-1 header line without the line terminator.
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = input.read()) != '\n') {
+      if (c == -1) {
+        throw new IOException("Connection closed during handshake.");
+      }
+      if (c != '\r') {
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+
+  private static String acceptKey(String key) {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      return base64(sha1.digest((key + ACCEPT_GUID).getBytes("ISO-8859-1")));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // java.util.Base64 needs Java 8.
+  private static String base64(byte[] data) {
+    StringBuilder encoded = new StringBuilder((data.length + 2) / 3 * 4);
+    for (int i = 0; i < data.length; i += 3) {
+      int remaining = Math.min(3, data.length - i);
+      int bits = (data[i] & 0xff) << 16;
+      if (remaining > 1) {
+        bits |= (data[i + 1] & 0xff) << 8;
+      }
+      if (remaining > 2) {
+        bits |= data[i + 2] & 0xff;
+      }
+      for (int j = 0; j < 4; j++) {
+        encoded.append(j <= remaining ? BASE64[(bits >> (18 - 6 * j)) & 0x3f] : '=');
+      }
+    }
+    return encoded.toString();
+  }
+
+  private static byte[] toBytes(String text) {
+    try {
+      return text.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -25,14 +25,38 @@ public interface AppRTCClient {
    * Struct holding the connection parameters of an AppRTC room.
    */
   public static class RoomConnectionParameters {
+    // Room message POSTs outstanding at the same time, matches the http worker count.
+    public static final int DEFAULT_MAX_MESSAGES_IN_FLIGHT = 4;
+
     public final String roomUrl;
     public final String roomId;
     public final boolean loopback;
-    public RoomConnectionParameters(
-        String roomUrl, String roomId, boolean loopback) {
+    // Advertise SDP compression and compress SDP for peers which support it.
+    public final boolean sdpCompression;
+    // Direct calls only: keep the listening socket bound between calls and
+    // hold callers arriving during a call, see TCPSignalingHub.
+    public final boolean directHub;
+    // Local ICE candidates gathered within this many ms are sent in one
+    // message to peers accepting batches, 0 disables batching.
+    public final int iceBatchWindowMs;
+    // Batch candidates sent before the peer advertised its capabilities, which
+    // happens for call initiators. Peers must accept batches, so this is off
+    // by default to keep working with clients like the appr.tc web app.
+    public final boolean iceBatchBeforeAnswer;
+    // Room server POSTs of the call initiator outstanding at the same time,
+    // see SignalingSendQueue. Must be positive.
+    public final int maxMessagesInFlight;
+    public RoomConnectionParameters(String roomUrl, String roomId, boolean loopback,
+        boolean sdpCompression, boolean directHub, int iceBatchWindowMs,
+        boolean iceBatchBeforeAnswer, int maxMessagesInFlight) {
       this.roomUrl = roomUrl;
       this.roomId = roomId;
       this.loopback = loopback;
+      this.sdpCompression = sdpCompression;
+      this.directHub = directHub;
+      this.iceBatchWindowMs = iceBatchWindowMs;
+      this.iceBatchBeforeAnswer = iceBatchBeforeAnswer;
+      this.maxMessagesInFlight = maxMessagesInFlight;
     }
   }
 
@@ -63,6 +87,17 @@ public interface AppRTCClient {
    */
   public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates);
 
+  /**
+   * Send local ICE candidates held back for batching right away.
+   */
+  public void flushLocalIceCandidates();
+
+  /**
+   * Returns the latencies of the signaling messages of this client, which may
+   * be queried at any time from any thread.
+   */
+  public SignalingLatencyTracker getSignalingLatencyTracker();
+
   /**
    * Disconnect from room.
    */
@@ -79,12 +114,20 @@ public interface AppRTCClient {
     public final String wssPostUrl;
     public final SessionDescription offerSdp;
     public final List<IceCandidate> iceCandidates;
+    // True if the sender of |offerSdp| can decode compressed SDP.
+    public final boolean peerSupportsSdpCompression;
+    // True if the sender of |offerSdp| accepts batched ICE candidates.
+    public final boolean peerSupportsIceBatching;
+    // True if the sender of |offerSdp| acknowledges and replays messages.
+    public final boolean peerSupportsReplay;
 
     public SignalingParameters(
         List<PeerConnection.IceServer> iceServers,
         boolean initiator, String clientId,
         String wssUrl, String wssPostUrl,
-        SessionDescription offerSdp, List<IceCandidate> iceCandidates) {
+        SessionDescription offerSdp, List<IceCandidate> iceCandidates,
+        boolean peerSupportsSdpCompression, boolean peerSupportsIceBatching,
+        boolean peerSupportsReplay) {
       this.iceServers = iceServers;
       this.initiator = initiator;
       this.clientId = clientId;
@@ -92,6 +135,9 @@ public interface AppRTCClient {
       this.wssPostUrl = wssPostUrl;
       this.offerSdp = offerSdp;
       this.iceCandidates = iceCandidates;
+      this.peerSupportsSdpCompression = peerSupportsSdpCompression;
+      this.peerSupportsIceBatching = peerSupportsIceBatching;
+      this.peerSupportsReplay = peerSupportsReplay;
     }
   }
 
@@ -0,0 +1,427 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.webrtc.IceCandidate;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary encoding of SignalingMessage, used between peers which both
+ * advertised |CAPABILITY|.
+ *
+ * <p>A message is the |MAGIC| byte, a type byte and a sequence of fields. A
+ * field is a tag byte, the value length as a varint and the value. Unknown
+ * fields are skipped, so fields can be added without a new capability.
+ * Candidates are packed into one field: a varint count followed by the
+ * label, sdpMid and sdp of each candidate. Strings are UTF-8 prefixed with
+ * their varint length. Compressed SDP is sent as raw deflate output, without
+ * the base64 encoding JSON needs.
+ *
+ * <p>|MAGIC| is never the first byte of UTF-8 text, so binary and JSON
+ * messages can be told apart with isBinary(). Binary messages must be sent
+ * length framed.
+ *
+ * <p>Instances keep an output buffer and are not thread safe.
+ */
+public final class BinarySignalingCodec {
+  /** Capability advertised by peers which accept binary messages. */
+  public static final String CAPABILITY = "binary-signaling-v1";
+  private static final byte MAGIC = (byte) 0xa5;
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Message types.
+  private static final int TYPE_CANDIDATE = 1;
+  private static final int TYPE_CANDIDATES = 2;
+  private static final int TYPE_REMOVE_CANDIDATES = 3;
+  private static final int TYPE_OFFER = 4;
+  private static final int TYPE_ANSWER = 5;
+  private static final int TYPE_BYE = 6;
+
+  // Field tags.
+  private static final int TAG_CANDIDATES = 1;
+  private static final int TAG_SDP = 2;
+  private static final int TAG_COMPRESSED_SDP = 3;
+  private static final int TAG_CAPABILITIES = 4;
+
+  private byte[] output = new byte[INITIAL_BUFFER_SIZE];
+  private int outputLength;
+  private byte[] input;
+  private int position;
+
+  /** Returns true if |data| is a binary message rather than JSON. */
+  public static boolean isBinary(byte[] data) {
+    return isBinary(data, 0, data.length);
+  }
+
+  /** Same as above for the |length| bytes of |data| at |offset|. */
+  public static boolean isBinary(byte[] data, int offset, int length) {
+    return length > 0 && data[offset] == MAGIC;
+  }
+
+  /** Encodes |message|, which must not be an ERROR. */
+  public byte[] encode(SignalingMessage message) {
+    outputLength = 0;
+    writeByte(MAGIC);
+    writeByte(toTypeCode(message.type));
+    switch (message.type) {
+      case CANDIDATE:
+      case CANDIDATES:
+      case REMOVE_CANDIDATES:
+        writeCandidates(message.candidates);
+        break;
+      case OFFER:
+      case ANSWER:
+        if (message.compressSdp) {
+          byte[] compressedSdp = SdpCompressor.deflate(message.sdp);
+          writeByte(TAG_COMPRESSED_SDP);
+          writeVarint(compressedSdp.length);
+          writeBytes(compressedSdp);
+        } else {
+          writeByte(TAG_SDP);
+          writeVarint(utf8Length(message.sdp));
+          writeUtf8(message.sdp);
+        }
+        if (!message.capabilities.isEmpty()) {
+          writeCapabilities(message.capabilities);
+        }
+        break;
+      default:
+        break;
+    }
+    return Arrays.copyOf(output, outputLength);
+  }
+
+  /**
+   * Decodes a binary message.
+   *
+   * @throws IllegalArgumentException if |data| is not a valid message.
+   */
+  public SignalingMessage decode(byte[] data) {
+    return decode(data, 0, data.length);
+  }
+
+  /**
+   * Same as above for the |length| bytes of |data| at |offset|, e.g. a
+   * receive buffer which is reused after the call.
+   */
+  public SignalingMessage decode(byte[] data, int offset, int length) {
+    if (!isBinary(data, offset, length) || length < 2) {
+      throw new IllegalArgumentException("Not a binary signaling message");
+    }
+    int messageEnd = offset + length;
+    input = data;
+    position = offset + 2;
+    try {
+      SignalingMessage.Type type = toType(data[offset + 1] & 0xff);
+      IceCandidate[] candidates = null;
+      String sdp = null;
+      boolean compressed = false;
+      List<String> capabilities = Collections.emptyList();
+      while (position < messageEnd) {
+        int tag = data[position++] & 0xff;
+        int fieldLength = readVarint(messageEnd);
+        if (fieldLength > messageEnd - position) {
+          throw new IllegalArgumentException("Truncated field " + tag);
+        }
+        int end = position + fieldLength;
+        switch (tag) {
+          case TAG_CANDIDATES:
+            candidates = readCandidates(end);
+            break;
+          case TAG_SDP:
+            sdp = new String(data, position, fieldLength, UTF_8);
+            compressed = false;
+            break;
+          case TAG_COMPRESSED_SDP:
+            sdp = SdpCompressor.inflate(data, position, fieldLength);
+            compressed = true;
+            break;
+          case TAG_CAPABILITIES:
+            capabilities = readCapabilities(end);
+            break;
+          default:
+            // Added by a newer peer.
+            break;
+        }
+        position = end;
+      }
+      switch (type) {
+        case CANDIDATE:
+        case CANDIDATES:
+        case REMOVE_CANDIDATES:
+          if (candidates == null || (type == SignalingMessage.Type.CANDIDATE
+              && candidates.length != 1)) {
+            throw new IllegalArgumentException("Invalid candidates in " + type);
+          }
+          return new SignalingMessage(type, candidates, null, false, capabilities, null);
+        case OFFER:
+        case ANSWER:
+          if (sdp == null) {
+            throw new IllegalArgumentException("No SDP in " + type);
+          }
+          return new SignalingMessage(type, null, sdp, compressed, capabilities, null);
+        default:
+          return new SignalingMessage(type, null, null, false, capabilities, null);
+      }
+    } finally {
+      input = null;
+    }
+  }
+
+  // --------------------------------------------------------------------
+  // Decoding.
+  private IceCandidate[] readCandidates(int end) {
+    int count = readVarint(end);
+    // Every candidate takes at least three bytes.
+    if (count > (end - position) / 3) {
+      throw new IllegalArgumentException("Invalid candidate count " + count);
+    }
+    IceCandidate[] candidates = new IceCandidate[count];
+    for (int i = 0; i < count; i++) {
+      int label = readVarint(end);
+      String sdpMid = readString(end);
+      String sdp = readString(end);
+      candidates[i] = new IceCandidate(sdpMid, label, sdp);
+    }
+    return candidates;
+  }
+
+  private List<String> readCapabilities(int end) {
+    int count = readVarint(end);
+    if (count > end - position) {
+      throw new IllegalArgumentException("Invalid capability count " + count);
+    }
+    List<String> capabilities = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      capabilities.add(readString(end));
+    }
+    return capabilities;
+  }
+
+  private String readString(int end) {
+    int length = readVarint(end);
+    if (length > end - position) {
+      throw new IllegalArgumentException("Truncated string");
+    }
+    String value = new String(input, position, length, UTF_8);
+    position += length;
+    return value;
+  }
+
+  // Reads an unsigned varint, 7 bits per byte with the least significant
+  // group first.
+  private int readVarint(int end) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (position >= end) {
+        throw new IllegalArgumentException("Truncated varint");
+      }
+      int b = input[position++];
+      // The fifth byte only holds the top four bits, higher ones would be
+      // shifted out.
+      if (shift == 28 && (b & 0x7f) > 0x0f) {
+        throw new IllegalArgumentException("Varint out of range");
+      }
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          throw new IllegalArgumentException("Varint out of range");
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Varint out of range");
+  }
+
+  private static SignalingMessage.Type toType(int typeCode) {
+    switch (typeCode) {
+      case TYPE_CANDIDATE:
+        return SignalingMessage.Type.CANDIDATE;
+      case TYPE_CANDIDATES:
+        return SignalingMessage.Type.CANDIDATES;
+      case TYPE_REMOVE_CANDIDATES:
+        return SignalingMessage.Type.REMOVE_CANDIDATES;
+      case TYPE_OFFER:
+        return SignalingMessage.Type.OFFER;
+      case TYPE_ANSWER:
+        return SignalingMessage.Type.ANSWER;
+      case TYPE_BYE:
+        return SignalingMessage.Type.BYE;
+      default:
+        throw new IllegalArgumentException("Unknown message type " + typeCode);
+    }
+  }
+
+  // --------------------------------------------------------------------
+  // Encoding.
+  private static int toTypeCode(SignalingMessage.Type type) {
+    switch (type) {
+      case CANDIDATE:
+        return TYPE_CANDIDATE;
+      case CANDIDATES:
+        return TYPE_CANDIDATES;
+      case REMOVE_CANDIDATES:
+        return TYPE_REMOVE_CANDIDATES;
+      case OFFER:
+        return TYPE_OFFER;
+      case ANSWER:
+        return TYPE_ANSWER;
+      case BYE:
+        return TYPE_BYE;
+      default:
+        throw new IllegalArgumentException("Can't send " + type + " messages.");
+    }
+  }
+
+  private void writeCandidates(IceCandidate[] candidates) {
+    int length = varintLength(candidates.length);
+    for (IceCandidate candidate : candidates) {
+      length += varintLength(candidate.sdpMLineIndex)
+          + stringLength(candidate.sdpMid) + stringLength(candidate.sdp);
+    }
+    writeByte(TAG_CANDIDATES);
+    writeVarint(length);
+    writeVarint(candidates.length);
+    for (IceCandidate candidate : candidates) {
+      writeVarint(candidate.sdpMLineIndex);
+      writeString(candidate.sdpMid);
+      writeString(candidate.sdp);
+    }
+  }
+
+  private void writeCapabilities(List<String> capabilities) {
+    int length = varintLength(capabilities.size());
+    for (int i = 0; i < capabilities.size(); i++) {
+      length += stringLength(capabilities.get(i));
+    }
+    writeByte(TAG_CAPABILITIES);
+    writeVarint(length);
+    writeVarint(capabilities.size());
+    for (int i = 0; i < capabilities.size(); i++) {
+      writeString(capabilities.get(i));
+    }
+  }
+
+  private void writeString(String value) {
+    writeVarint(utf8Length(value));
+    writeUtf8(value);
+  }
+
+  // Encoded size of a length prefixed string.
+  private static int stringLength(String value) {
+    int length = utf8Length(value);
+    return varintLength(length) + length;
+  }
+
+  private void writeVarint(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative varint " + value);
+    }
+    ensureCapacity(5);
+    while (value > 0x7f) {
+      output[outputLength++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    output[outputLength++] = (byte) value;
+  }
+
+  private static int varintLength(int value) {
+    int length = 1;
+    while (value > 0x7f) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  // Writes |value| as UTF-8 straight into the output buffer. Unpaired
+  // surrogates become '?', like String.getBytes() does.
+  private void writeUtf8(String value) {
+    int length = value.length();
+    ensureCapacity(3 * length);
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        output[outputLength++] = (byte) c;
+      } else if (c < 0x800) {
+        output[outputLength++] = (byte) (0xc0 | (c >> 6));
+        output[outputLength++] = (byte) (0x80 | (c & 0x3f));
+      } else if (isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < length
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          output[outputLength++] = (byte) (0xf0 | (codePoint >> 18));
+          output[outputLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          output[outputLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          output[outputLength++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+          output[outputLength++] = '?';
+        }
+      } else {
+        output[outputLength++] = (byte) (0xe0 | (c >> 12));
+        output[outputLength++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        output[outputLength++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  private static int utf8Length(String value) {
+    int length = value.length();
+    int utf8Length = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        utf8Length++;
+      } else if (c < 0x800) {
+        utf8Length += 2;
+      } else if (isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < length
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          utf8Length += 4;
+          i++;
+        } else {
+          utf8Length++;
+        }
+      } else {
+        utf8Length += 3;
+      }
+    }
+    return utf8Length;
+  }
+
+  // Character.isSurrogate() needs API level 19.
+  private static boolean isSurrogate(char c) {
+    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    output[outputLength++] = (byte) value;
+  }
+
+  private void writeBytes(byte[] value) {
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, output, outputLength, value.length);
+    outputLength += value.length;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (outputLength + extra > output.length) {
+      output = Arrays.copyOf(output, Math.max(2 * output.length, outputLength + extra));
+    }
+  }
+}
@@ -10,17 +10,16 @@
 
 package org.appspot.apprtc;
 
-import android.util.Log;
-
-import org.appspot.apprtc.util.LooperExecutor;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.appspot.apprtc.util.Log;
+import org.appspot.apprtc.util.SerialExecutor;
+import org.appspot.apprtc.util.ThreadExecutor;
 import org.webrtc.IceCandidate;
 import org.webrtc.PeerConnection;
 import org.webrtc.SessionDescription;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,6 +27,9 @@ import java.util.regex.Pattern;
  * Implementation of AppRTCClient that uses direct TCP connection as the signaling channel.
  * This eliminates the need for an external server. This class does not support loopback
  * connections.
+ *
+ * <p>Latencies of sent and received messages are recorded in a
+ * SignalingLatencyTracker and logged on disconnect.
  */
 public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChannelEvents {
   private static final String TAG = "DirectRTCClient";
@@ -52,10 +54,19 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
       + "(:(\\d+))?"
   );
 
-  private final LooperExecutor executor;
+  private final SerialExecutor executor;
   private final SignalingEvents events;
   private TCPChannelClient tcpClient;
   private RoomConnectionParameters connectionParameters;
+  // Set once the other side advertised SDP compression support.
+  private boolean peerSupportsSdpCompression;
+  // Set once the other side advertised binary signaling, all following
+  // messages are sent binary.
+  private boolean binarySignaling;
+  // Used on the looper thread only.
+  private final SignalingCodec codec = new SignalingCodec();
+  private final BinarySignalingCodec binaryCodec = new BinarySignalingCodec();
+  private final SignalingLatencyTracker latencyTracker = new SignalingLatencyTracker();
 
   private enum ConnectionState {
     NEW, CONNECTED, CLOSED, ERROR
@@ -64,9 +75,18 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
   // All alterations of the room state should be done from inside the looper thread.
   private ConnectionState roomState;
 
+  /** Creates a client running on its own ThreadExecutor. */
   public DirectRTCClient(SignalingEvents events) {
+    this(events, new ThreadExecutor("DirectRTCClient"));
+  }
+
+  /**
+   * Creates a client running on |executor|, e.g. a LooperExecutor on Android.
+   * The client starts and stops it.
+   */
+  public DirectRTCClient(SignalingEvents events, SerialExecutor executor) {
     this.events = events;
-    executor = new LooperExecutor();
+    this.executor = executor;
 
     executor.requestStart();
     roomState = ConnectionState.NEW;
@@ -84,7 +104,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
       reportError("Loopback connections aren't supported by DirectRTCClient.");
     }
 
-    executor.execute(new Runnable() {
+    executor.execute("connectToRoom", new Runnable() {
       @Override
       public void run() {
         connectToRoomInternal();
@@ -94,7 +114,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
 
   @Override
   public void disconnectFromRoom() {
-    executor.execute(new Runnable() {
+    executor.execute("disconnectFromRoom", new Runnable() {
       @Override
       public void run() {
         disconnectFromRoomInternal();
@@ -134,7 +154,8 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
       port = DEFAULT_PORT;
     }
 
-    tcpClient = new TCPChannelClient(executor, this, ip, port);
+    tcpClient = new TCPChannelClient(
+        executor, this, ip, port, connectionParameters.directHub, latencyTracker);
   }
 
   /**
@@ -149,54 +170,49 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
       tcpClient.disconnect();
       tcpClient = null;
     }
+    Log.d(TAG, "Signaling latency:\n" + latencyTracker);
   }
 
   @Override
   public void sendOfferSdp(final SessionDescription sdp) {
-    executor.execute(new Runnable() {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendOfferSdp", new Runnable() {
       @Override
       public void run() {
         if (roomState != ConnectionState.CONNECTED) {
           reportError("Sending offer SDP in non connected state.");
           return;
         }
-        JSONObject json = new JSONObject();
-        jsonPut(json, "sdp", sdp.description);
-        jsonPut(json, "type", "offer");
-        sendMessage(json.toString());
+        // The offer is the first SDP, so it is always sent uncompressed.
+        sendMessage(toSdpMessage(sdp, false), enqueuedNs);
       }
     });
   }
 
   @Override
   public void sendAnswerSdp(final SessionDescription sdp) {
-    executor.execute(new Runnable() {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendAnswerSdp", new Runnable() {
       @Override
       public void run() {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "sdp", sdp.description);
-        jsonPut(json, "type", "answer");
-        sendMessage(json.toString());
+        SignalingMessage message = toSdpMessage(sdp,
+            connectionParameters.sdpCompression && peerSupportsSdpCompression);
+        sendMessage(message, enqueuedNs);
       }
     });
   }
 
   @Override
   public void sendLocalIceCandidate(final IceCandidate candidate) {
-    executor.execute(new Runnable() {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendLocalIceCandidate", new Runnable() {
       @Override
       public void run() {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "type", "candidate");
-        jsonPut(json, "label", candidate.sdpMLineIndex);
-        jsonPut(json, "id", candidate.sdpMid);
-        jsonPut(json, "candidate", candidate.sdp);
-
         if (roomState != ConnectionState.CONNECTED) {
           reportError("Sending ICE candidate in non connected state.");
           return;
         }
-        sendMessage(json.toString());
+        sendMessage(SignalingMessage.candidate(candidate), enqueuedNs);
       }
     });
   }
@@ -204,26 +220,29 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
   /** Send removed Ice candidates to the other participant. */
   @Override
   public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
-    executor.execute(new Runnable() {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendLocalIceCandidateRemovals", new Runnable() {
       @Override
       public void run() {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "type", "remove-candidates");
-        JSONArray jsonArray =  new JSONArray();
-        for (final IceCandidate candidate : candidates) {
-          jsonArray.put(toJsonCandidate(candidate));
-        }
-        jsonPut(json, "candidates", jsonArray);
-
         if (roomState != ConnectionState.CONNECTED) {
           reportError("Sending ICE candidate removals in non connected state.");
           return;
         }
-        sendMessage(json.toString());
+        sendMessage(SignalingMessage.removeCandidates(candidates), enqueuedNs);
       }
     });
   }
 
+  /** Candidates are sent as soon as they are gathered, nothing to flush. */
+  @Override
+  public void flushLocalIceCandidates() {
+  }
+
+  @Override
+  public SignalingLatencyTracker getSignalingLatencyTracker() {
+    return latencyTracker;
+  }
+
   // -------------------------------------------------------------------
   // TCPChannelClient event handlers
 
@@ -243,36 +262,35 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
           null, // wssUrl
           null, // wwsPostUrl
           null, // offerSdp
-          null // iceCandidates
+          null, // iceCandidates
+          false, // peerSupportsSdpCompression
+          false, // peerSupportsIceBatching
+          false // peerSupportsReplay
       );
       events.onConnectedToRoom(parameters);
     }
   }
 
   @Override
-  public void onTCPMessage(String msg) {
-    try {
-      JSONObject json = new JSONObject(msg);
-      String type = json.optString("type");
-      if (type.equals("candidate")) {
-        events.onRemoteIceCandidate(toJavaCandidate(json));
-      } else if (type.equals("remove-candidates")) {
-        JSONArray candidateArray = json.getJSONArray("candidates");
-        IceCandidate[] candidates = new IceCandidate[candidateArray.length()];
-        for (int i = 0; i < candidateArray.length(); ++i) {
-          candidates[i] = toJavaCandidate(candidateArray.getJSONObject(i));
+  public void onTCPMessage(SignalingMessage message, long receivedNs) {
+    latencyTracker.record(SignalingLatencyTracker.Stage.RECEIVE_QUEUE, message.type, receivedNs);
+    switch (message.type) {
+      case CANDIDATE:
+      case CANDIDATES:
+        for (IceCandidate candidate : message.candidates) {
+          events.onRemoteIceCandidate(candidate);
         }
-        events.onRemoteIceCandidatesRemoved(candidates);
-      } else if (type.equals("answer")) {
-        SessionDescription sdp = new SessionDescription(
-            SessionDescription.Type.fromCanonicalForm(type),
-            json.getString("sdp"));
-        events.onRemoteDescription(sdp);
-      } else if (type.equals("offer")) {
-        SessionDescription sdp = new SessionDescription(
-            SessionDescription.Type.fromCanonicalForm(type),
-            json.getString("sdp"));
-
+        break;
+      case REMOVE_CANDIDATES:
+        events.onRemoteIceCandidatesRemoved(message.candidates);
+        break;
+      case ANSWER:
+        enableFramingIfSupported(message);
+        events.onRemoteDescription(message.getSessionDescription());
+        break;
+      case OFFER:
+        enableFramingIfSupported(message);
+        peerSupportsSdpCompression = message.hasCapability(SdpCompressor.CAPABILITY);
         SignalingParameters parameters = new SignalingParameters(
             // Ice servers are not needed for direct connections.
             new LinkedList<PeerConnection.IceServer>(),
@@ -280,16 +298,18 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
             null, // clientId
             null, // wssUrl
             null, // wssPostUrl
-            sdp, // offerSdp
-            null // iceCandidates
+            message.getSessionDescription(), // offerSdp
+            null, // iceCandidates
+            peerSupportsSdpCompression,
+            false, // peerSupportsIceBatching
+            false // peerSupportsReplay
         );
         roomState = ConnectionState.CONNECTED;
         events.onConnectedToRoom(parameters);
-      } else {
-        reportError("Unexpected TCP message: " + msg);
-      }
-    } catch (JSONException e) {
-      reportError("TCP message JSON parsing error: " + e.toString());
+        break;
+      default:
+        reportError("Unexpected TCP message: " + message.type);
+        break;
     }
   }
 
@@ -307,7 +327,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
   // Helper functions.
   private void reportError(final String errorMessage) {
     Log.e(TAG, errorMessage);
-    executor.execute(new Runnable() {
+    executor.execute("reportError", new Runnable() {
       @Override
       public void run() {
         if (roomState != ConnectionState.ERROR) {
@@ -318,37 +338,50 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
     });
   }
 
-  private void sendMessage(final String message) {
-    executor.execute(new Runnable() {
-      @Override
-      public void run() {
-        tcpClient.send(message);
-      }
-    });
+  // Runs on the executor thread, like all its callers.
+  private void sendMessage(SignalingMessage message, long enqueuedNs) {
+    checkIfCalledOnValidThread();
+    if (binarySignaling) {
+      tcpClient.send(binaryCodec.encode(message), message.type, enqueuedNs);
+    } else {
+      tcpClient.send(codec.encode(message), message.type, enqueuedNs);
+    }
   }
 
-  // Put a |key|->|value| mapping in |json|.
-  private static void jsonPut(JSONObject json, String key, Object value) {
-    try {
-      json.put(key, value);
-    } catch (JSONException e) {
-      throw new RuntimeException(e);
+  private void checkIfCalledOnValidThread() {
+    if (!executor.checkOnLooperThread()) {
+      throw new IllegalStateException(
+          "DirectRTCClient method is not called on valid thread");
     }
   }
 
-  // Converts a Java candidate to a JSONObject.
-  private static JSONObject toJsonCandidate(final IceCandidate candidate) {
-    JSONObject json = new JSONObject();
-    jsonPut(json, "label", candidate.sdpMLineIndex);
-    jsonPut(json, "id", candidate.sdpMid);
-    jsonPut(json, "candidate", candidate.sdp);
-    return json;
+  // Converts a local offer or answer to a message. SDP compression is
+  // advertised if enabled, |compress| is only set once the other side
+  // advertised it.
+  private SignalingMessage toSdpMessage(SessionDescription sdp, boolean compress) {
+    List<String> capabilities = new ArrayList<String>();
+    if (connectionParameters.sdpCompression) {
+      capabilities.add(SdpCompressor.CAPABILITY);
+    }
+    capabilities.add(TCPChannelClient.LENGTH_FRAMING_CAPABILITY);
+    capabilities.add(BinarySignalingCodec.CAPABILITY);
+    return SignalingMessage.description(sdp, compress, capabilities);
   }
 
-  // Converts a JSON candidate to a Java object.
-  private static IceCandidate toJavaCandidate(JSONObject json) throws JSONException {
-    return new IceCandidate(json.getString("id"),
-        json.getInt("label"),
-        json.getString("candidate"));
+  // Messages after the offer or answer of a peer which accepts length prefixed
+  // frames are sent framed, so they may contain newlines or binary data. If
+  // the peer also accepts binary messages they are sent binary. Both sides
+  // accept JSON and binary messages at any time, so the switch needs no
+  // further handshake.
+  private void enableFramingIfSupported(SignalingMessage message) {
+    if (tcpClient == null
+        || !message.hasCapability(TCPChannelClient.LENGTH_FRAMING_CAPABILITY)) {
+      return;
+    }
+    tcpClient.enableLengthFraming();
+    if (message.hasCapability(BinarySignalingCodec.CAPABILITY) && !binarySignaling) {
+      Log.d(TAG, "Switching to binary signaling.");
+      binarySignaling = true;
+    }
   }
 }
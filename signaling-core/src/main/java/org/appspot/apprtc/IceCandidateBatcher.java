@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.Log;
+import org.appspot.apprtc.util.SerialExecutor;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces local ICE candidates gathered in a burst into one signaling
+ * message. The first buffered candidate opens a window of |windowMs|, all
+ * candidates gathered until the window ends or flush() is called, e.g. on an
+ * ICE gathering state change, are sent together.
+ *
+ * <p>Batches are sent as SignalingMessage.Type.CANDIDATES, a single
+ * candidate keeps the plain CANDIDATE message. Peers accepting batches
+ * advertise |CAPABILITY|.
+ *
+ * <p>All methods must be called on the executor thread, the sender is invoked
+ * on the same thread.
+ */
+class IceCandidateBatcher {
+  private static final String TAG = "IceCandidateBatcher";
+  /** Capability advertised by peers which accept batched candidates. */
+  static final String CAPABILITY = "ice-batch-v1";
+
+  private final SerialExecutor executor;
+  private final long windowMs;
+  private final Sender sender;
+  private final List<IceCandidate> candidates = new ArrayList<IceCandidate>();
+  // When the sender got the first buffered candidate, as System.nanoTime().
+  private long firstEnqueuedNs;
+  // Identifies the open window, so a timer of an already flushed window is ignored.
+  private int window;
+
+  /**
+   * Sends one batch of candidates, |enqueuedNs| is the time of the oldest.
+   * Called on the executor thread.
+   */
+  interface Sender {
+    void sendCandidates(List<IceCandidate> candidates, long enqueuedNs);
+  }
+
+  IceCandidateBatcher(SerialExecutor executor, long windowMs, Sender sender) {
+    this.executor = executor;
+    this.windowMs = windowMs;
+    this.sender = sender;
+  }
+
+  /**
+   * Buffers |candidate| which the sender got at |enqueuedNs|, or sends it right
+   * away if batching is disabled.
+   */
+  void add(IceCandidate candidate, long enqueuedNs) {
+    if (candidates.isEmpty()) {
+      firstEnqueuedNs = enqueuedNs;
+    }
+    candidates.add(candidate);
+    if (windowMs <= 0) {
+      flush();
+      return;
+    }
+    if (candidates.size() == 1) {
+      final int flushWindow = window;
+      executor.executeDelayed(new Runnable() {
+        @Override
+        public void run() {
+          if (flushWindow == window) {
+            flush();
+          }
+        }
+      }, windowMs);
+    }
+  }
+
+  /** Sends all buffered candidates now. */
+  void flush() {
+    window++;
+    if (candidates.isEmpty()) {
+      return;
+    }
+    List<IceCandidate> batch = new ArrayList<IceCandidate>(candidates);
+    candidates.clear();
+    if (batch.size() > 1) {
+      Log.d(TAG, "Sending " + batch.size() + " ICE candidates in one message.");
+    }
+    sender.sendCandidates(batch, firstEnqueuedNs);
+  }
+
+  /** Drops buffered candidates, e.g. when the call ends. */
+  void clear() {
+    window++;
+    candidates.clear();
+  }
+}
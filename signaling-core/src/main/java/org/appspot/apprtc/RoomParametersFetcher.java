@@ -0,0 +1,403 @@
+/*
+ *  Copyright 2014 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+import org.webrtc.PeerConnection;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncTask that converts an AppRTC room URL into the set of signaling
+ * parameters to use with that room.
+ *
+ * <p>TURN server responses are kept in a TurnServerCache per room server.
+ * While the cached credentials are valid they are used right away, and
+ * refreshed in the background once half of their lifetime has passed, so
+ * back-to-back calls skip the TURN round trip. Otherwise TURN servers are
+ * requested speculatively from the ICE server URL of the last join, in
+ * parallel with the join. The speculative result is used if the join response
+ * has the same URL and no TURN servers in its pc_config, otherwise TURN
+ * servers are requested after the join as before.
+ */
+public class RoomParametersFetcher {
+  private static final String TAG = "RoomRTCClient";
+  private static final int TURN_HTTP_TIMEOUT_MS = 5000;
+  private static final String ROOM_JOIN_PATH = "/join/";
+  // Used by fetchers created without a cache, lives as long as the process.
+  private static final TurnServerCache memoryTurnServerCache = new TurnServerCache(null);
+  private final RoomParametersFetcherEvents events;
+  private final String roomUrl;
+  private final String roomMessage;
+  private final TurnServerCache turnServerCache;
+  private AsyncHttpURLConnection httpConnection;
+  private SpeculativeTurnRequest speculativeTurnRequest;
+
+  /**
+   * Room parameters fetcher callbacks.
+   */
+  public static interface RoomParametersFetcherEvents {
+    /**
+     * Callback fired once the room's signaling parameters
+     * SignalingParameters are extracted.
+     */
+    public void onSignalingParametersReady(final SignalingParameters params);
+
+    /**
+     * Callback for room parameters extraction error.
+     */
+    public void onSignalingParametersError(final String description);
+  }
+
+  public RoomParametersFetcher(String roomUrl, String roomMessage,
+      final RoomParametersFetcherEvents events) {
+    this(roomUrl, roomMessage, events, memoryTurnServerCache);
+  }
+
+  public RoomParametersFetcher(String roomUrl, String roomMessage,
+      final RoomParametersFetcherEvents events, TurnServerCache turnServerCache) {
+    this.roomUrl = roomUrl;
+    this.roomMessage = roomMessage;
+    this.events = events;
+    this.turnServerCache = turnServerCache;
+  }
+
+  public void makeRequest() {
+    Log.d(TAG, "Connecting to room: " + roomUrl);
+    TurnServerCache.Entry cached = turnServerCache.get(getRoomServer());
+    if (cached != null && !cached.isUsable(System.currentTimeMillis())) {
+      speculativeTurnRequest = new SpeculativeTurnRequest(cached.iceServerUrl);
+    }
+    httpConnection = new AsyncHttpURLConnection(
+        "POST", roomUrl, roomMessage,
+        new AsyncHttpEvents() {
+          @Override
+          public void onHttpError(int responseCode, String errorMessage) {
+            Log.e(TAG, "Room connection error: " + errorMessage);
+            cancelSpeculativeTurnRequest();
+            events.onSignalingParametersError(errorMessage);
+          }
+
+          @Override
+          public void onHttpComplete(String response) {
+            roomHttpResponseParse(response);
+          }
+        });
+    httpConnection.send();
+  }
+
+  /** Cancels the room request if it is still in flight. */
+  public void cancel() {
+    if (httpConnection != null) {
+      httpConnection.cancel();
+    }
+    if (speculativeTurnRequest != null) {
+      speculativeTurnRequest.cancel();
+    }
+  }
+
+  private void roomHttpResponseParse(String response) {
+    Log.d(TAG, "Room response: " + response);
+    try {
+      LinkedList<IceCandidate> iceCandidates = null;
+      SessionDescription offerSdp = null;
+      boolean peerSupportsSdpCompression = false;
+      boolean peerSupportsIceBatching = false;
+      boolean peerSupportsReplay = false;
+      JSONObject roomJson = new JSONObject(response);
+
+      String result = roomJson.getString("result");
+      if (!result.equals("SUCCESS")) {
+        cancelSpeculativeTurnRequest();
+        events.onSignalingParametersError("Room response error: " + result);
+        return;
+      }
+      roomJson = getJSONObject(roomJson, "params");
+      String roomId = roomJson.getString("room_id");
+      String clientId = roomJson.getString("client_id");
+      String wssUrl = roomJson.getString("wss_url");
+      String wssPostUrl = roomJson.getString("wss_post_url");
+      boolean initiator = (roomJson.getBoolean("is_initiator"));
+      if (!initiator) {
+        iceCandidates = new LinkedList<IceCandidate>();
+        JSONArray messages = getJSONArray(roomJson, "messages");
+        SignalingCodec codec = new SignalingCodec();
+        for (int i = 0; i < messages.length(); ++i) {
+          String messageString = messages.getString(i);
+          Log.d(TAG, "GAE->C #" + i + " : " + messageString);
+          SignalingMessage message = codec.decode(messageString);
+          if (message.type == SignalingMessage.Type.OFFER) {
+            offerSdp = message.getSessionDescription();
+            peerSupportsSdpCompression = message.hasCapability(SdpCompressor.CAPABILITY);
+            peerSupportsIceBatching = message.hasCapability(IceCandidateBatcher.CAPABILITY);
+            peerSupportsReplay = message.hasCapability(SignalingReplayBuffer.CAPABILITY);
+          } else if (message.type == SignalingMessage.Type.CANDIDATE
+              || message.type == SignalingMessage.Type.CANDIDATES) {
+            Collections.addAll(iceCandidates, message.candidates);
+          } else {
+            Log.e(TAG, "Unknown message: " + messageString);
+          }
+        }
+      }
+      Log.d(TAG, "RoomId: " + roomId + ". ClientId: " + clientId);
+      Log.d(TAG, "Initiator: " + initiator);
+      Log.d(TAG, "WSS url: " + wssUrl);
+      Log.d(TAG, "WSS POST url: " + wssPostUrl);
+
+      LinkedList<PeerConnection.IceServer> iceServers =
+          iceServersFromPCConfigJSON(roomJson.getString("pc_config"));
+      boolean isTurnPresent = false;
+      for (PeerConnection.IceServer server : iceServers) {
+        Log.d(TAG, "IceServer: " + server);
+        if (server.uri.startsWith("turn:")) {
+          isTurnPresent = true;
+          break;
+        }
+      }
+      // Request TURN servers.
+      String iceServerUrl = roomJson.getString("ice_server_url");
+      if (isTurnPresent && speculativeTurnRequest != null) {
+        Log.d(TAG, "TURN servers present in room response, dropping speculative request.");
+        cancelSpeculativeTurnRequest();
+      }
+      if (!isTurnPresent) {
+        LinkedList<PeerConnection.IceServer> turnServers =
+            requestTurnServers(iceServerUrl);
+        for (PeerConnection.IceServer turnServer : turnServers) {
+          Log.d(TAG, "TurnServer: " + turnServer);
+          iceServers.add(turnServer);
+        }
+      }
+
+      SignalingParameters params = new SignalingParameters(
+          iceServers, initiator,
+          clientId, wssUrl, wssPostUrl,
+          offerSdp, iceCandidates, peerSupportsSdpCompression, peerSupportsIceBatching,
+          peerSupportsReplay);
+      events.onSignalingParametersReady(params);
+    } catch (JSONException e) {
+      cancelSpeculativeTurnRequest();
+      events.onSignalingParametersError(
+          "Room JSON parsing error: " + e.toString());
+    } catch (IOException e) {
+      cancelSpeculativeTurnRequest();
+      events.onSignalingParametersError("Room IO error: " + e.toString());
+    }
+  }
+
+  // Drops the speculative TURN request of a join which doesn't use it, so it
+  // doesn't hold a shared http worker until its timeout.
+  private void cancelSpeculativeTurnRequest() {
+    if (speculativeTurnRequest != null) {
+      speculativeTurnRequest.cancel();
+    }
+  }
+
+  // Requests & returns a TURN ICE Server based on a request URL.  Must be run
+  // off the main thread!
+  private LinkedList<PeerConnection.IceServer> requestTurnServers(String url)
+      throws IOException, JSONException {
+    String roomServer = getRoomServer();
+    long nowMs = System.currentTimeMillis();
+    TurnServerCache.Entry cached = turnServerCache.get(roomServer);
+    if (cached != null && cached.iceServerUrl.equals(url) && cached.isUsable(nowMs)) {
+      try {
+        LinkedList<PeerConnection.IceServer> turnServers =
+            turnServersFromJSON(cached.response);
+        Log.d(TAG, "Using cached TURN servers, valid for "
+            + (cached.expiresMs - nowMs) / 1000 + " s.");
+        if (cached.needsRefresh(nowMs)) {
+          refreshTurnServers(roomServer, url);
+        }
+        return turnServers;
+      } catch (JSONException e) {
+        Log.e(TAG, "Invalid cached TURN response: " + e.toString());
+        turnServerCache.remove(roomServer);
+      }
+    }
+    String response = null;
+    if (speculativeTurnRequest != null) {
+      if (speculativeTurnRequest.url.equals(url)) {
+        response = speculativeTurnRequest.awaitResponse();
+      } else {
+        Log.d(TAG, "ICE server URL changed, dropping speculative TURN request.");
+        speculativeTurnRequest.cancel();
+      }
+    }
+    if (response == null) {
+      Log.d(TAG, "Request TURN from: " + url);
+      // Runs on the http worker thread of the room request, so it is sent
+      // synchronously over the shared connection pool.
+      response = createTurnRequest(url, null).sendSync();
+    }
+    Log.d(TAG, "TURN response: " + response);
+    LinkedList<PeerConnection.IceServer> turnServers = turnServersFromJSON(response);
+    turnServerCache.put(roomServer, url, response, nowMs);
+    return turnServers;
+  }
+
+  // Fetches fresh TURN servers for the cache, unless a refresh is running.
+  private void refreshTurnServers(final String roomServer, final String url) {
+    if (!turnServerCache.startRefresh(roomServer)) {
+      return;
+    }
+    Log.d(TAG, "Refreshing TURN servers from: " + url);
+    final long requestTimeMs = System.currentTimeMillis();
+    createTurnRequest(url, new AsyncHttpEvents() {
+      @Override
+      public void onHttpError(int responseCode, String errorMessage) {
+        Log.w(TAG, "TURN refresh failed: " + errorMessage);
+        turnServerCache.finishRefresh(roomServer);
+      }
+
+      @Override
+      public void onHttpComplete(String response) {
+        try {
+          turnServersFromJSON(response);
+          turnServerCache.put(roomServer, url, response, requestTimeMs);
+        } catch (JSONException e) {
+          Log.e(TAG, "Invalid TURN refresh response: " + e.toString());
+        } finally {
+          turnServerCache.finishRefresh(roomServer);
+        }
+      }
+    }).send();
+  }
+
+  // Returns the TURN ICE servers of a TURN server response.
+  private static LinkedList<PeerConnection.IceServer> turnServersFromJSON(String response)
+      throws JSONException {
+    LinkedList<PeerConnection.IceServer> turnServers =
+        new LinkedList<PeerConnection.IceServer>();
+    JSONObject responseJSON = new JSONObject(response);
+    JSONArray iceServers = responseJSON.getJSONArray("iceServers");
+    for (int i = 0; i < iceServers.length(); ++i) {
+      JSONObject server = iceServers.getJSONObject(i);
+      JSONArray turnUrls = server.getJSONArray("urls");
+      String username =
+          server.has("username") ? server.getString("username") : "";
+      String credential =
+          server.has("credential") ? server.getString("credential") : "";
+      for (int j = 0; j < turnUrls.length(); j++) {
+        String turnUrl = turnUrls.getString(j);
+        turnServers.add(new PeerConnection.IceServer(turnUrl, username,
+            credential));
+      }
+    }
+    return turnServers;
+  }
+
+  private static AsyncHttpURLConnection createTurnRequest(String url, AsyncHttpEvents events) {
+    AsyncHttpURLConnection turnConnection = new AsyncHttpURLConnection("POST", url, null, events);
+    turnConnection.setTimeout(TURN_HTTP_TIMEOUT_MS);
+    turnConnection.addRequestProperty("REFERER", "https://appr.tc");
+    return turnConnection;
+  }
+
+  // Room server part of |roomUrl|, e.g. https://appr.tc for
+  // https://appr.tc/join/room.
+  private String getRoomServer() {
+    int joinIndex = roomUrl.lastIndexOf(ROOM_JOIN_PATH);
+    return joinIndex == -1 ? roomUrl : roomUrl.substring(0, joinIndex);
+  }
+
+  // TURN request sent in parallel with the room join.
+  private static class SpeculativeTurnRequest implements AsyncHttpEvents {
+    final String url;
+    final AsyncHttpURLConnection connection;
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile String response;
+
+    SpeculativeTurnRequest(String url) {
+      this.url = url;
+      Log.d(TAG, "Speculative TURN request to: " + url);
+      connection = createTurnRequest(url, this);
+      connection.send();
+    }
+
+    @Override
+    public void onHttpError(int responseCode, String errorMessage) {
+      Log.w(TAG, "Speculative TURN request failed: " + errorMessage);
+      completed.countDown();
+    }
+
+    @Override
+    public void onHttpComplete(String response) {
+      this.response = response;
+      completed.countDown();
+    }
+
+    void cancel() {
+      connection.cancel();
+      completed.countDown();
+    }
+
+    // Returns the response, or null if the request failed.
+    String awaitResponse() {
+      try {
+        // The request has its own timeout, this only guards against a lost callback.
+        if (!completed.await(2 * TURN_HTTP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          cancel();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancel();
+      }
+      return response;
+    }
+  }
+
+  // Returns the object at |key|, which the room server may also send as a
+  // JSON string.
+  private static JSONObject getJSONObject(JSONObject json, String key) throws JSONException {
+    JSONObject value = json.optJSONObject(key);
+    return value != null ? value : new JSONObject(json.getString(key));
+  }
+
+  // Returns the array at |key|, which the room server may also send as a
+  // JSON string.
+  private static JSONArray getJSONArray(JSONObject json, String key) throws JSONException {
+    JSONArray value = json.optJSONArray(key);
+    return value != null ? value : new JSONArray(json.getString(key));
+  }
+
+  // Return the list of ICE servers described by a WebRTCPeerConnection
+  // configuration string.
+  private LinkedList<PeerConnection.IceServer> iceServersFromPCConfigJSON(
+      String pcConfig) throws JSONException {
+    JSONObject json = new JSONObject(pcConfig);
+    JSONArray servers = json.getJSONArray("iceServers");
+    LinkedList<PeerConnection.IceServer> ret =
+        new LinkedList<PeerConnection.IceServer>();
+    for (int i = 0; i < servers.length(); ++i) {
+      JSONObject server = servers.getJSONObject(i);
+      String url = server.getString("urls");
+      String credential =
+          server.has("credential") ? server.getString("credential") : "";
+      ret.add(new PeerConnection.IceServer(url, "", credential));
+    }
+    return ret;
+  }
+
+}
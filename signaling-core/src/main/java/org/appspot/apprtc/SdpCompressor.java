@@ -0,0 +1,256 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact text encoding of SDP for signaling messages: zlib deflate with a
+ * preset dictionary of common libjingle SDP lines, then base64 so the result
+ * still fits in a JSON string.
+ *
+ * <p>Both peers need the same dictionary, so it is versioned through
+ * |CAPABILITY|. Any change to the dictionary requires a new capability name.
+ */
+public class SdpCompressor {
+  /** Capability advertised by peers which can decode compressed SDP. */
+  public static final String CAPABILITY = "sdp-deflate-v1";
+  // Upper bound for decompressed SDP, guards against corrupted input.
+  private static final int MAX_SDP_LENGTH = 256 * 1024;
+  private static final char[] BASE64_ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  private static final int[] BASE64_VALUES = new int[128];
+  // Deflate finds matches closer to the end of the dictionary cheaper, so the
+  // most frequent lines go last.
+  private static final byte[] DICTIONARY = toUtf8(
+      "a=group:BUNDLE audio video\r\n"
+      + "a=msid-semantic: WMS \r\n"
+      + "a=extmap:4 urn:3gpp:video-orientation\r\n"
+      + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+      + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+      + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+      + "a=extmap:5 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n"
+      + "a=extmap:6 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:104 ISAC/32000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\n"
+      + "a=rtpmap:8 PCMA/8000\r\n"
+      + "a=rtpmap:106 CN/32000\r\n"
+      + "a=rtpmap:105 CN/16000\r\n"
+      + "a=rtpmap:13 CN/8000\r\n"
+      + "a=rtpmap:126 telephone-event/8000\r\n"
+      + "a=maxptime:60\r\n"
+      + "a=rtpmap:100 VP8/90000\r\n"
+      + "a=rtpmap:101 VP9/90000\r\n"
+      + "a=rtpmap:107 H264/90000\r\n"
+      + "a=fmtp:107 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+      + "a=rtpmap:116 red/90000\r\n"
+      + "a=rtpmap:117 ulpfec/90000\r\n"
+      + "a=rtpmap:96 rtx/90000\r\n"
+      + "a=fmtp:96 apt=100\r\n"
+      + "a=ssrc-group:FID \r\n"
+      + "a=rtcp-fb:100 ccm fir\r\n"
+      + "a=rtcp-fb:100 nack\r\n"
+      + "a=rtcp-fb:100 nack pli\r\n"
+      + "a=rtcp-fb:100 goog-remb\r\n"
+      + "a=rtcp-fb:100 transport-cc\r\n"
+      + "a=fingerprint:sha-256 \r\n"
+      + "a=setup:actpass\r\n"
+      + "a=ice-options:trickle\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtcp-rsize\r\n"
+      + "a=candidate:1 1 udp 2122260223 192.168.1.1 typ host generation 0 network-id 1\r\n"
+      + "a=candidate:1 1 tcp 1518280447 192.168.1.1 9 typ host tcptype active generation 0\r\n"
+      + "a=candidate:1 1 udp 1686052607 1.1.1.1 typ srflx raddr 192.168.1.1 rport \r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 100 101 107 116 117 96 97 99 98\r\n"
+      + "a=mid:video\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 126\r\n"
+      + "a=mid:audio\r\n"
+      + "a=ice-ufrag:\r\n"
+      + "a=ice-pwd:\r\n"
+      + "a=ssrc: cname:\r\n"
+      + "a=ssrc: msid:ARDAMS ARDAMSv0\r\n"
+      + "a=ssrc: msid:ARDAMS ARDAMSa0\r\n"
+      + "a=ssrc: mslabel:ARDAMS\r\n"
+      + "a=ssrc: label:ARDAMSv0\r\n"
+      + "a=ssrc: label:ARDAMSa0\r\n"
+      + "v=0\r\n"
+      + "o=- 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n");
+
+  static {
+    for (int i = 0; i < BASE64_VALUES.length; i++) {
+      BASE64_VALUES[i] = -1;
+    }
+    for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+      BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+    }
+  }
+
+  private SdpCompressor() {
+  }
+
+  /** Returns compressed and base64 encoded |sdp|. */
+  public static String compress(String sdp) {
+    return encodeBase64(deflate(sdp));
+  }
+
+  /**
+   * Reverses compress().
+   *
+   * @throws IllegalArgumentException if |compressedSdp| is not valid.
+   */
+  public static String decompress(String compressedSdp) {
+    byte[] input = decodeBase64(compressedSdp);
+    return inflate(input, 0, input.length);
+  }
+
+  /** Returns compressed |sdp| without base64 encoding, for binary signaling. */
+  static byte[] deflate(String sdp) {
+    byte[] input = toUtf8(sdp);
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setDictionary(DICTIONARY);
+      deflater.setInput(input);
+      deflater.finish();
+      // SDP compresses well, a quarter of the input is enough in most cases.
+      ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4 + 64);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        int length = deflater.deflate(buffer);
+        output.write(buffer, 0, length);
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Reverses deflate() for |length| bytes of |input| at |offset|.
+   *
+   * @throws IllegalArgumentException if the input is not valid.
+   */
+  static String inflate(byte[] input, int offset, int length) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input, offset, length);
+      ByteArrayOutputStream output = new ByteArrayOutputStream(length * 4);
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0) {
+          if (inflater.needsDictionary()) {
+            setDictionary(inflater);
+            continue;
+          }
+          // An empty SDP finishes without output.
+          if (inflater.needsInput() && !inflater.finished()) {
+            throw new IllegalArgumentException("Truncated compressed SDP");
+          }
+        }
+        output.write(buffer, 0, inflated);
+        if (output.size() > MAX_SDP_LENGTH) {
+          throw new IllegalArgumentException("Compressed SDP is too large");
+        }
+      }
+      return output.toString("UTF-8");
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Invalid compressed SDP: " + e.getMessage());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static void setDictionary(Inflater inflater) {
+    try {
+      inflater.setDictionary(DICTIONARY);
+    } catch (IllegalArgumentException e) {
+      // The Adler-32 of the dictionary doesn't match the stream.
+      throw new IllegalArgumentException("Compressed SDP uses an unknown dictionary");
+    }
+  }
+
+  // android.util.Base64 is not available in the JVM benchmarks and
+  // java.util.Base64 needs API level 26, so this is a plain RFC 4648 codec.
+  static String encodeBase64(byte[] data) {
+    StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+    int i = 0;
+    for (; i + 2 < data.length; i += 3) {
+      int chunk = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+      builder.append(BASE64_ALPHABET[chunk >> 18])
+          .append(BASE64_ALPHABET[(chunk >> 12) & 0x3f])
+          .append(BASE64_ALPHABET[(chunk >> 6) & 0x3f])
+          .append(BASE64_ALPHABET[chunk & 0x3f]);
+    }
+    int remaining = data.length - i;
+    if (remaining > 0) {
+      int chunk = (data[i] & 0xff) << 16;
+      if (remaining == 2) {
+        chunk |= (data[i + 1] & 0xff) << 8;
+      }
+      builder.append(BASE64_ALPHABET[chunk >> 18])
+          .append(BASE64_ALPHABET[(chunk >> 12) & 0x3f])
+          .append(remaining == 2 ? BASE64_ALPHABET[(chunk >> 6) & 0x3f] : '=')
+          .append('=');
+    }
+    return builder.toString();
+  }
+
+  static byte[] decodeBase64(String text) {
+    int length = text.length();
+    while (length > 0 && text.charAt(length - 1) == '=') {
+      length--;
+    }
+    if (length % 4 == 1) {
+      throw new IllegalArgumentException("Invalid base64 length");
+    }
+    byte[] data = new byte[length * 3 / 4];
+    int chunk = 0;
+    int bits = 0;
+    int index = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+      if (value == -1) {
+        throw new IllegalArgumentException("Invalid base64 character: " + c);
+      }
+      chunk = (chunk << 6) | value;
+      bits += 6;
+      if (bits >= 8) {
+        bits -= 8;
+        data[index++] = (byte) (chunk >> bits);
+      }
+    }
+    return data;
+  }
+
+  private static byte[] toUtf8(String text) {
+    try {
+      return text.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
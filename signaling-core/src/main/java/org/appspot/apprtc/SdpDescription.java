@@ -0,0 +1,431 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Structured view of an SDP blob.
+ *
+ * <p>The description is split into session and media sections in a single pass
+ * over the text. Inside every media section rtpmap, fmtp and rtcp-fb attributes
+ * are indexed by payload type, so codec transforms do not need to rescan the
+ * description. Lines which are not touched by a transform are serialized back
+ * unchanged and in their original order.
+ *
+ * <p>This class is not thread safe.
+ */
+public class SdpDescription {
+  private static final String LINE_SEPARATOR = "\r\n";
+  private static final String MEDIA_LINE_PREFIX = "m=";
+  private static final String RTPMAP_PREFIX = "a=rtpmap:";
+  private static final String FMTP_PREFIX = "a=fmtp:";
+  private static final String RTCP_FB_PREFIX = "a=rtcp-fb:";
+  private static final String BANDWIDTH_PREFIX = "b=";
+  private static final String RTX_CODEC = "rtx";
+  private static final String RTX_APT_PARAM = "apt";
+
+  private final List<String> sessionLines = new ArrayList<String>();
+  private final List<MediaSection> mediaSections = new ArrayList<MediaSection>();
+  private final int originalLength;
+
+  private SdpDescription(int originalLength) {
+    this.originalLength = originalLength;
+  }
+
+  /**
+   * Parses |sdp| into session and media sections. Both "\r\n" and "\n" line
+   * endings are accepted, serialized output always uses "\r\n".
+   */
+  public static SdpDescription parse(String sdp) {
+    SdpDescription description = new SdpDescription(sdp.length());
+    MediaSection section = null;
+    int start = 0;
+    final int length = sdp.length();
+    while (start < length) {
+      int end = sdp.indexOf('\n', start);
+      if (end == -1) {
+        end = length;
+      }
+      int lineEnd = end;
+      if (lineEnd > start && sdp.charAt(lineEnd - 1) == '\r') {
+        lineEnd--;
+      }
+      if (lineEnd > start) {
+        String line = sdp.substring(start, lineEnd);
+        if (line.startsWith(MEDIA_LINE_PREFIX)) {
+          section = new MediaSection(line);
+          description.mediaSections.add(section);
+        } else if (section != null) {
+          section.addLine(line);
+        } else {
+          description.sessionLines.add(line);
+        }
+      }
+      start = end + 1;
+    }
+    return description;
+  }
+
+  public List<MediaSection> getMediaSections() {
+    return mediaSections;
+  }
+
+  /** Returns all media sections of the given kind, e.g. "audio" or "video". */
+  public List<MediaSection> getMediaSections(String kind) {
+    List<MediaSection> sections = new ArrayList<MediaSection>(mediaSections.size());
+    for (MediaSection section : mediaSections) {
+      if (section.kind.equals(kind)) {
+        sections.add(section);
+      }
+    }
+    return sections;
+  }
+
+  /** Serializes the description back to SDP text. */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(originalLength + 128);
+    for (String line : sessionLines) {
+      builder.append(line).append(LINE_SEPARATOR);
+    }
+    for (MediaSection section : mediaSections) {
+      section.appendTo(builder);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Single attribute line of a media section. |owner| is set for rtpmap, fmtp
+   * and rtcp-fb lines of a specific payload type.
+   */
+  private static final class Line {
+    String text;
+    final Codec owner;
+
+    Line(String text, Codec owner) {
+      this.text = text;
+      this.owner = owner;
+    }
+  }
+
+  /**
+   * Media section: the m= line and every line up to the next m= line.
+   */
+  public static class MediaSection {
+    private final String kind;
+    // m=<media> <port> <proto> part of the media line.
+    private final String mediaLinePrefix;
+    // <fmt> list of the media line in preference order.
+    private final List<String> formats = new ArrayList<String>();
+    private final List<Line> lines = new ArrayList<Line>();
+    private final Map<String, Codec> codecs = new HashMap<String, Codec>();
+
+    MediaSection(String mediaLine) {
+      // Format is: m=<media> <port> <proto> <fmt> ...
+      String[] parts = mediaLine.split(" ");
+      kind = parts[0].substring(MEDIA_LINE_PREFIX.length());
+      if (parts.length > 3) {
+        mediaLinePrefix = parts[0] + " " + parts[1] + " " + parts[2];
+        for (int i = 3; i < parts.length; i++) {
+          formats.add(parts[i]);
+        }
+      } else {
+        mediaLinePrefix = mediaLine;
+      }
+    }
+
+    public String getKind() {
+      return kind;
+    }
+
+    /** Returns media line payload types in preference order. */
+    public List<String> getFormats() {
+      return formats;
+    }
+
+    /** Returns codec with |payloadType| or null if there is no rtpmap for it. */
+    public Codec getCodec(String payloadType) {
+      Codec codec = codecs.get(payloadType);
+      return (codec != null && codec.name != null) ? codec : null;
+    }
+
+    /**
+     * Returns all codecs with |name| (case insensitive) in media line order.
+     */
+    public List<Codec> findCodecs(String name) {
+      List<Codec> found = new ArrayList<Codec>(2);
+      for (String format : formats) {
+        Codec codec = codecs.get(format);
+        if (codec != null && codec.name != null && codec.name.equalsIgnoreCase(name)) {
+          found.add(codec);
+        }
+      }
+      return found;
+    }
+
+    /**
+     * Moves all payload types of codec |name| to the front of the media line.
+     *
+     * @return false if the section has no rtpmap for |name|.
+     */
+    public boolean preferCodec(String name) {
+      return preferCodecs(Collections.singletonList(name)) != null;
+    }
+
+    /**
+     * Reorders the media line in a single pass so payload types of |names| come
+     * first, in list order. Codecs which are not in the section are skipped,
+     * remaining payload types keep their relative order.
+     *
+     * @return name of the first listed codec found in the section, which is the
+     *     one to be negotiated, or null if none of |names| is present.
+     */
+    public String preferCodecs(List<String> names) {
+      List<String> reordered = new ArrayList<String>(formats.size());
+      String first = null;
+      for (String name : names) {
+        for (Codec codec : findCodecs(name)) {
+          if (!reordered.contains(codec.payloadType)) {
+            reordered.add(codec.payloadType);
+            if (first == null) {
+              first = codec.name;
+            }
+          }
+        }
+      }
+      if (first == null) {
+        return null;
+      }
+      for (String format : formats) {
+        if (!reordered.contains(format)) {
+          reordered.add(format);
+        }
+      }
+      formats.clear();
+      formats.addAll(reordered);
+      return first;
+    }
+
+    /**
+     * Removes all payload types except codecs named in |names| and the RTX
+     * payload types associated with them. m= line entries and rtpmap, fmtp and
+     * rtcp-fb lines of removed payload types are dropped consistently.
+     *
+     * @return false if none of |names| is present, the section is unchanged then.
+     */
+    public boolean retainCodecs(Collection<String> names) {
+      Set<String> retained = new HashSet<String>();
+      for (String name : names) {
+        for (Codec codec : findCodecs(name)) {
+          retained.add(codec.payloadType);
+        }
+      }
+      if (retained.isEmpty()) {
+        return false;
+      }
+      for (Codec rtx : findCodecs(RTX_CODEC)) {
+        if (retained.contains(rtx.getFmtpParameter(RTX_APT_PARAM))) {
+          retained.add(rtx.payloadType);
+        }
+      }
+      Iterator<String> formatIterator = formats.iterator();
+      while (formatIterator.hasNext()) {
+        String format = formatIterator.next();
+        if (!retained.contains(format)) {
+          formatIterator.remove();
+          codecs.remove(format);
+        }
+      }
+      // Drop the attribute lines of payload types which are gone.
+      Iterator<Line> lineIterator = lines.iterator();
+      while (lineIterator.hasNext()) {
+        Line line = lineIterator.next();
+        if (line.owner != null && !retained.contains(line.owner.payloadType)) {
+          lineIterator.remove();
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Sets the "b=<type>:<value>" line of this section, e.g. AS in kbps or TIAS
+     * in bps, replacing an existing line of the same type. New lines are put
+     * after the i= and c= lines as required by RFC 4566.
+     */
+    public void setBandwidth(String type, long value) {
+      String prefix = BANDWIDTH_PREFIX + type + ":";
+      String text = prefix + value;
+      int insertIndex = 0;
+      for (int i = 0; i < lines.size(); i++) {
+        String lineText = lines.get(i).text;
+        if (lineText.startsWith(prefix)) {
+          lines.get(i).text = text;
+          return;
+        }
+        if (lineText.startsWith("i=") || lineText.startsWith("c=")
+            || lineText.startsWith(BANDWIDTH_PREFIX)) {
+          insertIndex = i + 1;
+        }
+      }
+      lines.add(insertIndex, new Line(text, null));
+    }
+
+    void addLine(String text) {
+      Codec owner = null;
+      if (text.startsWith(RTPMAP_PREFIX)) {
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        int space = text.indexOf(' ', RTPMAP_PREFIX.length());
+        if (space != -1) {
+          owner = getOrCreateCodec(text.substring(RTPMAP_PREFIX.length(), space));
+          int slash = text.indexOf('/', space);
+          owner.name = text.substring(space + 1, slash == -1 ? text.length() : slash);
+        }
+      } else if (text.startsWith(FMTP_PREFIX)) {
+        int space = text.indexOf(' ', FMTP_PREFIX.length());
+        if (space != -1) {
+          owner = getOrCreateCodec(text.substring(FMTP_PREFIX.length(), space));
+        }
+      } else if (text.startsWith(RTCP_FB_PREFIX)) {
+        int space = text.indexOf(' ', RTCP_FB_PREFIX.length());
+        String payloadType = space == -1 ? null : text.substring(RTCP_FB_PREFIX.length(), space);
+        // Wildcard feedback lines ("a=rtcp-fb:* ...") are not codec specific.
+        if (payloadType != null && !payloadType.equals("*")) {
+          owner = getOrCreateCodec(payloadType);
+        }
+      }
+      Line line = new Line(text, owner);
+      lines.add(line);
+      if (owner != null) {
+        if (text.startsWith(RTPMAP_PREFIX)) {
+          owner.rtpmap = line;
+        } else if (text.startsWith(FMTP_PREFIX)) {
+          owner.fmtp = line;
+        }
+      }
+    }
+
+    private Codec getOrCreateCodec(String payloadType) {
+      Codec codec = codecs.get(payloadType);
+      if (codec == null) {
+        codec = new Codec(this, payloadType);
+        codecs.put(payloadType, codec);
+      }
+      return codec;
+    }
+
+    // Inserts a new fmtp line right after the rtpmap line of |codec|.
+    private Line insertFmtpLine(Codec codec, String text) {
+      Line line = new Line(text, codec);
+      int index = lines.indexOf(codec.rtpmap);
+      lines.add(index == -1 ? lines.size() : index + 1, line);
+      return line;
+    }
+
+    void appendTo(StringBuilder builder) {
+      builder.append(mediaLinePrefix);
+      for (String format : formats) {
+        builder.append(' ').append(format);
+      }
+      builder.append(LINE_SEPARATOR);
+      for (Line line : lines) {
+        builder.append(line.text).append(LINE_SEPARATOR);
+      }
+    }
+  }
+
+  /**
+   * Codec of a media section: the rtpmap line and its fmtp parameters.
+   */
+  public static class Codec {
+    private final MediaSection section;
+    private final String payloadType;
+    private String name;
+    private Line rtpmap;
+    private Line fmtp;
+
+    Codec(MediaSection section, String payloadType) {
+      this.section = section;
+      this.payloadType = payloadType;
+    }
+
+    public String getPayloadType() {
+      return payloadType;
+    }
+
+    /** Returns encoding name as written in the rtpmap line, e.g. "VP8" or "opus". */
+    public String getName() {
+      return name;
+    }
+
+    /** Returns the fmtp parameter string or null if there is no fmtp line. */
+    public String getFmtp() {
+      if (fmtp == null) {
+        return null;
+      }
+      return fmtp.text.substring(FMTP_PREFIX.length() + payloadType.length() + 1);
+    }
+
+    /** Returns value of fmtp parameter |key| or null if it is not set. */
+    public String getFmtpParameter(String key) {
+      String params = getFmtp();
+      if (params == null) {
+        return null;
+      }
+      for (String param : params.split(";")) {
+        param = param.trim();
+        int equals = param.indexOf('=');
+        if (equals != -1 && param.substring(0, equals).equals(key)) {
+          return param.substring(equals + 1);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Sets fmtp parameter |key| to |value|. Existing parameter is replaced,
+     * otherwise it is appended to the fmtp line which is created if needed.
+     */
+    public void setFmtpParameter(String key, String value) {
+      String params = getFmtp();
+      if (params == null) {
+        fmtp = section.insertFmtpLine(
+            this, FMTP_PREFIX + payloadType + " " + key + "=" + value);
+        return;
+      }
+      if (getFmtpParameter(key) == null) {
+        fmtp.text = fmtp.text + "; " + key + "=" + value;
+        return;
+      }
+      StringBuilder newParams = new StringBuilder(params.length() + value.length());
+      for (String param : params.split(";")) {
+        if (newParams.length() > 0) {
+          newParams.append(';');
+        }
+        int equals = param.indexOf('=');
+        if (equals != -1 && param.substring(0, equals).trim().equals(key)) {
+          newParams.append(param.substring(0, equals + 1)).append(value);
+        } else {
+          newParams.append(param);
+        }
+      }
+      fmtp.text = FMTP_PREFIX + payloadType + " " + newParams;
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.SdpDescription.Codec;
+import org.appspot.apprtc.SdpDescription.MediaSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies AppRTC codec preferences, codec pruning, bitrates and bandwidth caps
+ * to SDP.
+ *
+ * <p>Every description is parsed once into an SdpDescription, all transforms
+ * are applied to that model and the result is serialized once. Instances are
+ * immutable and can be used from any thread.
+ */
+public class SdpMunger {
+  public static final String VIDEO_CODEC_VP8 = "VP8";
+  public static final String VIDEO_CODEC_VP9 = "VP9";
+  public static final String VIDEO_CODEC_H264 = "H264";
+  public static final String AUDIO_CODEC_OPUS = "opus";
+  public static final String AUDIO_CODEC_ISAC = "ISAC";
+  private static final String MEDIA_AUDIO = "audio";
+  private static final String MEDIA_VIDEO = "video";
+  private static final String VIDEO_CODEC_PARAM_START_BITRATE =
+      "x-google-start-bitrate";
+  private static final String VIDEO_CODEC_PARAM_MIN_BITRATE =
+      "x-google-min-bitrate";
+  private static final String VIDEO_CODEC_PARAM_MAX_BITRATE =
+      "x-google-max-bitrate";
+  private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+  private static final String BANDWIDTH_AS = "AS";
+  private static final String BANDWIDTH_TIAS = "TIAS";
+  private static final String[] BITRATE_VIDEO_CODECS = {
+    VIDEO_CODEC_VP8, VIDEO_CODEC_VP9, VIDEO_CODEC_H264
+  };
+
+  private final List<String> audioCodecs;
+  private final List<String> videoCodecs;
+  private final boolean pruneCodecs;
+  private final int videoStartBitrateKbps;
+  private final int videoMinBitrateKbps;
+  private final int videoMaxBitrateKbps;
+  private final int audioStartBitrateKbps;
+  private final int audioMaxBitrateKbps;
+  private final String configKey;
+
+  /**
+   * @param audioCodecs Audio codec names in preference order, e.g. opus, ISAC.
+   *     Empty or null to keep the original order of audio m= lines.
+   * @param videoCodecs Video codec names in preference order, e.g. H264, VP8,
+   *     VP9. Empty or null to keep the original order of video m= lines.
+   * @param pruneCodecs Remove all payload types except |audioCodecs|,
+   *     |videoCodecs| and their RTX payload types. A media section which has
+   *     none of the listed codecs is left unpruned.
+   * @param videoStartBitrateKbps Video start bitrate set on remote descriptions,
+   *     0 to keep the default. Clamped to |videoMaxBitrateKbps|.
+   * @param videoMinBitrateKbps Video encoder min bitrate set on remote
+   *     descriptions, 0 to keep the default.
+   * @param videoMaxBitrateKbps Video bandwidth cap set on remote descriptions
+   *     as b=AS, b=TIAS and encoder max bitrate, 0 for no cap.
+   * @param audioStartBitrateKbps Opus bitrate set on remote descriptions, 0 to
+   *     keep the default. Clamped to |audioMaxBitrateKbps|.
+   * @param audioMaxBitrateKbps Audio bandwidth cap set on remote descriptions
+   *     as b=AS and b=TIAS, 0 for no cap.
+   */
+  public SdpMunger(List<String> audioCodecs, List<String> videoCodecs,
+      boolean pruneCodecs, int videoStartBitrateKbps, int videoMinBitrateKbps,
+      int videoMaxBitrateKbps, int audioStartBitrateKbps, int audioMaxBitrateKbps) {
+    this.audioCodecs = audioCodecs != null
+        ? Collections.unmodifiableList(new ArrayList<String>(audioCodecs))
+        : Collections.<String>emptyList();
+    this.videoCodecs = videoCodecs != null
+        ? Collections.unmodifiableList(new ArrayList<String>(videoCodecs))
+        : Collections.<String>emptyList();
+    this.pruneCodecs = pruneCodecs;
+    this.videoStartBitrateKbps = clampToMax(videoStartBitrateKbps, videoMaxBitrateKbps);
+    this.videoMinBitrateKbps = clampToMax(videoMinBitrateKbps, videoMaxBitrateKbps);
+    this.videoMaxBitrateKbps = videoMaxBitrateKbps;
+    this.audioStartBitrateKbps = clampToMax(audioStartBitrateKbps, audioMaxBitrateKbps);
+    this.audioMaxBitrateKbps = audioMaxBitrateKbps;
+    configKey = this.audioCodecs + "/" + this.videoCodecs + "/" + pruneCodecs
+        + "/" + this.videoStartBitrateKbps + "/" + this.videoMinBitrateKbps
+        + "/" + videoMaxBitrateKbps + "/" + this.audioStartBitrateKbps
+        + "/" + audioMaxBitrateKbps;
+  }
+
+  /**
+   * Returns a string which is equal for mungers with the same transforms, used
+   * to key cached results.
+   */
+  public String getConfigKey() {
+    return configKey;
+  }
+
+  private static int clampToMax(int bitrateKbps, int maxBitrateKbps) {
+    return (maxBitrateKbps > 0 && bitrateKbps > maxBitrateKbps) ? maxBitrateKbps : bitrateKbps;
+  }
+
+  /**
+   * Applies codec preferences and pruning to a locally created offer or answer.
+   */
+  public String mungeLocalDescription(String sdpDescription) {
+    return munge(sdpDescription, false);
+  }
+
+  /**
+   * Applies codec preferences, pruning, bitrates and bandwidth caps to a remote
+   * offer or answer. Bitrates in the remote description configure the local
+   * encoders.
+   */
+  public String mungeRemoteDescription(String sdpDescription) {
+    return munge(sdpDescription, true);
+  }
+
+  private String munge(String sdpDescription, boolean setBitrates) {
+    if (audioCodecs.isEmpty() && videoCodecs.isEmpty()
+        && (!setBitrates || !hasBitrates())) {
+      return sdpDescription;
+    }
+    SdpDescription sdp = SdpDescription.parse(sdpDescription);
+    for (MediaSection section : sdp.getMediaSections()) {
+      if (MEDIA_AUDIO.equals(section.getKind())) {
+        mungeAudioSection(section, setBitrates);
+      } else if (MEDIA_VIDEO.equals(section.getKind())) {
+        mungeVideoSection(section, setBitrates);
+      }
+    }
+    return sdp.toString();
+  }
+
+  private boolean hasBitrates() {
+    return videoStartBitrateKbps > 0 || videoMinBitrateKbps > 0 || videoMaxBitrateKbps > 0
+        || audioStartBitrateKbps > 0 || audioMaxBitrateKbps > 0;
+  }
+
+  private void mungeAudioSection(MediaSection section, boolean setBitrates) {
+    applyCodecs(section, audioCodecs);
+    if (!setBitrates) {
+      return;
+    }
+    if (audioMaxBitrateKbps > 0) {
+      setBandwidth(section, audioMaxBitrateKbps);
+    }
+    // Without a start bitrate Opus still has to respect the cap.
+    int opusBitrateKbps = audioStartBitrateKbps > 0 ? audioStartBitrateKbps : audioMaxBitrateKbps;
+    if (opusBitrateKbps > 0) {
+      String bitrateBps = Integer.toString(opusBitrateKbps * 1000);
+      for (Codec codec : section.findCodecs(AUDIO_CODEC_OPUS)) {
+        codec.setFmtpParameter(AUDIO_CODEC_PARAM_BITRATE, bitrateBps);
+      }
+    }
+  }
+
+  private void mungeVideoSection(MediaSection section, boolean setBitrates) {
+    applyCodecs(section, videoCodecs);
+    if (!setBitrates) {
+      return;
+    }
+    if (videoMaxBitrateKbps > 0) {
+      setBandwidth(section, videoMaxBitrateKbps);
+    }
+    for (String codecName : BITRATE_VIDEO_CODECS) {
+      for (Codec codec : section.findCodecs(codecName)) {
+        if (videoMinBitrateKbps > 0) {
+          codec.setFmtpParameter(
+              VIDEO_CODEC_PARAM_MIN_BITRATE, Integer.toString(videoMinBitrateKbps));
+        }
+        if (videoStartBitrateKbps > 0) {
+          codec.setFmtpParameter(
+              VIDEO_CODEC_PARAM_START_BITRATE, Integer.toString(videoStartBitrateKbps));
+        }
+        if (videoMaxBitrateKbps > 0) {
+          codec.setFmtpParameter(
+              VIDEO_CODEC_PARAM_MAX_BITRATE, Integer.toString(videoMaxBitrateKbps));
+        }
+      }
+    }
+  }
+
+  // Chrome reads b=AS (kbps), Firefox reads b=TIAS (bps), so both are set.
+  private static void setBandwidth(MediaSection section, int bitrateKbps) {
+    section.setBandwidth(BANDWIDTH_AS, bitrateKbps);
+    section.setBandwidth(BANDWIDTH_TIAS, bitrateKbps * 1000L);
+  }
+
+  private void applyCodecs(MediaSection section, List<String> codecs) {
+    if (codecs.isEmpty()) {
+      return;
+    }
+    if (pruneCodecs) {
+      section.retainCodecs(codecs);
+    }
+    // The first listed codec the section offers ends up first and gets
+    // negotiated, so a missing codec does not fail the negotiation.
+    section.preferCodecs(codecs);
+  }
+}
@@ -0,0 +1,655 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.json.JSONException;
+import org.webrtc.IceCandidate;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming JSON codec for the fixed set of AppRTC signaling messages.
+ *
+ * <p>Messages are parsed straight from the received characters or UTF-8
+ * bytes into a SignalingMessage, without building JSONObjects, and the
+ * message inside a WebSocket envelope is decoded in the same call instead of
+ * being parsed twice. Encoding writes into a reused buffer. Unknown fields are
+ * skipped, so peers may add fields to any message.
+ *
+ * <p>Instances keep scratch buffers and are not thread safe, each signaling
+ * client uses its own.
+ */
+public final class SignalingCodec {
+  private static final String TYPE_KEY = "type";
+  private static final String LABEL_KEY = "label";
+  private static final String ID_KEY = "id";
+  private static final String CANDIDATE_KEY = "candidate";
+  private static final String CANDIDATES_KEY = "candidates";
+  private static final String SDP_KEY = "sdp";
+  private static final String COMPRESSED_SDP_KEY = "sdpz";
+  private static final String CAPABILITIES_KEY = "caps";
+  private static final String SEQUENCE_KEY = "seq";
+  private static final String ACK_KEY = "ack";
+  private static final String MESSAGE_KEY = "msg";
+  private static final String ERROR_KEY = "error";
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  // Nesting of skipped values, bounds the recursion on hostile input.
+  private static final int MAX_SKIP_DEPTH = 64;
+  // Valid in JSON strings but not in JavaScript ones, so they are escaped too.
+  private static final char LINE_SEPARATOR = 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = 0x2029;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final SignalingMessage.Type[] TYPES = SignalingMessage.Type.values();
+
+  private final StringBuilder output = new StringBuilder(INITIAL_BUFFER_SIZE);
+  // Current string token, e.g. a key.
+  private final StringBuilder token = new StringBuilder(INITIAL_BUFFER_SIZE);
+  // Unescaped message of a WebSocket envelope.
+  private final StringBuilder envelopeMessage = new StringBuilder(INITIAL_BUFFER_SIZE);
+  private final CharsetDecoder utf8Decoder = Charset.forName("UTF-8").newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private CharBuffer chars = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+  private CharSequence input;
+  private int position;
+
+  /** Decodes a signaling message, e.g. an entry of the room join response. */
+  public SignalingMessage decode(CharSequence json) throws JSONException {
+    input = json;
+    position = 0;
+    try {
+      SignalingMessage message = readMessage();
+      expectEnd();
+      return message;
+    } finally {
+      input = null;
+    }
+  }
+
+  /** Decodes a signaling message from UTF-8 |data|, e.g. a TCP frame. */
+  public SignalingMessage decode(byte[] data) throws JSONException {
+    return decode(data, 0, data.length);
+  }
+
+  /** Same as above for the |length| bytes of |data| at |offset|. */
+  public SignalingMessage decode(byte[] data, int offset, int length) throws JSONException {
+    // UTF-8 never decodes to more characters than bytes.
+    if (chars.capacity() < length) {
+      chars = CharBuffer.allocate(length);
+    }
+    chars.clear();
+    utf8Decoder.reset();
+    utf8Decoder.decode(ByteBuffer.wrap(data, offset, length), chars, true);
+    utf8Decoder.flush(chars);
+    chars.flip();
+    return decode(chars);
+  }
+
+  /**
+   * Decodes the message of a WebSocket server envelope
+   * {"msg": "<message>", "error": "<error>"}. An envelope without message
+   * but with an error is returned as an ERROR message.
+   */
+  public SignalingMessage decodeWebSocket(CharSequence json) throws JSONException {
+    boolean hasMessage = false;
+    String error = "";
+    envelopeMessage.setLength(0);
+    input = json;
+    position = 0;
+    try {
+      expect('{');
+      if (!consume('}')) {
+        do {
+          readString(token);
+          expect(':');
+          if (keyEquals(MESSAGE_KEY)) {
+            readString(envelopeMessage);
+            hasMessage = true;
+          } else if (keyEquals(ERROR_KEY) && peek() == '"') {
+            error = readString();
+          } else {
+            skipValue();
+          }
+        } while (consume(','));
+        expect('}');
+      }
+      expectEnd();
+    } finally {
+      input = null;
+    }
+    if (!hasMessage) {
+      throw new JSONException("No value for " + MESSAGE_KEY);
+    }
+    if (envelopeMessage.length() > 0) {
+      return decode(envelopeMessage);
+    }
+    if (error.length() > 0) {
+      return new SignalingMessage(SignalingMessage.Type.ERROR, null, null, false,
+          Collections.<String>emptyList(), error);
+    }
+    throw new JSONException("Empty WebSocket message");
+  }
+
+  /** Encodes |message|, which must not be an ERROR. */
+  public String encode(SignalingMessage message) {
+    output.setLength(0);
+    writeMessage(output, message);
+    return output.toString();
+  }
+
+  /** Returns the WebSocket "send" command for an encoded |message|. */
+  public String encodeSend(String message) {
+    output.setLength(0);
+    output.append("{\"cmd\":\"send\",\"msg\":");
+    writeString(output, message);
+    output.append('}');
+    return output.toString();
+  }
+
+  /** Returns the WebSocket "register" command. */
+  public String encodeRegister(String roomId, String clientId) {
+    output.setLength(0);
+    output.append("{\"cmd\":\"register\",\"roomid\":");
+    writeString(output, roomId);
+    output.append(",\"clientid\":");
+    writeString(output, clientId);
+    output.append('}');
+    return output.toString();
+  }
+
+  // --------------------------------------------------------------------
+  // Decoding.
+  private SignalingMessage readMessage() throws JSONException {
+    SignalingMessage.Type type = null;
+    IceCandidate[] candidates = null;
+    String id = null;
+    int label = -1;
+    String candidate = null;
+    String sdp = null;
+    String compressedSdp = null;
+    List<String> capabilities = Collections.emptyList();
+    int seq = 0;
+    int ack = 0;
+    expect('{');
+    if (!consume('}')) {
+      do {
+        readString(token);
+        expect(':');
+        if (keyEquals(TYPE_KEY)) {
+          type = readType();
+        } else if (keyEquals(LABEL_KEY)) {
+          label = readInt();
+        } else if (keyEquals(ID_KEY)) {
+          id = readString();
+        } else if (keyEquals(CANDIDATE_KEY)) {
+          candidate = readString();
+        } else if (keyEquals(CANDIDATES_KEY)) {
+          candidates = readCandidates();
+        } else if (keyEquals(SDP_KEY)) {
+          sdp = readString();
+        } else if (keyEquals(COMPRESSED_SDP_KEY)) {
+          compressedSdp = readString();
+        } else if (keyEquals(CAPABILITIES_KEY)) {
+          capabilities = readStringArray();
+        } else if (keyEquals(SEQUENCE_KEY)) {
+          seq = readInt();
+        } else if (keyEquals(ACK_KEY)) {
+          ack = readInt();
+        } else {
+          skipValue();
+        }
+      } while (consume(','));
+      expect('}');
+    }
+    if (type == null) {
+      throw new JSONException("No value for " + TYPE_KEY);
+    }
+    if (seq < 0 || ack < 0) {
+      throw new JSONException("Invalid sequence number");
+    }
+    switch (type) {
+      case CANDIDATE:
+        if (id == null || label < 0 || candidate == null) {
+          throw new JSONException("Incomplete candidate message");
+        }
+        IceCandidate[] single = new IceCandidate[] {new IceCandidate(id, label, candidate)};
+        return new SignalingMessage(type, single, null, false, capabilities, null, seq, ack);
+      case CANDIDATES:
+      case REMOVE_CANDIDATES:
+        if (candidates == null) {
+          throw new JSONException("No value for " + CANDIDATES_KEY);
+        }
+        return new SignalingMessage(type, candidates, null, false, capabilities, null, seq, ack);
+      case OFFER:
+      case ANSWER:
+        boolean compressed = compressedSdp != null;
+        if (compressed) {
+          try {
+            sdp = SdpCompressor.decompress(compressedSdp);
+          } catch (IllegalArgumentException e) {
+            throw new JSONException(e.getMessage());
+          }
+        } else if (sdp == null) {
+          throw new JSONException("No value for " + SDP_KEY);
+        }
+        return new SignalingMessage(type, null, sdp, compressed, capabilities, null, seq, ack);
+      default:
+        return new SignalingMessage(type, null, null, false, capabilities, null, seq, ack);
+    }
+  }
+
+  private SignalingMessage.Type readType() throws JSONException {
+    readString(token);
+    for (SignalingMessage.Type type : TYPES) {
+      // Errors only come in WebSocket envelopes.
+      if (type != SignalingMessage.Type.ERROR && keyEquals(type.wireName)) {
+        return type;
+      }
+    }
+    throw new JSONException("Unknown message type: " + token);
+  }
+
+  private IceCandidate[] readCandidates() throws JSONException {
+    List<IceCandidate> candidates = new ArrayList<IceCandidate>();
+    expect('[');
+    if (!consume(']')) {
+      do {
+        candidates.add(readCandidate());
+      } while (consume(','));
+      expect(']');
+    }
+    return candidates.toArray(new IceCandidate[candidates.size()]);
+  }
+
+  private IceCandidate readCandidate() throws JSONException {
+    String id = null;
+    int label = -1;
+    String candidate = null;
+    expect('{');
+    if (!consume('}')) {
+      do {
+        readString(token);
+        expect(':');
+        if (keyEquals(LABEL_KEY)) {
+          label = readInt();
+        } else if (keyEquals(ID_KEY)) {
+          id = readString();
+        } else if (keyEquals(CANDIDATE_KEY)) {
+          candidate = readString();
+        } else {
+          skipValue();
+        }
+      } while (consume(','));
+      expect('}');
+    }
+    if (id == null || label < 0 || candidate == null) {
+      throw new JSONException("Incomplete candidate");
+    }
+    return new IceCandidate(id, label, candidate);
+  }
+
+  private List<String> readStringArray() throws JSONException {
+    List<String> strings = new ArrayList<String>();
+    expect('[');
+    if (!consume(']')) {
+      do {
+        strings.add(readString());
+      } while (consume(','));
+      expect(']');
+    }
+    return strings;
+  }
+
+  private String readString() throws JSONException {
+    readString(token);
+    return token.toString();
+  }
+
+  // Reads a string and unescapes it into |out|. Unescaped runs are copied at
+  // once.
+  private void readString(StringBuilder out) throws JSONException {
+    out.setLength(0);
+    expect('"');
+    int length = input.length();
+    int start = position;
+    while (position < length) {
+      char c = input.charAt(position);
+      if (c == '"') {
+        out.append(input, start, position);
+        position++;
+        return;
+      }
+      if (c != '\\') {
+        position++;
+        continue;
+      }
+      out.append(input, start, position);
+      if (++position >= length) {
+        break;
+      }
+      char escaped = input.charAt(position++);
+      switch (escaped) {
+        case '"':
+        case '\\':
+        case '/':
+          out.append(escaped);
+          break;
+        case 'b':
+          out.append('\b');
+          break;
+        case 'f':
+          out.append('\f');
+          break;
+        case 'n':
+          out.append('\n');
+          break;
+        case 'r':
+          out.append('\r');
+          break;
+        case 't':
+          out.append('\t');
+          break;
+        case 'u':
+          out.append(readHexChar());
+          break;
+        default:
+          throw syntaxError("Invalid escape sequence");
+      }
+      start = position;
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  private char readHexChar() throws JSONException {
+    if (position + 4 > input.length()) {
+      throw syntaxError("Invalid unicode escape");
+    }
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      int digit = Character.digit(input.charAt(position++), 16);
+      if (digit < 0) {
+        throw syntaxError("Invalid unicode escape");
+      }
+      value = (value << 4) | digit;
+    }
+    return (char) value;
+  }
+
+  // Reads an integer, which some peers send as a string.
+  private int readInt() throws JSONException {
+    if (peek() == '"') {
+      String value = readString();
+      try {
+        return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        throw syntaxError("Invalid number: " + value);
+      }
+    }
+    int length = input.length();
+    int start = position;
+    boolean negative = input.charAt(position) == '-';
+    if (negative) {
+      position++;
+    }
+    long value = 0;
+    boolean hasDigits = false;
+    while (position < length) {
+      char c = input.charAt(position);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      if (value > Integer.MAX_VALUE) {
+        throw syntaxError("Number out of range");
+      }
+      hasDigits = true;
+      position++;
+    }
+    if (position < length && isLiteralChar(input.charAt(position))) {
+      // Fraction or exponent, e.g. 0.0 from some JSON writers.
+      while (position < length && isLiteralChar(input.charAt(position))) {
+        position++;
+      }
+      String number = input.subSequence(start, position).toString();
+      try {
+        return (int) Double.parseDouble(number);
+      } catch (NumberFormatException e) {
+        throw syntaxError("Invalid number: " + number);
+      }
+    }
+    if (!hasDigits) {
+      throw syntaxError("Expected number");
+    }
+    return (int) (negative ? -value : value);
+  }
+
+  // Skips a value of a field this codec does not know.
+  private void skipValue() throws JSONException {
+    skipValue(0);
+  }
+
+  private void skipValue(int depth) throws JSONException {
+    char c = peek();
+    if (c == '"') {
+      skipString();
+    } else if (c == '{' || c == '[') {
+      if (depth >= MAX_SKIP_DEPTH) {
+        throw syntaxError("Nesting too deep");
+      }
+      char close = c == '{' ? '}' : ']';
+      position++;
+      if (consume(close)) {
+        return;
+      }
+      do {
+        if (c == '{') {
+          skipString();
+          expect(':');
+        }
+        skipValue(depth + 1);
+      } while (consume(','));
+      expect(close);
+    } else {
+      // Number, true, false or null.
+      int start = position;
+      while (position < input.length() && isLiteralChar(input.charAt(position))) {
+        position++;
+      }
+      if (position == start) {
+        throw syntaxError("Unexpected character '" + c + "'");
+      }
+    }
+  }
+
+  private void skipString() throws JSONException {
+    expect('"');
+    while (position < input.length()) {
+      char c = input.charAt(position++);
+      if (c == '\\') {
+        position++;
+      } else if (c == '"') {
+        return;
+      }
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  private static boolean isLiteralChar(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+        || c == '-' || c == '+' || c == '.';
+  }
+
+  private boolean keyEquals(String key) {
+    int length = key.length();
+    if (token.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (token.charAt(i) != key.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void skipWhitespace() {
+    int length = input.length();
+    while (position < length) {
+      char c = input.charAt(position);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return;
+      }
+      position++;
+    }
+  }
+
+  private char peek() throws JSONException {
+    skipWhitespace();
+    if (position >= input.length()) {
+      throw syntaxError("Unexpected end of input");
+    }
+    return input.charAt(position);
+  }
+
+  private boolean consume(char c) {
+    skipWhitespace();
+    if (position < input.length() && input.charAt(position) == c) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) throws JSONException {
+    if (!consume(c)) {
+      throw syntaxError("Expected '" + c + "'");
+    }
+  }
+
+  private void expectEnd() throws JSONException {
+    skipWhitespace();
+    if (position != input.length()) {
+      throw syntaxError("Unexpected trailing characters");
+    }
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + position);
+  }
+
+  // --------------------------------------------------------------------
+  // Encoding.
+  private static void writeMessage(StringBuilder out, SignalingMessage message) {
+    if (message.type == SignalingMessage.Type.ERROR) {
+      throw new IllegalArgumentException("Error messages can't be sent.");
+    }
+    out.append("{\"").append(TYPE_KEY).append("\":\"").append(message.type.wireName).append('"');
+    switch (message.type) {
+      case CANDIDATE:
+        out.append(',');
+        writeCandidateFields(out, message.candidates[0]);
+        break;
+      case CANDIDATES:
+      case REMOVE_CANDIDATES:
+        out.append(",\"").append(CANDIDATES_KEY).append("\":[");
+        for (int i = 0; i < message.candidates.length; i++) {
+          out.append(i == 0 ? "{" : ",{");
+          writeCandidateFields(out, message.candidates[i]);
+          out.append('}');
+        }
+        out.append(']');
+        break;
+      case OFFER:
+      case ANSWER:
+        if (message.compressSdp) {
+          out.append(",\"").append(COMPRESSED_SDP_KEY).append("\":");
+          writeString(out, SdpCompressor.compress(message.sdp));
+        } else {
+          out.append(",\"").append(SDP_KEY).append("\":");
+          writeString(out, message.sdp);
+        }
+        if (!message.capabilities.isEmpty()) {
+          out.append(",\"").append(CAPABILITIES_KEY).append("\":[");
+          for (int i = 0; i < message.capabilities.size(); i++) {
+            if (i > 0) {
+              out.append(',');
+            }
+            writeString(out, message.capabilities.get(i));
+          }
+          out.append(']');
+        }
+        break;
+      default:
+        break;
+    }
+    if (message.seq > 0) {
+      out.append(",\"").append(SEQUENCE_KEY).append("\":").append(message.seq);
+    }
+    if (message.ack > 0) {
+      out.append(",\"").append(ACK_KEY).append("\":").append(message.ack);
+    }
+    out.append('}');
+  }
+
+  private static void writeCandidateFields(StringBuilder out, IceCandidate candidate) {
+    out.append('"').append(LABEL_KEY).append("\":").append(candidate.sdpMLineIndex);
+    out.append(",\"").append(ID_KEY).append("\":");
+    writeString(out, candidate.sdpMid);
+    out.append(",\"").append(CANDIDATE_KEY).append("\":");
+    writeString(out, candidate.sdp);
+  }
+
+  // Writes |value| as a JSON string. Unescaped runs are copied at once.
+  private static void writeString(StringBuilder out, CharSequence value) {
+    out.append('"');
+    int length = value.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\' && c != LINE_SEPARATOR
+          && c != PARAGRAPH_SEPARATOR) {
+        continue;
+      }
+      out.append(value, start, i);
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        default:
+          out.append("\\u").append(HEX_DIGITS[(c >> 12) & 0xf]).append(HEX_DIGITS[(c >> 8) & 0xf])
+              .append(HEX_DIGITS[(c >> 4) & 0xf]).append(HEX_DIGITS[c & 0xf]);
+          break;
+      }
+      start = i + 1;
+    }
+    out.append(value, start, length);
+    out.append('"');
+  }
+}
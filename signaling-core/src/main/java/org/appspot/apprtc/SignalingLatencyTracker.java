@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.LatencyHistogram;
+
+/**
+ * Latencies of signaling messages per stage and message type.
+ *
+ * <p>Outgoing messages are timestamped when the AppRTCClient method is called
+ * (enqueue) and when they are handed to the socket or the room server POST
+ * starts (wire-send). Room server POSTs are also timed until the response,
+ * which covers the server and both network directions. Incoming messages are
+ * timestamped when the transport read them (wire-receive) and when they are
+ * dispatched to the SignalingEvents. The one-way network latency can't be
+ * measured without synchronized clocks.
+ *
+ * <p>All methods are thread safe, histograms can be queried during a call.
+ */
+public class SignalingLatencyTracker {
+  /**
+   * Measured intervals.
+   */
+  public enum Stage {
+    // Enqueue to wire-send: looper queue, candidate batching, WebSocket
+    // registration and room server POST window.
+    SEND_QUEUE,
+    // Room server POST to its response.
+    SERVER_ROUND_TRIP,
+    // Wire-receive to dispatch: looper queue and decoding.
+    RECEIVE_QUEUE
+  }
+
+  private static final SignalingMessage.Type[] TYPES = SignalingMessage.Type.values();
+  private static final Stage[] STAGES = Stage.values();
+
+  // Indexed by stage and message type, never changes after construction.
+  private final LatencyHistogram[][] histograms =
+      new LatencyHistogram[STAGES.length][TYPES.length];
+
+  public SignalingLatencyTracker() {
+    for (int stage = 0; stage < STAGES.length; stage++) {
+      for (int type = 0; type < TYPES.length; type++) {
+        histograms[stage][type] = new LatencyHistogram();
+      }
+    }
+  }
+
+  /** Records the interval from |startNs| until now, both System.nanoTime(). */
+  public void record(Stage stage, SignalingMessage.Type type, long startNs) {
+    record(stage, type, startNs, System.nanoTime());
+  }
+
+  public void record(Stage stage, SignalingMessage.Type type, long startNs, long endNs) {
+    getHistogram(stage, type).record((endNs - startNs) / 1000000);
+  }
+
+  public LatencyHistogram getHistogram(Stage stage, SignalingMessage.Type type) {
+    return histograms[stage.ordinal()][type.ordinal()];
+  }
+
+  /** Adds the latencies recorded by |other|. */
+  public void add(SignalingLatencyTracker other) {
+    for (int stage = 0; stage < STAGES.length; stage++) {
+      for (int type = 0; type < TYPES.length; type++) {
+        histograms[stage][type].add(other.histograms[stage][type]);
+      }
+    }
+  }
+
+  public void reset() {
+    for (LatencyHistogram[] stageHistograms : histograms) {
+      for (LatencyHistogram histogram : stageHistograms) {
+        histogram.reset();
+      }
+    }
+  }
+
+  /** Lists the histograms with at least one value, one per line. */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Stage stage : STAGES) {
+      for (SignalingMessage.Type type : TYPES) {
+        LatencyHistogram histogram = getHistogram(stage, type);
+        if (histogram.getCount() == 0) {
+          continue;
+        }
+        if (builder.length() > 0) {
+          builder.append('\n');
+        }
+        builder.append(stage).append(' ').append(type).append(": ").append(histogram);
+      }
+    }
+    return builder.length() > 0 ? builder.toString() : "no messages";
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message exchanged between peers over any signaling channel, encoded and
+ * decoded by SignalingCodec.
+ *
+ * <p>Offers and answers carry the optional features their sender understands
+ * in |capabilities|. A feature is only used towards a peer which advertised
+ * it, so peers which do not know about capabilities (e.g. the appr.tc web
+ * client) keep getting plain messages. With SdpCompressor.CAPABILITY the SDP
+ * of an answer may be sent compressed, both forms are always accepted.
+ *
+ * <p>Messages may carry a sequence number |seq| and the cumulative
+ * acknowledgement |ack| of the messages received from the peer, see
+ * SignalingReplayBuffer. Both are 0 if unused.
+ */
+public final class SignalingMessage {
+  /**
+   * Message types and their names on the wire.
+   */
+  public enum Type {
+    CANDIDATE("candidate"),
+    // Batch of candidates, see IceCandidateBatcher.
+    CANDIDATES("candidates"),
+    REMOVE_CANDIDATES("remove-candidates"),
+    OFFER("offer"),
+    ANSWER("answer"),
+    BYE("bye"),
+    // Sent after the signaling channel reconnected, asks the peer to send
+    // again everything after |ack|.
+    RESYNC("resync"),
+    // Error reported by the WebSocket server instead of a message.
+    ERROR("error");
+
+    final String wireName;
+
+    Type(String wireName) {
+      this.wireName = wireName;
+    }
+  }
+
+  public final Type type;
+  // Candidates of CANDIDATE (exactly one), CANDIDATES and REMOVE_CANDIDATES.
+  public final IceCandidate[] candidates;
+  // Plain SDP of OFFER and ANSWER.
+  public final String sdp;
+  // Set if the SDP is, or was received, compressed.
+  public final boolean compressSdp;
+  public final List<String> capabilities;
+  // Error text of ERROR.
+  public final String error;
+  public final int seq;
+  public final int ack;
+
+  SignalingMessage(Type type, IceCandidate[] candidates, String sdp, boolean compressSdp,
+      List<String> capabilities, String error) {
+    this(type, candidates, sdp, compressSdp, capabilities, error, 0, 0);
+  }
+
+  SignalingMessage(Type type, IceCandidate[] candidates, String sdp, boolean compressSdp,
+      List<String> capabilities, String error, int seq, int ack) {
+    this.type = type;
+    this.candidates = candidates;
+    this.sdp = sdp;
+    this.compressSdp = compressSdp;
+    this.capabilities = capabilities;
+    this.error = error;
+    this.seq = seq;
+    this.ack = ack;
+  }
+
+  public static SignalingMessage candidate(IceCandidate candidate) {
+    return new SignalingMessage(Type.CANDIDATE, new IceCandidate[] {candidate}, null, false,
+        Collections.<String>emptyList(), null);
+  }
+
+  /** Returns a CANDIDATES batch, or a plain CANDIDATE for a single candidate. */
+  public static SignalingMessage candidates(List<IceCandidate> candidates) {
+    if (candidates.size() == 1) {
+      return candidate(candidates.get(0));
+    }
+    return new SignalingMessage(Type.CANDIDATES,
+        candidates.toArray(new IceCandidate[candidates.size()]), null, false,
+        Collections.<String>emptyList(), null);
+  }
+
+  public static SignalingMessage removeCandidates(IceCandidate[] candidates) {
+    return new SignalingMessage(Type.REMOVE_CANDIDATES, candidates, null, false,
+        Collections.<String>emptyList(), null);
+  }
+
+  /**
+   * Returns an offer or answer advertising |capabilities|. The SDP is sent
+   * compressed if |compress| is set.
+   */
+  public static SignalingMessage description(SessionDescription sdp, boolean compress,
+      List<String> capabilities) {
+    if (sdp.type == SessionDescription.Type.PRANSWER) {
+      throw new IllegalArgumentException("Unsupported SDP type: " + sdp.type);
+    }
+    Type type = sdp.type == SessionDescription.Type.OFFER ? Type.OFFER : Type.ANSWER;
+    return new SignalingMessage(type, null, sdp.description, compress, capabilities, null);
+  }
+
+  public static SignalingMessage bye() {
+    return new SignalingMessage(Type.BYE, null, null, false,
+        Collections.<String>emptyList(), null);
+  }
+
+  public static SignalingMessage resync(int ack) {
+    return new SignalingMessage(Type.RESYNC, null, null, false,
+        Collections.<String>emptyList(), null, 0, ack);
+  }
+
+  /** Returns a copy of this message with sequence number |seq| and |ack|. */
+  public SignalingMessage withSequence(int seq, int ack) {
+    return new SignalingMessage(type, candidates, sdp, compressSdp, capabilities, error, seq, ack);
+  }
+
+  /** Returns true if the sender advertised |capability|. */
+  public boolean hasCapability(String capability) {
+    return capabilities.contains(capability);
+  }
+
+  /** Returns the session description of an OFFER or ANSWER. */
+  public SessionDescription getSessionDescription() {
+    return new SessionDescription(SessionDescription.Type.fromCanonicalForm(type.wireName), sdp);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Sequence numbers and replay of the messages exchanged with a peer which
+ * advertised |CAPABILITY|.
+ *
+ * <p>Outgoing messages are numbered from 1 and kept until the peer
+ * acknowledges them, so they can be sent again after the signaling channel
+ * reconnected. Acknowledgements are cumulative and ride on the messages going
+ * the other way, or on a RESYNC message after a reconnect. At most |capacity|
+ * messages are kept, the oldest are dropped.
+ *
+ * <p>Incoming sequence numbers are tracked to drop messages which arrive
+ * twice, e.g. replayed by the peer and also queued by the server while the
+ * WebSocket was down.
+ *
+ * <p>Not thread safe, used on the signaling looper thread.
+ */
+class SignalingReplayBuffer {
+  /** Capability advertised by peers which acknowledge and replay messages. */
+  static final String CAPABILITY = "signaling-replay-v1";
+  private static final String TAG = "SignalingReplayBuffer";
+
+  private final int capacity;
+  // Sent and not yet acknowledged messages, oldest first.
+  private final LinkedList<SentMessage> unacknowledged = new LinkedList<SentMessage>();
+  private int lastSentSeq;
+  // Every message up to |receivedUpTo| has been received.
+  private int receivedUpTo;
+  // Received messages after a gap.
+  private final TreeSet<Integer> receivedAhead = new TreeSet<Integer>();
+
+  private static class SentMessage {
+    final int seq;
+    final String message;
+
+    SentMessage(int seq, String message) {
+      this.seq = seq;
+      this.message = message;
+    }
+  }
+
+  SignalingReplayBuffer(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /** Returns the sequence number of the next outgoing message. */
+  int nextSeq() {
+    return ++lastSentSeq;
+  }
+
+  /** Keeps encoded |message| with sequence number |seq| for replay. */
+  void add(int seq, String message) {
+    unacknowledged.add(new SentMessage(seq, message));
+    if (unacknowledged.size() > capacity) {
+      Log.w(TAG, "Replay buffer full, dropping message " + unacknowledged.getFirst().seq);
+      unacknowledged.removeFirst();
+    }
+  }
+
+  /** Drops the messages the peer received, all up to |ack|. */
+  void acknowledge(int ack) {
+    while (!unacknowledged.isEmpty() && unacknowledged.getFirst().seq <= ack) {
+      unacknowledged.removeFirst();
+    }
+  }
+
+  /** Returns the encoded messages the peer did not acknowledge, oldest first. */
+  List<String> getUnacknowledged() {
+    List<String> messages = new ArrayList<String>(unacknowledged.size());
+    for (SentMessage sent : unacknowledged) {
+      messages.add(sent.message);
+    }
+    return messages;
+  }
+
+  /**
+   * Records the receipt of incoming message |seq|. Returns false if it was
+   * received before and has to be dropped.
+   */
+  boolean receive(int seq) {
+    if (seq <= receivedUpTo || !receivedAhead.add(seq)) {
+      return false;
+    }
+    if (receivedAhead.size() > capacity) {
+      // The peer dropped the missing messages from its buffer, give up on them.
+      Log.w(TAG, "Skipping lost messages " + (receivedUpTo + 1) + " to "
+          + (receivedAhead.first() - 1));
+      receivedUpTo = receivedAhead.first() - 1;
+    }
+    while (!receivedAhead.isEmpty() && receivedAhead.first() == receivedUpTo + 1) {
+      receivedUpTo = receivedAhead.pollFirst();
+    }
+    return true;
+  }
+
+  /** Returns the cumulative acknowledgement of the received messages. */
+  int getAck() {
+    return receivedUpTo;
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.LatencyHistogram;
+import org.appspot.apprtc.util.Log;
+import org.appspot.apprtc.util.SerialExecutor;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+
+/**
+ * Outbound pipeline for messages POSTed to the room server.
+ *
+ * <p>Messages leave in FIFO order with up to |maxInFlight| POSTs outstanding.
+ * A barrier message, e.g. an offer or a candidate removal, is only sent once
+ * everything queued before it is delivered, and nothing queued after it is
+ * sent before it is delivered. So ICE candidates can't overtake the SDP they
+ * belong to and removals can't overtake the candidates they remove. Other
+ * messages in the window may reach the room server in any order.
+ *
+ * <p>POSTs failing without a response or with a 5xx response are retried
+ * with exponential backoff. Nothing else is sent until a retried message is
+ * delivered or failed, so a transient failure can't let later messages
+ * overtake it beyond the window. A message which fails |MAX_ATTEMPTS| times, gets
+ * a 4xx response, times out or which the room server rejects is reported
+ * through onMessageFailed(). A POST which timed out is not sent again, since
+ * the room server may have received it. Latency from send() to delivery is recorded per message.
+ * Messages sent with their type are also recorded in the
+ * SignalingLatencyTracker, from enqueue to the first POST and from the last
+ * POST to its response.
+ *
+ * <p>All methods must be called on the executor thread, events are fired on
+ * the same thread.
+ */
+class SignalingSendQueue {
+  private static final String TAG = "SignalingSendQueue";
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long INITIAL_BACKOFF_MS = 250;
+
+  private final SerialExecutor executor;
+  private final String url;
+  private final int maxInFlight;
+  private final Events events;
+  private final LinkedList<Message> queue = new LinkedList<Message>();
+  private final LinkedList<Message> inFlight = new LinkedList<Message>();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final SignalingLatencyTracker latencyTracker;
+  private boolean closed;
+
+  /**
+   * Delivery events. Called on the executor thread.
+   */
+  interface Events {
+    void onMessageDelivered(String message, long latencyMs, int attempts);
+    void onMessageFailed(String message, String errorMessage);
+  }
+
+  private static class Message {
+    final String text;
+    final boolean barrier;
+    // Null for messages which are not tracked, e.g. replays.
+    final SignalingMessage.Type type;
+    final long enqueuedNs;
+    final long queuedNs;
+    int attempts;
+    // Set once a POST failed and the message is sent again.
+    boolean retrying;
+    long postedNs;
+    AsyncHttpURLConnection connection;
+
+    Message(String text, boolean barrier, SignalingMessage.Type type, long enqueuedNs) {
+      this.text = text;
+      this.barrier = barrier;
+      this.type = type;
+      this.enqueuedNs = enqueuedNs;
+      queuedNs = System.nanoTime();
+    }
+  }
+
+  SignalingSendQueue(SerialExecutor executor, String url, int maxInFlight, Events events) {
+    this(executor, url, maxInFlight, events, new SignalingLatencyTracker());
+  }
+
+  SignalingSendQueue(SerialExecutor executor, String url, int maxInFlight, Events events,
+      SignalingLatencyTracker latencyTracker) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+    }
+    this.executor = executor;
+    this.url = url;
+    this.maxInFlight = maxInFlight;
+    this.events = events;
+    this.latencyTracker = latencyTracker;
+  }
+
+  /**
+   * Queues |message|. If |barrier| is set the message is not sent together
+   * with any other message.
+   */
+  void send(String message, boolean barrier) {
+    send(message, barrier, null, 0);
+  }
+
+  /**
+   * Same as above for a message of |type| which the caller got at
+   * |enqueuedNs|, as System.nanoTime().
+   */
+  void send(String message, boolean barrier, SignalingMessage.Type type, long enqueuedNs) {
+    if (closed) {
+      Log.w(TAG, "Dropping message sent on closed queue.");
+      return;
+    }
+    queue.add(new Message(message, barrier, type, enqueuedNs));
+    pump();
+  }
+
+  /** Cancels outstanding POSTs and drops queued messages. */
+  void close() {
+    closed = true;
+    for (Message message : inFlight) {
+      if (message.connection != null) {
+        message.connection.cancel();
+      }
+    }
+    if (!queue.isEmpty() || !inFlight.isEmpty()) {
+      Log.d(TAG, "Closing with " + (queue.size() + inFlight.size()) + " undelivered messages.");
+    }
+    inFlight.clear();
+    queue.clear();
+  }
+
+  LatencyHistogram getLatencyHistogram() {
+    return latencies;
+  }
+
+  // Starts as many queued messages as ordering and the window allow.
+  private void pump() {
+    if (isRetrying()) {
+      return;
+    }
+    while (!closed && !queue.isEmpty()) {
+      Message next = queue.peek();
+      boolean blocked = next.barrier
+          ? !inFlight.isEmpty()
+          : inFlight.size() >= maxInFlight || (!inFlight.isEmpty() && inFlight.getLast().barrier);
+      if (blocked) {
+        return;
+      }
+      queue.poll();
+      inFlight.add(next);
+      post(next);
+    }
+  }
+
+  private boolean isRetrying() {
+    for (Message message : inFlight) {
+      if (message.retrying) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void post(final Message message) {
+    message.attempts++;
+    message.postedNs = System.nanoTime();
+    if (message.type != null && message.attempts == 1) {
+      latencyTracker.record(SignalingLatencyTracker.Stage.SEND_QUEUE, message.type,
+          message.enqueuedNs, message.postedNs);
+    }
+    Log.d(TAG, "C->GAE: " + url + ". Message: " + message.text
+        + (message.attempts > 1 ? ". Attempt: " + message.attempts : ""));
+    message.connection = new AsyncHttpURLConnection(
+        "POST", url, message.text, new AsyncHttpEvents() {
+          @Override
+          public void onHttpError(final int responseCode, final String errorMessage) {
+            executor.execute("onHttpError", new Runnable() {
+              @Override
+              public void run() {
+                onPostError(message, responseCode, errorMessage);
+              }
+            });
+          }
+
+          @Override
+          public void onHttpComplete(final String response) {
+            executor.execute("onHttpComplete", new Runnable() {
+              @Override
+              public void run() {
+                onPostComplete(message, response);
+              }
+            });
+          }
+        });
+    message.connection.send();
+  }
+
+  private void onPostError(final Message message, int responseCode, String errorMessage) {
+    if (closed) {
+      return;
+    }
+    if (!isTransient(responseCode) || message.attempts >= MAX_ATTEMPTS) {
+      fail(message, "GAE POST error: " + errorMessage);
+      return;
+    }
+    message.retrying = true;
+    long backoffMs = INITIAL_BACKOFF_MS << (message.attempts - 1);
+    Log.w(TAG, "GAE POST error: " + errorMessage + ". Retrying in " + backoffMs + " ms.");
+    executor.executeDelayed(new Runnable() {
+      @Override
+      public void run() {
+        if (!closed) {
+          post(message);
+        }
+      }
+    }, backoffMs);
+  }
+
+  // Returns true for failures which sending the same POST again may fix.
+  private static boolean isTransient(int responseCode) {
+    return responseCode == AsyncHttpURLConnection.NO_RESPONSE
+        || (responseCode >= 500 && responseCode < 600);
+  }
+
+  private void onPostComplete(Message message, String response) {
+    if (closed) {
+      return;
+    }
+    try {
+      JSONObject roomJson = new JSONObject(response);
+      String result = roomJson.getString("result");
+      if (!result.equals("SUCCESS")) {
+        // Rejected by the room server, sending it again won't help.
+        fail(message, "GAE POST error: " + result);
+        return;
+      }
+    } catch (JSONException e) {
+      fail(message, "GAE POST JSON error: " + e.toString());
+      return;
+    }
+    inFlight.remove(message);
+    long nowNs = System.nanoTime();
+    if (message.type != null) {
+      latencyTracker.record(SignalingLatencyTracker.Stage.SERVER_ROUND_TRIP, message.type,
+          message.postedNs, nowNs);
+    }
+    long latencyMs = (nowNs - message.queuedNs) / 1000000;
+    latencies.record(latencyMs);
+    events.onMessageDelivered(message.text, latencyMs, message.attempts);
+    pump();
+  }
+
+  private void fail(Message message, String errorMessage) {
+    inFlight.remove(message);
+    events.onMessageFailed(message.text, errorMessage);
+    pump();
+  }
+}
@@ -0,0 +1,747 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.Log;
+import org.appspot.apprtc.util.SerialExecutor;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Replacement for WebSocketChannelClient for direct communication between two IP addresses. Handles
+ * the signaling between the two clients using a TCP connection.
+ *
+ * <p>All public methods should be called from a looper executor thread
+ * passed in a constructor, otherwise exception will be thrown.
+ * All events are dispatched on the same thread.
+ *
+ * <p>Sockets are non-blocking channels served by the shared TCPSelectorThread,
+ * so any number of sessions share one I/O thread.
+ *
+ * <p>Messages are newline terminated by default. Once the peer advertised
+ * |LENGTH_FRAMING_CAPABILITY|, enableLengthFraming() switches outgoing messages
+ * to length prefixed frames: a 0x00 marker byte, the payload length as a
+ * big-endian int32 and the payload. JSON lines never start with 0x00, so
+ * incoming messages are accepted in both framings at any time. Received
+ * messages are decoded on the selector thread, straight from its reused
+ * receive buffers, either as JSON or as BinarySignalingCodec messages.
+ *
+ * <p>Messages sent with their type are recorded in the SignalingLatencyTracker
+ * from the time passed to send() until the selector thread wrote them.
+ */
+public class TCPChannelClient {
+  private static final String TAG = "TCPChannelClient";
+  /** Capability advertised by peers which accept length prefixed frames. */
+  public static final String LENGTH_FRAMING_CAPABILITY = "tcp-length-framing-v1";
+  private static final byte FRAME_MARKER = 0;
+  private static final int FRAME_HEADER_SIZE = 5;
+  private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+  private static final byte[] NEWLINE = { '\n' };
+
+  private final SerialExecutor executor;
+  private final TCPChannelEvents eventListener;
+  private final SignalingLatencyTracker latencyTracker;
+  private TCPSocket socket;
+
+  /**
+   * Callback interface for messages delivered on TCP Connection. All callbacks are invoked from the
+   * looper executor thread.
+   */
+  public interface TCPChannelEvents {
+    void onTCPConnected(boolean server);
+    /** |receivedNs| is the System.nanoTime() |message| was read. */
+    void onTCPMessage(SignalingMessage message, long receivedNs);
+    void onTCPError(String description);
+    void onTCPClose();
+  }
+
+  /**
+   * Initializes the TCPChannelClient. If IP is a local IP address, starts a listening server on
+   * that IP. If not, instead connects to the IP.
+   *
+   * @param eventListener Listener that will receive events from the client.
+   * @param ip IP address to listen on or connect to.
+   * @param port Port to listen on or connect to.
+   */
+  public TCPChannelClient(
+      SerialExecutor executor, TCPChannelEvents eventListener, String ip, int port) {
+    this(executor, eventListener, ip, port, false);
+  }
+
+  /**
+   * Same as above, but if |hub| is set the listening side takes the next
+   * connection of the shared TCPSignalingHub for |ip|:|port| instead of
+   * binding its own socket. The hub keeps listening after the connection is
+   * accepted and after this client disconnects.
+   */
+  public TCPChannelClient(SerialExecutor executor, TCPChannelEvents eventListener,
+      String ip, int port, boolean hub) {
+    this(executor, eventListener, ip, port, hub, new SignalingLatencyTracker());
+  }
+
+  /** Same as above, send latencies are recorded in |latencyTracker|. */
+  public TCPChannelClient(SerialExecutor executor, TCPChannelEvents eventListener,
+      String ip, int port, boolean hub, SignalingLatencyTracker latencyTracker) {
+    this.executor = executor;
+    this.eventListener = eventListener;
+    this.latencyTracker = latencyTracker;
+
+    InetAddress address;
+    try {
+      address = InetAddress.getByName(ip);
+    } catch (UnknownHostException e) {
+      reportError("Invalid IP address.");
+      return;
+    }
+
+    final TCPSelectorThread selectorThread;
+    try {
+      selectorThread = TCPSelectorThread.getInstance();
+    } catch (IOException e) {
+      reportError("Failed to open selector: " + e.getMessage());
+      return;
+    }
+
+    if (address.isAnyLocalAddress() && hub) {
+      socket = new TCPSocketHubSession(selectorThread,
+          TCPSignalingHub.getInstance(selectorThread, address, port));
+    } else if (address.isAnyLocalAddress()) {
+      socket = new TCPSocketServer(selectorThread, address, port);
+    } else {
+      socket = new TCPSocketClient(selectorThread, address, port);
+    }
+
+    socket.start();
+  }
+
+  /**
+   * Disconnects the client if not already disconnected. This will fire the onTCPClose event.
+   */
+  public void disconnect() {
+    checkIfCalledOnValidThread();
+
+    socket.disconnect();
+  }
+
+  /**
+   * Sends a message on the socket.
+   *
+   * @param message Message to be sent.
+   */
+  public void send(String message) {
+    send(message, null, 0);
+  }
+
+  /**
+   * Same as above for a message of |type| which the caller got at
+   * |enqueuedNs|, as System.nanoTime(). Untracked if |type| is null.
+   */
+  public void send(String message, SignalingMessage.Type type, long enqueuedNs) {
+    checkIfCalledOnValidThread();
+
+    Log.v(TAG, "Send: " + message);
+    try {
+      socket.send(message.getBytes("UTF-8"), type, enqueuedNs);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Sends a binary message on the socket. Requires length framing, since the
+   * payload may contain newlines.
+   */
+  public void send(byte[] message) {
+    send(message, null, 0);
+  }
+
+  /** Same as above, tracked like send(String, SignalingMessage.Type, long). */
+  public void send(byte[] message, SignalingMessage.Type type, long enqueuedNs) {
+    checkIfCalledOnValidThread();
+
+    if (!socket.lengthFraming) {
+      reportError("Binary messages require length framing.");
+      return;
+    }
+    socket.send(message, type, enqueuedNs);
+  }
+
+  /**
+   * Sends all following messages as length prefixed frames. Must only be
+   * called after the peer advertised |LENGTH_FRAMING_CAPABILITY|.
+   */
+  public void enableLengthFraming() {
+    checkIfCalledOnValidThread();
+
+    if (!socket.lengthFraming) {
+      Log.d(TAG, "Switching to length prefixed framing.");
+      socket.lengthFraming = true;
+    }
+  }
+
+  /**
+   * Helper method for firing onTCPError events. Calls onTCPError on the executor thread.
+   */
+  private void reportError(final String message) {
+    Log.e(TAG, "TCP Error: " + message);
+    executor.execute("reportError", new Runnable() {
+      @Override
+      public void run() {
+        eventListener.onTCPError(message);
+      }
+    });
+  }
+
+  /**
+   * Helper method for debugging purposes.
+   * Ensures that TCPChannelClient method is called on a looper thread.
+   */
+  private void checkIfCalledOnValidThread() {
+    if (!executor.checkOnLooperThread()) {
+      throw new IllegalStateException(
+          "TCPChannelClient method is not called on valid thread");
+    }
+  }
+
+
+  /**
+   * Base class for server and client sockets. All channel I/O runs on the
+   * selector thread, received messages are passed to eventListener.onTCPMessage
+   * on the executor thread.
+   */
+  private abstract class TCPSocket implements TCPSelectorThread.Handler {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    protected final TCPSelectorThread selectorThread;
+    // Encoded messages waiting to be written by the selector thread.
+    private final ConcurrentLinkedQueue<ByteBuffer> outgoing =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+    // Tracked messages in |outgoing|, queued before their buffers.
+    private final ConcurrentLinkedQueue<TrackedMessage> tracked =
+        new ConcurrentLinkedQueue<TrackedMessage>();
+    // Reused for every read, bytes of an incomplete line go to |partialLine|.
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+    // Framing of outgoing messages, only changed on the executor thread.
+    volatile boolean lengthFraming;
+    // Receive state, only used on the selector thread.
+    private ReadState readState = ReadState.MESSAGE_START;
+    private int headerBytes;
+    private int frameLength;
+    // Payload of the frame being received, grown as needed and reused for
+    // every frame.
+    private ByteBuffer frame = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // Only used on the selector thread.
+    private final SignalingCodec codec = new SignalingCodec();
+    private final BinarySignalingCodec binaryCodec = new BinarySignalingCodec();
+    // Written on the selector thread, read by send() on the executor thread.
+    private volatile boolean connected;
+    private volatile boolean closed;
+    // Only used on the selector thread.
+    private SocketChannel channel;
+    private SelectionKey key;
+
+    /**
+     * Opens the channel and registers it with the selector. Runs on the
+     * selector thread, onConnected() is called once a connection exists.
+     */
+    protected abstract void open() throws IOException;
+    /** Closes channels owned by the subclass. Runs on the selector thread. */
+    protected void closeInternal() throws IOException {}
+    /** Returns true if this is the listening side of the connection. */
+    public abstract boolean isServer();
+
+    TCPSocket(TCPSelectorThread selectorThread) {
+      this.selectorThread = selectorThread;
+    }
+
+    public void start() {
+      selectorThread.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (closed) {
+            return;
+          }
+          try {
+            open();
+          } catch (IOException e) {
+            reportError("Failed to open socket: " + e.getMessage());
+            close();
+          }
+        }
+      });
+    }
+
+    /** Starts reading from a connected |channel|. Runs on the selector thread. */
+    protected void onConnected(SocketChannel channel) throws IOException {
+      Log.d(TAG, "TCP connection established.");
+      this.channel = channel;
+      channel.configureBlocking(false);
+      key = selectorThread.register(channel, SelectionKey.OP_READ, this);
+      connected = true;
+
+      Log.v(TAG, "Execute onTCPConnected");
+      executor.execute("onConnected", new Runnable() {
+        @Override
+        public void run() {
+          Log.v(TAG, "Run onTCPConnected");
+          eventListener.onTCPConnected(isServer());
+        }
+      });
+    }
+
+    /**
+     * Same as above for a channel which already received |received| bytes.
+     * Runs on the selector thread.
+     */
+    protected void onConnected(SocketChannel channel, ByteBuffer received) throws IOException {
+      onConnected(channel);
+      if (received.hasRemaining()) {
+        parse(received.array(), received.limit());
+      }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+      try {
+        if (key.isReadable()) {
+          read();
+        }
+        if (key.isValid() && key.isWritable()) {
+          flush();
+        }
+      } catch (IOException e) {
+        if (!closed) {
+          reportError("Failed to read from or write to socket: " + e.getMessage());
+        }
+        close();
+      }
+    }
+
+    private void read() throws IOException {
+      int length;
+      if (readState == ReadState.FRAME_PAYLOAD) {
+        // Payload goes straight into the frame buffer, without a copy.
+        length = channel.read(frame);
+        if (length > 0 && !frame.hasRemaining()) {
+          dispatchFrame();
+        }
+      } else {
+        readBuffer.clear();
+        length = channel.read(readBuffer);
+        if (length > 0) {
+          parse(readBuffer.array(), length);
+        }
+      }
+      if (length == -1) {
+        // Remote side closed the connection.
+        Log.d(TAG, "Receiving end of stream.");
+        close();
+      }
+    }
+
+    // Splits |length| received bytes into newline terminated and length
+    // prefixed messages.
+    private void parse(byte[] bytes, int length) throws IOException {
+      int i = 0;
+      while (i < length) {
+        switch (readState) {
+          case MESSAGE_START:
+            if (bytes[i] == FRAME_MARKER) {
+              readState = ReadState.FRAME_HEADER;
+              headerBytes = 1;
+              frameLength = 0;
+              i++;
+            } else {
+              readState = ReadState.LINE;
+            }
+            break;
+          case FRAME_HEADER:
+            frameLength = (frameLength << 8) | (bytes[i++] & 0xff);
+            if (++headerBytes == FRAME_HEADER_SIZE) {
+              if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length: " + frameLength);
+              }
+              if (frame.capacity() < frameLength) {
+                frame = ByteBuffer.allocate(
+                    Math.min(Math.max(frameLength, 2 * frame.capacity()), MAX_FRAME_LENGTH));
+              }
+              frame.clear();
+              frame.limit(frameLength);
+              readState = ReadState.FRAME_PAYLOAD;
+              if (frameLength == 0) {
+                dispatchFrame();
+              }
+            }
+            break;
+          case FRAME_PAYLOAD:
+            int count = Math.min(length - i, frame.remaining());
+            frame.put(bytes, i, count);
+            i += count;
+            if (!frame.hasRemaining()) {
+              dispatchFrame();
+            }
+            break;
+          case LINE:
+            int lineEnd = i;
+            while (lineEnd < length && bytes[lineEnd] != '\n') {
+              lineEnd++;
+            }
+            if (lineEnd == length) {
+              partialLine.write(bytes, i, length - i);
+              i = length;
+              break;
+            }
+            if (partialLine.size() == 0) {
+              dispatchMessage(bytes, i, stripCarriageReturn(bytes, i, lineEnd) - i);
+            } else {
+              partialLine.write(bytes, i, lineEnd - i);
+              byte[] joined = partialLine.toByteArray();
+              partialLine.reset();
+              dispatchMessage(joined, 0, stripCarriageReturn(joined, 0, joined.length));
+            }
+            readState = ReadState.MESSAGE_START;
+            i = lineEnd + 1;
+            break;
+        }
+      }
+    }
+
+    private void dispatchFrame() {
+      readState = ReadState.MESSAGE_START;
+      dispatchMessage(frame.array(), 0, frame.limit());
+    }
+
+    // Returns |end| without the "\r" of "\r\n" terminated lines, like
+    // BufferedReader.readLine().
+    private int stripCarriageReturn(byte[] bytes, int start, int end) {
+      return (end > start && bytes[end - 1] == '\r') ? end - 1 : end;
+    }
+
+    // Decodes the |length| bytes of |data| at |offset|, which are reused
+    // after the call, and passes the message to the executor thread.
+    private void dispatchMessage(byte[] data, int offset, int length) {
+      final long receivedNs = System.nanoTime();
+      final SignalingMessage message;
+      try {
+        message = BinarySignalingCodec.isBinary(data, offset, length)
+            ? binaryCodec.decode(data, offset, length)
+            : codec.decode(data, offset, length);
+      } catch (JSONException e) {
+        reportError("Message JSON parsing error: " + e.toString());
+        return;
+      } catch (IllegalArgumentException e) {
+        reportError("Message parsing error: " + e.getMessage());
+        return;
+      }
+      executor.execute("dispatchMessage", new Runnable() {
+        @Override
+        public void run() {
+          Log.v(TAG, "Receive: " + message.type);
+          eventListener.onTCPMessage(message, receivedNs);
+        }
+      });
+    }
+
+    // Writes queued messages. Write interest is kept only while the socket
+    // send buffer is full.
+    private void flush() throws IOException {
+      if (channel == null || !channel.isOpen()) {
+        return;
+      }
+      ByteBuffer buffer;
+      while ((buffer = outgoing.peek()) != null) {
+        channel.write(buffer);
+        if (buffer.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+        outgoing.poll();
+        TrackedMessage message = tracked.peek();
+        if (message != null && message.lastBuffer == buffer) {
+          tracked.poll();
+          latencyTracker.record(
+              SignalingLatencyTracker.Stage.SEND_QUEUE, message.type, message.enqueuedNs);
+        }
+      }
+      key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes the socket if it is still open. Also fires the onTCPClose event
+     * if the socket was connected.
+     */
+    public void disconnect() {
+      selectorThread.execute(new Runnable() {
+        @Override
+        public void run() {
+          close();
+        }
+      });
+    }
+
+    // Runs on the selector thread.
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        closeInternal();
+        if (channel != null) {
+          channel.close();
+        }
+      } catch (IOException e) {
+        reportError("Failed to close socket: " + e.getMessage());
+      }
+      outgoing.clear();
+      tracked.clear();
+      if (connected) {
+        connected = false;
+        executor.execute("close", new Runnable() {
+          @Override
+          public void run() {
+            eventListener.onTCPClose();
+          }
+        });
+      }
+    }
+
+    /**
+     * Queues |message| with the current framing and hands it to the selector
+     * thread. Should only be called on the executor thread.
+     */
+    public void send(byte[] message, SignalingMessage.Type type, long enqueuedNs) {
+      if (!connected) {
+        reportError("Sending data on closed socket.");
+        return;
+      }
+      ByteBuffer first;
+      ByteBuffer last;
+      if (lengthFraming) {
+        first = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        first.put(FRAME_MARKER).putInt(message.length).flip();
+        last = ByteBuffer.wrap(message);
+      } else {
+        first = ByteBuffer.wrap(message);
+        last = ByteBuffer.wrap(NEWLINE);
+      }
+      if (type != null) {
+        // Queued first, so it is there when the selector thread writes |last|.
+        tracked.add(new TrackedMessage(last, type, enqueuedNs));
+      }
+      outgoing.add(first);
+      outgoing.add(last);
+      selectorThread.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            flush();
+          } catch (IOException e) {
+            reportError("Failed to write to socket: " + e.getMessage());
+            close();
+          }
+        }
+      });
+    }
+  }
+
+  private static class TrackedMessage {
+    final ByteBuffer lastBuffer;
+    final SignalingMessage.Type type;
+    final long enqueuedNs;
+
+    TrackedMessage(ByteBuffer lastBuffer, SignalingMessage.Type type, long enqueuedNs) {
+      this.lastBuffer = lastBuffer;
+      this.type = type;
+      this.enqueuedNs = enqueuedNs;
+    }
+  }
+
+  private enum ReadState {
+    // Next byte starts a message and tells its framing.
+    MESSAGE_START,
+    LINE,
+    FRAME_HEADER,
+    FRAME_PAYLOAD
+  }
+
+  private class TCPSocketServer extends TCPSocket {
+    private ServerSocketChannel serverChannel;
+
+    final private InetAddress address;
+    final private int port;
+
+    public TCPSocketServer(TCPSelectorThread selectorThread, InetAddress address, int port) {
+      super(selectorThread);
+      this.address = address;
+      this.port = port;
+    }
+
+    /** Opens a listening socket, the connection is accepted without blocking. */
+    @Override
+    protected void open() throws IOException {
+      Log.d(TAG, "Listening on [" + address.getHostAddress() + "]:" + Integer.toString(port));
+
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.configureBlocking(false);
+      serverChannel.socket().setReuseAddress(true);
+      serverChannel.socket().bind(new InetSocketAddress(address, port));
+      selectorThread.register(serverChannel, SelectionKey.OP_ACCEPT,
+          new TCPSelectorThread.Handler() {
+            @Override
+            public void onReady(SelectionKey key) {
+              accept(key);
+            }
+          });
+    }
+
+    private void accept(SelectionKey key) {
+      SocketChannel acceptedChannel;
+      try {
+        acceptedChannel = serverChannel.accept();
+        if (acceptedChannel == null) {
+          return;
+        }
+        // Only one connection is served, like the blocking implementation.
+        key.interestOps(0);
+        onConnected(acceptedChannel);
+      } catch (IOException e) {
+        reportError("Failed to receive connection: " + e.getMessage());
+        disconnect();
+      }
+    }
+
+    /** Closes the listening socket. */
+    @Override
+    protected void closeInternal() throws IOException {
+      if (serverChannel != null) {
+        serverChannel.close();
+        serverChannel = null;
+      }
+    }
+
+    @Override
+    public boolean isServer() {
+      return true;
+    }
+  }
+
+  private class TCPSocketHubSession extends TCPSocket implements TCPSignalingHub.Session {
+    private final TCPSignalingHub hub;
+
+    public TCPSocketHubSession(TCPSelectorThread selectorThread, TCPSignalingHub hub) {
+      super(selectorThread);
+      this.hub = hub;
+    }
+
+    /** Waits for a connection accepted by the hub. */
+    @Override
+    protected void open() throws IOException {
+      hub.claim(this);
+    }
+
+    @Override
+    public void onAccepted(SocketChannel channel, ByteBuffer received) {
+      try {
+        onConnected(channel, received);
+      } catch (IOException e) {
+        reportError("Failed to receive connection: " + e.getMessage());
+        try {
+          channel.close();
+        } catch (IOException closeException) {
+          Log.e(TAG, "Failed to close connection: " + closeException.getMessage());
+        }
+        disconnect();
+      }
+    }
+
+    /** Stops waiting for a connection, the hub keeps listening. */
+    @Override
+    protected void closeInternal() throws IOException {
+      hub.release(this);
+    }
+
+    @Override
+    public boolean isServer() {
+      return true;
+    }
+  }
+
+  private class TCPSocketClient extends TCPSocket {
+    private SocketChannel connectingChannel;
+
+    final private InetAddress address;
+    final private int port;
+
+    public TCPSocketClient(TCPSelectorThread selectorThread, InetAddress address, int port) {
+      super(selectorThread);
+      this.address = address;
+      this.port = port;
+    }
+
+    /** Connects to the peer without blocking. */
+    @Override
+    protected void open() throws IOException {
+      Log.d(TAG, "Connecting to [" + address.getHostAddress() + "]:" + Integer.toString(port));
+
+      connectingChannel = SocketChannel.open();
+      connectingChannel.configureBlocking(false);
+      if (connectingChannel.connect(new InetSocketAddress(address, port))) {
+        onConnected(connectingChannel);
+        return;
+      }
+      selectorThread.register(connectingChannel, SelectionKey.OP_CONNECT,
+          new TCPSelectorThread.Handler() {
+            @Override
+            public void onReady(SelectionKey key) {
+              finishConnect();
+            }
+          });
+    }
+
+    private void finishConnect() {
+      try {
+        if (connectingChannel.finishConnect()) {
+          // Registering again replaces the connect handler of the key.
+          onConnected(connectingChannel);
+        }
+      } catch (IOException e) {
+        reportError("Failed to connect: " + e.getMessage());
+        disconnect();
+      }
+    }
+
+    /** Closes a channel which did not finish connecting. */
+    @Override
+    protected void closeInternal() throws IOException {
+      if (connectingChannel != null) {
+        connectingChannel.close();
+      }
+    }
+
+    @Override
+    public boolean isServer() {
+      return false;
+    }
+  }
+}
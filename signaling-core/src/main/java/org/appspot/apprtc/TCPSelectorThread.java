@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single I/O thread multiplexing non-blocking TCP channels of all
+ * TCPChannelClient sessions with a Selector.
+ *
+ * <p>Channel registration and all channel I/O must happen on the selector
+ * thread, other threads hand work over with execute(). The thread is started
+ * on first use and lives as long as the process, it only blocks in select()
+ * while there is nothing to do.
+ */
+class TCPSelectorThread implements Runnable {
+  private static final String TAG = "TCPSelectorThread";
+  private static TCPSelectorThread instance;
+
+  private final Selector selector;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final Thread thread;
+
+  /**
+   * Readiness callback of a registered channel. Runs on the selector thread.
+   */
+  interface Handler {
+    void onReady(SelectionKey key);
+  }
+
+  /** Returns the shared selector thread, starting it on first use. */
+  static synchronized TCPSelectorThread getInstance() throws IOException {
+    if (instance == null) {
+      instance = new TCPSelectorThread(Selector.open());
+    }
+    return instance;
+  }
+
+  private TCPSelectorThread(Selector selector) {
+    this.selector = selector;
+    thread = new Thread(this, TAG);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Runs |task| on the selector thread. */
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  boolean isOnSelectorThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Registers |channel| for |ops|, |handler| is invoked when the channel is
+   * ready. Must be called on the selector thread.
+   */
+  SelectionKey register(SelectableChannel channel, int ops, Handler handler)
+      throws ClosedChannelException {
+    if (!isOnSelectorThread()) {
+      throw new IllegalStateException("register() is not called on the selector thread");
+    }
+    return channel.register(selector, ops, handler);
+  }
+
+  @Override
+  public void run() {
+    Log.d(TAG, "Selector thread started.");
+    while (true) {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        runSafely(task);
+      }
+      try {
+        selector.select();
+      } catch (IOException e) {
+        Log.e(TAG, "Select failed: " + e.getMessage());
+        continue;
+      }
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        if (!key.isValid()) {
+          continue;
+        }
+        try {
+          ((Handler) key.attachment()).onReady(key);
+        } catch (CancelledKeyException e) {
+          // Channel was closed by the handler, nothing left to do.
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Channel handler failed.", e);
+        }
+      }
+    }
+  }
+
+  // A failing task must not take down the thread shared by all sessions.
+  private static void runSafely(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Selector task failed.", e);
+    }
+  }
+}
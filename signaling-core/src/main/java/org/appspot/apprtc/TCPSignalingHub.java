@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Listening socket shared by direct call sessions. A plain TCPChannelClient
+ * server accepts one connection and stops listening, a hub stays bound to its
+ * port for the lifetime of the process and keeps accepting.
+ *
+ * <p>Every accepted connection is handed to one waiting session, so each call
+ * has its own channel, framing and signaling state. Connections arriving while
+ * no session waits, e.g. during a call, are held until the next session claims
+ * them. Pending connections are watched for the peer hanging up, bytes the
+ * peer sends early are kept and passed to the session.
+ *
+ * <p>All methods except getInstance() must be called on the selector thread.
+ */
+class TCPSignalingHub {
+  private static final String TAG = "TCPSignalingHub";
+  // Callers beyond this limit are turned away until a session frees a slot.
+  private static final int MAX_PENDING_CONNECTIONS = 4;
+  // Direct callers wait for the offer, so only a little early data is expected.
+  private static final int MAX_EARLY_BYTES = 4096;
+  private static final Map<InetSocketAddress, TCPSignalingHub> hubs =
+      new HashMap<InetSocketAddress, TCPSignalingHub>();
+
+  private final TCPSelectorThread selectorThread;
+  private final InetSocketAddress address;
+  private final LinkedList<Session> waitingSessions = new LinkedList<Session>();
+  private final LinkedList<PendingConnection> pendingConnections =
+      new LinkedList<PendingConnection>();
+  private ServerSocketChannel serverChannel;
+
+  /**
+   * Session waiting for a connection. Called on the selector thread.
+   */
+  interface Session {
+    /**
+     * Called with an accepted |channel|, |received| holds bytes the peer sent
+     * before the session claimed the connection.
+     */
+    void onAccepted(SocketChannel channel, ByteBuffer received);
+  }
+
+  /** Returns the hub listening on |address|:|port|, the socket is bound on first claim(). */
+  static synchronized TCPSignalingHub getInstance(
+      TCPSelectorThread selectorThread, InetAddress address, int port) {
+    InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+    TCPSignalingHub hub = hubs.get(socketAddress);
+    if (hub == null) {
+      hub = new TCPSignalingHub(selectorThread, socketAddress);
+      hubs.put(socketAddress, hub);
+    }
+    return hub;
+  }
+
+  private TCPSignalingHub(TCPSelectorThread selectorThread, InetSocketAddress address) {
+    this.selectorThread = selectorThread;
+    this.address = address;
+  }
+
+  /**
+   * Hands the oldest pending connection to |session|, or queues |session|
+   * until the next connection is accepted.
+   */
+  void claim(Session session) throws IOException {
+    listen();
+    PendingConnection connection = pendingConnections.poll();
+    if (connection != null) {
+      Log.d(TAG, "Session claims pending connection, " + pendingConnections.size() + " left.");
+      connection.received.flip();
+      session.onAccepted(connection.channel, connection.received);
+    } else {
+      waitingSessions.add(session);
+    }
+  }
+
+  /** Removes |session| from the waiting sessions, if it is still waiting. */
+  void release(Session session) {
+    waitingSessions.remove(session);
+  }
+
+  private void listen() throws IOException {
+    if (serverChannel != null) {
+      return;
+    }
+    Log.d(TAG, "Listening on [" + address.getAddress().getHostAddress() + "]:"
+        + Integer.toString(address.getPort()));
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setReuseAddress(true);
+      channel.socket().bind(address);
+      selectorThread.register(channel, SelectionKey.OP_ACCEPT, new TCPSelectorThread.Handler() {
+        @Override
+        public void onReady(SelectionKey key) {
+          accept();
+        }
+      });
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    serverChannel = channel;
+  }
+
+  private void accept() {
+    SocketChannel channel;
+    try {
+      channel = serverChannel.accept();
+    } catch (IOException e) {
+      // The listening socket stays open, a failed accept only affects one caller.
+      Log.e(TAG, "Failed to receive connection: " + e.getMessage());
+      return;
+    }
+    if (channel == null) {
+      return;
+    }
+    Session session = waitingSessions.poll();
+    if (session != null) {
+      Log.d(TAG, "Connection accepted for waiting session.");
+      session.onAccepted(channel, ByteBuffer.allocate(0));
+      return;
+    }
+    if (pendingConnections.size() >= MAX_PENDING_CONNECTIONS) {
+      Log.w(TAG, "Too many pending connections, rejecting caller.");
+      closeQuietly(channel);
+      return;
+    }
+    PendingConnection connection = new PendingConnection(channel);
+    try {
+      channel.configureBlocking(false);
+      selectorThread.register(channel, SelectionKey.OP_READ, connection);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to hold connection: " + e.getMessage());
+      closeQuietly(channel);
+      return;
+    }
+    pendingConnections.add(connection);
+    Log.d(TAG, "No waiting session, " + pendingConnections.size() + " pending connections.");
+  }
+
+  private void drop(PendingConnection connection) {
+    pendingConnections.remove(connection);
+    closeQuietly(connection.channel);
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to close connection: " + e.getMessage());
+    }
+  }
+
+  // Accepted connection waiting for a session. Reads only to notice hang ups,
+  // the session re-registers the channel with its own handler.
+  private class PendingConnection implements TCPSelectorThread.Handler {
+    private final SocketChannel channel;
+    private final ByteBuffer received = ByteBuffer.allocate(MAX_EARLY_BYTES);
+
+    PendingConnection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+      try {
+        if (!received.hasRemaining()) {
+          Log.w(TAG, "Pending connection sent too much data, dropping it.");
+          drop(this);
+        } else if (channel.read(received) == -1) {
+          Log.d(TAG, "Pending connection closed by the peer.");
+          drop(this);
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to read from pending connection: " + e.getMessage());
+        drop(this);
+      }
+    }
+  }
+}
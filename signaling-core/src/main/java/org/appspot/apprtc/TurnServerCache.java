@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of TURN server responses per room server, persisted in a Storage so
+ * it survives process restarts. The app stores it in SharedPreferences, see
+ * AndroidTurnServerCache.
+ *
+ * <p>Entries live as long as their credentials: the lifetime comes from
+ * "lifetimeDuration" of the response or from the expiry timestamp in TURN
+ * REST API usernames ("<expiry>:<user>"). An entry is used until a margin
+ * of a tenth of its lifetime, at most |MAX_EXPIRY_MARGIN_MS|, before it
+ * expires, so credentials stay valid for the start of the call. It should be
+ * refreshed once half its lifetime passed, well before it becomes unusable.
+ * The ICE server URL of the room server is kept even after expiry, it is
+ * where the next TURN request goes.
+ *
+ * <p>All methods are thread safe.
+ */
+public class TurnServerCache {
+  private static final String TAG = "TurnServerCache";
+  private static final String KEY_PREFIX = "turn:";
+  // Used if the response tells nothing about the credential lifetime.
+  private static final long DEFAULT_LIFETIME_MS = 10 * 60 * 1000;
+  private static final long MAX_EXPIRY_MARGIN_MS = 5 * 60 * 1000;
+  // Share of the lifetime kept as margin, if below the maximum.
+  private static final int EXPIRY_MARGIN_DIVISOR = 10;
+  private static final Pattern LIFETIME_PATTERN = Pattern.compile("(\\d+)(\\.\\d+)?s");
+  private static final Pattern USERNAME_EXPIRY_PATTERN = Pattern.compile("(\\d+):.*");
+
+  private final Storage storage;
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+  private final Set<String> refreshing = new HashSet<String>();
+
+  /**
+   * Cached TURN server response.
+   */
+  public static class Entry {
+    public final String iceServerUrl;
+    public final String response;
+    public final long fetchedMs;
+    public final long expiresMs;
+
+    Entry(String iceServerUrl, String response, long fetchedMs, long expiresMs) {
+      this.iceServerUrl = iceServerUrl;
+      this.response = response;
+      this.fetchedMs = fetchedMs;
+      this.expiresMs = expiresMs;
+    }
+
+    /** Returns true if the credentials are valid long enough to start a call. */
+    public boolean isUsable(long nowMs) {
+      return nowMs >= fetchedMs && nowMs < expiresMs - getExpiryMarginMs();
+    }
+
+    /** Returns true if half of the credential lifetime has passed. */
+    public boolean needsRefresh(long nowMs) {
+      return nowMs - fetchedMs > (expiresMs - fetchedMs) / 2;
+    }
+
+    private long getExpiryMarginMs() {
+      return Math.min(MAX_EXPIRY_MARGIN_MS, (expiresMs - fetchedMs) / EXPIRY_MARGIN_DIVISOR);
+    }
+  }
+
+  /**
+   * Persistent string storage of the cache. Called with the cache locked,
+   * writes may complete asynchronously.
+   */
+  public interface Storage {
+    /** Returns the value of |key| or null. */
+    public String get(String key);
+
+    public void put(String key, String value);
+
+    public void remove(String key);
+  }
+
+  /** Creates a cache, which is only kept in memory if |storage| is null. */
+  public TurnServerCache(Storage storage) {
+    this.storage = storage;
+  }
+
+  /** Returns the entry of |roomServer| or null. The entry may be expired. */
+  public synchronized Entry get(String roomServer) {
+    Entry entry = entries.get(roomServer);
+    if (entry == null && storage != null) {
+      entry = load(roomServer);
+      if (entry != null) {
+        entries.put(roomServer, entry);
+      }
+    }
+    return entry;
+  }
+
+  /** Stores TURN |response| received from |iceServerUrl| at |nowMs|. */
+  public synchronized void put(String roomServer, String iceServerUrl, String response,
+      long nowMs) {
+    long expiresMs = nowMs + getLifetimeMs(response, nowMs);
+    Entry entry = new Entry(iceServerUrl, response, nowMs, expiresMs);
+    entries.put(roomServer, entry);
+    Log.d(TAG, "TURN servers of " + roomServer + " valid for "
+        + (expiresMs - nowMs) / 1000 + " s.");
+    if (storage != null) {
+      JSONObject json = new JSONObject();
+      try {
+        json.put("url", iceServerUrl);
+        json.put("response", response);
+        json.put("fetched", nowMs);
+        json.put("expires", expiresMs);
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+      storage.put(KEY_PREFIX + roomServer, json.toString());
+    }
+  }
+
+  /** Drops the cached response of |roomServer|, e.g. if it can't be parsed. */
+  public synchronized void remove(String roomServer) {
+    entries.remove(roomServer);
+    if (storage != null) {
+      storage.remove(KEY_PREFIX + roomServer);
+    }
+  }
+
+  /**
+   * Marks a refresh of |roomServer| as started. Returns false if one is
+   * already running.
+   */
+  public synchronized boolean startRefresh(String roomServer) {
+    return refreshing.add(roomServer);
+  }
+
+  public synchronized void finishRefresh(String roomServer) {
+    refreshing.remove(roomServer);
+  }
+
+  private Entry load(String roomServer) {
+    String value = storage.get(KEY_PREFIX + roomServer);
+    if (value == null) {
+      return null;
+    }
+    try {
+      JSONObject json = new JSONObject(value);
+      return new Entry(json.getString("url"), json.getString("response"),
+          json.getLong("fetched"), json.getLong("expires"));
+    } catch (JSONException e) {
+      Log.e(TAG, "Dropping invalid cache entry: " + e.getMessage());
+      storage.remove(KEY_PREFIX + roomServer);
+      return null;
+    }
+  }
+
+  // Lifetime of the credentials in a TURN |response|.
+  static long getLifetimeMs(String response, long nowMs) {
+    try {
+      JSONObject json = new JSONObject(response);
+      Matcher lifetime = LIFETIME_PATTERN.matcher(json.optString("lifetimeDuration"));
+      if (lifetime.matches()) {
+        return Long.parseLong(lifetime.group(1)) * 1000;
+      }
+      JSONArray iceServers = json.getJSONArray("iceServers");
+      long expiresMs = Long.MAX_VALUE;
+      for (int i = 0; i < iceServers.length(); ++i) {
+        Matcher username =
+            USERNAME_EXPIRY_PATTERN.matcher(iceServers.getJSONObject(i).optString("username"));
+        if (username.matches()) {
+          expiresMs = Math.min(expiresMs, Long.parseLong(username.group(1)) * 1000);
+        }
+      }
+      if (expiresMs != Long.MAX_VALUE) {
+        return Math.max(0, expiresMs - nowMs);
+      }
+    } catch (JSONException e) {
+      Log.e(TAG, "Failed to parse TURN response: " + e.getMessage());
+    } catch (NumberFormatException e) {
+      Log.e(TAG, "Invalid credential lifetime: " + e.getMessage());
+    }
+    return DEFAULT_LIFETIME_MS;
+  }
+}
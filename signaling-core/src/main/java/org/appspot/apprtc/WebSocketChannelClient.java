@@ -0,0 +1,494 @@
+/*
+ *  Copyright 2014 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.LatencyHistogram;
+import org.appspot.apprtc.util.Log;
+import org.appspot.apprtc.util.SerialExecutor;
+
+import de.tavendo.autobahn.WebSocket;
+import de.tavendo.autobahn.WebSocket.WebSocketConnectionObserver;
+import de.tavendo.autobahn.WebSocketConnection;
+import de.tavendo.autobahn.WebSocketException;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
+
+/**
+ * WebSocket client implementation.
+ *
+ * <p>All public methods should be called from a looper executor thread
+ * passed in a constructor, otherwise exception will be thrown.
+ * All events are dispatched on the same thread.
+ *
+ * <p>If a registered WebSocket closes without disconnect(), e.g. on a network
+ * handoff, the client reconnects with jittered exponential backoff and
+ * registers again with the same room and client id. Messages sent meanwhile
+ * are queued. onWebSocketClose() is only fired once all attempts failed.
+ *
+ * <p>Queued messages are prioritized and collapsed by WebSocketSendQueue.
+ * Messages passed as SignalingMessage are only encoded by the MessageEncoder
+ * when they are sent. Their time from the send() call, or the time passed
+ * to it, until they are written is recorded in the SignalingLatencyTracker.
+ *
+ * <p>WebSockets are autobahn WebSocketConnections unless a WebSocketFactory
+ * is passed, e.g. by JVM tools which can't use the Android autobahn client.
+ */
+
+public class WebSocketChannelClient {
+  private static final String TAG = "WSChannelRTCClient";
+  private static final int CLOSE_TIMEOUT = 1000;
+  private static final int MAX_RECONNECT_ATTEMPTS = 6;
+  private static final long RECONNECT_INITIAL_DELAY_MS = 500;
+  private static final long RECONNECT_MAX_DELAY_MS = 8000;
+  private static final int MAX_QUEUED_MESSAGES = 64;
+  private final WebSocketChannelEvents events;
+  private final SerialExecutor executor;
+  private final WebSocketFactory webSocketFactory;
+  private WebSocket ws;
+  private WebSocketObserver wsObserver;
+  private String wsServerUrl;
+  private String postServerUrl;
+  private String roomID;
+  private String clientID;
+  private WebSocketConnectionState state;
+  private final Object closeEventLock = new Object();
+  private boolean closeEvent;
+  // WebSocket send queue. Messages are added to the queue when WebSocket
+  // client is not registered and are consumed in register() call.
+  private final WebSocketSendQueue wsSendQueue;
+  private final SignalingCodec codec = new SignalingCodec();
+  private final MessageEncoder encoder;
+  private final SignalingLatencyTracker latencyTracker;
+  // Set if the peer accepts batched candidates.
+  private boolean batchCandidates;
+  private final Random random = new Random();
+  // Failed reconnect attempts since the WebSocket was last open.
+  private int reconnectAttempts;
+
+  /**
+   * Possible WebSocket connection states.
+   */
+  public enum WebSocketConnectionState {
+    NEW, CONNECTED, REGISTERED, RECONNECTING, CLOSED, ERROR
+  };
+
+  /**
+   * Callback interface for messages delivered on WebSocket.
+   * All events are dispatched from a looper executor thread.
+   */
+  public interface WebSocketChannelEvents {
+    // |receivedNs| is the System.nanoTime() the message was read from the WebSocket.
+    public void onWebSocketMessage(final String message, long receivedNs);
+    public void onWebSocketClose();
+    // Registered again after the WebSocket was lost. Messages in flight at the
+    // time may be lost.
+    public void onWebSocketReconnected();
+    public void onWebSocketError(final String description);
+  }
+
+  /**
+   * Encodes a SignalingMessage when it is sent. Called on the looper thread.
+   */
+  public interface MessageEncoder {
+    public String encode(SignalingMessage message);
+  }
+
+  /**
+   * Creates the WebSocket of each connection attempt. Called on the looper
+   * thread.
+   */
+  public interface WebSocketFactory {
+    public WebSocket createWebSocket();
+  }
+
+  public WebSocketChannelClient(SerialExecutor executor, WebSocketChannelEvents events) {
+    this(executor, events, null);
+  }
+
+  /**
+   * Creates a client which encodes messages with |encoder|, or plainly if it
+   * is null.
+   */
+  public WebSocketChannelClient(SerialExecutor executor, WebSocketChannelEvents events,
+      MessageEncoder encoder) {
+    this(executor, events, encoder, new SignalingLatencyTracker());
+  }
+
+  /** Same as above, send latencies are recorded in |latencyTracker|. */
+  public WebSocketChannelClient(SerialExecutor executor, WebSocketChannelEvents events,
+      MessageEncoder encoder, SignalingLatencyTracker latencyTracker) {
+    this(executor, events, encoder, latencyTracker, null);
+  }
+
+  /**
+   * Same as above, WebSockets are created by |webSocketFactory|, or are
+   * autobahn WebSocketConnections if it is null.
+   */
+  public WebSocketChannelClient(SerialExecutor executor, WebSocketChannelEvents events,
+      MessageEncoder encoder, SignalingLatencyTracker latencyTracker,
+      WebSocketFactory webSocketFactory) {
+    this.executor = executor;
+    this.events = events;
+    this.encoder = encoder != null ? encoder : new MessageEncoder() {
+      @Override
+      public String encode(SignalingMessage message) {
+        return codec.encode(message);
+      }
+    };
+    this.latencyTracker = latencyTracker;
+    this.webSocketFactory = webSocketFactory != null ? webSocketFactory : new WebSocketFactory() {
+      @Override
+      public WebSocket createWebSocket() {
+        return new WebSocketConnection();
+      }
+    };
+    roomID = null;
+    clientID = null;
+    wsSendQueue = new WebSocketSendQueue(MAX_QUEUED_MESSAGES);
+    state = WebSocketConnectionState.NEW;
+  }
+
+  public WebSocketConnectionState getState() {
+    return state;
+  }
+
+  public void connect(final String wsUrl, final String postUrl) {
+    checkIfCalledOnValidThread();
+    if (state != WebSocketConnectionState.NEW) {
+      Log.e(TAG, "WebSocket is already connected.");
+      return;
+    }
+    wsServerUrl = wsUrl;
+    postServerUrl = postUrl;
+    Log.d(TAG, "Connecting WebSocket to: " + wsUrl + ". Post URL: " + postUrl);
+    openConnection();
+  }
+
+  private void openConnection() {
+    synchronized (closeEventLock) {
+      closeEvent = false;
+    }
+    ws = webSocketFactory.createWebSocket();
+    wsObserver = new WebSocketObserver();
+    try {
+      ws.connect(new URI(wsServerUrl), wsObserver);
+    } catch (URISyntaxException e) {
+      reportError("URI error: " + e.getMessage());
+    } catch (WebSocketException e) {
+      reportError("WebSocket connection error: " + e.getMessage());
+    }
+  }
+
+  public void register(final String roomID, final String clientID) {
+    checkIfCalledOnValidThread();
+    this.roomID = roomID;
+    this.clientID = clientID;
+    if (state != WebSocketConnectionState.CONNECTED) {
+      Log.w(TAG, "WebSocket register() in state " + state);
+      return;
+    }
+    Log.d(TAG, "Registering WebSocket for room " + roomID + ". CLientID: " + clientID);
+    String registerMessage = codec.encodeRegister(roomID, clientID);
+    Log.d(TAG, "C->WSS: " + registerMessage);
+    ws.sendTextMessage(registerMessage);
+    state = WebSocketConnectionState.REGISTERED;
+    // Send any previously accumulated messages.
+    if (wsSendQueue.size() > 0) {
+      Log.d(TAG, "Sending " + wsSendQueue.size() + " queued messages.");
+      for (WebSocketSendQueue.Entry entry : wsSendQueue.drain(batchCandidates)) {
+        if (entry.message != null) {
+          sendRegistered(entry.message, entry.enqueuedNs);
+        } else {
+          sendRegistered(entry.text);
+        }
+      }
+    }
+  }
+
+  /** Sends an encoded |message|, queued in arrival order until registered. */
+  public void send(String message) {
+    checkIfCalledOnValidThread();
+    switch (state) {
+      case NEW:
+      case CONNECTED:
+      case RECONNECTING:
+        // Store outgoing messages and send them after websocket client
+        // is registered.
+        Log.d(TAG, "WS ACC: " + message);
+        wsSendQueue.add(message);
+        return;
+      case ERROR:
+      case CLOSED:
+        Log.e(TAG, "WebSocket send() in error or closed state : " + message);
+        return;
+      case REGISTERED:
+        sendRegistered(message);
+        break;
+    }
+    return;
+  }
+
+  /**
+   * Sends |message|. Until registered it is queued with SDP first and
+   * redundant candidates collapsed, and only encoded when it is sent.
+   */
+  public void send(SignalingMessage message) {
+    send(message, System.nanoTime());
+  }
+
+  /**
+   * Same as above for a message the caller got at |enqueuedNs|, as
+   * System.nanoTime().
+   */
+  public void send(SignalingMessage message, long enqueuedNs) {
+    checkIfCalledOnValidThread();
+    switch (state) {
+      case NEW:
+      case CONNECTED:
+      case RECONNECTING:
+        Log.d(TAG, "WS ACC: " + message.type);
+        wsSendQueue.add(message, enqueuedNs);
+        return;
+      case ERROR:
+      case CLOSED:
+        Log.e(TAG, "WebSocket send() in error or closed state : " + message.type);
+        return;
+      case REGISTERED:
+        sendRegistered(message, enqueuedNs);
+        break;
+    }
+  }
+
+  /** Queued candidates are sent in one message if |enabled|. */
+  public void setCandidateBatching(boolean enabled) {
+    batchCandidates = enabled;
+  }
+
+  /** Time messages waited for registration, per message. */
+  public LatencyHistogram getQueueTimeHistogram() {
+    return wsSendQueue.getQueueTimeHistogram();
+  }
+
+  /** Largest number of messages waiting for registration at once. */
+  public int getMaxQueueDepth() {
+    return wsSendQueue.getMaxDepth();
+  }
+
+  // This call can be used to send WebSocket messages before WebSocket
+  // connection is opened.
+  public void post(String message) {
+    checkIfCalledOnValidThread();
+    sendWSSMessage("POST", message);
+  }
+
+  public void disconnect(boolean waitForComplete) {
+    checkIfCalledOnValidThread();
+    Log.d(TAG, "Disonnect WebSocket. State: " + state);
+    if (state == WebSocketConnectionState.RECONNECTING) {
+      // The WebSocket is gone already, only stop a pending reconnect.
+      ws.disconnect();
+      state = WebSocketConnectionState.CLOSED;
+    }
+    if (state == WebSocketConnectionState.REGISTERED) {
+      // Send "bye" to WebSocket server.
+      send(codec.encode(SignalingMessage.bye()));
+      state = WebSocketConnectionState.CONNECTED;
+      // Send http DELETE to http WebSocket server.
+      sendWSSMessage("DELETE", "");
+    }
+    // Close WebSocket in CONNECTED or ERROR states only.
+    if (state == WebSocketConnectionState.CONNECTED
+        || state == WebSocketConnectionState.ERROR) {
+      ws.disconnect();
+      state = WebSocketConnectionState.CLOSED;
+
+      // Wait for websocket close event to prevent websocket library from
+      // sending any pending messages to deleted looper thread.
+      if (waitForComplete) {
+        synchronized (closeEventLock) {
+          while (!closeEvent) {
+            try {
+              closeEventLock.wait(CLOSE_TIMEOUT);
+              break;
+            } catch (InterruptedException e) {
+              Log.e(TAG, "Wait error: " + e.toString());
+            }
+          }
+        }
+      }
+    }
+    Log.d(TAG, "Disonnecting WebSocket done.");
+  }
+
+  private void reportError(final String errorMessage) {
+    Log.e(TAG, errorMessage);
+    executor.execute("reportError", new Runnable() {
+      @Override
+      public void run() {
+        if (state != WebSocketConnectionState.ERROR) {
+          state = WebSocketConnectionState.ERROR;
+          events.onWebSocketError(errorMessage);
+        }
+      }
+    });
+  }
+
+  private void sendRegistered(String message) {
+    message = codec.encodeSend(message);
+    Log.d(TAG, "C->WSS: " + message);
+    ws.sendTextMessage(message);
+  }
+
+  private void sendRegistered(SignalingMessage message, long enqueuedNs) {
+    sendRegistered(encoder.encode(message));
+    latencyTracker.record(SignalingLatencyTracker.Stage.SEND_QUEUE, message.type, enqueuedNs);
+  }
+
+  // Called on an unexpected close of a registered WebSocket or of a
+  // reconnect attempt.
+  private void reconnectOrClose() {
+    if (reconnectAttempts >= MAX_RECONNECT_ATTEMPTS) {
+      Log.e(TAG, "WebSocket reconnect failed " + reconnectAttempts + " times.");
+      state = WebSocketConnectionState.CLOSED;
+      events.onWebSocketClose();
+      return;
+    }
+    state = WebSocketConnectionState.RECONNECTING;
+    // Equal jitter: half of the delay is random, so clients dropped at the
+    // same time don't come back at the same time.
+    long maxDelayMs =
+        Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_INITIAL_DELAY_MS << reconnectAttempts);
+    long delayMs = maxDelayMs / 2 + (long) (random.nextDouble() * maxDelayMs / 2);
+    reconnectAttempts++;
+    Log.d(TAG, "Reconnecting WebSocket in " + delayMs + " ms, attempt " + reconnectAttempts);
+    executor.executeDelayed(new Runnable() {
+      @Override
+      public void run() {
+        if (state == WebSocketConnectionState.RECONNECTING) {
+          openConnection();
+        }
+      }
+    }, delayMs);
+  }
+
+  // Asynchronously send POST/DELETE to WebSocket server.
+  private void sendWSSMessage(final String method, final String message) {
+    String postUrl = postServerUrl + "/" + roomID + "/" + clientID;
+    Log.d(TAG, "WS " + method + " : " + postUrl + " : " + message);
+    AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection(
+        method, postUrl, message, new AsyncHttpEvents() {
+          @Override
+          public void onHttpError(int responseCode, String errorMessage) {
+            reportError("WS " + method + " error: " + errorMessage);
+          }
+
+          @Override
+          public void onHttpComplete(String response) {
+          }
+        });
+    httpConnection.send();
+  }
+
+   // Helper method for debugging purposes. Ensures that WebSocket method is
+   // called on a looper thread.
+  private void checkIfCalledOnValidThread() {
+    if (!executor.checkOnLooperThread()) {
+      throw new IllegalStateException(
+          "WebSocket method is not called on valid thread");
+    }
+  }
+
+  private class WebSocketObserver implements WebSocketConnectionObserver {
+    @Override
+    public void onOpen() {
+      Log.d(TAG, "WebSocket connection opened to: " + wsServerUrl);
+      executor.execute("onOpen", new Runnable() {
+        @Override
+        public void run() {
+          if (!isCurrent() || state == WebSocketConnectionState.CLOSED) {
+            return;
+          }
+          boolean reconnected = state == WebSocketConnectionState.RECONNECTING;
+          state = WebSocketConnectionState.CONNECTED;
+          // Check if we have pending register request.
+          if (roomID != null && clientID != null) {
+            register(roomID, clientID);
+          }
+          if (reconnected) {
+            Log.d(TAG, "WebSocket reconnected after " + reconnectAttempts + " attempts.");
+            reconnectAttempts = 0;
+            events.onWebSocketReconnected();
+          }
+        }
+      });
+    }
+
+    @Override
+    public void onClose(WebSocketCloseNotification code, String reason) {
+      Log.d(TAG, "WebSocket connection closed. Code: " + code
+          + ". Reason: " + reason + ". State: " + state);
+      synchronized (closeEventLock) {
+        closeEvent = true;
+        closeEventLock.notify();
+      }
+      executor.execute("onClose", new Runnable() {
+        @Override
+        public void run() {
+          if (!isCurrent() || state == WebSocketConnectionState.CLOSED) {
+            return;
+          }
+          if (state == WebSocketConnectionState.REGISTERED
+              || state == WebSocketConnectionState.RECONNECTING) {
+            reconnectOrClose();
+          } else {
+            state = WebSocketConnectionState.CLOSED;
+            events.onWebSocketClose();
+          }
+        }
+      });
+    }
+
+    @Override
+    public void onTextMessage(String payload) {
+      final long receivedNs = System.nanoTime();
+      Log.d(TAG, "WSS->C: " + payload);
+      final String message = payload;
+      executor.execute("onTextMessage", new Runnable() {
+        @Override
+        public void run() {
+          if (isCurrent() && (state == WebSocketConnectionState.CONNECTED
+              || state == WebSocketConnectionState.REGISTERED)) {
+            events.onWebSocketMessage(message, receivedNs);
+          }
+        }
+      });
+    }
+
+    // Events of a connection replaced by a reconnect are dropped. Called on
+    // the looper thread.
+    private boolean isCurrent() {
+      return this == wsObserver;
+    }
+
+    @Override
+    public void onRawTextMessage(byte[] payload) {
+    }
+
+    @Override
+    public void onBinaryMessage(byte[] payload) {
+    }
+  }
+
+}
@@ -0,0 +1,585 @@
+/*
+ *  Copyright 2014 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.RoomParametersFetcher.RoomParametersFetcherEvents;
+import org.appspot.apprtc.WebSocketChannelClient.WebSocketChannelEvents;
+import org.appspot.apprtc.WebSocketChannelClient.WebSocketConnectionState;
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.Log;
+import org.appspot.apprtc.util.SerialExecutor;
+
+import org.json.JSONException;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Negotiates signaling for chatting with https://appr.tc "rooms".
+ * Uses the client<->server specifics of the apprtc AppEngine webapp.
+ *
+ * <p>To use: create an instance of this object (registering a message handler) and
+ * call connectToRoom().  Once room connection is established
+ * onConnectedToRoom() callback with room parameters is invoked.
+ * Messages to other party (with local Ice candidates and answer SDP) can
+ * be sent after WebSocket connection is established.
+ *
+ * <p>Messages to a participant which advertised SignalingReplayBuffer.CAPABILITY
+ * are numbered and kept until acknowledged. After the WebSocket reconnected a
+ * RESYNC asks the other participant to send again what did not arrive, and
+ * the call receiver, which sends on the WebSocket, sends its own
+ * unacknowledged messages again. Duplicates are dropped by sequence number.
+ *
+ * <p>Latencies of sent and received messages are recorded in a
+ * SignalingLatencyTracker and logged when leaving the room.
+ */
+public class WebSocketRTCClient implements AppRTCClient,
+    WebSocketChannelEvents {
+  private static final String TAG = "WSRTCClient";
+  private static final String ROOM_JOIN = "join";
+  private static final String ROOM_MESSAGE = "message";
+  private static final String ROOM_LEAVE = "leave";
+  // Unacknowledged messages kept for replay, a call has a few dozen at most.
+  private static final int MAX_REPLAY_MESSAGES = 64;
+
+  private enum ConnectionState {
+    NEW, CONNECTED, CLOSED, ERROR
+  };
+  private final SerialExecutor executor;
+  private boolean initiator;
+  private SignalingEvents events;
+  private WebSocketChannelClient wsClient;
+  private RoomParametersFetcher roomParametersFetcher;
+  private SignalingSendQueue sendQueue;
+  private ConnectionState roomState;
+  private RoomConnectionParameters connectionParameters;
+  private String messageUrl;
+  private String leaveUrl;
+  // Set once the other participant advertised SDP compression support.
+  private boolean peerSupportsSdpCompression;
+  // Set once the other participant advertised it accepts batched candidates.
+  private boolean peerSupportsIceBatching;
+  private IceCandidateBatcher iceCandidateBatcher;
+  // Set once the other participant advertised it acknowledges and replays messages.
+  private boolean peerSupportsReplay;
+  private SignalingReplayBuffer replayBuffer;
+  private final TurnServerCache turnServerCache;
+  private final WebSocketChannelClient.WebSocketFactory webSocketFactory;
+  // Used on the looper thread only.
+  private final SignalingCodec codec = new SignalingCodec();
+  private final SignalingLatencyTracker latencyTracker = new SignalingLatencyTracker();
+
+  public WebSocketRTCClient(SignalingEvents events, SerialExecutor executor) {
+    this(events, executor, null);
+  }
+
+  /**
+   * Creates a client which keeps TURN servers in |turnServerCache|, or only
+   * in memory if it is null.
+   */
+  public WebSocketRTCClient(SignalingEvents events, SerialExecutor executor,
+      TurnServerCache turnServerCache) {
+    this(events, executor, turnServerCache, null);
+  }
+
+  /**
+   * Same as above, WebSockets are created by |webSocketFactory|, or are
+   * autobahn WebSocketConnections if it is null.
+   */
+  public WebSocketRTCClient(SignalingEvents events, SerialExecutor executor,
+      TurnServerCache turnServerCache,
+      WebSocketChannelClient.WebSocketFactory webSocketFactory) {
+    this.events = events;
+    this.executor = executor;
+    this.turnServerCache = turnServerCache;
+    this.webSocketFactory = webSocketFactory;
+    roomState = ConnectionState.NEW;
+    executor.requestStart();
+  }
+
+  // --------------------------------------------------------------------
+  // AppRTCClient interface implementation.
+  // Asynchronously connect to an AppRTC room URL using supplied connection
+  // parameters, retrieves room parameters and connect to WebSocket server.
+  @Override
+  public void connectToRoom(RoomConnectionParameters connectionParameters) {
+    this.connectionParameters = connectionParameters;
+    executor.execute("connectToRoom", new Runnable() {
+      @Override
+      public void run() {
+        connectToRoomInternal();
+      }
+    });
+  }
+
+  @Override
+  public void disconnectFromRoom() {
+    executor.execute("disconnectFromRoom", new Runnable() {
+      @Override
+      public void run() {
+        disconnectFromRoomInternal();
+      }
+    });
+    executor.requestStop();
+  }
+
+  // Connects to room - function runs on a local looper thread.
+  private void connectToRoomInternal() {
+    String connectionUrl = getConnectionUrl(connectionParameters);
+    Log.d(TAG, "Connect to room: " + connectionUrl);
+    roomState = ConnectionState.NEW;
+    wsClient = new WebSocketChannelClient(executor, this,
+        new WebSocketChannelClient.MessageEncoder() {
+          @Override
+          public String encode(SignalingMessage message) {
+            return encodeForPeer(message);
+          }
+        }, latencyTracker, webSocketFactory);
+    replayBuffer = new SignalingReplayBuffer(MAX_REPLAY_MESSAGES);
+    iceCandidateBatcher = new IceCandidateBatcher(executor,
+        connectionParameters.iceBatchWindowMs, new IceCandidateBatcher.Sender() {
+          @Override
+          public void sendCandidates(List<IceCandidate> candidates, long enqueuedNs) {
+            sendLocalIceCandidatesInternal(candidates, enqueuedNs);
+          }
+        });
+
+    RoomParametersFetcherEvents callbacks = new RoomParametersFetcherEvents() {
+      @Override
+      public void onSignalingParametersReady(
+          final SignalingParameters params) {
+        WebSocketRTCClient.this.executor.execute("onSignalingParametersReady", new Runnable() {
+          @Override
+          public void run() {
+            WebSocketRTCClient.this.signalingParametersReady(params);
+          }
+        });
+      }
+
+      @Override
+      public void onSignalingParametersError(String description) {
+        WebSocketRTCClient.this.reportError(description);
+      }
+    };
+
+    if (turnServerCache != null) {
+      roomParametersFetcher =
+          new RoomParametersFetcher(connectionUrl, null, callbacks, turnServerCache);
+    } else {
+      roomParametersFetcher = new RoomParametersFetcher(connectionUrl, null, callbacks);
+    }
+    roomParametersFetcher.makeRequest();
+  }
+
+  // Disconnect from room and send bye messages - runs on a local looper thread.
+  private void disconnectFromRoomInternal() {
+    Log.d(TAG, "Disconnect. Room state: " + roomState);
+    if (roomParametersFetcher != null) {
+      // Leaving before the room join completed.
+      roomParametersFetcher.cancel();
+      roomParametersFetcher = null;
+    }
+    if (sendQueue != null) {
+      sendQueue.close();
+      Log.d(TAG, "Room message delivery latency: " + sendQueue.getLatencyHistogram());
+      sendQueue = null;
+    }
+    if (roomState == ConnectionState.CONNECTED) {
+      Log.d(TAG, "Closing room.");
+      sendLeaveMessage();
+    }
+    roomState = ConnectionState.CLOSED;
+    if (iceCandidateBatcher != null) {
+      iceCandidateBatcher.clear();
+    }
+    if (wsClient != null) {
+      Log.d(TAG, "WebSocket send queue max depth: " + wsClient.getMaxQueueDepth()
+          + ", time in queue: " + wsClient.getQueueTimeHistogram());
+      wsClient.disconnect(true);
+    }
+    Log.d(TAG, "Signaling latency:\n" + latencyTracker);
+  }
+
+  // Helper functions to get connection, post message and leave message URLs
+  private String getConnectionUrl(
+      RoomConnectionParameters connectionParameters) {
+    return connectionParameters.roomUrl + "/" + ROOM_JOIN + "/"
+        + connectionParameters.roomId;
+  }
+
+  private String getMessageUrl(RoomConnectionParameters connectionParameters,
+      SignalingParameters signalingParameters) {
+    return connectionParameters.roomUrl + "/" + ROOM_MESSAGE + "/"
+      + connectionParameters.roomId + "/" + signalingParameters.clientId;
+  }
+
+  private String getLeaveUrl(RoomConnectionParameters connectionParameters,
+      SignalingParameters signalingParameters) {
+    return connectionParameters.roomUrl + "/" + ROOM_LEAVE + "/"
+        + connectionParameters.roomId + "/" + signalingParameters.clientId;
+  }
+
+  // Callback issued when room parameters are extracted. Runs on local
+  // looper thread.
+  private void signalingParametersReady(
+      final SignalingParameters signalingParameters) {
+    Log.d(TAG, "Room connection completed.");
+    if (connectionParameters.loopback
+        && (!signalingParameters.initiator
+            || signalingParameters.offerSdp != null)) {
+      reportError("Loopback room is busy.");
+      return;
+    }
+    if (!connectionParameters.loopback
+        && !signalingParameters.initiator
+        && signalingParameters.offerSdp == null) {
+      Log.w(TAG, "No offer SDP in room response.");
+    }
+    initiator = signalingParameters.initiator;
+    peerSupportsSdpCompression = signalingParameters.peerSupportsSdpCompression;
+    peerSupportsIceBatching = signalingParameters.peerSupportsIceBatching;
+    peerSupportsReplay = signalingParameters.peerSupportsReplay;
+    wsClient.setCandidateBatching(peerSupportsIceBatching);
+    messageUrl = getMessageUrl(connectionParameters, signalingParameters);
+    leaveUrl = getLeaveUrl(connectionParameters, signalingParameters);
+    Log.d(TAG, "Message URL: " + messageUrl);
+    Log.d(TAG, "Leave URL: " + leaveUrl);
+    sendQueue = new SignalingSendQueue(executor, messageUrl,
+        connectionParameters.maxMessagesInFlight,
+        new SignalingSendQueue.Events() {
+          @Override
+          public void onMessageDelivered(String message, long latencyMs, int attempts) {
+            Log.d(TAG, "GAE message delivered in " + latencyMs + " ms, attempts: " + attempts);
+          }
+
+          @Override
+          public void onMessageFailed(String message, String errorMessage) {
+            reportError(errorMessage);
+          }
+        }, latencyTracker);
+    roomState = ConnectionState.CONNECTED;
+
+    // Fire connection and signaling parameters events.
+    events.onConnectedToRoom(signalingParameters);
+
+    // Connect and register WebSocket client.
+    wsClient.connect(signalingParameters.wssUrl, signalingParameters.wssPostUrl);
+    wsClient.register(connectionParameters.roomId, signalingParameters.clientId);
+  }
+
+  // Send local offer SDP to the other participant.
+  @Override
+  public void sendOfferSdp(final SessionDescription sdp) {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendOfferSdp", new Runnable() {
+      @Override
+      public void run() {
+        if (roomState != ConnectionState.CONNECTED) {
+          reportError("Sending offer SDP in non connected state.");
+          return;
+        }
+        // The offer is the first SDP, so it is always sent uncompressed.
+        String message = encodeForPeer(toSdpMessage(sdp, false));
+        // Candidates must not reach the room server before the offer.
+        sendQueue.send(message, true, SignalingMessage.Type.OFFER, enqueuedNs);
+        if (connectionParameters.loopback) {
+          // In loopback mode rename this offer to answer and route it back.
+          SessionDescription sdpAnswer = new SessionDescription(
+              SessionDescription.Type.fromCanonicalForm("answer"),
+              sdp.description);
+          events.onRemoteDescription(sdpAnswer);
+        }
+      }
+    });
+  }
+
+  // Send local answer SDP to the other participant.
+  @Override
+  public void sendAnswerSdp(final SessionDescription sdp) {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendAnswerSdp", new Runnable() {
+      @Override
+      public void run() {
+        if (connectionParameters.loopback) {
+          Log.e(TAG, "Sending answer in loopback mode.");
+          return;
+        }
+        SignalingMessage message = toSdpMessage(sdp,
+            connectionParameters.sdpCompression && peerSupportsSdpCompression);
+        wsClient.send(message, enqueuedNs);
+      }
+    });
+  }
+
+  // Send Ice candidate to the other participant. Candidates are batched if the
+  // other participant accepts batches.
+  @Override
+  public void sendLocalIceCandidate(final IceCandidate candidate) {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendLocalIceCandidate", new Runnable() {
+      @Override
+      public void run() {
+        if (peerSupportsIceBatching || connectionParameters.loopback
+            || (initiator && connectionParameters.iceBatchBeforeAnswer)) {
+          iceCandidateBatcher.add(candidate, enqueuedNs);
+        } else {
+          iceCandidateBatcher.flush();
+          sendLocalIceCandidatesInternal(Collections.singletonList(candidate), enqueuedNs);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void flushLocalIceCandidates() {
+    executor.execute("flushLocalIceCandidates", new Runnable() {
+      @Override
+      public void run() {
+        if (iceCandidateBatcher != null) {
+          iceCandidateBatcher.flush();
+        }
+      }
+    });
+  }
+
+  // Sends one candidate or a batch of candidates - runs on a local looper thread.
+  private void sendLocalIceCandidatesInternal(List<IceCandidate> candidates, long enqueuedNs) {
+    SignalingMessage message = SignalingMessage.candidates(candidates);
+    if (initiator) {
+      // Call initiator sends ice candidates to GAE server.
+      if (roomState != ConnectionState.CONNECTED) {
+        reportError("Sending ICE candidate in non connected state.");
+        return;
+      }
+      sendQueue.send(encodeForPeer(message), false, message.type, enqueuedNs);
+      if (connectionParameters.loopback) {
+        for (IceCandidate candidate : candidates) {
+          events.onRemoteIceCandidate(candidate);
+        }
+      }
+    } else {
+      // Call receiver sends ice candidates to websocket server.
+      wsClient.send(message, enqueuedNs);
+    }
+  }
+
+  // Send removed Ice candidates to the other participant.
+  @Override
+  public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
+    final long enqueuedNs = System.nanoTime();
+    executor.execute("sendLocalIceCandidateRemovals", new Runnable() {
+      @Override
+      public void run() {
+        SignalingMessage message = SignalingMessage.removeCandidates(candidates);
+        // Removed candidates may still be waiting for their batch.
+        if (iceCandidateBatcher != null) {
+          iceCandidateBatcher.flush();
+        }
+        if (initiator) {
+          // Call initiator sends ice candidates to GAE server.
+          if (roomState != ConnectionState.CONNECTED) {
+            reportError("Sending ICE candidate removals in non connected state.");
+            return;
+          }
+          // Removals must not reach the room server before the candidates they remove.
+          sendQueue.send(encodeForPeer(message), true, message.type, enqueuedNs);
+          if (connectionParameters.loopback) {
+            events.onRemoteIceCandidatesRemoved(candidates);
+          }
+        } else {
+          // Call receiver sends ice candidates to websocket server.
+          wsClient.send(message, enqueuedNs);
+        }
+      }
+    });
+  }
+
+  @Override
+  public SignalingLatencyTracker getSignalingLatencyTracker() {
+    return latencyTracker;
+  }
+
+  // --------------------------------------------------------------------
+  // WebSocketChannelEvents interface implementation.
+  // All events are called by WebSocketChannelClient on a local looper thread
+  // (passed to WebSocket client constructor).
+  @Override
+  public void onWebSocketMessage(final String msg, long receivedNs) {
+    if (wsClient.getState() != WebSocketConnectionState.REGISTERED) {
+      Log.e(TAG, "Got WebSocket message in non registered state.");
+      return;
+    }
+    SignalingMessage message;
+    try {
+      message = codec.decodeWebSocket(msg);
+    } catch (JSONException e) {
+      reportError("WebSocket message JSON parsing error: " + e.toString());
+      return;
+    }
+    if (message.ack > 0) {
+      replayBuffer.acknowledge(message.ack);
+    }
+    if (message.seq > 0 && !replayBuffer.receive(message.seq)) {
+      Log.d(TAG, "Dropping duplicate message " + message.seq);
+      return;
+    }
+    latencyTracker.record(SignalingLatencyTracker.Stage.RECEIVE_QUEUE, message.type, receivedNs);
+    switch (message.type) {
+      case CANDIDATE:
+      case CANDIDATES:
+        for (IceCandidate candidate : message.candidates) {
+          events.onRemoteIceCandidate(candidate);
+        }
+        break;
+      case REMOVE_CANDIDATES:
+        events.onRemoteIceCandidatesRemoved(message.candidates);
+        break;
+      case ANSWER:
+        if (initiator) {
+          peerSupportsIceBatching = message.hasCapability(IceCandidateBatcher.CAPABILITY);
+          peerSupportsReplay = message.hasCapability(SignalingReplayBuffer.CAPABILITY);
+          events.onRemoteDescription(message.getSessionDescription());
+        } else {
+          reportError("Received answer for call initiator: " + msg);
+        }
+        break;
+      case OFFER:
+        if (!initiator) {
+          peerSupportsSdpCompression = message.hasCapability(SdpCompressor.CAPABILITY);
+          peerSupportsIceBatching = message.hasCapability(IceCandidateBatcher.CAPABILITY);
+          peerSupportsReplay = message.hasCapability(SignalingReplayBuffer.CAPABILITY);
+          wsClient.setCandidateBatching(peerSupportsIceBatching);
+          events.onRemoteDescription(message.getSessionDescription());
+        } else {
+          reportError("Received offer for call receiver: " + msg);
+        }
+        break;
+      case BYE:
+        events.onChannelClose();
+        break;
+      case RESYNC:
+        Log.d(TAG, "Other participant reconnected, received up to " + message.ack);
+        sendUnacknowledged();
+        break;
+      case ERROR:
+        reportError("WebSocket error message: " + message.error);
+        break;
+      default:
+        reportError("Unexpected WebSocket message: " + msg);
+        break;
+    }
+  }
+
+  @Override
+  public void onWebSocketClose() {
+    events.onChannelClose();
+  }
+
+  @Override
+  public void onWebSocketReconnected() {
+    if (!peerSupportsReplay) {
+      return;
+    }
+    Log.d(TAG, "WebSocket reconnected, received up to " + replayBuffer.getAck());
+    sendToPeer(codec.encode(SignalingMessage.resync(replayBuffer.getAck())));
+    if (!initiator) {
+      // Messages sent on the lost WebSocket may not have arrived.
+      sendUnacknowledged();
+    }
+  }
+
+  @Override
+  public void onWebSocketError(String description) {
+    reportError("WebSocket error: " + description);
+  }
+
+  // --------------------------------------------------------------------
+  // Helper functions.
+  private void reportError(final String errorMessage) {
+    Log.e(TAG, errorMessage);
+    executor.execute("reportError", new Runnable() {
+      @Override
+      public void run() {
+        if (roomState != ConnectionState.ERROR) {
+          roomState = ConnectionState.ERROR;
+          events.onChannelError(errorMessage);
+        }
+      }
+    });
+  }
+
+  // Converts a local offer or answer to a message. SDP compression is
+  // advertised if enabled, |compress| is only set once the other participant
+  // advertised it.
+  private SignalingMessage toSdpMessage(SessionDescription sdp, boolean compress) {
+    List<String> capabilities = new ArrayList<String>();
+    if (connectionParameters.sdpCompression) {
+      capabilities.add(SdpCompressor.CAPABILITY);
+    }
+    // Batched candidates are always accepted.
+    capabilities.add(IceCandidateBatcher.CAPABILITY);
+    capabilities.add(SignalingReplayBuffer.CAPABILITY);
+    return SignalingMessage.description(sdp, compress, capabilities);
+  }
+
+  // Encodes |message| for the other participant. Once it advertised replay
+  // support the message is numbered, carries the acknowledgement of the
+  // received messages and is kept until acknowledged.
+  private String encodeForPeer(SignalingMessage message) {
+    if (!peerSupportsReplay) {
+      return codec.encode(message);
+    }
+    int seq = replayBuffer.nextSeq();
+    String encoded = codec.encode(message.withSequence(seq, replayBuffer.getAck()));
+    replayBuffer.add(seq, encoded);
+    return encoded;
+  }
+
+  // Sends an encoded message the way this participant sends all messages:
+  // the call initiator to the room server, the receiver on the WebSocket.
+  private void sendToPeer(String message) {
+    if (!initiator) {
+      wsClient.send(message);
+    } else if (roomState == ConnectionState.CONNECTED) {
+      sendQueue.send(message, false);
+    }
+  }
+
+  private void sendUnacknowledged() {
+    List<String> messages = replayBuffer.getUnacknowledged();
+    Log.d(TAG, "Replaying " + messages.size() + " unacknowledged messages.");
+    for (String message : messages) {
+      sendToPeer(message);
+    }
+  }
+
+  // Send leave message to a room server. SDP and ICE candidates go through
+  // |sendQueue|.
+  private void sendLeaveMessage() {
+    Log.d(TAG, "C->GAE: " + leaveUrl);
+    AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection(
+      "POST", leaveUrl, null, new AsyncHttpEvents() {
+        @Override
+        public void onHttpError(int responseCode, String errorMessage) {
+          reportError("GAE POST error: " + errorMessage);
+        }
+
+        @Override
+        public void onHttpComplete(String response) {
+        }
+      });
+    httpConnection.send();
+  }
+}
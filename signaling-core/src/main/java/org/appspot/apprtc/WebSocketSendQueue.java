@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.LatencyHistogram;
+import org.appspot.apprtc.util.Log;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Messages sent on a WebSocket before it is registered or while it
+ * reconnects.
+ *
+ * <p>Offers and answers drain before everything else, so a slow registration
+ * doesn't put the SDP behind a burst of candidates. Candidates are collapsed
+ * while queued: one queued twice is kept once, and a removal of a queued
+ * candidate drops both. If the peer accepts batches, all queued candidates
+ * leave in a single message. Other messages keep their order after the
+ * candidates.
+ *
+ * <p>At most |capacity| other messages are kept, when full the oldest one is
+ * dropped. SDP and candidates are never dropped, the peer can't connect
+ * without them, and their number is bounded by the session's gathering
+ * anyway. Queue depth and time in queue are recorded.
+ *
+ * <p>Not thread safe, used on the looper thread.
+ */
+class WebSocketSendQueue {
+  private static final String TAG = "WebSocketSendQueue";
+
+  private final int capacity;
+  private final LinkedList<Entry> descriptions = new LinkedList<Entry>();
+  // Single candidates, batches are split when queued.
+  private final LinkedList<Entry> candidates = new LinkedList<Entry>();
+  private final LinkedList<Entry> others = new LinkedList<Entry>();
+  private final LatencyHistogram queueTimes = new LatencyHistogram();
+  private int maxDepth;
+
+  /**
+   * Queued message. Either |message| is set, or |text| for messages the
+   * sender encoded itself. |enqueuedNs| is when the sender got |message|.
+   */
+  static class Entry {
+    final SignalingMessage message;
+    final String text;
+    final long enqueuedNs;
+    final long queuedNs;
+
+    Entry(SignalingMessage message, String text, long enqueuedNs, long queuedNs) {
+      this.message = message;
+      this.text = text;
+      this.enqueuedNs = enqueuedNs;
+      this.queuedNs = queuedNs;
+    }
+  }
+
+  WebSocketSendQueue(int capacity) {
+    this.capacity = capacity;
+  }
+
+  void add(SignalingMessage message, long enqueuedNs) {
+    long nowNs = System.nanoTime();
+    switch (message.type) {
+      case OFFER:
+      case ANSWER:
+        descriptions.add(new Entry(message, null, enqueuedNs, nowNs));
+        break;
+      case CANDIDATE:
+      case CANDIDATES:
+        for (IceCandidate candidate : message.candidates) {
+          if (findCandidate(candidate) != null) {
+            Log.d(TAG, "Dropping duplicate candidate " + candidate.sdp);
+          } else {
+            candidates.add(
+                new Entry(SignalingMessage.candidate(candidate), null, enqueuedNs, nowNs));
+          }
+        }
+        break;
+      case REMOVE_CANDIDATES:
+        List<IceCandidate> removed = new ArrayList<IceCandidate>();
+        for (IceCandidate candidate : message.candidates) {
+          Entry queued = findCandidate(candidate);
+          if (queued != null) {
+            // Never sent, so the peer doesn't need to hear about either.
+            Log.d(TAG, "Dropping removed candidate " + candidate.sdp);
+            candidates.remove(queued);
+          } else {
+            removed.add(candidate);
+          }
+        }
+        if (!removed.isEmpty()) {
+          others.add(new Entry(SignalingMessage.removeCandidates(
+              removed.toArray(new IceCandidate[removed.size()])), null, enqueuedNs, nowNs));
+        }
+        break;
+      default:
+        others.add(new Entry(message, null, enqueuedNs, nowNs));
+        break;
+    }
+    trim();
+  }
+
+  void add(String text) {
+    long nowNs = System.nanoTime();
+    others.add(new Entry(null, text, nowNs, nowNs));
+    trim();
+  }
+
+  int size() {
+    return descriptions.size() + candidates.size() + others.size();
+  }
+
+  /**
+   * Removes all messages in sending order. Candidates are merged into one
+   * message if |batchCandidates| is set.
+   */
+  List<Entry> drain(boolean batchCandidates) {
+    List<Entry> entries = new ArrayList<Entry>(size());
+    entries.addAll(descriptions);
+    if (batchCandidates && candidates.size() > 1) {
+      List<IceCandidate> batch = new ArrayList<IceCandidate>(candidates.size());
+      for (Entry entry : candidates) {
+        batch.add(entry.message.candidates[0]);
+      }
+      Entry first = candidates.getFirst();
+      entries.add(new Entry(SignalingMessage.candidates(batch), null, first.enqueuedNs,
+          first.queuedNs));
+    } else {
+      entries.addAll(candidates);
+    }
+    entries.addAll(others);
+    long nowNs = System.nanoTime();
+    recordQueueTimes(descriptions, nowNs);
+    recordQueueTimes(candidates, nowNs);
+    recordQueueTimes(others, nowNs);
+    clear();
+    return entries;
+  }
+
+  void clear() {
+    descriptions.clear();
+    candidates.clear();
+    others.clear();
+  }
+
+  /** Time from add() to drain() per message, before candidates are merged. */
+  LatencyHistogram getQueueTimeHistogram() {
+    return queueTimes;
+  }
+
+  int getMaxDepth() {
+    return maxDepth;
+  }
+
+  private Entry findCandidate(IceCandidate candidate) {
+    for (Entry entry : candidates) {
+      IceCandidate queued = entry.message.candidates[0];
+      if (queued.sdpMLineIndex == candidate.sdpMLineIndex
+          && queued.sdp.equals(candidate.sdp)
+          && (queued.sdpMid == null
+              ? candidate.sdpMid == null : queued.sdpMid.equals(candidate.sdpMid))) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private void recordQueueTimes(List<Entry> entries, long nowNs) {
+    for (Entry entry : entries) {
+      queueTimes.record((nowNs - entry.queuedNs) / 1000000);
+    }
+  }
+
+  private void trim() {
+    while (others.size() > capacity) {
+      Entry dropped = others.removeFirst();
+      Log.w(TAG, "Send queue full, dropping "
+          + (dropped.message != null ? dropped.message.type : "message"));
+    }
+    maxDepth = Math.max(maxDepth, size());
+  }
+}
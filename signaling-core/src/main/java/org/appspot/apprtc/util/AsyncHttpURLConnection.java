@@ -0,0 +1,308 @@
+/*
+ *  Copyright 2015 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous http requests implementation.
+ *
+ * <p>Requests of all instances run on a shared, bounded pool of worker
+ * threads. Response bodies are always read to the end and closed without
+ * disconnecting, so HttpURLConnection can keep the connection to the room
+ * server alive and reuse it, together with its TLS session, for the next
+ * request.
+ */
+public class AsyncHttpURLConnection {
+  /** Response code of errors without a response, e.g. a refused connection. */
+  public static final int NO_RESPONSE = -1;
+  /**
+   * Response code of requests which timed out. The server may have received
+   * and processed the request.
+   */
+  public static final int TIMEOUT = -2;
+  private static final int HTTP_TIMEOUT_MS = 8000;
+  private static final String HTTP_ORIGIN = "https://appr.tc";
+  private static final int MAX_WORKER_THREADS = 4;
+  private static final int WORKER_KEEP_ALIVE_MS = 30000;
+  private static final int READ_BUFFER_SIZE = 4096;
+  // Response buffers growing above this size are not kept for reuse.
+  private static final int MAX_RETAINED_RESPONSE_SIZE = 64 * 1024;
+  private static final ThreadPoolExecutor workers = createWorkers();
+  // Per worker thread response buffers, reused by all requests of a thread.
+  private static final ThreadLocal<ResponseBuffer> responseBuffers =
+      new ThreadLocal<ResponseBuffer>() {
+        @Override
+        protected ResponseBuffer initialValue() {
+          return new ResponseBuffer();
+        }
+      };
+  private final String method;
+  private final String url;
+  private final String message;
+  private final AsyncHttpEvents events;
+  private final Map<String, String> requestProperties = new LinkedHashMap<String, String>();
+  private String contentType;
+  private int timeoutMs = HTTP_TIMEOUT_MS;
+  private volatile boolean cancelled;
+  private Future<?> pendingRequest;
+  private HttpURLConnection activeConnection;
+
+  /**
+   * Http requests callbacks.
+   */
+  public interface AsyncHttpEvents {
+    /**
+     * Called if the request failed. |responseCode| is the HTTP status of a
+     * non-200 response, NO_RESPONSE or TIMEOUT.
+     */
+    public void onHttpError(int responseCode, String errorMessage);
+    public void onHttpComplete(String response);
+  }
+
+  public AsyncHttpURLConnection(String method, String url, String message,
+      AsyncHttpEvents events) {
+    this.method = method;
+    this.url = url;
+    this.message = message;
+    this.events = events;
+  }
+
+  /**
+   * Sets the number of requests of this process running at once, 4 by
+   * default. Meant for tools running many clients in one process.
+   */
+  public static synchronized void setMaxConcurrentRequests(int count) {
+    // The core size must never exceed the maximum size.
+    if (count > workers.getMaximumPoolSize()) {
+      workers.setMaximumPoolSize(count);
+      workers.setCorePoolSize(count);
+    } else {
+      workers.setCorePoolSize(count);
+      workers.setMaximumPoolSize(count);
+    }
+  }
+
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /** Sets connect and read timeout of this request, default is 8 seconds. */
+  public void setTimeout(int timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  /** Adds a request header, e.g. a referer. */
+  public void addRequestProperty(String key, String value) {
+    requestProperties.put(key, value);
+  }
+
+  public synchronized void send() {
+    Runnable runHttp = new Runnable() {
+      public void run() {
+        sendHttpMessage();
+      }
+    };
+    pendingRequest = workers.submit(runHttp);
+  }
+
+  /**
+   * Sends the request on the calling thread and returns the response.
+   * Meant for requests issued from an http callback, which already runs on a
+   * worker thread.
+   *
+   * @throws IOException on network errors, non-200 responses and cancellation.
+   */
+  public String sendSync() throws IOException {
+    try {
+      return readResponse(openConnection());
+    } catch (IOException e) {
+      // Connections of failed requests are not reused.
+      synchronized (this) {
+        if (activeConnection != null) {
+          activeConnection.disconnect();
+        }
+      }
+      throw e;
+    } finally {
+      synchronized (this) {
+        activeConnection = null;
+      }
+    }
+  }
+
+  /**
+   * Cancels the request. No callback is invoked after this call returns,
+   * unless it is already running.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    if (pendingRequest != null) {
+      pendingRequest.cancel(false);
+    }
+    if (activeConnection != null) {
+      // Aborts a blocked connect or read, the connection is not reused.
+      activeConnection.disconnect();
+    }
+  }
+
+  private void sendHttpMessage() {
+    String response;
+    try {
+      response = sendSync();
+    } catch (SocketTimeoutException e) {
+      reportError(TIMEOUT, "HTTP " + method + " to " + url + " timeout");
+      return;
+    } catch (HttpStatusException e) {
+      reportError(e.responseCode, e.getMessage());
+      return;
+    } catch (IOException e) {
+      reportError(NO_RESPONSE, "HTTP " + method + " to " + url + " error: " + e.getMessage());
+      return;
+    }
+    if (!cancelled) {
+      events.onHttpComplete(response);
+    }
+  }
+
+  private void reportError(int responseCode, String errorMessage) {
+    if (!cancelled) {
+      events.onHttpError(responseCode, errorMessage);
+    }
+  }
+
+  private HttpURLConnection openConnection() throws IOException {
+    HttpURLConnection connection =
+      (HttpURLConnection) new URL(url).openConnection();
+    synchronized (this) {
+      if (cancelled) {
+        throw new IOException("Request cancelled");
+      }
+      activeConnection = connection;
+    }
+    byte[] postData = new byte[0];
+    if (message != null) {
+      postData = message.getBytes("UTF-8");
+    }
+    connection.setRequestMethod(method);
+    connection.setUseCaches(false);
+    connection.setDoInput(true);
+    connection.setConnectTimeout(timeoutMs);
+    connection.setReadTimeout(timeoutMs);
+    // TODO(glaznev) - query request origin from pref_room_server_url_key preferences.
+    connection.addRequestProperty("origin", HTTP_ORIGIN);
+    for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+      connection.addRequestProperty(property.getKey(), property.getValue());
+    }
+    boolean doOutput = false;
+    if (method.equals("POST")) {
+      doOutput = true;
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(postData.length);
+    }
+    if (contentType == null) {
+      connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+    } else {
+      connection.setRequestProperty("Content-Type", contentType);
+    }
+
+    // Send POST request.
+    if (doOutput && postData.length > 0) {
+      OutputStream outStream = connection.getOutputStream();
+      outStream.write(postData);
+      outStream.close();
+    }
+    return connection;
+  }
+
+  // Reads the whole response, which returns the connection to the keep-alive
+  // pool.
+  private String readResponse(HttpURLConnection connection) throws IOException {
+    int responseCode = connection.getResponseCode();
+    if (responseCode != 200) {
+      throw new HttpStatusException(responseCode, "Non-200 response to " + method + " to URL: "
+          + url + " : " + connection.getHeaderField(null));
+    }
+    return drainStream(connection.getInputStream());
+  }
+
+  // Return the contents of an InputStream as a String and close it.
+  private static String drainStream(InputStream in) throws IOException {
+    ResponseBuffer buffer = responseBuffers.get();
+    try {
+      int length;
+      while ((length = in.read(buffer.chunk)) != -1) {
+        buffer.write(buffer.chunk, 0, length);
+      }
+      return buffer.toString("UTF-8");
+    } finally {
+      in.close();
+      if (buffer.size() > MAX_RETAINED_RESPONSE_SIZE) {
+        responseBuffers.remove();
+      } else {
+        buffer.reset();
+      }
+    }
+  }
+
+  private static ThreadPoolExecutor createWorkers() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS,
+        WORKER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger threadCount = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AsyncHttp-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    // Workers only exist while there are requests.
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  // Non-200 response, thrown by sendSync() like other IO errors.
+  private static class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final int responseCode;
+
+    HttpStatusException(int responseCode, String message) {
+      super(message);
+      this.responseCode = responseCode;
+    }
+  }
+
+  // Response body buffer with a read chunk, both reused between requests.
+  private static class ResponseBuffer extends ByteArrayOutputStream {
+    final byte[] chunk = new byte[READ_BUFFER_SIZE];
+
+    ResponseBuffer() {
+      super(READ_BUFFER_SIZE);
+    }
+  }
+}
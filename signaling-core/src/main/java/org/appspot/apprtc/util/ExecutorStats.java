@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wait and run times of the tasks of one executor per call site tag, and the
+ * depth of its queue.
+ *
+ * <p>The wait time is from execute() to the start of the task, the run time
+ * the duration of the task. Tasks run inline on the executor thread don't
+ * wait. Tasks waiting or running for at least the slow task threshold are
+ * logged with their tag and the number of tasks queued before them. Delayed
+ * tasks are not recorded.
+ *
+ * <p>All methods are thread safe, histograms can be queried while the
+ * executor runs.
+ */
+public class ExecutorStats {
+  private static final String TAG = "ExecutorStats";
+  /** Tag of tasks executed without one. */
+  public static final String UNTAGGED = "untagged";
+  public static final long DEFAULT_SLOW_TASK_THRESHOLD_MS = 50;
+
+  private final String name;
+  private final long slowTaskThresholdMs;
+  // Tasks executed but not started yet.
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  // Guarded by |this|.
+  private final Map<String, TaskStats> taskStats = new TreeMap<String, TaskStats>();
+
+  /**
+   * Histograms of the tasks with one tag.
+   */
+  public static class TaskStats {
+    public final LatencyHistogram waitHistogram = new LatencyHistogram();
+    public final LatencyHistogram runHistogram = new LatencyHistogram();
+  }
+
+  public ExecutorStats(String name) {
+    this(name, DEFAULT_SLOW_TASK_THRESHOLD_MS);
+  }
+
+  /**
+   * Creates stats of the executor called |name| in logs, logging tasks which
+   * wait or run for at least |slowTaskThresholdMs|.
+   */
+  public ExecutorStats(String name, long slowTaskThresholdMs) {
+    this.name = name;
+    this.slowTaskThresholdMs = slowTaskThresholdMs;
+  }
+
+  /**
+   * Counts |runnable| as queued and returns it wrapped to record its wait and
+   * run time once it runs. Called by the executor when a task is executed.
+   */
+  public Runnable track(final String tag, final Runnable runnable) {
+    final long enqueueNs = System.nanoTime();
+    final int depth = queueDepth.incrementAndGet();
+    int max = maxQueueDepth.get();
+    while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+      max = maxQueueDepth.get();
+    }
+    return new Runnable() {
+      @Override
+      public void run() {
+        queueDepth.decrementAndGet();
+        runAndRecord(tag, runnable, enqueueNs, depth - 1);
+      }
+    };
+  }
+
+  /** Runs |runnable| inline and records its run time. */
+  public void run(String tag, Runnable runnable) {
+    runAndRecord(tag, runnable, System.nanoTime(), 0);
+  }
+
+  private void runAndRecord(String tag, Runnable runnable, long enqueueNs, int queuedBefore) {
+    if (tag == null) {
+      tag = UNTAGGED;
+    }
+    long startNs = System.nanoTime();
+    try {
+      runnable.run();
+    } finally {
+      long waitMs = (startNs - enqueueNs) / 1000000;
+      long runMs = (System.nanoTime() - startNs) / 1000000;
+      TaskStats stats = getTaskStats(tag);
+      stats.waitHistogram.record(waitMs);
+      stats.runHistogram.record(runMs);
+      if (waitMs >= slowTaskThresholdMs || runMs >= slowTaskThresholdMs) {
+        Log.w(TAG, name + ": slow task " + tag + " waited " + waitMs + " ms behind "
+            + queuedBefore + " tasks and ran " + runMs + " ms.");
+      }
+    }
+  }
+
+  private synchronized TaskStats getTaskStats(String tag) {
+    TaskStats stats = taskStats.get(tag);
+    if (stats == null) {
+      stats = new TaskStats();
+      taskStats.put(tag, stats);
+    }
+    return stats;
+  }
+
+  /** Returns the number of tasks executed but not started yet. */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  /** Returns the histograms per tag, sorted by tag. */
+  public synchronized Map<String, TaskStats> getTaskStats() {
+    return new TreeMap<String, TaskStats>(taskStats);
+  }
+
+  /** Drops the histograms and the maximum queue depth. */
+  public synchronized void reset() {
+    taskStats.clear();
+    maxQueueDepth.set(queueDepth.get());
+  }
+
+  /** Lists the queue depth and the histograms of every tag, one per line. */
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(name).append(": queue depth ").append(getQueueDepth())
+        .append(", max ").append(getMaxQueueDepth());
+    for (Map.Entry<String, TaskStats> entry : taskStats.entrySet()) {
+      builder.append('\n').append(entry.getKey())
+          .append(" wait: ").append(entry.getValue().waitHistogram)
+          .append("\n").append(entry.getKey())
+          .append(" run: ").append(entry.getValue().runHistogram);
+    }
+    return builder.toString();
+  }
+}
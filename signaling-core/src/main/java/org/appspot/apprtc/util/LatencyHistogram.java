@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+/**
+ * Histogram of latencies in milliseconds with power of two buckets. Bucket
+ * |i| counts values in [2^(i-1), 2^i), bucket 0 counts values below 1 ms and
+ * the last bucket everything above. Percentiles are reported as the upper
+ * bound of their bucket, so they are at most 2x off.
+ *
+ * <p>All methods are thread safe.
+ */
+public class LatencyHistogram {
+  private static final int BUCKET_COUNT = 18;
+  private final long[] buckets = new long[BUCKET_COUNT];
+  private long count;
+  private long sumMs;
+  private long maxMs;
+
+  public synchronized void record(long latencyMs) {
+    if (latencyMs < 0) {
+      latencyMs = 0;
+    }
+    buckets[bucketOf(latencyMs)]++;
+    count++;
+    sumMs += latencyMs;
+    maxMs = Math.max(maxMs, latencyMs);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized long getMaxMs() {
+    return maxMs;
+  }
+
+  /** Returns the average latency, 0 if nothing was recorded. */
+  public synchronized long getAverageMs() {
+    return count == 0 ? 0 : sumMs / count;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the |percentile| (0-100)
+   * value, 0 if nothing was recorded.
+   */
+  public synchronized long getPercentileMs(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+      seen += buckets[i];
+      if (seen >= Math.max(rank, 1)) {
+        return Math.min(1L << i, maxMs);
+      }
+    }
+    return maxMs;
+  }
+
+  /** Adds the values recorded by |other|, e.g. to sum up several clients. */
+  public void add(LatencyHistogram other) {
+    long[] otherBuckets;
+    long otherCount;
+    long otherSumMs;
+    long otherMaxMs;
+    // Copied first, so the two histograms are never locked at once.
+    synchronized (other) {
+      otherBuckets = other.buckets.clone();
+      otherCount = other.count;
+      otherSumMs = other.sumMs;
+      otherMaxMs = other.maxMs;
+    }
+    synchronized (this) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        buckets[i] += otherBuckets[i];
+      }
+      count += otherCount;
+      sumMs += otherSumMs;
+      maxMs = Math.max(maxMs, otherMaxMs);
+    }
+  }
+
+  public synchronized void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = 0;
+    }
+    count = 0;
+    sumMs = 0;
+    maxMs = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "count: " + count + ", avg: " + getAverageMs() + " ms, p50: " + getPercentileMs(50)
+        + " ms, p95: " + getPercentileMs(95) + " ms, max: " + maxMs + " ms";
+  }
+
+  private static int bucketOf(long latencyMs) {
+    int bucket = 64 - Long.numberOfLeadingZeros(latencyMs);
+    return Math.min(bucket, BUCKET_COUNT - 1);
+  }
+}
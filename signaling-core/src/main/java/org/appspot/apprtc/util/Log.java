@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logging of the signaling code, with the methods and priorities of
+ * android.util.Log.
+ *
+ * <p>Messages go to a pluggable Sink. The app installs one writing to the
+ * Android log, the default one writes INFO and above to stderr.
+ */
+public final class Log {
+  public static final int VERBOSE = 2;
+  public static final int DEBUG = 3;
+  public static final int INFO = 4;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+
+  private static volatile Sink sink = new StreamSink(System.err, INFO);
+
+  /**
+   * Receives all log messages, from any thread.
+   */
+  public interface Sink {
+    public void println(int priority, String tag, String msg);
+  }
+
+  /**
+   * Writes messages of at least |minPriority| to |stream|, like logcat does.
+   */
+  public static class StreamSink implements Sink {
+    private static final String PRIORITY_LETTERS = "??VDIWE";
+    private final PrintStream stream;
+    private final int minPriority;
+
+    public StreamSink(PrintStream stream, int minPriority) {
+      this.stream = stream;
+      this.minPriority = minPriority;
+    }
+
+    @Override
+    public void println(int priority, String tag, String msg) {
+      if (priority >= minPriority) {
+        stream.println(PRIORITY_LETTERS.charAt(priority) + "/" + tag + " ["
+            + Thread.currentThread().getName() + "]: " + msg);
+      }
+    }
+  }
+
+  private Log() {
+  }
+
+  /** Sends all following messages to |sink|, or drops them if it is null. */
+  public static void setSink(Sink sink) {
+    Log.sink = sink;
+  }
+
+  public static void v(String tag, String msg) {
+    println(VERBOSE, tag, msg);
+  }
+
+  public static void d(String tag, String msg) {
+    println(DEBUG, tag, msg);
+  }
+
+  public static void i(String tag, String msg) {
+    println(INFO, tag, msg);
+  }
+
+  public static void w(String tag, String msg) {
+    println(WARN, tag, msg);
+  }
+
+  public static void w(String tag, String msg, Throwable tr) {
+    println(WARN, tag, msg + '\n' + getStackTraceString(tr));
+  }
+
+  public static void e(String tag, String msg) {
+    println(ERROR, tag, msg);
+  }
+
+  public static void e(String tag, String msg, Throwable tr) {
+    println(ERROR, tag, msg + '\n' + getStackTraceString(tr));
+  }
+
+  private static void println(int priority, String tag, String msg) {
+    Sink current = sink;
+    if (current != null) {
+      current.println(priority, tag, msg);
+    }
+  }
+
+  private static String getStackTraceString(Throwable tr) {
+    StringWriter writer = new StringWriter();
+    tr.printStackTrace(new PrintWriter(writer));
+    return writer.toString();
+  }
+}
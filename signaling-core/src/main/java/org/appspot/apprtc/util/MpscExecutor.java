@@ -0,0 +1,287 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SerialExecutor on a lock-free multi-producer single-consumer queue, an
+ * alternative to LooperExecutor for executors fed from many threads, e.g. the
+ * native PeerConnection callbacks.
+ *
+ * <p>execute() takes no lock: it appends a node to the queue with one atomic
+ * swap and unparks the executor thread only if that thread is parked. Like
+ * LooperExecutor, tasks executed on the executor thread run inline.
+ *
+ * <p>Delayed tasks pass through the queue too and wait in a priority queue
+ * owned by the executor thread.
+ */
+public class MpscExecutor implements SerialExecutor {
+  private static final String TAG = "MpscExecutor";
+
+  private final String name;
+  // Queue of the running executor, null while stopped.
+  private volatile TaskQueue queue;
+  // Set by requestStop() until the next start.
+  private volatile boolean stopRequested;
+  // Thread running the tasks, kept after stop for tasks still running on it.
+  // A restarted executor keeps the previous thread until it finished the
+  // tasks executed before the stop.
+  private volatile Thread thread;
+  // Null unless task stats are recorded.
+  private volatile ExecutorStats stats;
+
+  private static class Node {
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    // Null for the stop marker.
+    Runnable runnable;
+    // 0 if not delayed.
+    final long whenNs;
+    volatile Node next;
+
+    Node(Runnable runnable, long whenNs) {
+      this.runnable = runnable;
+      this.whenNs = whenNs;
+    }
+  }
+
+  // Delayed task waiting on the executor thread.
+  private static class DelayedTask implements Comparable<DelayedTask> {
+    final Runnable runnable;
+    final long whenNs;
+    // Keeps tasks due at the same time in execution order.
+    final long sequence;
+
+    DelayedTask(Runnable runnable, long whenNs, long sequence) {
+      this.runnable = runnable;
+      this.whenNs = whenNs;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(DelayedTask other) {
+      if (whenNs != other.whenNs) {
+        return whenNs - other.whenNs < 0 ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+
+  // Intrusive MPSC queue after Dmitry Vyukov: producers swap themselves in
+  // as the tail and then link the previous tail to them, the consumer walks
+  // from a stub head.
+  private static class TaskQueue {
+    private final AtomicReference<Node> tail;
+    // Set before the queue is published.
+    private Thread consumer;
+    // Consumer only.
+    private Node head;
+    // Set while the consumer is about to park or parked.
+    private volatile boolean waiting;
+
+    TaskQueue() {
+      head = new Node(null, 0);
+      tail = new AtomicReference<Node>(head);
+    }
+
+    void offer(Node node) {
+      Node previous = tail.getAndSet(node);
+      // The consumer sees |node| once this store is visible.
+      Node.NEXT.lazySet(previous, node);
+      // Pairs with the store of |waiting| before the consumer checks the
+      // queue once more, so either side sees the other.
+      if (waiting) {
+        LockSupport.unpark(consumer);
+      }
+    }
+
+    // Returns the next node or null if the queue is empty.
+    Node poll() {
+      Node next = head.next;
+      if (next == null) {
+        if (tail.get() == head) {
+          return null;
+        }
+        // A producer swapped the tail but didn't link it yet.
+        while ((next = head.next) == null) {
+          Thread.yield();
+        }
+      }
+      head = next;
+      return next;
+    }
+
+    // Parks until a node is offered or |timeoutNs| passed, forever if
+    // |timeoutNs| is negative.
+    void await(long timeoutNs) {
+      waiting = true;
+      if (head.next == null && tail.get() == head) {
+        if (timeoutNs < 0) {
+          LockSupport.park(this);
+        } else {
+          LockSupport.parkNanos(this, timeoutNs);
+        }
+      }
+      waiting = false;
+    }
+  }
+
+  public MpscExecutor() {
+    this(TAG);
+  }
+
+  /** Creates an executor whose thread is called |name|. */
+  public MpscExecutor(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public synchronized void requestStart() {
+    if (queue != null) {
+      return;
+    }
+    final TaskQueue newQueue = new TaskQueue();
+    final Thread previousThread = thread;
+    Thread newThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runTasks(newQueue, previousThread);
+      }
+    }, name);
+    newThread.setDaemon(true);
+    newQueue.consumer = newThread;
+    queue = newQueue;
+    stopRequested = false;
+    newThread.start();
+  }
+
+  @Override
+  public synchronized void requestStop() {
+    TaskQueue current = queue;
+    if (current == null) {
+      return;
+    }
+    queue = null;
+    stopRequested = true;
+    current.offer(new Node(null, 0));
+  }
+
+  /**
+   * Records the wait and run times of executed tasks in |stats|, or stops
+   * recording if it is null.
+   */
+  public void setStats(ExecutorStats stats) {
+    this.stats = stats;
+  }
+
+  @Override
+  public boolean checkOnLooperThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute(ExecutorStats.UNTAGGED, runnable);
+  }
+
+  @Override
+  public void execute(String tag, Runnable runnable) {
+    TaskQueue current = queue;
+    if (current == null) {
+      // Late callbacks, e.g. of sockets still closing, are expected after a
+      // stop and dropped quietly.
+      if (!stopRequested) {
+        Log.w(TAG, "Running mpsc executor without calling requestStart()");
+      }
+      return;
+    }
+    ExecutorStats currentStats = stats;
+    if (Thread.currentThread() == current.consumer) {
+      if (currentStats == null) {
+        runnable.run();
+      } else {
+        currentStats.run(tag, runnable);
+      }
+    } else {
+      current.offer(new Node(
+          currentStats == null ? runnable : currentStats.track(tag, runnable), 0));
+    }
+  }
+
+  @Override
+  public void executeDelayed(Runnable runnable, long delayMillis) {
+    TaskQueue current = queue;
+    if (current == null) {
+      if (!stopRequested) {
+        Log.w(TAG, "Trying to schedule task for non running executor");
+      }
+      return;
+    }
+    // Never 0, which marks tasks that aren't delayed.
+    long whenNs = (System.nanoTime() + Math.max(delayMillis, 0) * 1000000L) | 1;
+    current.offer(new Node(runnable, whenNs));
+  }
+
+  // Runs on the executor thread until the stop marker is reached, after the
+  // thread of the previous start finished.
+  private void runTasks(TaskQueue taskQueue, Thread previousThread) {
+    if (previousThread != null) {
+      try {
+        previousThread.join();
+      } catch (InterruptedException e) {
+        Log.e(TAG, "Thread " + name + " interrupted.");
+        return;
+      }
+    }
+    // Set before any task is executed, so they can check the thread.
+    thread = Thread.currentThread();
+    Log.d(TAG, "Thread " + name + " started.");
+    PriorityQueue<DelayedTask> delayed = new PriorityQueue<DelayedTask>();
+    long nextSequence = 0;
+    boolean stopped = false;
+    while (!stopped) {
+      Node node;
+      while ((node = taskQueue.poll()) != null) {
+        Runnable runnable = node.runnable;
+        // Lets the runnable be collected, the node stays as the stub head.
+        node.runnable = null;
+        if (runnable == null) {
+          stopped = true;
+          break;
+        }
+        if (node.whenNs != 0 && node.whenNs - System.nanoTime() > 0) {
+          delayed.add(new DelayedTask(runnable, node.whenNs, nextSequence++));
+        } else {
+          runnable.run();
+        }
+      }
+      long waitNs = -1;
+      DelayedTask next;
+      while ((next = delayed.peek()) != null) {
+        waitNs = next.whenNs - System.nanoTime();
+        if (waitNs > 0) {
+          break;
+        }
+        delayed.poll().runnable.run();
+        waitNs = -1;
+      }
+      if (!stopped) {
+        taskQueue.await(waitNs);
+      }
+    }
+    Log.d(TAG, "Thread " + name + " finished.");
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running its tasks one at a time and in order on its own thread.
+ * The signaling clients run all their state changes on one, and check that
+ * they are called on its thread.
+ *
+ * <p>LooperExecutor implements it on an Android Looper, ThreadExecutor on a
+ * plain Java thread and MpscExecutor on a lock-free queue.
+ */
+public interface SerialExecutor extends Executor {
+  /** Starts the thread. Tasks executed before are dropped. */
+  public void requestStart();
+
+  /**
+   * Stops the thread after the tasks executed so far. Delayed tasks which
+   * are not due yet and tasks executed afterwards are dropped, the latter
+   * without a warning, so late callbacks of closing sockets don't flood the
+   * log.
+   */
+  public void requestStop();
+
+  /** Returns true if called on the thread of the executor. */
+  public boolean checkOnLooperThread();
+
+  /**
+   * Runs |runnable| on the thread of the executor, inline if called on that
+   * thread.
+   */
+  @Override
+  public void execute(Runnable runnable);
+
+  /**
+   * Like execute(), with |tag| naming the call site, e.g. "onIceCandidate",
+   * for executors recording ExecutorStats.
+   */
+  public void execute(String tag, Runnable runnable);
+
+  public void executeDelayed(Runnable runnable, long delayMillis);
+}
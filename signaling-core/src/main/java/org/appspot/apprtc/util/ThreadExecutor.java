@@ -0,0 +1,213 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import java.util.PriorityQueue;
+
+/**
+ * SerialExecutor on a plain Java thread, the counterpart of LooperExecutor
+ * for running the signaling code on a JVM.
+ *
+ * <p>The thread is a daemon thread, so a forgotten requestStop() doesn't keep
+ * a JVM tool running.
+ */
+public class ThreadExecutor implements SerialExecutor {
+  private static final String TAG = "ThreadExecutor";
+
+  private final String name;
+  // Queue of the running executor, null while stopped. Guarded by |this|.
+  private TaskQueue queue;
+  // Set by requestStop() until the next start. Guarded by |this|.
+  private boolean stopRequested;
+  // Thread running the tasks. A restarted executor keeps the previous
+  // thread until it finished the tasks executed before the stop.
+  private volatile Thread thread;
+  // Null unless task stats are recorded.
+  private volatile ExecutorStats stats;
+
+  private static class Task implements Comparable<Task> {
+    // Null for the stop marker.
+    final Runnable runnable;
+    final long whenNs;
+    // Keeps tasks due at the same time in execution order.
+    final long sequence;
+
+    Task(Runnable runnable, long whenNs, long sequence) {
+      this.runnable = runnable;
+      this.whenNs = whenNs;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (whenNs != other.whenNs) {
+        return whenNs - other.whenNs < 0 ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+
+  // Tasks of one start of the executor, each thread has its own so a
+  // stopping thread never runs the tasks of the next one. Guarded by the
+  // executor.
+  private static class TaskQueue {
+    final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+    long nextSequence;
+  }
+
+  public ThreadExecutor() {
+    this(TAG);
+  }
+
+  /** Creates an executor whose thread is called |name|. */
+  public ThreadExecutor(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public synchronized void requestStart() {
+    if (queue != null) {
+      return;
+    }
+    final TaskQueue newQueue = new TaskQueue();
+    final Thread previousThread = thread;
+    Thread newThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runTasks(newQueue, previousThread);
+      }
+    }, name);
+    newThread.setDaemon(true);
+    queue = newQueue;
+    stopRequested = false;
+    newThread.start();
+  }
+
+  @Override
+  public synchronized void requestStop() {
+    if (queue == null) {
+      return;
+    }
+    // Stops the thread once it is polled.
+    queue.tasks.add(new Task(null, System.nanoTime(), queue.nextSequence++));
+    queue = null;
+    stopRequested = true;
+    notifyAll();
+  }
+
+  /**
+   * Records the wait and run times of executed tasks in |stats|, or stops
+   * recording if it is null.
+   */
+  public void setStats(ExecutorStats stats) {
+    this.stats = stats;
+  }
+
+  @Override
+  public boolean checkOnLooperThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute(ExecutorStats.UNTAGGED, runnable);
+  }
+
+  @Override
+  public void execute(String tag, Runnable runnable) {
+    if (checkOnLooperThread() && isRunning()) {
+      ExecutorStats currentStats = stats;
+      if (currentStats == null) {
+        runnable.run();
+      } else {
+        currentStats.run(tag, runnable);
+      }
+    } else {
+      enqueue(tag, runnable, 0);
+    }
+  }
+
+  @Override
+  public void executeDelayed(Runnable runnable, long delayMillis) {
+    enqueue(null, runnable, delayMillis);
+  }
+
+  private synchronized boolean isRunning() {
+    return queue != null;
+  }
+
+  // Tasks with a |tag| are recorded in the stats.
+  private synchronized void enqueue(String tag, Runnable runnable, long delayMillis) {
+    if (queue == null) {
+      // Late callbacks, e.g. of sockets still closing, are expected after a
+      // stop and dropped quietly.
+      if (!stopRequested) {
+        Log.w(TAG, "Running thread executor without calling requestStart()");
+      }
+      return;
+    }
+    ExecutorStats currentStats = stats;
+    if (tag != null && currentStats != null) {
+      runnable = currentStats.track(tag, runnable);
+    }
+    long whenNs = System.nanoTime() + Math.max(delayMillis, 0) * 1000000L;
+    queue.tasks.add(new Task(runnable, whenNs, queue.nextSequence++));
+    notifyAll();
+  }
+
+  // Runs on the executor thread until the stop task is reached, after the
+  // thread of the previous start finished.
+  private void runTasks(TaskQueue taskQueue, Thread previousThread) {
+    if (previousThread != null) {
+      try {
+        previousThread.join();
+      } catch (InterruptedException e) {
+        Log.e(TAG, "Thread " + name + " interrupted.");
+        return;
+      }
+    }
+    // Set before any task is executed, so they can check the thread.
+    thread = Thread.currentThread();
+    Log.d(TAG, "Thread " + name + " started.");
+    Task task;
+    while ((task = nextTask(taskQueue)) != null) {
+      task.runnable.run();
+    }
+    Log.d(TAG, "Thread " + name + " finished.");
+  }
+
+  // Waits for the next due task, returns null once stopped.
+  private synchronized Task nextTask(TaskQueue taskQueue) {
+    PriorityQueue<Task> tasks = taskQueue.tasks;
+    while (true) {
+      Task task = tasks.peek();
+      long waitNs = task != null ? task.whenNs - System.nanoTime() : 0;
+      if (task != null && waitNs <= 0) {
+        tasks.poll();
+        if (task.runnable == null) {
+          tasks.clear();
+          return null;
+        }
+        return task;
+      }
+      try {
+        if (task == null) {
+          wait();
+        } else {
+          wait(waitNs / 1000000, (int) (waitNs % 1000000));
+        }
+      } catch (InterruptedException e) {
+        Log.e(TAG, "Thread " + name + " interrupted.");
+        return null;
+      }
+    }
+  }
+}
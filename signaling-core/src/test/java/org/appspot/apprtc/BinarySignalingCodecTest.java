@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.appspot.apprtc.SignalingCodecTest.assertCandidates;
+import static org.appspot.apprtc.SignalingCodecTest.assertMessageEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class BinarySignalingCodecTest {
+  private static final int MAGIC = 0xa5;
+  private static final int TYPE_CANDIDATE = 1;
+  private static final int TYPE_CANDIDATES = 2;
+  private static final int TYPE_OFFER = 4;
+  private static final int TYPE_BYE = 6;
+  private static final int TAG_CANDIDATES = 1;
+  private static final int TAG_SDP = 2;
+  private static final int TAG_COMPRESSED_SDP = 3;
+  private static final int TAG_UNKNOWN = 99;
+  private static final String SDP = "v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\na=rtpmap:111 opus/48000/2\r\n";
+  private static final IceCandidate CANDIDATE =
+      new IceCandidate("audio", 0, "candidate:1 1 udp 2122260223 10.0.0.1 50000 typ host");
+  private static final IceCandidate VIDEO_CANDIDATE =
+      new IceCandidate("video", 1, "candidate:2 1 tcp 1518280447 10.0.0.1 9 typ host");
+  private static final List<String> CAPABILITIES =
+      Arrays.asList(SdpCompressor.CAPABILITY, BinarySignalingCodec.CAPABILITY);
+  private static final int FUZZ_ITERATIONS = 20000;
+
+  private final BinarySignalingCodec codec = new BinarySignalingCodec();
+
+  @Test
+  public void roundTripsAllMessageTypes() {
+    List<SignalingMessage> messages = Arrays.asList(
+        SignalingMessage.candidate(CANDIDATE),
+        SignalingMessage.candidates(Arrays.asList(CANDIDATE, VIDEO_CANDIDATE)),
+        SignalingMessage.removeCandidates(new IceCandidate[] {VIDEO_CANDIDATE}),
+        offer(SDP, false, CAPABILITIES),
+        offer(SDP, true, CAPABILITIES),
+        offer(SDP, false, Collections.<String>emptyList()),
+        SignalingMessage.bye());
+    for (SignalingMessage message : messages) {
+      byte[] encoded = codec.encode(message);
+      assertTrue(BinarySignalingCodec.isBinary(encoded));
+      assertMessageEquals(message, codec.decode(encoded));
+    }
+  }
+
+  @Test
+  public void roundTripsUtf8() {
+    String sdp = SDP + "a=x:\u00e9\u2028\ud83d\ude00\u0000\r\n";
+    assertEquals(sdp, codec.decode(codec.encode(offer(sdp, false, CAPABILITIES))).sdp);
+    IceCandidate candidate = new IceCandidate("\u00e9\ud83d\ude00", 2, "\u20ac");
+    assertCandidates(new IceCandidate[] {candidate},
+        codec.decode(codec.encode(SignalingMessage.candidate(candidate))).candidates);
+    // Unpaired surrogates can't be encoded, like with String.getBytes().
+    assertEquals("a?b?", codec.decode(codec.encode(offer("a\ud800b\udc00", false,
+        CAPABILITIES))).sdp);
+  }
+
+  @Test
+  public void roundTripsMultiByteVarints() {
+    StringBuilder sdp = new StringBuilder(SDP);
+    while (sdp.length() < 20000) {
+      sdp.append("a=candidate:1 1 udp 2122260223 10.0.0.1 50000 typ host\r\n");
+    }
+    assertEquals(sdp.toString(),
+        codec.decode(codec.encode(offer(sdp.toString(), false, CAPABILITIES))).sdp);
+    for (int label : new int[] {0x7f, 0x80, 0x3fff, 0x4000, Integer.MAX_VALUE}) {
+      IceCandidate candidate = new IceCandidate("audio", label, "c");
+      assertEquals(label,
+          codec.decode(codec.encode(SignalingMessage.candidate(candidate))).candidates[0]
+              .sdpMLineIndex);
+    }
+  }
+
+  @Test
+  public void decodesWithinLargerBuffer() {
+    for (SignalingMessage message : Arrays.asList(
+        SignalingMessage.candidates(Arrays.asList(CANDIDATE, VIDEO_CANDIDATE)),
+        offer(SDP, false, CAPABILITIES), offer(SDP, true, CAPABILITIES))) {
+      byte[] encoded = codec.encode(message);
+      // Garbage around the message must not be read.
+      byte[] buffer = new byte[encoded.length + 7];
+      Arrays.fill(buffer, (byte) 0x7f);
+      System.arraycopy(encoded, 0, buffer, 3, encoded.length);
+      assertTrue(BinarySignalingCodec.isBinary(buffer, 3, encoded.length));
+      assertMessageEquals(message, codec.decode(buffer, 3, encoded.length));
+    }
+    byte[] truncated = codec.encode(SignalingMessage.candidate(CANDIDATE));
+    try {
+      codec.decode(truncated, 0, truncated.length - 1);
+      fail("Decoded truncated message");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void acceptsNonMinimalVarints() {
+    // Label 0 in five bytes.
+    SignalingMessage message = codec.decode(bytes(MAGIC, TYPE_CANDIDATE, TAG_CANDIDATES, 10,
+        1, 0x80, 0x80, 0x80, 0x80, 0x00, 1, 'a', 1, 'c'));
+    assertEquals(0, message.candidates[0].sdpMLineIndex);
+    assertEquals("a", message.candidates[0].sdpMid);
+    assertEquals("c", message.candidates[0].sdp);
+  }
+
+  @Test
+  public void rejectsOutOfRangeVarints() {
+    // Bit 31, bits shifted out of the fifth byte and a sixth byte.
+    assertInvalid("Varint out of range",
+        bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 0xff, 0xff, 0xff, 0xff, 0x0f));
+    assertInvalid("Varint out of range",
+        bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 0xff, 0xff, 0xff, 0xff, 0x17));
+    assertInvalid("Varint out of range",
+        bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 0x80, 0x80, 0x80, 0x80, 0x10));
+    assertInvalid("Varint out of range",
+        bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01));
+    // The largest varint is fine, but longer than the message.
+    assertInvalid("Truncated field",
+        bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 0xff, 0xff, 0xff, 0xff, 0x07));
+  }
+
+  @Test
+  public void rejectsTruncatedFields() {
+    assertInvalid("Truncated varint", bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN));
+    assertInvalid("Truncated varint", bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 0x80));
+    assertInvalid("Truncated field", bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 2, 0));
+    assertInvalid("Truncated field", bytes(MAGIC, TYPE_OFFER, TAG_SDP, 4, 'v', '='));
+    // Strings and varints may not run past the end of their field.
+    assertInvalid("Truncated string", bytes(MAGIC, TYPE_CANDIDATE, TAG_CANDIDATES, 6,
+        1, 0, 1, 'a', 2, 'c', 'c'));
+    assertInvalid("Truncated varint", bytes(MAGIC, TYPE_CANDIDATE, TAG_CANDIDATES, 4,
+        1, 0, 1, 'a', 1, 'c'));
+    assertInvalid("Truncated compressed SDP", bytes(MAGIC, TYPE_OFFER, TAG_COMPRESSED_SDP, 0));
+  }
+
+  @Test
+  public void rejectsEveryTruncationInsideAField() {
+    SignalingMessage[] messages = {
+      SignalingMessage.candidates(Arrays.asList(CANDIDATE, VIDEO_CANDIDATE)),
+      offer(SDP, false, Collections.<String>emptyList()),
+      offer(SDP, true, Collections.<String>emptyList()),
+    };
+    for (SignalingMessage message : messages) {
+      byte[] encoded = codec.encode(message);
+      for (int length = 0; length < encoded.length; length++) {
+        assertInvalid(null, Arrays.copyOf(encoded, length));
+      }
+    }
+  }
+
+  @Test
+  public void skipsUnknownTags() {
+    byte[] bye = bytes(MAGIC, TYPE_BYE, TAG_UNKNOWN, 3, 1, 2, 3, TAG_UNKNOWN + 1, 0);
+    assertEquals(SignalingMessage.Type.BYE, codec.decode(bye).type);
+
+    byte[] encoded = codec.encode(offer(SDP, false, CAPABILITIES));
+    byte[] extended = Arrays.copyOf(encoded, encoded.length + 4);
+    System.arraycopy(bytes(TAG_UNKNOWN, 2, TAG_SDP, 0), 0, extended, encoded.length, 4);
+    assertMessageEquals(offer(SDP, false, CAPABILITIES), codec.decode(extended));
+  }
+
+  @Test
+  public void rejectsUnknownTypes() {
+    assertInvalid("Unknown message type", bytes(MAGIC, 0));
+    assertInvalid("Unknown message type", bytes(MAGIC, 7));
+    assertInvalid("Unknown message type", bytes(MAGIC, 0xff));
+  }
+
+  @Test
+  public void rejectsNonBinaryInput() {
+    assertFalse(BinarySignalingCodec.isBinary(new byte[0]));
+    assertFalse(BinarySignalingCodec.isBinary(bytes('{', '}')));
+    assertInvalid("Not a binary", new byte[0]);
+    assertInvalid("Not a binary", bytes(MAGIC));
+    assertInvalid("Not a binary", bytes('{', '"', 't'));
+  }
+
+  @Test
+  public void rejectsInvalidCandidates() {
+    assertInvalid("Invalid candidate count",
+        bytes(MAGIC, TYPE_CANDIDATES, TAG_CANDIDATES, 4, 0xe8, 0x07, 0, 0));
+    assertInvalid("Invalid candidates", bytes(MAGIC, TYPE_CANDIDATES));
+    assertInvalid("Invalid candidates", bytes(MAGIC, TYPE_CANDIDATE, TAG_CANDIDATES, 1, 0));
+    byte[] two = codec.encode(SignalingMessage.candidates(Arrays.asList(CANDIDATE, CANDIDATE)));
+    two[1] = TYPE_CANDIDATE;
+    assertInvalid("Invalid candidates", two);
+    assertInvalid("No SDP", bytes(MAGIC, TYPE_OFFER));
+    assertInvalid("Invalid capability count",
+        bytes(MAGIC, TYPE_BYE, 4, 1, 5));
+  }
+
+  @Test
+  public void rejectsCorruptCompressedSdp() {
+    assertInvalid("Invalid compressed SDP",
+        bytes(MAGIC, TYPE_OFFER, TAG_COMPRESSED_SDP, 3, 0xff, 0xff, 0xff));
+  }
+
+  @Test
+  public void cannotEncodeErrors() {
+    try {
+      codec.encode(new SignalingMessage(SignalingMessage.Type.ERROR, null, null, false,
+          Collections.<String>emptyList(), "oops"));
+      fail("Encoded an error");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void fuzzedInputOnlyThrowsIllegalArgumentException() {
+    Random random = new Random(42);
+    SignalingMessage[] seeds = {
+      SignalingMessage.candidates(Arrays.asList(CANDIDATE, VIDEO_CANDIDATE)),
+      offer(SDP, false, CAPABILITIES),
+      offer(SDP, true, CAPABILITIES),
+      SignalingMessage.bye(),
+    };
+    for (SignalingMessage seed : seeds) {
+      byte[] encoded = codec.encode(seed);
+      for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+        byte[] input = Arrays.copyOf(encoded, random.nextInt(encoded.length + 8));
+        int mutations = 1 + random.nextInt(4);
+        for (int j = 0; j < mutations && input.length > 1; j++) {
+          // Keep the magic byte most of the time, or there's nothing to decode.
+          input[1 + random.nextInt(input.length - 1)] = (byte) random.nextInt(256);
+        }
+        try {
+          codec.decode(input);
+        } catch (IllegalArgumentException e) {
+          // Expected for most inputs.
+        } catch (RuntimeException e) {
+          throw new AssertionError("Unexpected " + e + " for " + Arrays.toString(input));
+        }
+      }
+    }
+  }
+
+  private void assertInvalid(String messagePrefix, byte[] data) {
+    try {
+      codec.decode(data);
+      fail("Decoded invalid message " + Arrays.toString(data));
+    } catch (IllegalArgumentException e) {
+      if (messagePrefix != null) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith(messagePrefix));
+      }
+    }
+  }
+
+  private static SignalingMessage offer(String sdp, boolean compress, List<String> caps) {
+    return SignalingMessage.description(
+        new SessionDescription(SessionDescription.Type.OFFER, sdp), compress, caps);
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] data = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      data[i] = (byte) values[i];
+    }
+    return data;
+  }
+}
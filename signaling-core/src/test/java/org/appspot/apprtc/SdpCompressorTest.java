@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class SdpCompressorTest {
+  private static final String SDP = "v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\nt=0 0\r\na=group:BUNDLE audio video\r\na=msid-semantic: WMS stream\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9 0 8 126\r\nc=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\na=ice-ufrag:4ZcD\r\na=ice-pwd:2/1muCWoOi3uLifh0NuRHlo\r\n"
+      + "a=fingerprint:sha-256 75:74:5A:A6:A4:E5:52:F4:A7:67:4C:01:C7:EE:91:3F:21:3D:A2:E3:"
+      + "53:7B:6F:30:86:F2:30:AA:65:FB:04:24\r\na=setup:actpass\r\na=mid:audio\r\n"
+      + "a=sendrecv\r\na=rtcp-mux\r\na=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 100 101 116\r\nc=IN IP4 0.0.0.0\r\n"
+      + "a=rtpmap:100 VP8/90000\r\na=rtcp-fb:100 nack\r\na=rtcp-fb:100 nack pli\r\n"
+      + "a=rtpmap:101 rtx/90000\r\na=fmtp:101 apt=100\r\na=rtpmap:116 red/90000\r\n";
+  private static final String[][] RFC_4648_VECTORS = {
+    {"", ""},
+    {"f", "Zg=="},
+    {"fo", "Zm8="},
+    {"foo", "Zm9v"},
+    {"foob", "Zm9vYg=="},
+    {"fooba", "Zm9vYmE="},
+    {"foobar", "Zm9vYmFy"},
+  };
+  private static final int FUZZ_ITERATIONS = 20000;
+
+  @Test
+  public void encodesRfc4648Vectors() throws Exception {
+    for (String[] vector : RFC_4648_VECTORS) {
+      assertEquals(vector[1], SdpCompressor.encodeBase64(vector[0].getBytes("US-ASCII")));
+    }
+  }
+
+  @Test
+  public void decodesRfc4648VectorsWithAndWithoutPadding() throws Exception {
+    for (String[] vector : RFC_4648_VECTORS) {
+      byte[] expected = vector[0].getBytes("US-ASCII");
+      assertArrayEquals(expected, SdpCompressor.decodeBase64(vector[1]));
+      assertArrayEquals(expected, SdpCompressor.decodeBase64(vector[1].replace("=", "")));
+    }
+  }
+
+  @Test
+  public void roundTripsEveryLengthAndByte() {
+    Random random = new Random(42);
+    for (int length = 0; length < 300; length++) {
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++) {
+        data[i] = (byte) (length < 256 ? i : random.nextInt(256));
+      }
+      String encoded = SdpCompressor.encodeBase64(data);
+      assertEquals((length + 2) / 3 * 4, encoded.length());
+      assertArrayEquals(data, SdpCompressor.decodeBase64(encoded));
+    }
+  }
+
+  @Test
+  public void rejectsInvalidBase64() {
+    String[] inputs = {"Z", "Zm9vY", "Zm9vY===", "Zm!v", "Zm9v\u00e9A==", "Zm=v", "Zm-_",
+        "Zm9v\n", " Zm9v"};
+    for (String input : inputs) {
+      try {
+        SdpCompressor.decodeBase64(input);
+        fail("Decoded " + input);
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void roundTripsSdp() {
+    String[] inputs = {"", SDP, SDP + "a=x:\u00e9\u2028\ud83d\ude00\r\n", repeat(SDP, 20)};
+    for (String sdp : inputs) {
+      String compressed = SdpCompressor.compress(sdp);
+      assertEquals(sdp, SdpCompressor.decompress(compressed));
+      byte[] deflated = SdpCompressor.deflate(sdp);
+      assertEquals(sdp, SdpCompressor.inflate(deflated, 0, deflated.length));
+    }
+    assertTrue(SdpCompressor.compress(SDP).length() < SDP.length() / 2);
+  }
+
+  @Test
+  public void inflatesAtAnOffset() {
+    byte[] deflated = SdpCompressor.deflate(SDP);
+    byte[] framed = new byte[deflated.length + 7];
+    System.arraycopy(deflated, 0, framed, 3, deflated.length);
+    assertEquals(SDP, SdpCompressor.inflate(framed, 3, deflated.length));
+  }
+
+  @Test
+  public void rejectsEveryTruncation() {
+    byte[] deflated = SdpCompressor.deflate(SDP);
+    for (int length = 0; length < deflated.length; length++) {
+      assertInvalid(Arrays.copyOf(deflated, length));
+    }
+    String compressed = SdpCompressor.compress(SDP);
+    for (int length = 0; length < compressed.length() - 4; length++) {
+      try {
+        SdpCompressor.decompress(compressed.substring(0, length));
+        fail("Decompressed truncated input of length " + length);
+      } catch (IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void rejectsDictionaryMismatch() throws Exception {
+    byte[] otherDictionary = "m=audio a=rtpmap: a=candidate:".getBytes("UTF-8");
+    byte[] deflated = deflate(SDP, otherDictionary);
+    try {
+      SdpCompressor.inflate(deflated, 0, deflated.length);
+      fail("Inflated with the wrong dictionary");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("dictionary"));
+    }
+  }
+
+  @Test
+  public void inflatesStreamsWithoutDictionary() throws Exception {
+    byte[] deflated = deflate(SDP, null);
+    assertEquals(SDP, SdpCompressor.inflate(deflated, 0, deflated.length));
+  }
+
+  @Test
+  public void rejectsOversizedOutput() throws Exception {
+    byte[] deflated = deflate(repeat("a", 300 * 1024), null);
+    try {
+      SdpCompressor.inflate(deflated, 0, deflated.length);
+      fail("Inflated oversized SDP");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("too large"));
+    }
+  }
+
+  @Test
+  public void fuzzedInputOnlyThrowsIllegalArgumentException() {
+    Random random = new Random(42);
+    byte[] deflated = SdpCompressor.deflate(SDP);
+    for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+      byte[] input = deflated.clone();
+      int mutations = 1 + random.nextInt(4);
+      for (int j = 0; j < mutations; j++) {
+        input[random.nextInt(input.length)] = (byte) random.nextInt(256);
+      }
+      try {
+        SdpCompressor.inflate(input, 0, input.length);
+        SdpCompressor.decompress(SdpCompressor.encodeBase64(input));
+      } catch (IllegalArgumentException e) {
+        // Expected for most inputs.
+      } catch (RuntimeException e) {
+        throw new AssertionError("Unexpected " + e + " for " + Arrays.toString(input));
+      }
+    }
+  }
+
+  private static void assertInvalid(byte[] input) {
+    try {
+      SdpCompressor.inflate(input, 0, input.length);
+      fail("Inflated invalid input " + Arrays.toString(input));
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  // Deflates |text| with |dictionary|, or without one if it is null.
+  private static byte[] deflate(String text, byte[] dictionary) throws Exception {
+    Deflater deflater = new Deflater();
+    try {
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(text.getBytes("UTF-8"));
+      deflater.finish();
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static String repeat(String text, int count) {
+    StringBuilder builder = new StringBuilder(text.length() * count);
+    for (int i = 0; i < count; i++) {
+      builder.append(text);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SdpMungerTest {
+  private static final String SESSION = "v=0\r\n"
+      + "o=- 1 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n";
+  private static final String AUDIO = "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n";
+  private static final String VIDEO =
+      "m=video 9 UDP/TLS/RTP/SAVPF 100 101 98 99 102 103 116 117 120\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=mid:video\r\n"
+      + "a=rtcp-fb:* nack\r\n"
+      + "a=rtpmap:100 VP8/90000\r\n"
+      + "a=rtcp-fb:100 ccm fir\r\n"
+      + "a=rtcp-fb:100 nack pli\r\n"
+      + "a=rtpmap:101 rtx/90000\r\n"
+      + "a=fmtp:101 apt=100\r\n"
+      + "a=rtpmap:98 VP9/90000\r\n"
+      + "a=rtcp-fb:98 goog-remb\r\n"
+      + "a=rtpmap:99 rtx/90000\r\n"
+      + "a=fmtp:99 apt=98\r\n"
+      + "a=rtpmap:102 H264/90000\r\n"
+      + "a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1\r\n"
+      + "a=rtcp-fb:102 nack\r\n"
+      + "a=rtpmap:103 rtx/90000\r\n"
+      + "a=fmtp:103 apt=102\r\n"
+      + "a=rtpmap:116 red/90000\r\n"
+      + "a=rtpmap:117 ulpfec/90000\r\n"
+      + "a=rtpmap:120 rtx/90000\r\n"
+      + "a=fmtp:120 apt=116\r\n"
+      + "a=ssrc-group:FID 1 2\r\n";
+  private static final List<String> NONE = Collections.emptyList();
+
+  @Test
+  public void pruningKeepsRtxOfRetainedCodecs() {
+    SdpMunger munger = new SdpMunger(NONE, Arrays.asList("VP9", "VP8"), true, 0, 0, 0, 0, 0);
+    String expectedVideo = "m=video 9 UDP/TLS/RTP/SAVPF 98 100 101 99\r\n"
+        + "c=IN IP4 0.0.0.0\r\n"
+        + "a=mid:video\r\n"
+        + "a=rtcp-fb:* nack\r\n"
+        + "a=rtpmap:100 VP8/90000\r\n"
+        + "a=rtcp-fb:100 ccm fir\r\n"
+        + "a=rtcp-fb:100 nack pli\r\n"
+        + "a=rtpmap:101 rtx/90000\r\n"
+        + "a=fmtp:101 apt=100\r\n"
+        + "a=rtpmap:98 VP9/90000\r\n"
+        + "a=rtcp-fb:98 goog-remb\r\n"
+        + "a=rtpmap:99 rtx/90000\r\n"
+        + "a=fmtp:99 apt=98\r\n"
+        + "a=ssrc-group:FID 1 2\r\n";
+    assertEquals(SESSION + AUDIO + expectedVideo,
+        munger.mungeLocalDescription(SESSION + AUDIO + VIDEO));
+  }
+
+  @Test
+  public void pruningDropsRtxOfRemovedCodecs() {
+    SdpMunger munger =
+        new SdpMunger(NONE, Collections.singletonList("H264"), true, 0, 0, 0, 0, 0);
+    String expectedVideo = "m=video 9 UDP/TLS/RTP/SAVPF 102 103\r\n"
+        + "c=IN IP4 0.0.0.0\r\n"
+        + "a=mid:video\r\n"
+        + "a=rtcp-fb:* nack\r\n"
+        + "a=rtpmap:102 H264/90000\r\n"
+        + "a=fmtp:102 level-asymmetry-allowed=1;packetization-mode=1\r\n"
+        + "a=rtcp-fb:102 nack\r\n"
+        + "a=rtpmap:103 rtx/90000\r\n"
+        + "a=fmtp:103 apt=102\r\n"
+        + "a=ssrc-group:FID 1 2\r\n";
+    assertEquals(SESSION + expectedVideo, munger.mungeLocalDescription(SESSION + VIDEO));
+  }
+
+  @Test
+  public void pruningKeepsRtxOfRedWhenRedIsListed() {
+    SdpMunger munger = new SdpMunger(NONE, Arrays.asList("VP8", "red"), true, 0, 0, 0, 0, 0);
+    SdpDescription sdp =
+        SdpDescription.parse(munger.mungeLocalDescription(SESSION + VIDEO));
+    assertEquals(Arrays.asList("100", "116", "101", "120"),
+        sdp.getMediaSections("video").get(0).getFormats());
+  }
+
+  @Test
+  public void pruningLeavesSectionsWithoutListedCodecs() {
+    SdpMunger munger = new SdpMunger(Collections.singletonList("ISAC"),
+        Collections.singletonList("AV1"), true, 0, 0, 0, 0, 0);
+    String expectedAudio = "m=audio 9 UDP/TLS/RTP/SAVPF 103\r\n"
+        + "c=IN IP4 0.0.0.0\r\n"
+        + "a=rtpmap:103 ISAC/16000\r\n";
+    assertEquals(SESSION + expectedAudio + VIDEO,
+        munger.mungeLocalDescription(SESSION + AUDIO + VIDEO));
+  }
+
+  @Test
+  public void preferenceWithoutPruningKeepsAllPayloadTypes() {
+    SdpMunger munger = new SdpMunger(NONE, Arrays.asList("VP9", "VP8"), false, 0, 0, 0, 0, 0);
+    SdpDescription sdp =
+        SdpDescription.parse(munger.mungeLocalDescription(SESSION + VIDEO));
+    assertEquals(Arrays.asList("98", "100", "101", "99", "102", "103", "116", "117", "120"),
+        sdp.getMediaSections("video").get(0).getFormats());
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SignalingCodec against org.json, which peers and the room server use, and
+ * against malformed input.
+ */
+public class SignalingCodecTest {
+  private static final String SDP = "v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\na=rtpmap:111 opus/48000/2\r\n";
+  private static final IceCandidate CANDIDATE =
+      new IceCandidate("audio", 0, "candidate:1 1 udp 2122260223 10.0.0.1 50000 typ host");
+  private static final IceCandidate VIDEO_CANDIDATE =
+      new IceCandidate("video", 1, "candidate:2 1 tcp 1518280447 10.0.0.1 9 typ host");
+  private static final List<String> CAPABILITIES =
+      Arrays.asList(SdpCompressor.CAPABILITY, SignalingReplayBuffer.CAPABILITY);
+  private static final int FUZZ_ITERATIONS = 20000;
+
+  private final SignalingCodec codec = new SignalingCodec();
+
+  @Test
+  public void decodesOrgJsonCandidate() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("type", "candidate");
+    json.put("label", CANDIDATE.sdpMLineIndex);
+    json.put("id", CANDIDATE.sdpMid);
+    json.put("candidate", CANDIDATE.sdp);
+
+    SignalingMessage message = codec.decode(json.toString());
+    assertEquals(SignalingMessage.Type.CANDIDATE, message.type);
+    assertCandidates(new IceCandidate[] {CANDIDATE}, message.candidates);
+    assertEquals(0, message.seq);
+    assertEquals(0, message.ack);
+  }
+
+  @Test
+  public void decodesOrgJsonCandidateLists() throws JSONException {
+    for (String type : new String[] {"candidates", "remove-candidates"}) {
+      JSONArray candidates = new JSONArray();
+      candidates.put(toJson(CANDIDATE));
+      candidates.put(toJson(VIDEO_CANDIDATE));
+      JSONObject json = new JSONObject();
+      json.put("type", type);
+      json.put("candidates", candidates);
+
+      SignalingMessage message = codec.decode(json.toString());
+      assertEquals(type, message.type.wireName);
+      assertCandidates(new IceCandidate[] {CANDIDATE, VIDEO_CANDIDATE}, message.candidates);
+    }
+  }
+
+  @Test
+  public void decodesOrgJsonDescriptions() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("type", "offer");
+    json.put("sdp", SDP);
+    json.put("caps", new JSONArray(CAPABILITIES));
+    json.put("seq", 7);
+    json.put("ack", 3);
+
+    SignalingMessage message = codec.decode(json.toString());
+    assertEquals(SignalingMessage.Type.OFFER, message.type);
+    assertEquals(SDP, message.sdp);
+    assertFalse(message.compressSdp);
+    assertEquals(CAPABILITIES, message.capabilities);
+    assertEquals(7, message.seq);
+    assertEquals(3, message.ack);
+
+    json = new JSONObject();
+    json.put("type", "answer");
+    json.put("sdpz", SdpCompressor.compress(SDP));
+    message = codec.decode(json.toString());
+    assertEquals(SignalingMessage.Type.ANSWER, message.type);
+    assertEquals(SDP, message.sdp);
+    assertTrue(message.compressSdp);
+    assertEquals(Collections.<String>emptyList(), message.capabilities);
+  }
+
+  @Test
+  public void decodesNumbersOfOtherWriters() throws JSONException {
+    SignalingMessage message = codec.decode(
+        "{\"type\":\"candidate\",\"label\":\"1\",\"id\":\"video\",\"candidate\":\"c\"}");
+    assertEquals(1, message.candidates[0].sdpMLineIndex);
+    message = codec.decode(
+        "{\"type\":\"candidate\",\"label\":1.0,\"id\":\"video\",\"candidate\":\"c\"}");
+    assertEquals(1, message.candidates[0].sdpMLineIndex);
+    message = codec.decode("{\"type\":\"bye\",\"seq\":2e1}");
+    assertEquals(20, message.seq);
+  }
+
+  @Test
+  public void skipsUnknownFields() throws JSONException {
+    SignalingMessage message = codec.decode(" {\"x\" : {\"a\":[1, -2.5e3, true, null, "
+        + "{\"b\":\"}\\\"]\"}], \"c\":{}}, \"type\":\"bye\", \"y\":[], \"z\":false}\r\n");
+    assertEquals(SignalingMessage.Type.BYE, message.type);
+  }
+
+  @Test
+  public void encodedMessagesParseWithOrgJson() throws JSONException {
+    JSONObject json = new JSONObject(codec.encode(SignalingMessage.candidate(CANDIDATE)));
+    assertEquals("candidate", json.getString("type"));
+    assertEquals(CANDIDATE.sdpMLineIndex, json.getInt("label"));
+    assertEquals(CANDIDATE.sdpMid, json.getString("id"));
+    assertEquals(CANDIDATE.sdp, json.getString("candidate"));
+
+    json = new JSONObject(codec.encode(SignalingMessage.removeCandidates(
+        new IceCandidate[] {CANDIDATE, VIDEO_CANDIDATE}).withSequence(4, 2)));
+    assertEquals("remove-candidates", json.getString("type"));
+    JSONArray candidates = json.getJSONArray("candidates");
+    assertEquals(2, candidates.length());
+    assertEquals(VIDEO_CANDIDATE.sdp, candidates.getJSONObject(1).getString("candidate"));
+    assertEquals(4, json.getInt("seq"));
+    assertEquals(2, json.getInt("ack"));
+
+    json = new JSONObject(codec.encode(offer(SDP, false)));
+    assertEquals("offer", json.getString("type"));
+    assertEquals(SDP, json.getString("sdp"));
+    assertEquals(CAPABILITIES.size(), json.getJSONArray("caps").length());
+    assertFalse(json.has("seq"));
+
+    json = new JSONObject(codec.encode(offer(SDP, true)));
+    assertEquals(SDP, SdpCompressor.decompress(json.getString("sdpz")));
+    assertFalse(json.has("sdp"));
+  }
+
+  @Test
+  public void roundTripsAllMessageTypes() throws JSONException {
+    List<SignalingMessage> messages = Arrays.asList(
+        SignalingMessage.candidate(CANDIDATE),
+        SignalingMessage.candidates(Arrays.asList(CANDIDATE, VIDEO_CANDIDATE)),
+        SignalingMessage.removeCandidates(new IceCandidate[] {VIDEO_CANDIDATE}),
+        offer(SDP, false),
+        offer(SDP, true).withSequence(1, 5),
+        SignalingMessage.bye(),
+        SignalingMessage.resync(9));
+    for (SignalingMessage message : messages) {
+      assertMessageEquals(message, codec.decode(codec.encode(message)));
+    }
+  }
+
+  @Test
+  public void decodesWebSocketEnvelopes() throws JSONException {
+    String message = codec.encode(SignalingMessage.candidate(CANDIDATE));
+    JSONObject envelope = new JSONObject();
+    envelope.put("msg", message);
+    envelope.put("error", "");
+    assertMessageEquals(SignalingMessage.candidate(CANDIDATE),
+        codec.decodeWebSocket(envelope.toString()));
+
+    envelope = new JSONObject();
+    envelope.put("msg", "");
+    envelope.put("error", "Invalid client id");
+    SignalingMessage error = codec.decodeWebSocket(envelope.toString());
+    assertEquals(SignalingMessage.Type.ERROR, error.type);
+    assertEquals("Invalid client id", error.error);
+
+    assertMalformedWebSocket("{\"error\":\"no message\"}");
+    assertMalformedWebSocket("{\"msg\":\"\",\"error\":\"\"}");
+    assertMalformedWebSocket("{\"msg\":\"{\\\"type\\\":\\\"bye\\\"\"}");
+  }
+
+  @Test
+  public void encodesWebSocketCommands() throws JSONException {
+    String message = codec.encode(offer(SDP, false));
+    JSONObject send = new JSONObject(codec.encodeSend(message));
+    assertEquals("send", send.getString("cmd"));
+    assertEquals(message, send.getString("msg"));
+
+    JSONObject register = new JSONObject(codec.encodeRegister("room\"1", "client\\2"));
+    assertEquals("register", register.getString("cmd"));
+    assertEquals("room\"1", register.getString("roomid"));
+    assertEquals("client\\2", register.getString("clientid"));
+  }
+
+  @Test
+  public void escapesLineAndParagraphSeparators() throws JSONException {
+    String sdp = SDP + "a=x:\u2028\u2029\r\n";
+    String encoded = codec.encode(offer(sdp, false));
+    assertTrue(encoded, encoded.contains("\\u2028\\u2029"));
+    assertFalse(encoded.contains("\u2028"));
+    assertFalse(encoded.contains("\u2029"));
+    assertEquals(sdp, new JSONObject(encoded).getString("sdp"));
+    assertEquals(sdp, codec.decode(encoded).sdp);
+    // org.json escapes them too, as \\u2028.
+    JSONObject json = new JSONObject();
+    json.put("type", "offer");
+    json.put("sdp", sdp);
+    assertEquals(sdp, codec.decode(json.toString()).sdp);
+  }
+
+  @Test
+  public void roundTripsSurrogatesAndControlCharacters() throws Exception {
+    String sdp = SDP + "a=x:\ud83d\ude00 \u0000\u0001\u001f\b\f\t\"\\/\u00e9\r\n";
+    String encoded = codec.encode(offer(sdp, false));
+    assertEquals(sdp, new JSONObject(encoded).getString("sdp"));
+    assertEquals(sdp, codec.decode(encoded).sdp);
+    assertEquals(sdp, codec.decode(encoded.getBytes("UTF-8")).sdp);
+
+    JSONObject json = new JSONObject();
+    json.put("type", "offer");
+    json.put("sdp", sdp);
+    assertEquals(sdp, codec.decode(json.toString()).sdp);
+  }
+
+  @Test
+  public void decodesUnicodeEscapes() throws JSONException {
+    SignalingMessage message =
+        codec.decode("{\"type\":\"offer\",\"sdp\":\"\\ud83d\\ude00\\u00E9\\u0041\\/\"}");
+    assertEquals("\ud83d\ude00\u00e9A/", message.sdp);
+    // Unpaired surrogates are passed on like org.json does.
+    message = codec.decode("{\"type\":\"offer\",\"sdp\":\"\\ud800x\"}");
+    assertEquals("\ud800x", message.sdp);
+  }
+
+  @Test
+  public void rejectsMalformedInput() {
+    String[] inputs = {
+      "",
+      "   ",
+      "null",
+      "[]",
+      "{}",
+      "{\"type\":\"bye\"",
+      "{\"type\":\"bye\"}}",
+      "{\"type\":\"bye\"} x",
+      "{\"type\":\"hello\"}",
+      "{\"type\":\"error\"}",
+      "{type:\"bye\"}",
+      "{\"type\":bye}",
+      "{\"type\" \"bye\"}",
+      "{\"type\":\"bye\",}",
+      "{\"type\":\"bye\" \"seq\":1}",
+      "{\"type\":\"bye\",\"seq\":-1}",
+      "{\"type\":\"bye\",\"seq\":99999999999}",
+      "{\"type\":\"bye\",\"seq\":\"one\"}",
+      "{\"type\":\"bye\",\"seq\":-}",
+      "{\"type\":\"bye\",\"seq\":1.2.3}",
+      "{\"type\":\"bye\",\"x\":}",
+      "{\"type\":\"bye\",\"x\":[1,}",
+      "{\"type\":\"bye\",\"x\":{\"a\"}}",
+      "{\"type\":\"bye\",\"x\":\"\\",
+      "{\"type\":\"offer\",\"sdp\":\"\\x\"}",
+      "{\"type\":\"offer\",\"sdp\":\"\\u12\"}",
+      "{\"type\":\"offer\",\"sdp\":\"\\u12g4\"}",
+      "{\"type\":\"offer\",\"sdp\":\"unterminated}",
+      "{\"type\":\"offer\"}",
+      "{\"type\":\"offer\",\"sdpz\":\"!!!!\"}",
+      "{\"type\":\"offer\",\"sdpz\":\"AAAA\"}",
+      "{\"type\":\"candidate\",\"id\":\"audio\",\"candidate\":\"c\"}",
+      "{\"type\":\"candidate\",\"label\":0,\"candidate\":\"c\"}",
+      "{\"type\":\"candidate\",\"label\":0,\"id\":\"audio\"}",
+      "{\"type\":\"candidates\"}",
+      "{\"type\":\"candidates\",\"candidates\":{}}",
+      "{\"type\":\"candidates\",\"candidates\":[{\"label\":0}]}",
+      "{\"type\":\"remove-candidates\",\"candidates\":[1]}",
+      "{\"type\":\"offer\",\"sdp\":\"v=0\",\"caps\":[1]}",
+    };
+    for (String input : inputs) {
+      assertMalformed(input);
+    }
+  }
+
+  @Test
+  public void rejectsDeeplyNestedUnknownFields() {
+    StringBuilder input = new StringBuilder("{\"type\":\"bye\",\"x\":");
+    for (int i = 0; i < 100000; i++) {
+      input.append(i % 2 == 0 ? "[" : "{\"a\":");
+    }
+    assertMalformed(input.toString());
+  }
+
+  @Test
+  public void rejectsEveryTruncation() throws Exception {
+    for (String message : encodedSeeds()) {
+      for (int length = 0; length < message.length(); length++) {
+        String truncated = message.substring(0, length);
+        assertMalformed(truncated);
+        assertMalformed(truncated.getBytes("UTF-8"));
+      }
+      String envelope = "{\"msg\":" + JSONObject.quote(message) + "}";
+      for (int length = 0; length < envelope.length(); length++) {
+        assertMalformedWebSocket(envelope.substring(0, length));
+      }
+    }
+  }
+
+  @Test
+  public void fuzzedInputOnlyThrowsJsonException() {
+    Random random = new Random(42);
+    String alphabet = "{}[]\":,\\/u0123456789abcdefABCDEF-+.eE \r\n\ttruefalsenull\u2028\ud800";
+    for (String seed : encodedSeeds()) {
+      for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+        StringBuilder input = new StringBuilder(seed);
+        int mutations = 1 + random.nextInt(4);
+        for (int j = 0; j < mutations; j++) {
+          int position = random.nextInt(input.length() + 1);
+          char c = alphabet.charAt(random.nextInt(alphabet.length()));
+          int operation = random.nextInt(3);
+          if (operation == 0 && position < input.length()) {
+            input.setCharAt(position, c);
+          } else if (operation == 1 && position < input.length()) {
+            input.deleteCharAt(position);
+          } else {
+            input.insert(position, c);
+          }
+        }
+        String text = input.toString();
+        decodeOrJsonException(text);
+        decodeWebSocketOrJsonException("{\"msg\":" + JSONObject.quote(text) + ",\"error\":\"\"}");
+        decodeWebSocketOrJsonException(text);
+      }
+    }
+  }
+
+  @Test
+  public void fuzzedBytesOnlyThrowJsonException() {
+    Random random = new Random(7);
+    for (String seed : encodedSeeds()) {
+      byte[] data;
+      try {
+        data = seed.getBytes("UTF-8");
+      } catch (java.io.UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+      for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+        byte[] input = data.clone();
+        int mutations = 1 + random.nextInt(4);
+        for (int j = 0; j < mutations; j++) {
+          input[random.nextInt(input.length)] = (byte) random.nextInt(256);
+        }
+        try {
+          codec.decode(input);
+        } catch (JSONException e) {
+          // Expected for most inputs.
+        } catch (RuntimeException e) {
+          throw new AssertionError("Unexpected " + e + " for " + Arrays.toString(input));
+        }
+      }
+    }
+  }
+
+  private List<String> encodedSeeds() {
+    List<String> seeds = new ArrayList<String>();
+    seeds.add(codec.encode(SignalingMessage.candidate(CANDIDATE).withSequence(3, 2)));
+    seeds.add(codec.encode(SignalingMessage.candidates(Arrays.asList(CANDIDATE, VIDEO_CANDIDATE))));
+    seeds.add(codec.encode(offer(SDP + "a=x:\u2028\ud83d\ude00\r\n", false)));
+    seeds.add(codec.encode(offer(SDP, true)));
+    seeds.add("{\"type\":\"bye\",\"x\":[1,{\"a\":[true,null,-1.5e3,\"\\u0041\"]}],"
+        + "\"label\":\"2\"}");
+    return seeds;
+  }
+
+  private void decodeOrJsonException(String input) {
+    try {
+      codec.decode(input);
+    } catch (JSONException e) {
+      // Expected for most inputs.
+    } catch (RuntimeException e) {
+      throw new AssertionError("Unexpected " + e + " for " + input);
+    }
+  }
+
+  private void decodeWebSocketOrJsonException(String input) {
+    try {
+      codec.decodeWebSocket(input);
+    } catch (JSONException e) {
+      // Expected for most inputs.
+    } catch (RuntimeException e) {
+      throw new AssertionError("Unexpected " + e + " for " + input);
+    }
+  }
+
+  private void assertMalformed(String input) {
+    try {
+      codec.decode(input);
+      fail("Decoded malformed input: " + input);
+    } catch (JSONException e) {
+      // Expected.
+    }
+  }
+
+  private void assertMalformed(byte[] input) {
+    try {
+      codec.decode(input);
+      fail("Decoded malformed input: " + Arrays.toString(input));
+    } catch (JSONException e) {
+      // Expected.
+    }
+  }
+
+  private void assertMalformedWebSocket(String input) {
+    try {
+      codec.decodeWebSocket(input);
+      fail("Decoded malformed envelope: " + input);
+    } catch (JSONException e) {
+      // Expected.
+    }
+  }
+
+  private static SignalingMessage offer(String sdp, boolean compress) {
+    return SignalingMessage.description(
+        new SessionDescription(SessionDescription.Type.OFFER, sdp), compress, CAPABILITIES);
+  }
+
+  private static JSONObject toJson(IceCandidate candidate) throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("label", candidate.sdpMLineIndex);
+    json.put("id", candidate.sdpMid);
+    json.put("candidate", candidate.sdp);
+    return json;
+  }
+
+  static void assertCandidates(IceCandidate[] expected, IceCandidate[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].sdpMid, actual[i].sdpMid);
+      assertEquals(expected[i].sdpMLineIndex, actual[i].sdpMLineIndex);
+      assertEquals(expected[i].sdp, actual[i].sdp);
+    }
+  }
+
+  static void assertMessageEquals(SignalingMessage expected, SignalingMessage actual) {
+    assertEquals(expected.type, actual.type);
+    if (expected.candidates == null) {
+      assertEquals(null, actual.candidates);
+    } else {
+      assertCandidates(expected.candidates, actual.candidates);
+    }
+    assertEquals(expected.sdp, actual.sdp);
+    assertEquals(expected.compressSdp, actual.compressSdp);
+    assertEquals(expected.capabilities, actual.capabilities);
+    assertEquals(expected.seq, actual.seq);
+    assertEquals(expected.ack, actual.ack);
+  }
+}
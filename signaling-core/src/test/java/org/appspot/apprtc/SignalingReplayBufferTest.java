@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SignalingReplayBufferTest {
+  private final SignalingReplayBuffer buffer = new SignalingReplayBuffer(4);
+
+  @Test
+  public void numbersOutgoingMessagesFromOne() {
+    assertEquals(1, buffer.nextSeq());
+    assertEquals(2, buffer.nextSeq());
+    assertEquals(3, buffer.nextSeq());
+  }
+
+  @Test
+  public void replaysUnacknowledgedMessagesInOrder() {
+    send("a");
+    send("b");
+    send("c");
+    assertEquals(Arrays.asList("a", "b", "c"), buffer.getUnacknowledged());
+
+    buffer.acknowledge(1);
+    assertEquals(Arrays.asList("b", "c"), buffer.getUnacknowledged());
+    // Acknowledgements are cumulative, an older one changes nothing.
+    buffer.acknowledge(0);
+    assertEquals(Arrays.asList("b", "c"), buffer.getUnacknowledged());
+    buffer.acknowledge(3);
+    assertEquals(Collections.<String>emptyList(), buffer.getUnacknowledged());
+  }
+
+  @Test
+  public void dropsOldestMessagesWhenFull() {
+    for (String message : new String[] {"a", "b", "c", "d", "e", "f"}) {
+      send(message);
+    }
+    assertEquals(Arrays.asList("c", "d", "e", "f"), buffer.getUnacknowledged());
+    buffer.acknowledge(4);
+    assertEquals(Arrays.asList("e", "f"), buffer.getUnacknowledged());
+  }
+
+  @Test
+  public void dropsDuplicateIncomingMessages() {
+    assertEquals(0, buffer.getAck());
+    assertTrue(buffer.receive(1));
+    assertTrue(buffer.receive(2));
+    assertFalse(buffer.receive(1));
+    assertFalse(buffer.receive(2));
+    assertEquals(2, buffer.getAck());
+  }
+
+  @Test
+  public void acknowledgesOnlyUpToAGap() {
+    assertTrue(buffer.receive(1));
+    assertTrue(buffer.receive(3));
+    assertTrue(buffer.receive(4));
+    assertFalse(buffer.receive(3));
+    assertEquals(1, buffer.getAck());
+
+    // The replayed message fills the gap.
+    assertTrue(buffer.receive(2));
+    assertEquals(4, buffer.getAck());
+    assertFalse(buffer.receive(4));
+  }
+
+  @Test
+  public void skipsMessagesThePeerNoLongerHas() {
+    assertTrue(buffer.receive(1));
+    for (int seq = 3; seq <= 7; seq++) {
+      assertTrue(buffer.receive(seq));
+    }
+    // More messages arrived after the gap than the peer keeps, so message 2
+    // can't be replayed any more.
+    assertEquals(7, buffer.getAck());
+    assertFalse(buffer.receive(2));
+  }
+
+  private void send(String message) {
+    buffer.add(buffer.nextSeq(), message);
+  }
+}
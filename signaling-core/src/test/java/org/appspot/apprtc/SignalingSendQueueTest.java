@@ -0,0 +1,327 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.appspot.apprtc.util.ThreadExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SignalingSendQueue against a local HTTP server whose responses the tests
+ * control one POST at a time.
+ */
+public class SignalingSendQueueTest {
+  private static final long WAIT_TIMEOUT_MS = 5000;
+  // Long enough for a POST which should not be sent to show up.
+  private static final long NO_POST_TIMEOUT_MS = 300;
+  private static final String SUCCESS = "{\"result\":\"SUCCESS\"}";
+
+  private final BlockingQueue<Post> posts = new LinkedBlockingQueue<Post>();
+  private final BlockingQueue<String> delivered = new LinkedBlockingQueue<String>();
+  private final BlockingQueue<String> failed = new LinkedBlockingQueue<String>();
+  private ExecutorService serverThreads;
+  private HttpServer server;
+  private ThreadExecutor executor;
+  private SignalingSendQueue queue;
+
+  // POST waiting for the test to respond.
+  private static class Post {
+    final String body;
+    private final HttpExchange exchange;
+    private final CountDownLatch responded = new CountDownLatch(1);
+
+    Post(String body, HttpExchange exchange) {
+      this.body = body;
+      this.exchange = exchange;
+    }
+
+    void respond(int code, String response) throws IOException {
+      byte[] data = response.getBytes("UTF-8");
+      exchange.sendResponseHeaders(code, data.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(data);
+      out.close();
+      responded.countDown();
+    }
+
+    void awaitResponse() throws InterruptedException {
+      responded.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/message", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Post post = new Post(readBody(exchange.getRequestBody()), exchange);
+        posts.add(post);
+        try {
+          post.awaitResponse();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+    executor = new ThreadExecutor();
+    executor.requestStart();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (queue != null) {
+      final CountDownLatch closed = new CountDownLatch(1);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          queue.close();
+          closed.countDown();
+        }
+      });
+      closed.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    executor.requestStop();
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @Test
+  public void limitsPostsInFlightToWindow() throws Exception {
+    createQueue(2);
+    send("c1", false);
+    send("c2", false);
+    send("c3", false);
+
+    // Both are sent at once, in any order.
+    Post first = nextPost();
+    Post second = nextPost();
+    assertEquals(new HashSet<String>(Arrays.asList("c1", "c2")),
+        new HashSet<String>(Arrays.asList(first.body, second.body)));
+    assertNoPost();
+
+    first.respond(200, SUCCESS);
+    assertEquals(first.body + " 1", nextDelivered());
+    Post third = nextPost();
+    assertEquals("c3", third.body);
+    second.respond(200, SUCCESS);
+    assertEquals(second.body + " 1", nextDelivered());
+    third.respond(200, SUCCESS);
+    assertEquals("c3 1", nextDelivered());
+  }
+
+  @Test
+  public void sendsBarrierAlone() throws Exception {
+    createQueue(4);
+    send("c1", false);
+    send("offer", true);
+    send("c2", false);
+
+    Post candidate = nextPost();
+    assertEquals("c1", candidate.body);
+    // The offer waits for the candidate before it.
+    assertNoPost();
+    candidate.respond(200, SUCCESS);
+
+    Post offer = nextPost();
+    assertEquals("offer", offer.body);
+    // The candidate after the offer can't overtake it.
+    assertNoPost();
+    offer.respond(200, SUCCESS);
+
+    Post next = nextPost();
+    assertEquals("c2", next.body);
+    next.respond(200, SUCCESS);
+    assertEquals("c1 1", nextDelivered());
+    assertEquals("offer 1", nextDelivered());
+    assertEquals("c2 1", nextDelivered());
+  }
+
+  @Test
+  public void retriesServerErrors() throws Exception {
+    createQueue(1);
+    send("offer", true);
+
+    nextPost().respond(500, "");
+    Post retry = nextPost();
+    assertEquals("offer", retry.body);
+    retry.respond(200, SUCCESS);
+    assertEquals("offer 2", nextDelivered());
+  }
+
+  @Test
+  public void retryHoldsBackLaterMessages() throws Exception {
+    createQueue(2);
+    send("c1", false);
+    send("c2", false);
+    send("c3", false);
+
+    Post first = nextPost();
+    Post second = nextPost();
+    Post c1 = "c1".equals(first.body) ? first : second;
+    Post c2 = c1 == first ? second : first;
+    c1.respond(500, "");
+    Post retry = nextPost();
+    assertEquals("c1", retry.body);
+    c2.respond(200, SUCCESS);
+    assertEquals("c2 1", nextDelivered());
+
+    // c3 fits in the window now, but waits for c1 to be delivered.
+    assertNoPost();
+    retry.respond(200, SUCCESS);
+    assertEquals("c1 2", nextDelivered());
+
+    Post next = nextPost();
+    assertEquals("c3", next.body);
+    next.respond(200, SUCCESS);
+    assertEquals("c3 1", nextDelivered());
+  }
+
+  @Test
+  public void failsAfterMaxAttempts() throws Exception {
+    createQueue(1);
+    send("offer", true);
+    send("c1", false);
+
+    for (int attempt = 0; attempt < 3; attempt++) {
+      Post post = nextPost();
+      assertEquals("offer", post.body);
+      post.respond(503, "");
+    }
+    assertEquals("offer", nextFailed());
+    // Later messages are still sent.
+    Post next = nextPost();
+    assertEquals("c1", next.body);
+    next.respond(200, SUCCESS);
+    assertEquals("c1 1", nextDelivered());
+  }
+
+  @Test
+  public void failsClientErrorsWithoutRetry() throws Exception {
+    createQueue(1);
+    send("offer", true);
+
+    nextPost().respond(403, "");
+    assertEquals("offer", nextFailed());
+    assertNoPost();
+  }
+
+  @Test
+  public void failsRejectedMessagesWithoutRetry() throws Exception {
+    createQueue(1);
+    send("offer", true);
+
+    nextPost().respond(200, "{\"result\":\"INVALID_CLIENT\"}");
+    assertEquals("offer", nextFailed());
+    assertNoPost();
+  }
+
+  @Test
+  public void retriesConnectionErrors() throws Exception {
+    // Nothing listens on the port any more.
+    server.stop(0);
+    createQueue(1);
+    long startNs = System.nanoTime();
+    send("offer", true);
+
+    assertEquals("offer", nextFailed());
+    long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+    // Two backoffs of 250 and 500 ms between three attempts.
+    assertTrue("Failed after " + elapsedMs + " ms", elapsedMs >= 750);
+  }
+
+  private void createQueue(int maxInFlight) {
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/message";
+    queue = new SignalingSendQueue(executor, url, maxInFlight, new SignalingSendQueue.Events() {
+      @Override
+      public void onMessageDelivered(String message, long latencyMs, int attempts) {
+        delivered.add(message + " " + attempts);
+      }
+
+      @Override
+      public void onMessageFailed(String message, String errorMessage) {
+        failed.add(message);
+      }
+    });
+  }
+
+  private void send(final String message, final boolean barrier) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        queue.send(message, barrier);
+      }
+    });
+  }
+
+  private Post nextPost() throws InterruptedException {
+    Post post = posts.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull("No POST received", post);
+    return post;
+  }
+
+  private void assertNoPost() throws InterruptedException {
+    Post post = posts.poll(NO_POST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNull("Unexpected POST: " + (post != null ? post.body : null), post);
+  }
+
+  // Returns the next delivered message and its number of attempts.
+  private String nextDelivered() throws InterruptedException {
+    String message = delivered.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull("No message delivered", message);
+    return message;
+  }
+
+  private String nextFailed() throws InterruptedException {
+    String message = failed.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull("No message failed", message);
+    return message;
+  }
+
+  private static String readBody(InputStream in) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int length;
+    while ((length = in.read(buffer)) != -1) {
+      body.write(buffer, 0, length);
+    }
+    in.close();
+    return body.toString("UTF-8");
+  }
+}
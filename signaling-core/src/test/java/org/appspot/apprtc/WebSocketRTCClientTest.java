@@ -0,0 +1,342 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.tavendo.autobahn.WebSocket;
+import de.tavendo.autobahn.WebSocketOptions;
+
+import org.appspot.apprtc.AppRTCClient.RoomConnectionParameters;
+import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.util.ThreadExecutor;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocketRTCClient as call initiator against a local room server, whose
+ * responses to room messages the tests control one POST at a time. The
+ * WebSocket never connects.
+ */
+public class WebSocketRTCClientTest {
+  private static final long WAIT_TIMEOUT_MS = 5000;
+  // Long enough for a POST which should not be sent to show up.
+  private static final long NO_POST_TIMEOUT_MS = 300;
+  private static final String SUCCESS = "{\"result\":\"SUCCESS\"}";
+  private static final String ROOM_ID = "room";
+  private static final String CLIENT_ID = "client";
+  private static final SessionDescription OFFER =
+      new SessionDescription(SessionDescription.Type.OFFER, "v=0\r\n");
+
+  private final BlockingQueue<Post> posts = new LinkedBlockingQueue<Post>();
+  private final BlockingQueue<String> errors = new LinkedBlockingQueue<String>();
+  private final CountDownLatch connected = new CountDownLatch(1);
+  private final SignalingCodec codec = new SignalingCodec();
+  private ExecutorService serverThreads;
+  private HttpServer server;
+  private String roomUrl;
+  private WebSocketRTCClient client;
+
+  // Room message waiting for the test to respond.
+  private static class Post {
+    final SignalingMessage message;
+    private final HttpExchange exchange;
+    private final CountDownLatch responded = new CountDownLatch(1);
+
+    Post(SignalingMessage message, HttpExchange exchange) {
+      this.message = message;
+      this.exchange = exchange;
+    }
+
+    void respond(int code, String response) throws IOException {
+      WebSocketRTCClientTest.respond(exchange, code, response);
+      responded.countDown();
+    }
+
+    void awaitResponse() throws InterruptedException {
+      responded.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    roomUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    server.createContext("/join/" + ROOM_ID, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        readBody(exchange.getRequestBody());
+        respond(exchange, 200, joinResponse());
+      }
+    });
+    server.createContext("/message/" + ROOM_ID + "/" + CLIENT_ID, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Post post;
+        try {
+          post = new Post(codec.decode(readBody(exchange.getRequestBody())), exchange);
+        } catch (JSONException e) {
+          respond(exchange, 400, "");
+          return;
+        }
+        posts.add(post);
+        try {
+          post.awaitResponse();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    // Leave requests.
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        readBody(exchange.getRequestBody());
+        respond(exchange, 200, SUCCESS);
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (client != null) {
+      client.disconnectFromRoom();
+    }
+    for (Post post : posts) {
+      try {
+        post.respond(200, SUCCESS);
+      } catch (IOException e) {
+        // The client is gone.
+      }
+    }
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @Test
+  public void limitsRoomMessagesInFlightToConfiguredWindow() throws Exception {
+    connect(2);
+    client.sendOfferSdp(OFFER);
+    nextPost(SignalingMessage.Type.OFFER).respond(200, SUCCESS);
+
+    client.sendLocalIceCandidate(candidate(1));
+    client.sendLocalIceCandidate(candidate(2));
+    client.sendLocalIceCandidate(candidate(3));
+    Post first = nextPost(SignalingMessage.Type.CANDIDATE);
+    Post second = nextPost(SignalingMessage.Type.CANDIDATE);
+    assertNoPost();
+
+    first.respond(200, SUCCESS);
+    nextPost(SignalingMessage.Type.CANDIDATE).respond(200, SUCCESS);
+    second.respond(200, SUCCESS);
+    assertNull(errors.poll());
+  }
+
+  @Test
+  public void sendsWholeWindowAtOnce() throws Exception {
+    connect(3);
+    client.sendOfferSdp(OFFER);
+    nextPost(SignalingMessage.Type.OFFER).respond(200, SUCCESS);
+
+    for (int i = 0; i < 4; i++) {
+      client.sendLocalIceCandidate(candidate(i));
+    }
+    for (int i = 0; i < 3; i++) {
+      nextPost(SignalingMessage.Type.CANDIDATE);
+    }
+    assertNoPost();
+  }
+
+  @Test
+  public void candidateRemovalWaitsForEarlierCandidates() throws Exception {
+    connect(4);
+    client.sendOfferSdp(OFFER);
+    nextPost(SignalingMessage.Type.OFFER).respond(200, SUCCESS);
+
+    client.sendLocalIceCandidate(candidate(1));
+    client.sendLocalIceCandidate(candidate(2));
+    client.sendLocalIceCandidateRemovals(new IceCandidate[] {candidate(1)});
+    client.sendLocalIceCandidate(candidate(3));
+    Post first = nextPost(SignalingMessage.Type.CANDIDATE);
+    Post second = nextPost(SignalingMessage.Type.CANDIDATE);
+    assertNoPost();
+
+    first.respond(200, SUCCESS);
+    assertNoPost();
+    second.respond(200, SUCCESS);
+    Post removal = nextPost(SignalingMessage.Type.REMOVE_CANDIDATES);
+    // Later candidates can't overtake the removal either.
+    assertNoPost();
+    removal.respond(200, SUCCESS);
+    nextPost(SignalingMessage.Type.CANDIDATE).respond(200, SUCCESS);
+    assertNull(errors.poll());
+  }
+
+  private void connect(int maxMessagesInFlight) throws InterruptedException {
+    client = new WebSocketRTCClient(new Events(), new ThreadExecutor(), null,
+        new WebSocketChannelClient.WebSocketFactory() {
+          @Override
+          public WebSocket createWebSocket() {
+            return new UnconnectedWebSocket();
+          }
+        });
+    client.connectToRoom(new RoomConnectionParameters(roomUrl, ROOM_ID, false, false, false,
+        0, false, maxMessagesInFlight));
+    assertTrue("Not connected to room",
+        connected.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+
+  private Post nextPost(SignalingMessage.Type type) throws InterruptedException {
+    Post post = posts.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull("No POST received", post);
+    assertEquals(type, post.message.type);
+    return post;
+  }
+
+  private void assertNoPost() throws InterruptedException {
+    Post post = posts.poll(NO_POST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNull("Unexpected POST: " + (post != null ? post.message.type : null), post);
+  }
+
+  private static IceCandidate candidate(int index) {
+    return new IceCandidate("audio", 0, "candidate:" + index + " 1 udp 1 10.0.0.1 9 typ host");
+  }
+
+  private String joinResponse() {
+    try {
+      JSONObject params = new JSONObject();
+      params.put("room_id", ROOM_ID);
+      params.put("client_id", CLIENT_ID);
+      params.put("wss_url", "ws://127.0.0.1:9/ws");
+      params.put("wss_post_url", roomUrl + "/wss");
+      params.put("is_initiator", true);
+      // A TURN server in the room response saves the TURN request.
+      params.put("pc_config", "{\"iceServers\":[{\"urls\":\"turn:127.0.0.1:3478\"}]}");
+      params.put("ice_server_url", roomUrl + "/turn");
+      JSONObject response = new JSONObject();
+      response.put("result", "SUCCESS");
+      response.put("params", params);
+      return response.toString();
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int code, String response)
+      throws IOException {
+    byte[] data = response.getBytes("UTF-8");
+    exchange.sendResponseHeaders(code, data.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(data);
+    out.close();
+  }
+
+  private static String readBody(InputStream in) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int length;
+    while ((length = in.read(buffer)) != -1) {
+      body.write(buffer, 0, length);
+    }
+    in.close();
+    return body.toString("UTF-8");
+  }
+
+  private class Events implements AppRTCClient.SignalingEvents {
+    @Override
+    public void onConnectedToRoom(SignalingParameters params) {
+      connected.countDown();
+    }
+
+    @Override
+    public void onRemoteDescription(SessionDescription sdp) {
+    }
+
+    @Override
+    public void onRemoteIceCandidate(IceCandidate candidate) {
+    }
+
+    @Override
+    public void onRemoteIceCandidatesRemoved(IceCandidate[] candidates) {
+    }
+
+    @Override
+    public void onChannelClose() {
+    }
+
+    @Override
+    public void onChannelError(String description) {
+      errors.add(description);
+    }
+  }
+
+  // WebSocket whose connection never opens.
+  private static class UnconnectedWebSocket implements WebSocket {
+    @Override
+    public void connect(URI uri, WebSocketConnectionObserver observer) {
+    }
+
+    @Override
+    public void connect(URI uri, WebSocketConnectionObserver observer,
+        WebSocketOptions options) {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean isConnected() {
+      return false;
+    }
+
+    @Override
+    public void sendBinaryMessage(byte[] payload) {
+    }
+
+    @Override
+    public void sendRawTextMessage(byte[] payload) {
+    }
+
+    @Override
+    public void sendTextMessage(String payload) {
+    }
+  }
+}
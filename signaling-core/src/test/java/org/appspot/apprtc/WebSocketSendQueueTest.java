@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class WebSocketSendQueueTest {
+  private static final SessionDescription OFFER =
+      new SessionDescription(SessionDescription.Type.OFFER, "v=0\r\n");
+  private static final IceCandidate CANDIDATE_1 =
+      new IceCandidate("audio", 0, "candidate:1 1 udp 2122260223 10.0.0.1 50000 typ host");
+  private static final IceCandidate CANDIDATE_2 =
+      new IceCandidate("audio", 0, "candidate:2 1 udp 2122260223 10.0.0.2 50000 typ host");
+  private static final IceCandidate CANDIDATE_3 =
+      new IceCandidate("video", 1, "candidate:3 1 udp 2122260223 10.0.0.3 50000 typ host");
+
+  private final WebSocketSendQueue queue = new WebSocketSendQueue(10);
+
+  @Test
+  public void sendsDescriptionsBeforeCandidates() {
+    queue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+    queue.add(SignalingMessage.candidate(CANDIDATE_2), 0);
+    queue.add(description(), 0);
+
+    List<WebSocketSendQueue.Entry> entries = queue.drain(false);
+    assertEquals(3, entries.size());
+    assertEquals(SignalingMessage.Type.OFFER, entries.get(0).message.type);
+    assertSame(CANDIDATE_1, entries.get(1).message.candidates[0]);
+    assertSame(CANDIDATE_2, entries.get(2).message.candidates[0]);
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void sendsOtherMessagesAfterCandidatesInOrder() {
+    queue.add("first");
+    queue.add(SignalingMessage.bye(), 0);
+    queue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+    queue.add("last");
+
+    List<WebSocketSendQueue.Entry> entries = queue.drain(false);
+    assertEquals(4, entries.size());
+    assertSame(CANDIDATE_1, entries.get(0).message.candidates[0]);
+    assertEquals("first", entries.get(1).text);
+    assertEquals(SignalingMessage.Type.BYE, entries.get(2).message.type);
+    assertEquals("last", entries.get(3).text);
+  }
+
+  @Test
+  public void collapsesDuplicateCandidates() {
+    queue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+    queue.add(SignalingMessage.candidates(Arrays.asList(CANDIDATE_2, CANDIDATE_1)), 0);
+    queue.add(SignalingMessage.candidate(
+        new IceCandidate(CANDIDATE_2.sdpMid, CANDIDATE_2.sdpMLineIndex, CANDIDATE_2.sdp)), 0);
+
+    List<WebSocketSendQueue.Entry> entries = queue.drain(false);
+    assertEquals(2, entries.size());
+    assertSame(CANDIDATE_1, entries.get(0).message.candidates[0]);
+    assertSame(CANDIDATE_2, entries.get(1).message.candidates[0]);
+  }
+
+  @Test
+  public void dropsRemovedQueuedCandidates() {
+    queue.add(SignalingMessage.candidates(Arrays.asList(CANDIDATE_1, CANDIDATE_2)), 0);
+    queue.add(SignalingMessage.removeCandidates(new IceCandidate[] {CANDIDATE_1, CANDIDATE_3}), 0);
+
+    List<WebSocketSendQueue.Entry> entries = queue.drain(false);
+    assertEquals(2, entries.size());
+    assertSame(CANDIDATE_2, entries.get(0).message.candidates[0]);
+    // Only the removal of the candidate which was sent before is left.
+    SignalingMessage removal = entries.get(1).message;
+    assertEquals(SignalingMessage.Type.REMOVE_CANDIDATES, removal.type);
+    assertEquals(1, removal.candidates.length);
+    assertSame(CANDIDATE_3, removal.candidates[0]);
+  }
+
+  @Test
+  public void batchesCandidatesIfRequested() {
+    queue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+    queue.add(description(), 0);
+    queue.add(SignalingMessage.candidates(Arrays.asList(CANDIDATE_2, CANDIDATE_3)), 0);
+
+    List<WebSocketSendQueue.Entry> entries = queue.drain(true);
+    assertEquals(2, entries.size());
+    assertEquals(SignalingMessage.Type.OFFER, entries.get(0).message.type);
+    SignalingMessage batch = entries.get(1).message;
+    assertEquals(SignalingMessage.Type.CANDIDATES, batch.type);
+    assertEquals(Arrays.asList(CANDIDATE_1, CANDIDATE_2, CANDIDATE_3),
+        Arrays.asList(batch.candidates));
+  }
+
+  @Test
+  public void sendsSingleCandidateUnbatched() {
+    queue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+
+    List<WebSocketSendQueue.Entry> entries = queue.drain(true);
+    assertEquals(1, entries.size());
+    assertEquals(SignalingMessage.Type.CANDIDATE, entries.get(0).message.type);
+  }
+
+  @Test
+  public void dropsOldestOtherMessagesWhenFull() {
+    WebSocketSendQueue smallQueue = new WebSocketSendQueue(2);
+    smallQueue.add("first");
+    smallQueue.add(description(), 0);
+    smallQueue.add("second");
+    smallQueue.add("third");
+
+    List<WebSocketSendQueue.Entry> entries = smallQueue.drain(false);
+    assertEquals(3, entries.size());
+    assertEquals(SignalingMessage.Type.OFFER, entries.get(0).message.type);
+    assertEquals("second", entries.get(1).text);
+    assertEquals("third", entries.get(2).text);
+    assertEquals(3, smallQueue.getMaxDepth());
+  }
+
+  @Test
+  public void neverDropsCandidates() {
+    WebSocketSendQueue smallQueue = new WebSocketSendQueue(1);
+    smallQueue.add("other");
+    smallQueue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+    smallQueue.add(SignalingMessage.candidate(CANDIDATE_2), 0);
+    smallQueue.add(SignalingMessage.candidate(CANDIDATE_3), 0);
+
+    List<WebSocketSendQueue.Entry> entries = smallQueue.drain(false);
+    assertEquals(4, entries.size());
+    assertSame(CANDIDATE_1, entries.get(0).message.candidates[0]);
+    assertSame(CANDIDATE_2, entries.get(1).message.candidates[0]);
+    assertSame(CANDIDATE_3, entries.get(2).message.candidates[0]);
+    assertEquals("other", entries.get(3).text);
+  }
+
+  @Test
+  public void neverDropsDescriptions() {
+    WebSocketSendQueue smallQueue = new WebSocketSendQueue(1);
+    smallQueue.add("other");
+    smallQueue.add(description(), 0);
+    smallQueue.add(description(), 0);
+
+    List<WebSocketSendQueue.Entry> entries = smallQueue.drain(false);
+    assertEquals(3, entries.size());
+    assertEquals(SignalingMessage.Type.OFFER, entries.get(0).message.type);
+    assertEquals(SignalingMessage.Type.OFFER, entries.get(1).message.type);
+    assertEquals("other", entries.get(2).text);
+  }
+
+  @Test
+  public void recordsQueueTimes() {
+    queue.add(SignalingMessage.candidate(CANDIDATE_1), 0);
+    queue.add(SignalingMessage.candidate(CANDIDATE_2), 0);
+    queue.add("text");
+    queue.drain(true);
+    assertEquals(3, queue.getQueueTimeHistogram().getCount());
+    assertTrue(queue.drain(true).isEmpty());
+  }
+
+  private static SignalingMessage description() {
+    return SignalingMessage.description(OFFER, false, Collections.<String>emptyList());
+  }
+}
@@ -0,0 +1,18 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+public class MpscExecutorTest extends SerialExecutorTest {
+  @Override
+  protected SerialExecutor createExecutor() {
+    return new MpscExecutor();
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Copyright 2016 The WebRTC Project Authors. All rights reserved.
+ *
+ *  Use of this source code is governed by a BSD-style license
+ *  that can be found in the LICENSE file in the root of the source
+ *  tree. An additional intellectual property rights grant can be found
+ *  in the file PATENTS.  All contributing project authors may
+ *  be found in the AUTHORS file in the root of the source tree.
+ */
+
+package org.appspot.apprtc.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contract of SerialExecutor, run against every implementation available on
+ * a plain JVM.
+ */
+public abstract class SerialExecutorTest {
+  private static final long WAIT_TIMEOUT_MS = 5000;
+
+  private SerialExecutor executor;
+  // Tasks running at once, and the most seen.
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  // Set if a task didn't run on the executor thread.
+  private final AtomicBoolean offThread = new AtomicBoolean();
+  private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+  protected abstract SerialExecutor createExecutor();
+
+  @Before
+  public void setUp() {
+    executor = createExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.requestStop();
+  }
+
+  @Test
+  public void executesTasksInOrder() throws InterruptedException {
+    executor.requestStart();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++) {
+      executor.execute(record("task" + i));
+      expected.add("task" + i);
+    }
+    await(executor);
+    assertEquals(expected, executed);
+    assertFalse(offThread.get());
+  }
+
+  @Test
+  public void executesTasksFromManyThreadsOneAtATime() throws InterruptedException {
+    executor.requestStart();
+    final int threadCount = 4;
+    final int tasksPerThread = 500;
+    final CountDownLatch done = new CountDownLatch(threadCount * tasksPerThread);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < threadCount; t++) {
+      final String prefix = "thread" + t + "-";
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < tasksPerThread; i++) {
+            final Runnable task = record(prefix + i);
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                task.run();
+                done.countDown();
+              }
+            });
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(done.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(1, maxRunning.get());
+    // Tasks of each thread keep their order.
+    for (int t = 0; t < threadCount; t++) {
+      int last = -1;
+      for (String task : new ArrayList<String>(executed)) {
+        if (task.startsWith("thread" + t + "-")) {
+          int index = Integer.parseInt(task.substring(task.indexOf('-') + 1));
+          assertEquals(last + 1, index);
+          last = index;
+        }
+      }
+      assertEquals(tasksPerThread - 1, last);
+    }
+  }
+
+  @Test
+  public void executesInlineOnExecutorThread() throws InterruptedException {
+    executor.requestStart();
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        order.add("outer start");
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            order.add("inner");
+          }
+        });
+        order.add("outer end");
+      }
+    });
+    await(executor);
+    assertEquals(Arrays.asList("outer start", "inner", "outer end"), order);
+  }
+
+  @Test
+  public void checksExecutorThread() throws InterruptedException {
+    executor.requestStart();
+    assertFalse(executor.checkOnLooperThread());
+    executor.execute(record("task"));
+    await(executor);
+    assertFalse(offThread.get());
+  }
+
+  @Test
+  public void executesDelayedTasksWhenDue() throws InterruptedException {
+    executor.requestStart();
+    final CountDownLatch done = new CountDownLatch(1);
+    final long startNs = System.nanoTime();
+    final long[] delayMs = new long[1];
+    executor.executeDelayed(new Runnable() {
+      @Override
+      public void run() {
+        record("later").run();
+        delayMs[0] = (System.nanoTime() - startNs) / 1000000;
+        done.countDown();
+      }
+    }, 100);
+    executor.executeDelayed(record("sooner"), 50);
+    executor.execute(record("now"));
+    assertTrue(done.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(Arrays.asList("now", "sooner", "later"), executed);
+    assertTrue("Delayed task ran after " + delayMs[0] + " ms", delayMs[0] >= 100);
+  }
+
+  @Test
+  public void dropsTasksWhileStopped() throws InterruptedException {
+    executor.execute(record("before start"));
+    executor.requestStart();
+    executor.execute(record("started"));
+    executor.executeDelayed(record("delayed"), 60000);
+    await(executor);
+    executor.requestStop();
+    executor.execute(record("after stop"));
+    executor.requestStart();
+    await(executor);
+    assertEquals(Arrays.asList("started"), executed);
+  }
+
+  @Test
+  public void warnsOnlyAboutTasksBeforeStart() {
+    final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+    Log.setSink(new Log.Sink() {
+      @Override
+      public void println(int priority, String tag, String msg) {
+        if (priority >= Log.WARN) {
+          warnings.add(msg);
+        }
+      }
+    });
+    try {
+      executor.execute(record("before start"));
+      assertEquals(1, warnings.size());
+      executor.requestStart();
+      executor.requestStop();
+      executor.execute(record("after stop"));
+      executor.executeDelayed(record("delayed after stop"), 0);
+      assertEquals(1, warnings.size());
+    } finally {
+      Log.setSink(new Log.StreamSink(System.err, Log.INFO));
+    }
+  }
+
+  @Test
+  public void restartKeepsTasksSerial() throws InterruptedException {
+    executor.requestStart();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        blocked.countDown();
+        try {
+          release.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(blocked.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    executor.execute(record("before stop"));
+    executor.requestStop();
+    executor.requestStart();
+    executor.execute(record("after restart"));
+    release.countDown();
+    await(executor);
+    assertEquals(Arrays.asList("before stop", "after restart"), executed);
+    assertEquals(1, maxRunning.get());
+    assertFalse(offThread.get());
+  }
+
+  @Test
+  public void restartsFromExecutorThread() throws InterruptedException {
+    executor.requestStart();
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        executor.requestStop();
+        executor.requestStart();
+        executor.execute(record("after restart"));
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+      }
+    });
+    assertTrue(done.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(Arrays.asList("after restart"), executed);
+    assertFalse(offThread.get());
+  }
+
+  // Returns a task which records |name| and checks it runs alone on the
+  // executor thread.
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        int count = running.incrementAndGet();
+        maxRunning.set(Math.max(maxRunning.get(), count));
+        if (!executor.checkOnLooperThread()) {
+          offThread.set(true);
+        }
+        executed.add(name);
+        running.decrementAndGet();
+      }
+    };
+  }
+
+  // Waits until the tasks executed so far ran.
+  private static void await(SerialExecutor executor) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+}